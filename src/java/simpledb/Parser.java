@@ -24,6 +24,24 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    static boolean vectorized = false;
+    static int workers = 1;
+
+    /**
+     * Runs the operators of later queries that have batch versions on
+     * column batches; see {@link BatchPlanner}.
+     */
+    public static void setVectorized(boolean on) {
+        vectorized = on;
+    }
+
+    /**
+     * Runs later queries on n worker threads, morsel by morsel; see
+     * {@link ParallelPlanner}. With 1, queries run on the calling thread.
+     */
+    public static void setWorkers(int n) {
+        workers = Math.max(1, n);
+    }
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -311,6 +329,11 @@ public class Parser {
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
                 e.printStackTrace();
             }
+            if (workers > 1) {
+                query.setPhysicalPlan(ParallelPlanner.parallelize(physicalPlan, workers));
+            } else if (vectorized) {
+                query.setPhysicalPlan(BatchPlanner.vectorize(physicalPlan));
+            }
         }
 
         return query;
@@ -581,7 +604,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-vectorized] [-workers n] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -602,6 +625,17 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-vectorized")) {
+                    vectorized = true;
+                    System.out.println("Vectorized execution enabled.");
+                } else if (argv[i].equals("-workers")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected a number after -workers\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    setWorkers(Integer.parseInt(argv[i]));
+                    System.out.println("Running queries on " + workers + " workers.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
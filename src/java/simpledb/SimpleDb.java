@@ -50,8 +50,7 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    new BulkLoader(ts).fieldSeparator(fieldSeparator).loadHeapFile(sourceTxtFile, targetDatFile);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
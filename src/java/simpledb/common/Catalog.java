@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.MemoryMappable;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -210,9 +211,49 @@ public class Catalog {
         throw new NoSuchElementException();
     }
     
-    /** Delete all tables from the catalog */
+    /**
+     * Selects how pages of the specified table are read from disk: from a
+     * memory mapping of its file, or with a file read per page (the default).
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param mapped true to memory-map the table
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalArgumentException if the table's file cannot be memory-mapped
+     * @throws IOException if mapping the file fails
+     */
+    public void setMemoryMapped(int tableid, boolean mapped) throws IOException {
+        Table table = this.getTableById(tableid);
+        if(table==null){
+            throw new NoSuchElementException();
+        }
+        if(!(table.getFile() instanceof MemoryMappable)){
+            throw new IllegalArgumentException("table " + table.getName() + " cannot be memory-mapped");
+        }
+        ((MemoryMappable) table.getFile()).setMemoryMapped(mapped);
+    }
+
+    /**
+     * @return true if pages of the specified table are read from a memory mapping
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public boolean isMemoryMapped(int tableid) {
+        Table table = this.getTableById(tableid);
+        if(table==null){
+            throw new NoSuchElementException();
+        }
+        return table.getFile() instanceof MemoryMappable && ((MemoryMappable) table.getFile()).isMemoryMapped();
+    }
+
+    /** Delete all tables from the catalog, closing their file handles */
     public void clear() {
         // some code goes here
+        for (Table table : this.tables) {
+            try {
+                table.getFile().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         this.tables.clear();
     }
     
@@ -226,7 +267,7 @@ public class Catalog {
         try {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [mmap]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -259,6 +300,13 @@ public class Catalog {
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equalsIgnoreCase("mmap")) {
+                    setMemoryMapped(tabHf.getId(), true);
+                } else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
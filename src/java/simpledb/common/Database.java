@@ -58,11 +58,20 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, false);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool,
+     * optionally backed by an off-heap frame arena, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.close();   // stop the old pool's page cleaner
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, offHeap));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -71,8 +80,12 @@ public class Database {
     }
 
     // reset the database, used for unit tests only.
+    // The old catalog is cleared so the files it held are closed, and the
+    // old buffer pool's page cleaner is stopped.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.close();
+        old._catalog.clear();
     }
 
 }
@@ -1,11 +1,13 @@
 package simpledb.common;
 
+import simpledb.execution.Predicate;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -30,6 +32,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            return IntField.compare(buf.getInt(offset), op, ((IntField) operand).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +60,22 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            // strings still need decoding, but no Tuple is built for them
+            return parse(buf, offset).compare(op, operand);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -66,4 +94,24 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded from the
+   *   bytes at the given absolute offset of the buffer. The buffer's position
+   *   is not changed, so pages may share one buffer between threads.
+   * @param buf The buffer holding the serialized field
+   * @param offset absolute offset of the field within buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Compares the field serialized at the given absolute offset of the buffer
+   * to operand, with the semantics of {@link Field#compare}, without building
+   * a Tuple for it.
+   * @param buf The buffer holding the serialized field
+   * @param offset absolute offset of the field within buf
+   * @param op the comparison
+   * @param operand the value to compare to, of this type
+   */
+    public abstract boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand);
+
 }
@@ -0,0 +1,93 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate} for COUNT, SUM,
+ * AVG, MIN and MAX. Each batch first has its group ids looked up, with an
+ * {@link IntHashTable} for int groups, and then folded into per-group arrays
+ * in one loop; see {@link GroupAggregates}. Results match those of
+ * IntegerAggregator and StringAggregator: sums are ints, and AVG divides
+ * them by the count.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield, gfield;
+    private final Aggregator.Op op;
+    private final TupleDesc td;
+
+    transient private GroupAggregates groups;
+    transient private int emitted;                   // groups already returned
+    transient private ColumnBatch out;
+
+    /** @return true if op has a batch version */
+    public static boolean supports(Aggregator.Op op) {
+        switch (op) {
+            case COUNT:
+            case SUM:
+            case AVG:
+            case MIN:
+            case MAX:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param child the operator feeding us rows
+     * @param afield the column over which we are computing an aggregate
+     * @param gfield the column over which we are grouping the result, or
+     *               {@link Aggregator#NO_GROUPING}
+     * @param op the aggregation operator; see {@link #supports}
+     * @param td the TupleDesc of the result, as Aggregate builds it
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op op, TupleDesc td) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.op = op;
+        this.td = td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = new GroupAggregates(child.getTupleDesc(), afield, gfield, op);
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            groups.add(batch);
+        }
+        emitted = 0;
+        out = new ColumnBatch(td);
+    }
+
+    public ColumnBatch nextBatch() {
+        int n = Math.min(ColumnBatch.CAPACITY, groups.size() - emitted);
+        if (n <= 0) {
+            return null;
+        }
+        groups.fill(out, emitted, n);
+        emitted += n;
+        return out;
+    }
+
+    public void rewind() {
+        emitted = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        groups = null;
+        out = null;
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. It narrows the
+ * selection vector of each batch to the rows that satisfy its predicate;
+ * on an INT_TYPE field that is one loop over the column per batch, with no
+ * Field objects.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchIterator child;
+    private transient int[] selection;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        selection = new int[ColumnBatch.CAPACITY];
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int n = batch.selected();
+            int[] rows = batch.selectedRows();
+            if (selection.length < n) {
+                selection = new int[n];
+            }
+            int kept;
+            if (child.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE) {
+                kept = select(batch.ints(p.getField()), rows, n, p.getOp(),
+                        ((IntField) p.getOperand()).getValue(), selection);
+            } else {
+                kept = 0;
+                for (int i = 0; i < n; i++) {
+                    if (batch.getField(p.getField(), rows[i]).compare(p.getOp(), p.getOperand())) {
+                        selection[kept++] = rows[i];
+                    }
+                }
+            }
+            if (kept > 0) {
+                batch.select(selection, kept);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes to out the rows, out of the first n given, whose value in
+     * column satisfies op against operand, with the semantics of
+     * IntField.compare. Each loop stores every row and only advances past
+     * the ones that pass, so it has no branch on the data to mispredict.
+     *
+     * @return the number of rows written
+     */
+    static int select(int[] column, int[] rows, int n, Predicate.Op op, int operand, int[] out) {
+        int k = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] == operand ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] != operand ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] > operand ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] >= operand ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] < operand ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = rows[i];
+                    out[k] = r;
+                    k += column[r] <= operand ? 1 : 0;
+                }
+                break;
+        }
+        return k;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        selection = null;
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchHashJoin is the batch version of {@link HashEquiJoin}, for an
+ * equality predicate. The left child is the build side: its rows go into a
+ * {@link HashJoinTable}, numbered by key. The right child probes a whole
+ * batch of keys at a time, and the matching pairs are copied column by
+ * column into the output batch.
+ * <p>
+ * The build side is held in memory; a build side too large for it is what
+ * HashEquiJoin, which spills, is for.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchIterator left, right;   // left is null when the build side is shared
+    private final TupleDesc td;
+
+    transient private HashJoinTable build;
+
+    transient private ColumnBatch probe;
+    transient private int[] probeIds;          // the key id of each selected probe row, or -1
+    transient private int probeAt;             // the next selected probe row to look up
+    transient private int probeRow, match, matchEnd;
+
+    transient private ColumnBatch out;
+    transient private int[] buildRows, probeRows;
+
+    /**
+     * @param pred the join predicate; its operator must be EQUALS
+     * @param left the build side
+     * @param right the probe side
+     */
+    public BatchHashJoin(JoinPredicate pred, BatchIterator left, BatchIterator right) {
+        this.pred = pred;
+        this.left = left;
+        this.right = right;
+        this.td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+    }
+
+    /** A join that probes a sealed build side it shares with other workers. */
+    BatchHashJoin(JoinPredicate pred, HashJoinTable build, BatchIterator right) {
+        this.pred = pred;
+        this.left = null;
+        this.right = right;
+        this.build = build;
+        this.td = TupleDesc.merge(build.rows().getTupleDesc(), right.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (left != null) {
+            left.open();
+            build = new HashJoinTable(left.getTupleDesc(), pred.getField1());
+            ColumnBatch batch;
+            while ((batch = left.nextBatch()) != null) {
+                build.add(batch);
+            }
+            build.seal();
+        }
+        right.open();
+        out = new ColumnBatch(td);
+        buildRows = new int[ColumnBatch.CAPACITY];
+        probeRows = new int[ColumnBatch.CAPACITY];
+        probeIds = new int[ColumnBatch.CAPACITY];
+        probe = null;
+        match = matchEnd = 0;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (n < buildRows.length) {
+            if (match < matchEnd) {
+                buildRows[n] = build.match(match++);
+                probeRows[n] = probeRow;
+                n++;
+                continue;
+            }
+            if (probe == null || probeAt == probe.selected()) {
+                if (n > 0) {
+                    break; // the pairs so far point into the current probe batch
+                }
+                probe = right.nextBatch();
+                if (probe == null) {
+                    return null;
+                }
+                if (probeIds.length < probe.selected()) {
+                    probeIds = new int[probe.selected()];
+                }
+                build.lookUp(probe, pred.getField2(), probeIds);
+                probeAt = 0;
+                continue;
+            }
+            int id = probeIds[probeAt];
+            probeRow = probe.row(probeAt++);
+            if (id >= 0) {
+                match = build.matchStart(id);
+                matchEnd = build.matchEnd(id);
+            }
+        }
+        out.clear();
+        ColumnBatch rows = build.rows();
+        int leftFields = rows.getTupleDesc().numFields();
+        for (int c = 0; c < leftFields; c++) {
+            out.gather(c, rows, c, buildRows, n);
+        }
+        for (int c = leftFields; c < td.numFields(); c++) {
+            out.gather(c, probe, c - leftFields, probeRows, n);
+        }
+        out.setSize(n);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        right.rewind();
+        probe = null;
+        match = matchEnd = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        right.close();
+        if (left != null) {
+            left.close();
+            build = null;
+        }
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface of operators that run vectorized: each call
+ * hands back up to {@link ColumnBatch#CAPACITY} rows laid out by column,
+ * so an operator does its work in tight loops over arrays instead of one
+ * virtual call and one Tuple per row.
+ * <p>
+ * It sits alongside {@link OpIterator}. {@link RowsToBatches} turns a row
+ * operator into a BatchIterator and {@link BatchToRows} turns a
+ * BatchIterator back into a row operator, so a plan can mix both, and
+ * {@link BatchPlanner} converts the operators of a plan that have batch
+ * versions.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next rows. The batch belongs to the iterator: it stays
+     * valid until the next call, and the caller may change its selection
+     * vector but nothing else.
+     *
+     * @return a batch with at least one selected row, or null when there are
+     *         no more rows
+     */
+    ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows in the batches
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator, and its children.
+     */
+    void close();
+}
@@ -0,0 +1,66 @@
+package simpledb.execution;
+
+/**
+ * BatchPlanner turns a plan of row operators into a vectorized one. SeqScan,
+ * Filter, Project, HashEquiJoin and Aggregate are replaced by their batch
+ * versions; any other operator stays as it is, reading its converted
+ * children through {@link BatchToRows}.
+ */
+public class BatchPlanner {
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * @return a plan that returns the same rows as plan, running the
+     *         operators that have batch versions on batches. Rows may come
+     *         out in a different order where plan does not fix one.
+     */
+    public static OpIterator vectorize(OpIterator plan) {
+        BatchIterator batches = toBatches(plan);
+        if (batches instanceof RowsToBatches) {
+            return ((RowsToBatches) batches).getChild();
+        }
+        return new BatchToRows(batches);
+    }
+
+    private static BatchIterator toBatches(OpIterator op) {
+        if (op instanceof SeqScan) {
+            SeqScan scan = (SeqScan) op;
+            BatchIterator batches = new BatchScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias());
+            return scan.getPushedPredicate() == null ? batches : new BatchFilter(scan.getPushedPredicate(), batches);
+        }
+        if (op instanceof Filter) {
+            Filter filter = (Filter) op;
+            OpIterator child = filter.getChildren()[0];
+            if (child instanceof SeqScan && ((SeqScan) child).getPushedPredicate() == filter.getPredicate()) {
+                return toBatches(child); // the scan already filters on it
+            }
+            return new BatchFilter(filter.getPredicate(), toBatches(child));
+        }
+        if (op instanceof Project) {
+            Project project = (Project) op;
+            return new BatchProject(project.getFieldList(), project.getTupleDesc(),
+                    toBatches(project.getChildren()[0]));
+        }
+        if (op instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) op;
+            OpIterator[] children = join.getChildren();
+            return new BatchHashJoin(join.getJoinPredicate(), toBatches(children[0]), toBatches(children[1]));
+        }
+        if (op instanceof Aggregate && BatchAggregate.supports(((Aggregate) op).aggregateOp())) {
+            Aggregate agg = (Aggregate) op;
+            return new BatchAggregate(toBatches(agg.getChildren()[0]), agg.aggregateField(),
+                    agg.groupField(), agg.aggregateOp(), agg.getTupleDesc());
+        }
+        if (op instanceof Operator) {
+            Operator operator = (Operator) op;
+            OpIterator[] children = operator.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = vectorize(children[i]);
+            }
+            operator.setChildren(children);
+        }
+        return new RowsToBatches(op);
+    }
+}
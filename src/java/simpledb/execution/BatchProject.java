@@ -0,0 +1,63 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}. Its batches share
+ * the column arrays of the child's batches, so projecting copies nothing.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] columns;
+    private final TupleDesc td;
+    private transient ColumnBatch view;
+
+    /**
+     * @param fieldList the ids of the child's fields to project out
+     * @param td the TupleDesc of the projected rows, as Project builds it
+     * @param child the child operator
+     */
+    public BatchProject(List<Integer> fieldList, TupleDesc td, BatchIterator child) {
+        this.child = child;
+        this.td = td;
+        this.columns = new int[fieldList.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = fieldList.get(i);
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        view = new ColumnBatch(td, 1);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        view.viewOf(batch, columns);
+        return view;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        view = null;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageMorsels;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchScan is the batch version of {@link SeqScan}. A heap file copies the
+ * rows of each page straight into the columns of a batch; any other file is
+ * read through a SeqScan.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan scan;     // for the TupleDesc, and for files that are not heap files
+    private final DbFile dbFile;
+    private final PageMorsels morsels;  // shared with the other workers' scans, or null
+    private transient HeapFile.HeapFileBatchReader reader;
+    private transient RowsToBatches rows;
+    private transient ColumnBatch batch;
+
+    /**
+     * @param tid the transaction this scan is running as a part of
+     * @param tableId the table to scan
+     * @param tableAlias the alias that prefixes the field names, as in SeqScan
+     */
+    public BatchScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, null);
+    }
+
+    /**
+     * A scan of the morsels of a heap file that it claims from morsels, as
+     * one of several workers that together read the file once. It cannot
+     * rewind.
+     */
+    public BatchScan(TransactionId tid, int tableId, String tableAlias, PageMorsels morsels) {
+        this.scan = new SeqScan(tid, tableId, tableAlias);
+        this.dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        this.morsels = morsels;
+        if (morsels != null && !(dbFile instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files are split into morsels");
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (dbFile instanceof HeapFile) {
+            reader = ((HeapFile) dbFile).batchReader(scan.getTransactionId(), morsels);
+            reader.open();
+            batch = new ColumnBatch(getTupleDesc());
+        } else {
+            rows = new RowsToBatches(scan);
+            rows.open();
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            return rows.nextBatch();
+        }
+        return reader.fill(batch) ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            rows.rewind();
+        } else if (morsels != null) {
+            throw new DbException("a scan of shared morsels cannot rewind");
+        } else {
+            reader.open();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void close() {
+        if (rows != null) {
+            rows.close();
+            rows = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        batch = null;
+    }
+}
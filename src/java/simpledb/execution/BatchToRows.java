@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToRows hands out the selected rows of a batch operator one tuple at a
+ * time, so a vectorized plan can feed a row operator or the caller of a
+ * query.
+ */
+public class BatchToRows extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient ColumnBatch batch;
+    private transient int next;     // the next selected row of batch to return
+
+    public BatchToRows(BatchIterator child) {
+        this.child = child;
+    }
+
+    /** @return the batch operator this reads */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || next == batch.selected()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.row(next++));
+    }
+
+    /** The batch child is not an OpIterator, so row-level plan walks stop here. */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
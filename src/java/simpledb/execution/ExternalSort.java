@@ -0,0 +1,175 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordSorter;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sorts tuples on one or more fields, holding at most a memory budget of
+ * them at once, for OrderBy.
+ * <p>
+ * Each tuple becomes an entry: its sort key, encoded so that comparing two
+ * keys byte by byte, unsigned, orders them as their fields compare, followed
+ * by its record. An INT_TYPE key is its 4 big-endian bytes with the sign bit
+ * flipped; a STRING_TYPE key is its chars, 2 big-endian bytes each, padded
+ * with zeros to Type.STRING_LEN chars, which orders strings as
+ * String.compareTo does. Every bit of a descending key is inverted. The
+ * record keeps strings as chars too, unlike a heap page, which keeps only
+ * the low byte of each.
+ * <p>
+ * The entries are sorted by a {@link RecordSorter} on their key bytes, which
+ * spills sorted runs to disk and merges them as they are read, and keeps
+ * equal keys in the order they were added. Tuples are built as they are
+ * returned.
+ */
+class ExternalSort implements Closeable {
+
+    /** Bytes of a run read or written at a time. */
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    /** Runs merged at once; more take several passes. */
+    static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final int keySize;
+    private final RecordSorter sorter;
+    private final byte[] entry;
+    private final ByteBuffer entryBuffer;
+
+    /**
+     * @param fields the fields to sort on, most significant first
+     * @param asc    for each field, whether it sorts ascending
+     * @param budget the number of tuples sorted in memory at once
+     * @param limit  the number of tuples wanted, or Long.MAX_VALUE for all
+     */
+    ExternalSort(TupleDesc td, int[] fields, boolean[] asc, int budget, long limit) {
+        this.td = td;
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        int size = 0;
+        for (int f : fields) {
+            size += td.getFieldType(f) == Type.INT_TYPE ? 4 : 2 * Type.STRING_LEN;
+        }
+        this.keySize = size;
+        int record = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            record += td.getFieldType(i) == Type.INT_TYPE ? 4 : 4 + 2 * Type.STRING_LEN;
+        }
+        int entrySize = size + record;
+        this.sorter = new RecordSorter(entrySize, keySize, (long) Math.max(1, budget) * entrySize).limit(limit);
+        this.entry = new byte[entrySize];
+        this.entryBuffer = ByteBuffer.wrap(entry);
+    }
+
+    /** @return the number of runs written to disk */
+    int numRuns() {
+        return sorter.numRuns();
+    }
+
+    void add(Tuple t) throws IOException {
+        int at = 0;
+        for (int k = 0; k < fields.length; k++) {
+            Field f = t.getField(fields[k]);
+            if (f.getType() == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue() ^ Integer.MIN_VALUE;
+                if (!asc[k]) {
+                    v = ~v;
+                }
+                entry[at] = (byte) (v >>> 24);
+                entry[at + 1] = (byte) (v >>> 16);
+                entry[at + 2] = (byte) (v >>> 8);
+                entry[at + 3] = (byte) v;
+                at += 4;
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                int flip = asc[k] ? 0 : 0xffff;
+                for (int i = 0; i < Type.STRING_LEN; i++) {
+                    int c = (i < len ? s.charAt(i) : 0) ^ flip;
+                    entry[at + 2 * i] = (byte) (c >>> 8);
+                    entry[at + 2 * i + 1] = (byte) c;
+                }
+                at += 2 * Type.STRING_LEN;
+            }
+        }
+        ByteBuffer record = ByteBuffer.wrap(entry, at, entry.length - at);
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == Type.INT_TYPE) {
+                record.putInt(((IntField) f).getValue());
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                record.putInt(len);
+                for (int c = 0; c < Type.STRING_LEN; c++) {
+                    record.putChar(c < len ? s.charAt(c) : 0);
+                }
+            }
+        }
+        entryBuffer.clear();
+        sorter.accept(entryBuffer);
+    }
+
+    /** Returns the sorted tuples; a sort can be read any number of times. */
+    final class Cursor implements Closeable {
+        private final RecordSorter.Cursor in;
+
+        private Cursor(RecordSorter.Cursor in) {
+            this.in = in;
+        }
+
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws IOException {
+            return in.next() ? decode(in.array(), in.offset()) : null;
+        }
+
+        @Override
+        public void close() {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a cursor over the tuples added, in order; nothing may be added
+     *         once the sort has been read
+     */
+    Cursor cursor() throws IOException {
+        return new Cursor(sorter.cursor());
+    }
+
+    private Tuple decode(byte[] entries, int at) {
+        ByteBuffer in = ByteBuffer.wrap(entries);
+        Tuple t = new Tuple(td);
+        int offset = at + keySize;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(in.getInt(offset)));
+                offset += 4;
+            } else {
+                char[] chars = new char[in.getInt(offset)];
+                for (int c = 0; c < chars.length; c++) {
+                    chars[c] = in.getChar(offset + 4 + 2 * c);
+                }
+                t.setField(i, new StringField(new String(chars), Type.STRING_LEN));
+                offset += 4 + 2 * Type.STRING_LEN;
+            }
+        }
+        return t;
+    }
+
+    /** Deletes the runs. */
+    @Override
+    public void close() {
+        sorter.close();
+    }
+}
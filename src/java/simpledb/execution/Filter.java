@@ -38,6 +38,17 @@ public class Filter extends Operator {
         // some code goes here
         this.predicate = p;
         this.child = child;
+        pushDown();
+    }
+
+    /**
+     * 子节点是顺序扫描时把谓词下推给它：不满足条件的行在页内就被跳过，不会构造Tuple。
+     * 这里仍然会再判断一次，只对已满足条件的行，代价很小。
+     */
+    private void pushDown() {
+        if (this.child instanceof SeqScan) {
+            ((SeqScan) this.child).pushDown(this.predicate);
+        }
     }
 
     public Predicate getPredicate() {
@@ -110,6 +121,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.child = children[0];
+        pushDown();
     }
 
 }
@@ -0,0 +1,142 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gather is the exchange at the top of a parallel plan: it runs a copy of
+ * a pipeline on each worker and hands their batches to the one thread that
+ * reads the query, in whatever order they arrive. Workers block when the
+ * reader falls behind by a few batches.
+ */
+public class Gather implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Pipeline pipeline;
+    private final int workers;
+
+    transient private BlockingQueue<ColumnBatch> queue;
+    transient private List<Future<?>> futures;
+    transient private volatile boolean cancelled;
+    transient private AtomicReference<Throwable> failure;
+    transient private AtomicInteger finished;   // workers whose pipeline ran out
+
+    public Gather(Pipeline pipeline, int workers) {
+        this.pipeline = pipeline;
+        this.workers = Math.max(1, workers);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pipeline.start(workers);
+        queue = new ArrayBlockingQueue<>(2 * workers);
+        cancelled = false;
+        failure = new AtomicReference<>();
+        futures = new ArrayList<>(workers);
+        finished = new AtomicInteger();
+        for (int w = 0; w < workers; w++) {
+            futures.add(ParallelPlanner.POOL.submit(this::produce));
+        }
+    }
+
+    /** A worker's loop: runs a copy of the pipeline, and queues a copy of each batch. */
+    private void produce() {
+        BatchIterator it = pipeline.instance();
+        try {
+            it.open();
+            ColumnBatch batch;
+            while (!cancelled && (batch = it.nextBatch()) != null) {
+                put(copy(batch));
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            it.close();
+            finished.incrementAndGet();
+        }
+    }
+
+    private void put(ColumnBatch batch) {
+        try {
+            while (!cancelled && !queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                // the reader is behind; wait unless the query is closed
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the selected rows of batch in a batch of their own, since the worker reuses its batch */
+    private static ColumnBatch copy(ColumnBatch batch) {
+        int n = batch.selected();
+        ColumnBatch copy = new ColumnBatch(batch.getTupleDesc(), n);
+        for (int c = 0; c < batch.getTupleDesc().numFields(); c++) {
+            copy.gather(c, batch, c, batch.selectedRows(), n);
+        }
+        copy.setSize(n);
+        return copy;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        try {
+            while (true) {
+                Throwable t = failure.get();
+                if (t != null) {
+                    cancelled = true;
+                    throw ParallelPlanner.rethrow(t);
+                }
+                ColumnBatch batch = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+                // a worker queues its last batch before it counts as finished
+                if (finished.get() == workers && queue.isEmpty()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while gathering batches");
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return pipeline.getTupleDesc();
+    }
+
+    public void close() {
+        if (futures == null) {
+            return;
+        }
+        cancelled = true;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignored) {
+                // produce() keeps its failures in failure
+            }
+        }
+        futures = null;
+        queue = null;
+        pipeline.finish();
+    }
+}
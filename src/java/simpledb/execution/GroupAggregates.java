@@ -0,0 +1,172 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.Field;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The groups of a {@link BatchAggregate} and their running count, sum, min
+ * and max, kept in arrays indexed by group id. Group ids come from an
+ * {@link IntHashTable} for int groups. Workers that aggregate parts of the
+ * same input each fill one, and merge them at the end.
+ */
+class GroupAggregates {
+
+    private final int afield, gfield;
+    private final Aggregator.Op op;
+    private final boolean intValues, intGroupValues;
+
+    private final IntHashTable intGroups = new IntHashTable();      // int group values to ids
+    private final Map<Field, Integer> groupIds = new HashMap<>();   // other group values to ids
+    private final ColumnBatch groupValues;                          // other group values, by id
+    private int groups;
+    private int[] counts = new int[16], sums = new int[16], mins = new int[16], maxs = new int[16];
+    private int[] ids = new int[ColumnBatch.CAPACITY];              // the group id of each row being added
+
+    /** @param child the TupleDesc of the rows to aggregate */
+    GroupAggregates(TupleDesc child, int afield, int gfield, Aggregator.Op op) {
+        this.afield = afield;
+        this.gfield = gfield;
+        this.op = op;
+        this.intValues = child.getFieldType(afield) == Type.INT_TYPE;
+        this.intGroupValues = grouped() && child.getFieldType(gfield) == Type.INT_TYPE;
+        this.groupValues = grouped() && !intGroupValues
+                ? new ColumnBatch(new TupleDesc(new Type[]{Type.STRING_TYPE}), 16) : null;
+    }
+
+    private boolean grouped() {
+        return gfield != Aggregator.NO_GROUPING;
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return groups;
+    }
+
+    /** Folds the selected rows of a batch into their groups. */
+    void add(ColumnBatch batch) {
+        int n = batch.selected();
+        int[] rows = batch.selectedRows();
+        if (ids.length < n) {
+            ids = new int[n];
+        }
+        if (!grouped()) {
+            Arrays.fill(ids, 0, n, 0);
+            grow(1);
+        } else if (intGroupValues) {
+            int[] values = batch.ints(gfield);
+            for (int i = 0; i < n; i++) {
+                ids[i] = intGroups.add(values[rows[i]]);
+            }
+            grow(intGroups.size());
+        } else {
+            for (int i = 0; i < n; i++) {
+                ids[i] = stringGroup(batch, gfield, rows[i]);
+            }
+            grow(groupIds.size());
+        }
+        if (!intValues) {
+            for (int i = 0; i < n; i++) {
+                counts[ids[i]]++;
+            }
+            return;
+        }
+        int[] values = batch.ints(afield);
+        for (int i = 0; i < n; i++) {
+            int id = ids[i], v = values[rows[i]];
+            counts[id]++;
+            sums[id] += v;
+            mins[id] = Math.min(mins[id], v);
+            maxs[id] = Math.max(maxs[id], v);
+        }
+    }
+
+    /** @return the id of the group of a string value, adding the group if it is new */
+    private int stringGroup(ColumnBatch batch, int col, int row) {
+        Field value = batch.getField(col, row);
+        Integer id = groupIds.get(value);
+        if (id == null) {
+            id = groupIds.size();
+            groupIds.put(value, id);
+            groupValues.ensureCapacity(id + 1);
+            groupValues.gather(0, batch, col, new int[]{row}, 1);
+            groupValues.setSize(id + 1);
+        }
+        return id;
+    }
+
+    /** Makes room for the aggregates of n groups, starting the new ones empty. */
+    private void grow(int n) {
+        if (n > counts.length) {
+            int length = Math.max(n, 2 * counts.length);
+            counts = Arrays.copyOf(counts, length);
+            sums = Arrays.copyOf(sums, length);
+            mins = Arrays.copyOf(mins, length);
+            maxs = Arrays.copyOf(maxs, length);
+        }
+        for (; groups < n; groups++) {
+            mins[groups] = Integer.MAX_VALUE;
+            maxs[groups] = Integer.MIN_VALUE;
+        }
+    }
+
+    /** Adds the groups another worker aggregated to these. */
+    void merge(GroupAggregates other) {
+        for (int g = 0; g < other.groups; g++) {
+            int id;
+            if (!grouped()) {
+                id = 0;
+                grow(1);
+            } else if (intGroupValues) {
+                id = intGroups.add(other.intGroups.key(g));
+                grow(intGroups.size());
+            } else {
+                id = stringGroup(other.groupValues, 0, g);
+                grow(groupIds.size());
+            }
+            counts[id] += other.counts[g];
+            sums[id] += other.sums[g];
+            mins[id] = Math.min(mins[id], other.mins[g]);
+            maxs[id] = Math.max(maxs[id], other.maxs[g]);
+        }
+    }
+
+    private int aggregate(int id) {
+        switch (op) {
+            case COUNT: return counts[id];
+            case MIN: return mins[id];
+            case MAX: return maxs[id];
+            case AVG: return sums[id] / counts[id];
+            case SUM: return sums[id];
+            default: throw new UnsupportedOperationException("unsupported aggregate " + op);
+        }
+    }
+
+    /** Clears out and fills it with the results of n groups, from group id from on. */
+    void fill(ColumnBatch out, int from, int n) {
+        out.clear();
+        int col = 0;
+        if (intGroupValues) {
+            int[] values = out.ints(col++);
+            for (int i = 0; i < n; i++) {
+                values[i] = intGroups.key(from + i);
+            }
+        } else if (grouped()) {
+            int[] rows = new int[n];
+            for (int i = 0; i < n; i++) {
+                rows[i] = from + i;
+            }
+            out.gather(col++, groupValues, 0, rows, n);
+        }
+        int[] results = out.ints(col);
+        for (int i = 0; i < n; i++) {
+            results[i] = aggregate(from + i);
+        }
+        out.setSize(n);
+    }
+}
@@ -2,13 +2,21 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin joins on equality of one field of each child. It holds at
+ * most a memory budget of left tuples at once and spills the rest, by hash
+ * partition, to temporary files; see {@link #fetchNext}.
  */
 public class HashEquiJoin extends Operator {
 
@@ -55,53 +63,444 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** Default number of build (left) tuples held in memory at once. */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+    /** Default number of times a spilled partition is split again before it is joined by rescanning. */
+    public final static int DEFAULT_MAX_DEPTH = 3;
+
+    /** Partitions a pass splits its inputs into. */
+    static final int FANOUT = 16;
+    private static final int FANOUT_BITS = 4;
+
+    private int budget = MAP_SIZE;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    /**
+     * Sets how many build (left) tuples the join holds in memory at once.
+     * Past it, partitions of the build side move to disk.
+     */
+    public void setMemoryBudget(int tuples) {
+        this.budget = Math.max(1, tuples);
+    }
+
+    /**
+     * Sets how many times a spilled partition may be split again. A partition
+     * still too large at that depth, usually because its tuples share a key,
+     * is joined in budget-sized chunks that each rescan its probe side. With
+     * 0 the join never spills: the left child is loaded in chunks and the
+     * right child rescanned for each, as a block nested-loop join.
+     */
+    public void setMaxDepth(int depth) {
+        this.maxDepth = Math.max(0, Math.min(depth, 32 / FANOUT_BITS));
+    }
+
+    /** The input of one pass: a child, or a spilled partition. */
+    private interface Source {
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws DbException, TransactionAbortedException, IOException;
+
+        void rewind() throws DbException, TransactionAbortedException, IOException;
+
+        /** Frees what the source holds once its pass is done. */
+        void release();
+    }
+
+    private static class ChildSource implements Source {
+        private final OpIterator child;
+
+        ChildSource(OpIterator child) {
+            this.child = child;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
         }
-        return cnt > 0;
 
+        public void release() {
+        }
+    }
+
+    private static class SpillSource implements Source {
+        private final TupleSpill spill;
+        private TupleSpill.Cursor cursor;
+
+        SpillSource(TupleSpill spill) throws IOException {
+            this.spill = spill;
+            this.cursor = spill.cursor();
+        }
+
+        public Tuple next() throws IOException {
+            return cursor.next();
+        }
+
+        public void rewind() throws IOException {
+            cursor = spill.cursor();
+        }
+
+        public void release() {
+            spill.close();
+        }
+    }
+
+    /** A partition of both inputs that a pass spilled, for a later pass to join. */
+    private static class Spilled {
+        final TupleSpill build, probe;
+        final int depth;
+
+        Spilled(TupleSpill build, TupleSpill probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The build tuples of one partition that are in memory. Each join key
+     * gets an id: int keys from an {@link IntHashTable}, so no key is boxed,
+     * other keys from a HashMap. Rows are appended in a flat array with their
+     * key ids; {@link #seal} then groups them by key, so that the matches of
+     * a probe are one contiguous run of rows.
+     */
+    private static class Partition {
+        private final IntHashTable byInt;
+        private final Map<Field, Integer> byField;
+        Tuple[] rows = new Tuple[16];
+        private Tuple[] grouped = new Tuple[0];
+        private int[] ids = new int[16];        // by row, until sealed: the id of its key
+        int[] start = new int[0];               // once sealed, by key id: its first row; start[keys] is size
+        int size;
+
+        Partition(boolean intKeys) {
+            this.byInt = intKeys ? new IntHashTable() : null;
+            this.byField = intKeys ? null : new HashMap<>();
+        }
+
+        private int keys() {
+            return byInt != null ? byInt.size() : byField.size();
+        }
+
+        void add(Field key, Tuple t) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(16, 2 * size));
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            int id;
+            if (byInt != null) {
+                id = byInt.add(((IntField) key).getValue());
+            } else {
+                Integer known = byField.putIfAbsent(key, byField.size());
+                id = known == null ? byField.size() - 1 : known;
+            }
+            ids[size] = id;
+            rows[size++] = t;
+        }
+
+        /** Groups the rows by key, a counting sort on their key ids. */
+        void seal() {
+            int keys = keys();
+            if (start.length < keys + 1) {
+                start = new int[Math.max(keys + 1, 2 * start.length)];
+            } else {
+                Arrays.fill(start, 0, keys + 1, 0);
+            }
+            for (int row = 0; row < size; row++) {
+                start[ids[row] + 1]++;
+            }
+            for (int id = 0; id < keys; id++) {
+                start[id + 1] += start[id];
+            }
+            if (grouped.length < size) {
+                grouped = new Tuple[rows.length];
+            }
+            for (int row = 0; row < size; row++) {
+                grouped[start[ids[row]]++] = rows[row];
+            }
+            // each start moved to the next key's start; shift them back
+            System.arraycopy(start, 0, start, 1, keys);
+            start[0] = 0;
+            Tuple[] t = rows;
+            rows = grouped;
+            grouped = t;
+            Arrays.fill(grouped, 0, size, null);
+        }
+
+        /** @return the id of the key, or -1 if no row has it */
+        int find(Field key) {
+            if (byInt != null) {
+                return byInt.find(((IntField) key).getValue());
+            }
+            Integer id = byField.get(key);
+            return id == null ? -1 : id;
+        }
+
+        void clear() {
+            if (byInt != null) {
+                byInt.clear();
+            } else {
+                byField.clear();
+            }
+            Arrays.fill(rows, 0, size, null);
+            size = 0;
+        }
+    }
+
+    // the current pass: the build side is in parts, or in buildSpills for partitions on disk
+    transient private Source build, probe;
+    transient private int depth;
+    transient private List<Partition> parts;
+    transient private TupleSpill[] buildSpills, probeSpills;
+    transient private int inMemory;
+    transient private long built;        // build tuples this pass read
+    transient private Tuple nextBuild;   // in a chunked pass, the first tuple of the next chunk
+    transient private Deque<Spilled> pending;
+    // the build rows that match t2: rows matchRow up to matchEnd of matches
+    transient private Partition matches;
+    transient private int matchRow, matchEnd;
+
+    private static DbException spillFailed(IOException e) {
+        return new DbException("hash join could not spill: " + e.getMessage());
+    }
+
+    /**
+     * @return the partition of a join key at the given depth; each depth
+     *         takes different bits of the hash, so a spilled partition splits
+     *         again
+     */
+    private static int partition(Field key, int depth) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> (32 - FANOUT_BITS * (depth + 1))) & (FANOUT - 1);
+    }
+
+    /** @return true if the current pass loads its build side in chunks instead of partitioning it */
+    private boolean chunked() {
+        return depth >= maxDepth;
+    }
+
+    /** Starts a pass over two inputs by reading all of its build side. */
+    private void startPass(Source build, Source probe, int depth)
+            throws DbException, TransactionAbortedException, IOException {
+        this.build = build;
+        this.probe = probe;
+        this.depth = depth;
+        built = 0;
+        inMemory = 0;
+        if (chunked()) {
+            nextBuild = build.next();
+            loadChunk();
+            return;
+        }
+        Tuple t;
+        while ((t = build.next()) != null) {
+            built++;
+            Field key = t.getField(pred.getField1());
+            int p = partition(key, depth);
+            if (buildSpills[p] != null) {
+                buildSpills[p].add(t);
+                continue;
+            }
+            parts.get(p).add(key, t);
+            if (++inMemory > budget) {
+                spillLargest();
+            }
+        }
+        for (int p = 0; p < FANOUT; p++) {
+            if (buildSpills[p] == null) {
+                parts.get(p).seal();
+            }
+        }
+    }
+
+    /**
+     * Moves the largest partition in memory to disk. Partition 0 stays in
+     * memory while any other partition can go instead.
+     */
+    private void spillLargest() throws IOException {
+        int victim = 0;
+        for (int p = 1; p < FANOUT; p++) {
+            int size = parts.get(p).size;
+            if (buildSpills[p] == null && size > 0 && (victim == 0 || size > parts.get(victim).size)) {
+                victim = p;
+            }
+        }
+        Partition part = parts.get(victim);
+        TupleSpill spill = new TupleSpill(child1.getTupleDesc());
+        for (int row = 0; row < part.size; row++) {
+            spill.add(part.rows[row]);
+        }
+        inMemory -= part.size;
+        part.clear();
+        buildSpills[victim] = spill;
+    }
+
+    /** Loads up to budget build tuples of a chunked pass into partition 0. */
+    private void loadChunk() throws DbException, TransactionAbortedException, IOException {
+        Partition part = parts.get(0);
+        part.clear();
+        inMemory = 0;
+        while (nextBuild != null && inMemory < budget) {
+            part.add(nextBuild.getField(pred.getField1()), nextBuild);
+            inMemory++;
+            nextBuild = build.next();
+        }
+        part.seal();
+    }
+
+    /**
+     * Called when the probe side of a pass runs out: loads the next chunk, or
+     * queues the partitions the pass spilled and starts on one of them. Sets
+     * probe to null when nothing is left to join.
+     */
+    private void nextPass() throws DbException, TransactionAbortedException, IOException {
+        if (chunked() && nextBuild != null) {
+            probe.rewind();
+            loadChunk();
+            return;
+        }
+        for (int p = 0; p < FANOUT; p++) {
+            if (buildSpills[p] != null) {
+                if (probeSpills[p] == null) {
+                    buildSpills[p].close();
+                } else {
+                    // a partition that got the whole build side did not split on the
+                    // last hash bits, as when all its tuples share a key: rescan it
+                    int next = buildSpills[p].size() == built ? maxDepth : depth + 1;
+                    pending.push(new Spilled(buildSpills[p], probeSpills[p], next));
+                }
+            } else if (probeSpills[p] != null) {
+                probeSpills[p].close();
+            }
+            buildSpills[p] = null;
+            probeSpills[p] = null;
+            parts.get(p).clear();
+        }
+        build.release();
+        probe.release();
+        build = null;
+        probe = null;
+        if (!pending.isEmpty()) {
+            Spilled s = pending.pop();
+            startPass(new SpillSource(s.build), new SpillSource(s.probe), s.depth);
+        }
+    }
+
+    /** Frees the current pass and every spilled partition. */
+    private void releasePasses() {
+        if (build != null) {
+            build.release();
+            probe.release();
+            build = null;
+            probe = null;
+        }
+        if (parts == null) {
+            return;
+        }
+        for (int p = 0; p < FANOUT; p++) {
+            if (buildSpills[p] != null) {
+                buildSpills[p].close();
+                buildSpills[p] = null;
+            }
+            if (probeSpills[p] != null) {
+                probeSpills[p].close();
+                probeSpills[p] = null;
+            }
+            parts.get(p).clear();
+        }
+        for (Spilled s : pending) {
+            s.build.close();
+            s.probe.close();
+        }
+        pending.clear();
+        nextBuild = null;
+    }
+
+    /** Starts the join from the beginning of both children. */
+    private void restart() throws DbException, TransactionAbortedException {
+        if (parts == null) {
+            boolean intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                    && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+            parts = new ArrayList<>(FANOUT);
+            for (int p = 0; p < FANOUT; p++) {
+                parts.add(new Partition(intKeys));
+            }
+            buildSpills = new TupleSpill[FANOUT];
+            probeSpills = new TupleSpill[FANOUT];
+            pending = new ArrayDeque<>();
+        }
+        matchRow = matchEnd = 0;
+        try {
+            startPass(new ChildSource(child1), new ChildSource(child2), 0);
+        } catch (IOException e) {
+            throw spillFailed(e);
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        restart();
         super.open();
     }
 
     public void close() {
         super.close();
+        releasePasses();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.matches=null;
+        this.parts=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        releasePasses();
         child1.rewind();
         child2.rewind();
+        restart();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private Tuple processList() {
+        t1 = matches.rows[matchRow++];
+
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
+     * <p>
+     * This is a hybrid hash join. The left child is the build side: its
+     * tuples go into hash tables, split into {@link #FANOUT} partitions by
+     * the join key. When more than the memory budget of them are in memory,
+     * the largest partition moves to a temporary file, and so do the build
+     * tuples that hash to it later. The right child then probes the
+     * partitions in memory; its tuples that hash to a spilled partition go to
+     * a file of their own. Each spilled pair of partitions is joined the same
+     * way afterwards, partitioned by other bits of the hash.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -111,53 +510,43 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+        try {
+            while (true) {
+                if (matchRow < matchEnd) {
+                    return processList();
+                }
+                if (probe == null) {
+                    return null;
+                }
+                t2 = probe.next();
+                if (t2 == null) {
+                    nextPass();
+                    continue;
+                }
+                Field key = t2.getField(pred.getField2());
+                int p = chunked() ? 0 : partition(key, depth);
+                if (buildSpills[p] != null) {
+                    if (probeSpills[p] == null) {
+                        probeSpills[p] = new TupleSpill(child2.getTupleDesc());
+                    }
+                    probeSpills[p].add(t2);
+                    continue;
+                }
+                matches = parts.get(p);
+                int id = matches.find(key);
+                if (id >= 0) {
+                    matchRow = matches.start[id];
+                    matchEnd = matches.start[id + 1];
+                }
+            }
+        } catch (IOException e) {
+            throw spillFailed(e);
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -0,0 +1,118 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.Field;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The build side of a {@link BatchHashJoin}: rows copied into one growing
+ * batch and numbered by key, with an {@link IntHashTable} for int keys.
+ * Once sealed, the rows of each key are listed together, and the table is
+ * only read, so probes from several threads may share it.
+ */
+class HashJoinTable {
+
+    private final int keyField;
+    private final boolean intKeys;
+    private final ColumnBatch rows;
+    private final IntHashTable table = new IntHashTable();  // int keys to ids
+    private final Map<Field, Integer> ids = new HashMap<>(); // other keys to ids
+    private int[] keyIds = new int[ColumnBatch.CAPACITY];    // by row
+    private int[] order, start; // the rows of key id are order[start[id]] to order[start[id + 1] - 1]
+
+    HashJoinTable(TupleDesc td, int keyField) {
+        this.keyField = keyField;
+        this.intKeys = td.getFieldType(keyField) == Type.INT_TYPE;
+        this.rows = new ColumnBatch(td);
+    }
+
+    /** Copies the selected rows of a batch into the table. */
+    void add(ColumnBatch batch) {
+        int n = batch.selected();
+        int[] selected = batch.selectedRows();
+        int at = rows.size();
+        rows.ensureCapacity(at + n);
+        for (int c = 0; c < rows.getTupleDesc().numFields(); c++) {
+            rows.gather(c, batch, c, selected, n);
+        }
+        rows.setSize(at + n);
+        if (keyIds.length < at + n) {
+            keyIds = Arrays.copyOf(keyIds, Math.max(at + n, 2 * keyIds.length));
+        }
+        if (intKeys) {
+            int[] keys = batch.ints(keyField);
+            for (int i = 0; i < n; i++) {
+                keyIds[at + i] = table.add(keys[selected[i]]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                keyIds[at + i] = ids.computeIfAbsent(batch.getField(keyField, selected[i]), k -> ids.size());
+            }
+        }
+    }
+
+    /** Copies the rows of a table built by another worker into this one. */
+    void merge(HashJoinTable other) {
+        if (other.rows.size() > 0) {
+            add(other.rows);
+        }
+    }
+
+    /** Groups the rows by key, with a counting sort on the key ids. */
+    void seal() {
+        int keys = intKeys ? table.size() : ids.size();
+        start = new int[keys + 1];
+        for (int row = 0; row < rows.size(); row++) {
+            start[keyIds[row] + 1]++;
+        }
+        for (int id = 0; id < keys; id++) {
+            start[id + 1] += start[id];
+        }
+        int[] fill = Arrays.copyOf(start, keys);
+        order = new int[rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            order[fill[keyIds[row]]++] = row;
+        }
+    }
+
+    /** Sets ids[i] to the key id of the i-th selected row of probe, or -1 if no row has its key. */
+    void lookUp(ColumnBatch probe, int probeField, int[] ids) {
+        int n = probe.selected();
+        int[] selected = probe.selectedRows();
+        if (intKeys) {
+            int[] keys = probe.ints(probeField);
+            for (int i = 0; i < n; i++) {
+                ids[i] = table.find(keys[selected[i]]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                ids[i] = this.ids.getOrDefault(probe.getField(probeField, selected[i]), -1);
+            }
+        }
+    }
+
+    /** @return the rows of the table, with no selection vector */
+    ColumnBatch rows() {
+        return rows;
+    }
+
+    /** @return where the matches of key id start in {@link #match} */
+    int matchStart(int id) {
+        return start[id];
+    }
+
+    /** @return where the matches of key id end in {@link #match} */
+    int matchEnd(int id) {
+        return start[id + 1];
+    }
+
+    /** @return the row of the m-th match, counted across all keys */
+    int match(int m) {
+        return order[m];
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable numbers the distinct int keys it is given: each new key gets
+ * the next id, starting at 0, so callers keep what they store per key in
+ * plain arrays indexed by id.
+ * <p>
+ * Keys sit in an open-addressing table with linear probing, next to their
+ * ids, so a lookup reads one or two adjacent slots and allocates nothing.
+ * Unlike a {@code HashMap<Field, ...>} there is no boxed key, no entry
+ * object and no virtual hashCode per lookup. The table doubles when it gets
+ * half full.
+ */
+public class IntHashTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] slotKeys;
+    private int[] slotIds;      // id + 1 of the key in each slot, or 0 if the slot is empty
+    private int[] keys;         // by id
+    private int size;
+    private int mask;
+    private int shift;          // 32 - log2 of the capacity
+
+    public IntHashTable() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /** @param expected the number of keys to size the table for */
+    public IntHashTable(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expected) {
+            capacity <<= 1;
+        }
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity];
+        keys = new int[capacity / 2];
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    /** @return the home slot of key: the high bits of a Fibonacci hash, which all bits of the key affect */
+    private int slot(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /** @return the number of distinct keys added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key with the given id */
+    public int key(int id) {
+        return keys[id];
+    }
+
+    /** @return the id of key, or -1 if it was never added */
+    public int find(int key) {
+        for (int i = slot(key); slotIds[i] != 0; i = (i + 1) & mask) {
+            if (slotKeys[i] == key) {
+                return slotIds[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the id of key, giving it the next id if it is new */
+    public int add(int key) {
+        int i = slot(key);
+        for (; slotIds[i] != 0; i = (i + 1) & mask) {
+            if (slotKeys[i] == key) {
+                return slotIds[i] - 1;
+            }
+        }
+        int id = size++;
+        slotKeys[i] = key;
+        slotIds[i] = id + 1;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * keys.length);
+        }
+        keys[id] = key;
+        if (2 * size > slotIds.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = 2 * slotIds.length;
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity];
+        mask = capacity - 1;
+        shift--;
+        for (int id = 0; id < size; id++) {
+            int i = slot(keys[id]);
+            while (slotIds[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slotKeys[i] = keys[id];
+            slotIds[i] = id + 1;
+        }
+    }
+
+    /** Forgets all keys, keeping the table's capacity. */
+    public void clear() {
+        Arrays.fill(slotIds, 0);
+        size = 0;
+    }
+}
@@ -2,10 +2,13 @@ package simpledb.execution;
 
 import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +35,12 @@ public class IntegerAggregator implements Aggregator {
      */
     private Map<Field, List<Field>> groupresult;//需要迭代的数据，不是聚合完成的数据
     private TupleDesc tupleDesc;
+    /**
+     * 按int字段分组时不用groupresult：intGroups给每个分组值编号，
+     * 各分组的聚合值按编号存在数组里，边合并边计算
+     */
+    private IntHashTable intGroups;
+    private int[] counts, sums, mins, maxs;
     /**
      * Aggregate constructor
      * 
@@ -58,6 +67,13 @@ public class IntegerAggregator implements Aggregator {
         if(this.gbfield != NO_GROUPING){   //如果不分组,tupleDesc就是一条，否则就是两条。
             // 分组聚合,那么返回的聚合结果行由分组字段和该分组字段的聚合结果值组成
             this.tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupValue", "aggregateValue"});
+            if(gbfieldtype == Type.INT_TYPE){
+                this.intGroups = new IntHashTable();
+                this.counts = new int[16];
+                this.sums = new int[16];
+                this.mins = new int[16];
+                this.maxs = new int[16];
+            }
         }else{
             this.tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
         }
@@ -72,6 +88,11 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        if(intGroups != null){
+            mergeIntGroup(((IntField) tup.getField(this.gbfield)).getValue(),
+                    ((IntField) tup.getField(this.afield)).getValue());
+            return;
+        }
         Field af= tup.getField(this.afield);
         Field gb = null;;                 //如果不分组，groupresult里只有一个null为键的键值对
         if(this.gbfield != NO_GROUPING){   //如果不分组,tupleDesc就是一条，否则就是两条。
@@ -87,6 +108,37 @@ public class IntegerAggregator implements Aggregator {
         }
     }
 
+    private void mergeIntGroup(int group, int value) {
+        int known = intGroups.size();
+        int id = intGroups.add(group);
+        if(id == known){ //新的分组
+            if(id == counts.length){
+                counts = Arrays.copyOf(counts, 2 * id);
+                sums = Arrays.copyOf(sums, 2 * id);
+                mins = Arrays.copyOf(mins, 2 * id);
+                maxs = Arrays.copyOf(maxs, 2 * id);
+            }
+            mins[id] = Integer.MAX_VALUE;
+            maxs[id] = Integer.MIN_VALUE;
+        }
+        counts[id]++;
+        sums[id] += value;
+        mins[id] = Math.min(mins[id], value);
+        maxs[id] = Math.max(maxs[id], value);
+    }
+
+    /** @return the aggregate of the int group with the given id, computed as AggregateIter does */
+    private int intAggregate(int id) {
+        switch (what) {
+            case COUNT: return counts[id];
+            case MIN: return mins[id];
+            case MAX: return maxs[id];
+            case AVG: return sums[id] / counts[id];
+            case SUM: return sums[id];
+            default: throw new UnsupportedOperationException("unsupported aggregate " + what);
+        }
+    }
+
     public TupleDesc getTupleDesc() {
         return this.tupleDesc;
     }
@@ -103,6 +155,16 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
+        if(intGroups != null){
+            List<Tuple> tuples = new ArrayList<>(intGroups.size());
+            for(int id = 0; id < intGroups.size(); id++){
+                Tuple tuple = new Tuple(tupleDesc);
+                tuple.setField(0, new IntField(intGroups.key(id)));
+                tuple.setField(1, new IntField(intAggregate(id)));
+                tuples.add(tuple);
+            }
+            return new TupleIterator(tupleDesc, tuples);
+        }
         return new AggregateIter(groupresult,what,tupleDesc);
     }
 
@@ -2,25 +2,38 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
-import java.util.*;
+import java.io.IOException;
+import java.util.NoSuchElementException;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It sorts on one or more fields with an external merge sort: at most a
+ * memory budget of tuples is sorted in memory at once, and larger inputs are
+ * written to disk in sorted runs that are merged as they are read (see
+ * ExternalSort). With a limit it returns only the first tuples of the order.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of tuples sorted in memory at once. */
+    public final static int DEFAULT_BUDGET = 100000;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
+    private final int[] orderByFields;
+    private final boolean[] ascending;
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private int budget = DEFAULT_BUDGET;
+    private long limit = Long.MAX_VALUE;
+    private ExternalSort sort;
+    private ExternalSort.Cursor it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,11 +46,48 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if it sorts ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.orderByField = orderbyFields[0];
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc[0];
+    }
+
+    /**
+     * Sets how many tuples the sort holds in memory at once. Larger inputs
+     * are sorted in runs of this size, written to disk and merged.
+     */
+    public void setMemoryBudget(int tuples) {
+        this.budget = Math.max(1, tuples);
+    }
+
+    /**
+     * Returns only the first n tuples of the order. When n is at most half
+     * the memory budget, the sort keeps just the best n tuples seen so far
+     * and never writes to disk.
+     */
+    public void setLimit(long n) {
+        this.limit = Math.max(0, n);
     }
     
     public boolean isASC()
@@ -54,29 +104,60 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /** @return the fields sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    private static DbException sortFailed(IOException e) {
+        return new DbException("order by could not spill: " + e.getMessage());
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        closeSort();
+        sort = new ExternalSort(td, orderByFields, ascending, budget, limit);
+        try {
+            while (child.hasNext())
+                sort.add(child.next());
+            it = sort.cursor();
+        } catch (IOException e) {
+            closeSort();
+            throw sortFailed(e);
+        }
         super.open();
     }
 
+    private void closeSort() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
+    }
+
     public void close() {
         super.close();
-        it = null;
+        closeSort();
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        it.close();
+        try {
+            it = sort.cursor();
+        } catch (IOException e) {
+            throw sortFailed(e);
+        }
     }
 
     /**
@@ -86,11 +167,20 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (it == null) {
             return null;
+        }
+        try {
+            return it.next();
+        } catch (IOException e) {
+            throw sortFailed(e);
+        }
+    }
+
+    /** @return the number of sorted runs the last open wrote to disk */
+    public int numRuns() {
+        return sort == null ? 0 : sort.numRuns();
     }
 
     @Override
@@ -104,25 +194,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
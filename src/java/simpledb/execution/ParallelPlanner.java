@@ -0,0 +1,424 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageMorsels;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * ParallelPlanner runs a plan on several worker threads, morsel-driven: the
+ * scans of heap files deal out runs of pages, and each worker runs its own
+ * copy of the batch pipeline above the scan (scan, filter, project, join
+ * probe) on every morsel it claims. A {@link Gather} hands the results of
+ * the top pipeline to the caller.
+ * <p>
+ * The build side of a hash join and the input of an aggregate are
+ * pipelines of their own that run first: each worker builds a partial hash
+ * table or partial aggregate from its morsels, and the partials are merged
+ * before the pipeline above starts.
+ * <p>
+ * Operators without a batch version stay row operators on the caller's
+ * thread, with their inputs parallelized below them where possible.
+ */
+public class ParallelPlanner {
+
+    /** The threads that run pipelines, shared by all queries. */
+    static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "query-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ParallelPlanner() {
+    }
+
+    /**
+     * @return a plan that returns the same rows as plan, with the parts
+     *         that have batch versions run on the given number of workers.
+     *         Rows may come out in a different order where plan does not fix
+     *         one.
+     */
+    public static OpIterator parallelize(OpIterator plan, int workers) {
+        return parallelize(plan, workers, PageMorsels.DEFAULT_PAGES);
+    }
+
+    /** Like {@link #parallelize(OpIterator, int)}, with morsels of the given number of pages. */
+    public static OpIterator parallelize(OpIterator plan, int workers, int morselPages) {
+        Pipeline pipeline = pipeline(plan, morselPages);
+        if (pipeline != null) {
+            return new BatchToRows(new Gather(pipeline, workers));
+        }
+        if (plan instanceof Operator) {
+            Operator operator = (Operator) plan;
+            OpIterator[] children = operator.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = parallelize(children[i], workers, morselPages);
+            }
+            operator.setChildren(children);
+        }
+        return plan;
+    }
+
+    /** @return op as a pipeline, or null if some operator in it has no batch version */
+    private static Pipeline pipeline(OpIterator op, int morselPages) {
+        if (op instanceof SeqScan) {
+            SeqScan scan = (SeqScan) op;
+            if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)) {
+                return null;
+            }
+            return new ScanPipeline(scan, morselPages);
+        }
+        if (op instanceof Filter) {
+            Filter filter = (Filter) op;
+            OpIterator child = filter.getChildren()[0];
+            Pipeline input = pipeline(child, morselPages);
+            if (input == null) {
+                return null;
+            }
+            if (child instanceof SeqScan && ((SeqScan) child).getPushedPredicate() == filter.getPredicate()) {
+                return input; // the scan already filters on it
+            }
+            return new FilterPipeline(filter.getPredicate(), input);
+        }
+        if (op instanceof Project) {
+            Project project = (Project) op;
+            Pipeline input = pipeline(project.getChildren()[0], morselPages);
+            return input == null ? null : new ProjectPipeline(project, input);
+        }
+        if (op instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) op;
+            OpIterator[] children = join.getChildren();
+            Pipeline build = pipeline(children[0], morselPages);
+            Pipeline probe = pipeline(children[1], morselPages);
+            return build == null || probe == null ? null : new JoinPipeline(join.getJoinPredicate(), build, probe);
+        }
+        if (op instanceof Aggregate && BatchAggregate.supports(((Aggregate) op).aggregateOp())) {
+            Aggregate agg = (Aggregate) op;
+            Pipeline input = pipeline(agg.getChildren()[0], morselPages);
+            return input == null ? null : new AggregatePipeline(agg, input);
+        }
+        return null;
+    }
+
+    /** @return the exception to throw for one a worker threw */
+    static DbException rethrow(Throwable t) throws TransactionAbortedException {
+        if (t instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof DbException) {
+            return (DbException) t;
+        }
+        return new DbException("worker failed: " + t);
+    }
+
+    /**
+     * Runs a copy of input on each worker, adding its batches to a partial
+     * state of the worker's own, and waits for all of them.
+     *
+     * @return the partial states
+     */
+    static <T> List<T> runPartials(Pipeline input, int workers, Supplier<T> state, BiConsumer<T, ColumnBatch> add)
+            throws DbException, TransactionAbortedException {
+        List<Future<T>> futures = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            futures.add(POOL.submit(() -> {
+                T partial = state.get();
+                BatchIterator it = input.instance();
+                try {
+                    it.open();
+                    ColumnBatch batch;
+                    while ((batch = it.nextBatch()) != null) {
+                        add.accept(partial, batch);
+                    }
+                } finally {
+                    it.close();
+                }
+                return partial;
+            }));
+        }
+        List<T> partials = new ArrayList<>(workers);
+        Throwable failure = null;
+        for (Future<T> f : futures) {
+            try {
+                partials.add(f.get());
+            } catch (ExecutionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        return partials;
+    }
+
+    /** A scan of a heap file that deals its pages out as morsels. */
+    private static class ScanPipeline implements Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final int tableId;
+        private final String alias;
+        private final Predicate pushed;
+        private final TupleDesc td;
+        private final int morselPages;
+        private transient PageMorsels morsels;
+
+        ScanPipeline(SeqScan scan, int morselPages) {
+            this.tid = scan.getTransactionId();
+            this.tableId = scan.getTableId();
+            this.alias = scan.getAlias();
+            this.pushed = scan.getPushedPredicate();
+            this.td = scan.getTupleDesc();
+            this.morselPages = morselPages;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /**
+         * Also locks the table shared for the transaction, on the caller's
+         * thread. The workers share the transaction, and the table lock
+         * covers every page they read, so they never queue for page locks
+         * or change the transaction's lock bookkeeping at the same time.
+         */
+        public void start(int workers) throws TransactionAbortedException {
+            Database.getBufferPool().getLockManager().acquireTable(tid, tableId, LockMode.SHARED);
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            morsels = new PageMorsels(((HeapFile) file).numPages(), morselPages);
+        }
+
+        public BatchIterator instance() {
+            BatchIterator scan = new BatchScan(tid, tableId, alias, morsels);
+            return pushed == null ? scan : new BatchFilter(pushed, scan);
+        }
+
+        public void finish() {
+            morsels = null;
+        }
+    }
+
+    private static class FilterPipeline implements Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        private final Predicate p;
+        private final Pipeline input;
+
+        FilterPipeline(Predicate p, Pipeline input) {
+            this.p = p;
+            this.input = input;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return input.getTupleDesc();
+        }
+
+        public void start(int workers) throws DbException, TransactionAbortedException {
+            input.start(workers);
+        }
+
+        public BatchIterator instance() {
+            return new BatchFilter(p, input.instance());
+        }
+
+        public void finish() {
+            input.finish();
+        }
+    }
+
+    private static class ProjectPipeline implements Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Integer> fields;
+        private final TupleDesc td;
+        private final Pipeline input;
+
+        ProjectPipeline(Project project, Pipeline input) {
+            this.fields = project.getFieldList();
+            this.td = project.getTupleDesc();
+            this.input = input;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void start(int workers) throws DbException, TransactionAbortedException {
+            input.start(workers);
+        }
+
+        public BatchIterator instance() {
+            return new BatchProject(fields, td, input.instance());
+        }
+
+        public void finish() {
+            input.finish();
+        }
+    }
+
+    /**
+     * The probe side of a hash join. Starting it builds the hash table: each
+     * worker fills a partial table from the build pipeline, and the partials
+     * are merged into the one table that every probe reads.
+     */
+    private static class JoinPipeline implements Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        private final JoinPredicate pred;
+        private final Pipeline build, probe;
+        private final TupleDesc td;
+        private transient HashJoinTable table;
+
+        JoinPipeline(JoinPredicate pred, Pipeline build, Pipeline probe) {
+            this.pred = pred;
+            this.build = build;
+            this.probe = probe;
+            this.td = TupleDesc.merge(build.getTupleDesc(), probe.getTupleDesc());
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void start(int workers) throws DbException, TransactionAbortedException {
+            build.start(workers);
+            List<HashJoinTable> partials;
+            try {
+                partials = runPartials(build, workers,
+                        () -> new HashJoinTable(build.getTupleDesc(), pred.getField1()), HashJoinTable::add);
+            } finally {
+                build.finish();
+            }
+            table = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                table.merge(partials.get(i));
+            }
+            table.seal();
+            probe.start(workers);
+        }
+
+        public BatchIterator instance() {
+            return new BatchHashJoin(pred, table, probe.instance());
+        }
+
+        public void finish() {
+            probe.finish();
+            table = null;
+        }
+    }
+
+    /**
+     * The results of an aggregate. Starting it aggregates the input: each
+     * worker folds its morsels into partial aggregates, and the partials
+     * are merged. The workers then deal out the groups to return.
+     */
+    private static class AggregatePipeline implements Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        private final int afield, gfield;
+        private final Aggregator.Op op;
+        private final TupleDesc td;
+        private final Pipeline input;
+        private transient GroupAggregates groups;
+        private transient AtomicInteger next;   // the first group not yet claimed
+
+        AggregatePipeline(Aggregate agg, Pipeline input) {
+            this.afield = agg.aggregateField();
+            this.gfield = agg.groupField();
+            this.op = agg.aggregateOp();
+            this.td = agg.getTupleDesc();
+            this.input = input;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void start(int workers) throws DbException, TransactionAbortedException {
+            input.start(workers);
+            List<GroupAggregates> partials;
+            try {
+                partials = runPartials(input, workers,
+                        () -> new GroupAggregates(input.getTupleDesc(), afield, gfield, op), GroupAggregates::add);
+            } finally {
+                input.finish();
+            }
+            groups = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                groups.merge(partials.get(i));
+            }
+            next = new AtomicInteger();
+        }
+
+        public BatchIterator instance() {
+            return new Results(this);
+        }
+
+        public void finish() {
+            groups = null;
+        }
+
+        /** A worker's share of the groups of an aggregate. */
+        private static class Results implements BatchIterator {
+            private static final long serialVersionUID = 1L;
+
+            private final AggregatePipeline agg;
+            private transient ColumnBatch out;
+
+            Results(AggregatePipeline agg) {
+                this.agg = agg;
+            }
+
+            public void open() {
+                out = new ColumnBatch(agg.td);
+            }
+
+            public ColumnBatch nextBatch() {
+                int from = agg.next.getAndAdd(ColumnBatch.CAPACITY);
+                int n = Math.min(ColumnBatch.CAPACITY, agg.groups.size() - from);
+                if (n <= 0) {
+                    return null;
+                }
+                agg.groups.fill(out, from, n);
+                return out;
+            }
+
+            public void rewind() throws DbException {
+                throw new DbException("a worker's share of an aggregate cannot rewind");
+            }
+
+            public TupleDesc getTupleDesc() {
+                return agg.td;
+            }
+
+            public void close() {
+                out = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * A Pipeline is a chain of batch operators, such as scan, filter, probe,
+ * that several workers run at once, each on its own copy. The copies share
+ * what the pipeline holds for a run: the morsels its scan deals out, and
+ * the hash tables and aggregates that the pipelines below it built.
+ *
+ * @see ParallelPlanner
+ */
+public interface Pipeline extends Serializable {
+
+    TupleDesc getTupleDesc();
+
+    /**
+     * Starts a run on the given number of workers: deals out the scan's
+     * morsels from the beginning, and first runs the pipelines below that
+     * must finish before this one starts, such as the build side of a join.
+     */
+    void start(int workers) throws DbException, TransactionAbortedException;
+
+    /** @return a worker's copy of the pipeline for the current run, not yet open */
+    BatchIterator instance();
+
+    /** Frees what the current run holds. */
+    void finish();
+}
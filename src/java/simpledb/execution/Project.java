@@ -48,6 +48,11 @@ public class Project extends Operator {
         return td;
     }
 
+    /** @return the ids of the child's fields this projects out, in output order */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
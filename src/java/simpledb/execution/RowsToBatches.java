@@ -0,0 +1,53 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowsToBatches collects the tuples of a row operator into batches, so an
+ * operator without a batch version can feed batch operators.
+ */
+public class RowsToBatches implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient ColumnBatch batch;
+
+    public RowsToBatches(OpIterator child) {
+        this.child = child;
+    }
+
+    /** @return the row operator this reads */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new ColumnBatch(child.getTupleDesc());
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
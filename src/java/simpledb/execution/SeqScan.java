@@ -42,6 +42,7 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFileIterator dbFileIterator;
     private DbFile dbFile;
+    private Predicate pushed;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -92,6 +93,31 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }//tableAlias=Database.getCatalog().getTableName(tableId)?
 
+    /**
+     * Only return the tuples that satisfy p. The file evaluates p as it reads
+     * each page, so rows that fail it are never turned into Tuples. Must be
+     * called before open(); the field numbers of p are those of getTupleDesc().
+     *
+     * @param p the predicate to push down into the scan
+     */
+    public void pushDown(Predicate p) {
+        this.pushed = p;
+        this.dbFileIterator = this.dbFile.iterator(this.transactionId, p);
+    }
+
+    /** @return the predicate pushed down into this scan, or null */
+    public Predicate getPushedPredicate() {
+        return pushed;
+    }
+
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
+    public int getTableId() {
+        return this.tableId;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         this.dbFileIterator.open();
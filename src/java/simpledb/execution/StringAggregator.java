@@ -2,10 +2,13 @@ package simpledb.execution;
 
 import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +37,11 @@ public class StringAggregator implements Aggregator {
      */
     private Map<Field, List<Field>> groupresult; //需要迭代的数据，不是聚合完成的数据
     private TupleDesc tupleDesc;  //如果有group by就是两条，否则就是一条。
+    /**
+     * 按int字段分组时不用groupresult：intGroups给每个分组值编号，counts按编号计数
+     */
+    private IntHashTable intGroups;
+    private int[] counts;
 
 
 
@@ -59,6 +67,10 @@ public class StringAggregator implements Aggregator {
         if(this.gbfield != NO_GROUPING){   //如果不分组,tupleDesc就是一条，否则就是两条。
             // 分组聚合,那么返回的聚合结果行由分组字段和该分组字段的聚合结果值组成
             this.tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupValue", "aggregateValue"});
+            if(gbfieldtype == Type.INT_TYPE){
+                this.intGroups = new IntHashTable();
+                this.counts = new int[16];
+            }
         }else{
             this.tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
         }
@@ -70,6 +82,14 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        if(intGroups != null){
+            int id = intGroups.add(((IntField) tup.getField(this.gbfield)).getValue());
+            if(id == counts.length){
+                counts = Arrays.copyOf(counts, 2 * id);
+            }
+            counts[id]++;
+            return;
+        }
         Field af= tup.getField(this.afield);
         Field gb = null;;                 //如果不分组，groupresult里只有一个null为键的键值对
         if(this.gbfield != NO_GROUPING){   //如果不分组,tupleDesc就是一条，否则就是两条。
@@ -101,6 +121,16 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
+        if(intGroups != null){
+            List<Tuple> tuples = new ArrayList<>(intGroups.size());
+            for(int id = 0; id < intGroups.size(); id++){
+                Tuple tuple = new Tuple(tupleDesc);
+                tuple.setField(0, new IntField(intGroups.key(id)));
+                tuple.setField(1, new IntField(counts[id]));
+                tuples.add(tuple);
+            }
+            return new TupleIterator(tupleDesc, tuples);
+        }
          return new AggregateIter(groupresult,what,tupleDesc);
     }
 
@@ -0,0 +1,151 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary run of tuples that an operator writes once and then reads back
+ * in order, any number of times.
+ * <p>
+ * Tuples are stored as fixed-size records of their serialized fields, as on a
+ * heap page. They do not go through the buffer pool, because they belong to
+ * one operator and need no locks and no logging. Tuples stay in a buffer
+ * until it fills, so a small spill never creates a file.
+ */
+class TupleSpill implements Closeable {
+
+    /** Bytes written to or read from the file at a time. */
+    static final int BUFFER_BYTES = 32 * 1024;
+
+    private final TupleDesc td;
+    private final int recordSize;
+    private final ByteBuffer buffer;
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long count;
+
+    TupleSpill(TupleDesc td) {
+        this.td = td;
+        this.recordSize = td.getSize();
+        this.buffer = ByteBuffer.allocate(Math.max(recordSize, BUFFER_BYTES / recordSize * recordSize));
+    }
+
+    /** @return the number of tuples added */
+    long size() {
+        return count;
+    }
+
+    void add(Tuple t) throws IOException {
+        if (buffer.remaining() < recordSize) {
+            flush();
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(buffer);
+        }
+        count++;
+    }
+
+    /** Appends the buffered records to the file, creating it on first use. */
+    private void flush() throws IOException {
+        if (channel == null) {
+            // removed by close(), not deleteOnExit: that would keep one entry per spill until the JVM exits
+            file = File.createTempFile("spill", ".dat");
+            try {
+                raf = new RandomAccessFile(file, "rw");
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            channel = raf.getChannel();
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Reads the tuples of a spill in the order they were added. */
+    class Cursor {
+        private final ByteBuffer in;
+        private long position;      // next file offset to read
+        private final long end;     // file bytes to read before the buffered tail
+
+        private Cursor(long end) {
+            this.end = end;
+            this.in = channel == null ? buffer.duplicate() : ByteBuffer.allocate(buffer.capacity());
+            if (channel == null) {
+                in.flip();
+            } else {
+                in.limit(0);
+            }
+        }
+
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws IOException {
+            if (in.remaining() < recordSize && !fill()) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            int offset = in.position();
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parse(in, offset));
+                offset += td.getFieldType(i).getLen();
+            }
+            in.position(in.position() + recordSize);
+            return t;
+        }
+
+        private boolean fill() throws IOException {
+            if (channel == null || position == end) {
+                return false;
+            }
+            in.clear();
+            in.limit((int) Math.min(in.capacity(), end - position));
+            while (in.hasRemaining()) {
+                int n = channel.read(in, position);
+                if (n < 0) {
+                    throw new IOException("spill file " + file + " is shorter than written");
+                }
+                position += n;
+            }
+            in.flip();
+            return true;
+        }
+    }
+
+    /**
+     * @return a cursor over all tuples added so far; the spill must not be
+     *         added to once it has been read
+     */
+    Cursor cursor() throws IOException {
+        if (channel != null && buffer.position() > 0) {
+            flush();
+        }
+        return new Cursor(channel == null ? 0 : channel.size());
+    }
+
+    /** Deletes the file, if there is one. */
+    @Override
+    public void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            file.delete();
+            raf = null;
+            channel = null;
+        }
+        buffer.clear();
+        count = 0;
+    }
+}
@@ -0,0 +1,313 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.RecordSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BTreeBulkLoader builds a {@link BTreeFile} from a delimited text file in
+ * bounded memory, without inserting tuple by tuple.
+ * <p>
+ * The lines are parsed by a {@link BulkLoader} and sorted on the key field by
+ * a {@link RecordSorter}, which spills sorted runs to disk when the input
+ * does not fit in the sort memory. Once the number of tuples is known, the
+ * shape of the tree follows from the fill factor: the leaves are numbered
+ * first, then each internal level above them, and the root comes last, as in
+ * {@link BTreeFileEncoder}. The sorted records then stream through the
+ * builder once: leaves are written sequentially with their sibling and parent
+ * pointers already set, and each level keeps only the internal page it is
+ * filling, written when its last child is done.
+ * <p>
+ * Records are spread evenly over the pages of a level, so every page but the
+ * root holds at least half of its capacity.
+ */
+public class BTreeBulkLoader {
+
+    /** Default bytes of records sorted in memory before spilling a run. */
+    public static final long DEFAULT_SORT_MEMORY = 64L << 20;
+
+    /** Leaf pages written per call to the file. */
+    private static final int PAGES_PER_WRITE = 64;
+
+    private final BulkLoader parser;
+    private final int keyField;
+    private double fillFactor = 1.0;
+    private long sortMemory = DEFAULT_SORT_MEMORY;
+
+    /**
+     * @param parser parses the input lines
+     * @param keyField the index of the field the tree is keyed on
+     */
+    public BTreeBulkLoader(BulkLoader parser, int keyField) {
+        this.parser = parser;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Sets how full the pages are made, between 0.5 and 1. Below 1, pages
+     * keep room for later inserts before they split.
+     */
+    public BTreeBulkLoader fillFactor(double fillFactor) {
+        if (!(fillFactor >= 0.5 && fillFactor <= 1.0)) {
+            throw new IllegalArgumentException("fill factor must be between 0.5 and 1: " + fillFactor);
+        }
+        this.fillFactor = fillFactor;
+        return this;
+    }
+
+    /** Sets the bytes of records sorted in memory; see {@link #DEFAULT_SORT_MEMORY}. */
+    public BTreeBulkLoader sortMemory(long sortMemory) {
+        this.sortMemory = sortMemory;
+        return this;
+    }
+
+    /**
+     * Loads a text file into a B+ tree file, in the format of the BTree pages.
+     * The output file is replaced.
+     *
+     * @param in the text file, one tuple per line
+     * @param out the B+ tree file to write
+     * @return the number of tuples loaded
+     * @throws IOException if a file cannot be read or written, or a line is malformed
+     */
+    public long load(File in, File out) throws IOException {
+        Type[] types = parser.getTypes();
+        int keyOffset = 0;
+        for (int i = 0; i < keyField; i++) {
+            keyOffset += types[i].getLen();
+        }
+        try (RecordSorter sorter = new RecordSorter(parser.getRecordSize(), types[keyField], keyOffset, sortMemory)) {
+            parser.parse(in, sorter);
+            try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+                raf.setLength(0);
+                TreeWriter writer = new TreeWriter(raf.getChannel(), sorter.size(),
+                        types[keyField].getLen(), keyOffset);
+                sorter.finish(writer);
+                writer.finish();
+            }
+            return sorter.size();
+        }
+    }
+
+    /**
+     * @param items the children (or tuples) to spread over a level
+     * @param target how many a page is made to hold
+     * @param min the fewest a page other than the root may hold
+     * @return the number of pages of the level
+     */
+    static int pagesFor(long items, int target, int min) {
+        int pages = (int) Math.max(1, (items + target - 1) / target);
+        while (pages > 1 && items / pages < min) {
+            pages--;
+        }
+        return pages;
+    }
+
+    /** A level of the tree: pages numbered from first, with items spread evenly. */
+    private static class Level {
+        final int first;
+        final int pages;
+        final long items;
+
+        Level(int first, int pages, long items) {
+            this.first = first;
+            this.pages = pages;
+            this.items = items;
+        }
+
+        /** @return how many items page i (counting from 0) holds */
+        int quota(int i) {
+            return (int) (items / pages + (i < items % pages ? 1 : 0));
+        }
+
+        /** @return the page number of the page holding item j */
+        int pageOf(long j) {
+            long base = items / pages, rem = items % pages;
+            long i = j < rem * (base + 1) ? j / (base + 1) : rem + (j - rem * (base + 1)) / base;
+            return first + (int) i;
+        }
+    }
+
+    /** Streams sorted records into leaf pages and the internal levels above them. */
+    private class TreeWriter implements BulkLoader.RecordSink {
+        private final FileChannel channel;
+        private final int pageSize = BufferPool.getPageSize();
+        private final int recordSize = parser.getRecordSize();
+        private final int keyLen, keyOffset;
+
+        // leaves: as BTreeLeafPage lays them out
+        private final int maxTuples = (pageSize * 8 - 3 * BTreePage.INDEX_SIZE * 8) / (recordSize * 8 + 1);
+        private final int leafHeader = (maxTuples + 7) / 8;
+        // internal pages: as BTreeInternalPage lays them out
+        private final int maxEntries;
+        private final int internalHeader;
+
+        private final Level[] levels;           // levels[0] are the leaves
+        private final ByteBuffer leaves = ByteBuffer.allocateDirect(PAGES_PER_WRITE * pageSize);
+        private int leavesFirst = 1;            // page number of the first page in leaves
+        private final byte[] leaf;
+        private final byte[][] internal;        // the page each internal level is filling
+        private final byte[][] lowKeys;         // the smallest key under that page (leaf too)
+        private final int[] done;               // pages finished per level
+        private final int[] filled;             // items on the page each level is filling
+        private long leafTuples;                // tuples handed to leaves so far
+
+        TreeWriter(FileChannel channel, long tuples, int keyLen, int keyOffset) {
+            this.channel = channel;
+            this.keyLen = keyLen;
+            this.keyOffset = keyOffset;
+            this.maxEntries = (pageSize * 8 - (2 * BTreePage.INDEX_SIZE * 8 + 8 + 1))
+                    / (keyLen * 8 + BTreePage.INDEX_SIZE * 8 + 1);
+            this.internalHeader = (maxEntries + 1 + 7) / 8;
+
+            int leafTarget = Math.max(1, (int) (maxTuples * fillFactor));
+            int childTarget = Math.max(2, (int) (maxEntries * fillFactor) + 1);
+            List<Level> ls = new ArrayList<>();
+            Level level = new Level(1, pagesFor(tuples, leafTarget, maxTuples / 2), tuples);
+            ls.add(level);
+            while (level.pages > 1) {
+                int first = level.first + level.pages;
+                level = new Level(first, pagesFor(level.pages, childTarget, maxEntries / 2 + 1), level.pages);
+                ls.add(level);
+            }
+            this.levels = ls.toArray(new Level[0]);
+            this.leaf = new byte[pageSize];
+            this.internal = new byte[levels.length][];
+            this.lowKeys = new byte[levels.length][keyLen];
+            for (int i = 1; i < levels.length; i++) {
+                internal[i] = new byte[pageSize];
+            }
+            this.done = new int[levels.length];
+            this.filled = new int[levels.length];
+        }
+
+        private long offset(int pageNo) {
+            return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * pageSize;
+        }
+
+        /** @return the parent page number of page i of level k, 0 for the root */
+        private int parentOf(int k, int i) {
+            return k + 1 < levels.length ? levels[k + 1].pageOf(i) : 0;
+        }
+
+        @Override
+        public void accept(ByteBuffer records) throws IOException {
+            Level level = levels[0];
+            while (records.hasRemaining()) {
+                int quota = level.quota(done[0]);
+                if (filled[0] == 0) {
+                    int pos = records.position() + keyOffset;
+                    for (int i = 0; i < keyLen; i++) {
+                        lowKeys[0][i] = records.get(pos + i);
+                    }
+                }
+                int n = Math.min(quota - filled[0], records.remaining() / recordSize);
+                records.get(leaf, 3 * BTreePage.INDEX_SIZE + leafHeader + filled[0] * recordSize, n * recordSize);
+                filled[0] += n;
+                leafTuples += n;
+                if (filled[0] == quota) {
+                    endLeaf();
+                }
+            }
+        }
+
+        private void endLeaf() throws IOException {
+            Level level = levels[0];
+            int i = done[0];
+            int pageNo = level.first + i;
+            ByteBuffer b = ByteBuffer.wrap(leaf);
+            b.putInt(0, parentOf(0, i));
+            b.putInt(BTreePage.INDEX_SIZE, i > 0 ? pageNo - 1 : 0);
+            b.putInt(2 * BTreePage.INDEX_SIZE, i + 1 < level.pages ? pageNo + 1 : 0);
+            int headerStart = 3 * BTreePage.INDEX_SIZE;
+            setHeaderBits(leaf, headerStart, leafHeader, filled[0]);
+            Arrays.fill(leaf, headerStart + leafHeader + filled[0] * recordSize, pageSize, (byte) 0);
+            leaves.put(leaf);
+            if (!leaves.hasRemaining()) {
+                flushLeaves();
+            }
+            filled[0] = 0;
+            done[0]++;
+            if (levels.length > 1) {
+                addChild(1, pageNo, lowKeys[0]);
+            }
+        }
+
+        private void flushLeaves() throws IOException {
+            leaves.flip();
+            long position = offset(leavesFirst);
+            leavesFirst += leaves.remaining() / pageSize;
+            while (leaves.hasRemaining()) {
+                position += channel.write(leaves, position);
+            }
+            leaves.clear();
+        }
+
+        /** Adds the next child, the page childNo whose smallest key is lowKey, to level k. */
+        private void addChild(int k, int childNo, byte[] lowKey) throws IOException {
+            byte[] page = internal[k];
+            int slot = filled[k];
+            int keysStart = BTreePage.INDEX_SIZE + 1 + internalHeader;
+            int childrenStart = keysStart + maxEntries * keyLen;
+            if (slot == 0) {
+                Arrays.fill(page, (byte) 0);
+                System.arraycopy(lowKey, 0, lowKeys[k], 0, keyLen);
+            } else {
+                // the key between two children is the smallest key of the right one
+                System.arraycopy(lowKey, 0, page, keysStart + (slot - 1) * keyLen, keyLen);
+            }
+            ByteBuffer.wrap(page).putInt(childrenStart + slot * BTreePage.INDEX_SIZE, childNo);
+            filled[k]++;
+            if (filled[k] == levels[k].quota(done[k])) {
+                int i = done[k];
+                int pageNo = levels[k].first + i;
+                ByteBuffer b = ByteBuffer.wrap(page);
+                b.putInt(0, parentOf(k, i));
+                b.put(BTreePage.INDEX_SIZE, (byte) (k == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL));
+                setHeaderBits(page, BTreePage.INDEX_SIZE + 1, internalHeader, filled[k]);
+                long position = offset(pageNo);
+                while (b.hasRemaining()) {
+                    position += channel.write(b, position);
+                }
+                filled[k] = 0;
+                done[k]++;
+                if (k + 1 < levels.length) {
+                    addChild(k + 1, pageNo, lowKeys[k]);
+                }
+            }
+        }
+
+        /** Marks the first used slots of a page header, bit i of a byte for slot i mod 8. */
+        private void setHeaderBits(byte[] page, int from, int length, int used) {
+            Arrays.fill(page, from, from + length, (byte) 0);
+            for (int i = 0; i < used; i++) {
+                page[from + i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+
+        /** Writes what is left of the tree and the root pointer. */
+        void finish() throws IOException {
+            if (levels[0].items == 0) {
+                endLeaf(); // the root is an empty leaf
+            }
+            if (leaves.position() > 0) {
+                flushLeaves();
+            }
+            assert leafTuples == levels[0].items;
+            Level root = levels[levels.length - 1];
+            ByteBuffer ptr = ByteBuffer.wrap(BTreeFileEncoder.convertToRootPtrPage(root.first,
+                    levels.length > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF, 0));
+            channel.write(ptr, 0);
+        }
+    }
+}
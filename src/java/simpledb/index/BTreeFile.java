@@ -1,7 +1,9 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -10,6 +12,7 @@ import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.*;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -19,6 +22,13 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Lookups and inserts first descend optimistically: they crab down the internal pages
+ * with short-term read latches ({@link BTreeLatches}) instead of transaction locks, and
+ * lock only the leaf they reach. An insert that has to split, or a delete that has to
+ * merge or redistribute, takes the locking path instead, and write-latches the internal
+ * pages it changes until it is done. Leaves are always locked as before, so next-key
+ * locking on the leaves is unchanged.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -26,12 +36,20 @@ import simpledb.transaction.TransactionId;
  * @see BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, MemoryMappable {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private volatile MappedFile mapped; // non-null when the table is memory-mapped in the catalog
+	private final PageFileChannel channel; // long-lived handle for positional page reads and writes
+	private final BTreeLatches latches = new BTreeLatches();
+	private volatile boolean optimistic = true;
+	private volatile boolean created; // the root pointer page is known to be on disk
+
+	/** Optimistic descents an operation tries before it takes the locking path. */
+	static final int OPTIMISTIC_ATTEMPTS = 3;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +64,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new PageFileChannel(f);
 	}
 
 	/**
@@ -77,6 +96,65 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	// see MemoryMappable.java for javadocs
+	public synchronized void setMemoryMapped(boolean on) throws IOException {
+		if (on && mapped == null) {
+			mapped = new MappedFile(f);
+		} else if (!on && mapped != null) {
+			mapped.close();
+			mapped = null;
+		}
+	}
+
+	public boolean isMemoryMapped() {
+		return mapped != null;
+	}
+
+	/**
+	 * Turns optimistic descents on (the default) or off. With them off, every
+	 * lookup and insert locks the internal pages on its path.
+	 */
+	public void setOptimisticDescent(boolean on) {
+		this.optimistic = on;
+	}
+
+	/**
+	 * Read a page from the memory mapping of this file, if the table is mapped.
+	 * Leaf pages decode their tuples straight from the mapping; the other
+	 * page types copy their bytes out of it.
+	 * 
+	 * @param id - the id of the page to read
+	 * @return the page, or null if the file is not mapped or the page is not
+	 *   in the mapping
+	 */
+	private Page readMappedPage(BTreePageId id) {
+		MappedFile m = mapped;
+		if (m == null) {
+			return null;
+		}
+		try {
+			ByteBuffer slice = m.slice(pageOffset(id), id.pgcateg() == BTreePageId.ROOT_PTR ?
+					BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize());
+			if (slice == null) {
+				return null;
+			}
+			if (id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, slice, keyField);
+			}
+			byte[] pageBuf = new byte[slice.remaining()];
+			slice.get(pageBuf);
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, pageBuf, keyField);
+			} else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, pageBuf);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -86,50 +164,93 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		Page mappedPage = readMappedPage(id);
+		if (mappedPage != null) {
+			return mappedPage;
+		}
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+			readFully(id, ByteBuffer.wrap(pageBuf));
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			try {
+				return new BTreeRootPtrPage(id, pageBuf);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		// the page constructors decode the buffer, so it can be reused right away
+		byte[] pageBuf = PageBuffers.take();
+		try {
+			readFully(id, ByteBuffer.wrap(pageBuf));
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			if (id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, pageBuf, keyField);
+			} else if (id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, pageBuf, keyField);
+			} else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, pageBuf);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			PageBuffers.give(pageBuf);
+		}
+	}
+
+	/**
+	 * @return the offset in the file of the page with the given id
+	 */
+	private static long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Fills dst with the page with the given id, through the file's shared channel.
+	 * 
+	 * @throws IllegalArgumentException if the page is not (entirely) in the file
+	 */
+	private void readFully(BTreePageId id, ByteBuffer dst) {
+		int len = dst.remaining();
+		int retval;
+		try {
+			retval = channel.read(dst, pageOffset(id));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (retval == 0) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < len) {
+			throw new IllegalArgumentException("Unable to read "
+					+ len + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * Read a page from the file on disk into a buffer pool frame. Leaf pages
+	 * keep reading their tuples from the frame; all other page types are small
+	 * or hot enough that they are read onto the heap as usual.
+	 * 
+	 * @param pid - the id of the page to read from disk
+	 * @param frame - an empty page-sized buffer the page may adopt
+	 * @return the page constructed from the contents on disk
+	 */
+	@Override
+	public Page readPage(PageId pid, ByteBuffer frame) {
+		BTreePageId id = (BTreePageId) pid;
+		if (id.pgcateg() != BTreePageId.LEAF || mapped != null) {
+			return readPage(pid);
+		}
+		ByteBuffer dst = frame.duplicate();
+		dst.clear();
+		readFully(id, dst);
+		Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+		return new BTreeLeafPage(id, frame, keyField);
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -139,18 +260,37 @@ public class BTreeFile implements DbFile {
 	 */
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		channel.write(ByteBuffer.wrap(page.getPageData()), pageOffset(id));
+	}
+
+	/**
+	 * Write several pages to disk, joining pages that are adjacent in the
+	 * file into one write. Called by the BufferPool's page cleaner.
+	 *
+	 * @param pages - the pages to write, sorted by page number
+	 */
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		channel.writePages(pages, id -> pageOffset((BTreePageId) id));
+	}
+
+	/**
+	 * The leaf a scan reads after the given leaf, for {@link ReadAhead}:
+	 * its right sibling.
+	 * 
+	 * @return the right sibling, or null if the page is not a leaf or is the last one
+	 */
+	static PageId rightSibling(PageId pid, Page page) {
+		return page instanceof BTreeLeafPage ? ((BTreeLeafPage) page).getRightSiblingId() : null;
+	}
+
+	/**
+	 * Release the file handle and the memory mapping of this file, if any.
+	 * Later reads and writes reopen the handle; the file is no longer mapped.
+	 */
+	public void close() throws IOException {
+		setMemoryMapped(false);
+		channel.close();
 	}
 	
 	/**
@@ -187,8 +327,27 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, childFor(page, f), perm, f);
+	}
+
+	/**
+	 * @return the child of an internal page to follow for the left-most leaf page
+	 * possibly containing the key field f, or for the left-most leaf if f is null
+	 */
+	private static BTreePageId childFor(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return e.getLeftChild();
+			}
+		}
+		return e.getRightChild();
 	}
 	
 	/**
@@ -208,6 +367,103 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
 	}
 
+	/**
+	 * Finds and read-locks the left-most leaf page possibly containing the key field f,
+	 * starting from the root pointer page. Used by the BTreeFile iterators.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = findLeafOptimistically(tid, Permissions.READ_ONLY, f);
+		if(leaf != null) {
+			return leaf;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		return findLeafPage(tid, rootPtr.getRootId(), f);
+	}
+
+	/**
+	 * Finds the left-most leaf page possibly containing the key field f without locking
+	 * the internal pages on the way, and locks it with permission perm. The descent is
+	 * retried if a split or merge ended while it ran, since the leaf may no longer be the
+	 * right one.
+	 * 
+	 * @param tid - the transaction id
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the leaf page, or null if the caller must take the locking path
+	 */
+	private BTreeLeafPage findLeafOptimistically(TransactionId tid, Permissions perm, Field f)
+			throws DbException, TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
+		VersionStore versions = pool.getVersionStore();
+		if(!optimistic || !created || versions != null && versions.isSnapshot(tid)) {
+			return null;
+		}
+		for(int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+			long version = latches.version();
+			BTreePageId leafId = descend(tid, f);
+			if(leafId == null) {
+				return null;
+			}
+			// no latch is held here, so waiting for the leaf's lock holds up no one
+			BTreeLeafPage leaf = (BTreeLeafPage) pool.getPage(tid, leafId, perm);
+			if(latches.version() == version) {
+				return leaf;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Crabs down from the root pointer page to the left-most leaf possibly containing
+	 * the key field f, holding a read latch on at most two pages at a time and locking
+	 * none. Gives up on a page that is busy or that another transaction has locked
+	 * exclusively, since that transaction may be changing the tree and may still abort.
+	 * 
+	 * @return the id of the leaf page, or null if the descent gave up
+	 */
+	private BTreePageId descend(TransactionId tid, Field f) throws DbException, TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
+		LockManager locks = pool.getLockManager();
+		BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+		ReentrantReadWriteLock.ReadLock held = null;
+		try {
+			while(pid.pgcateg() != BTreePageId.LEAF) {
+				ReentrantReadWriteLock.ReadLock latch = latches.tryRead(pid);
+				if(latch == null) {
+					return null;
+				}
+				if(held != null) {
+					held.unlock();
+				}
+				held = latch;
+				if(locks.isLockedExclusivelyByOther(tid, pid)) {
+					return null;
+				}
+				Page page = pool.getPage(null, pid, Permissions.READ_ONLY);
+				if(pid.pgcateg() == BTreePageId.ROOT_PTR) {
+					pid = ((BTreeRootPtrPage) page).getRootId();
+					if(pid == null) {
+						return null;
+					}
+				}
+				else {
+					pid = childFor((BTreeInternalPage) page, f);
+				}
+			}
+			return pid;
+		} finally {
+			if(held != null) {
+				held.unlock();
+			}
+		}
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -239,8 +495,33 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newRight = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		Tuple[] moving = new Tuple[page.getNumTuples() / 2];
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = moving.length - 1; i >= 0; i--) {
+			moving[i] = it.next();
+		}
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			newRight.insertTuple(t);
+		}
+
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(newRight.getId());
+		}
+		newRight.setRightSiblingId(oldRightId);
+		newRight.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newRight.getId());
+
+		Field midKey = moving[0].getField(keyField);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), midKey);
+		parent.insertEntry(new BTreeEntry(midKey, page.getId(), newRight.getId()));
+		page.setParentId(parent.getId());
+		newRight.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, midKey) ? newRight : page;
 	}
 	
 	/**
@@ -277,7 +558,30 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage newRight = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		BTreeEntry[] moving = new BTreeEntry[page.getNumEntries() / 2];
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = moving.length - 1; i >= 0; i--) {
+			moving[i] = it.next();
+		}
+		BTreeEntry mid = it.next();
+		for(int i = moving.length - 1; i >= 0; i--) {
+			page.deleteKeyAndRightChild(moving[i]);
+		}
+		page.deleteKeyAndRightChild(mid);
+		for(BTreeEntry e : moving) {
+			newRight.insertEntry(e);
+		}
+
+		mid.setLeftChild(page.getId());
+		mid.setRightChild(newRight.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+		parent.insertEntry(mid);
+		page.setParentId(parent.getId());
+		newRight.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, newRight);
+
+		return field.compare(Op.GREATER_THAN, mid.getKey()) ? newRight : page;
 	}
 	
 	/**
@@ -389,6 +693,10 @@ public class BTreeFile implements DbFile {
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
 	 * 
+	 * During a split or merge, internal and root pointer pages fetched with read-write
+	 * permission are also write-latched, after they are locked, until the insert or
+	 * delete is done.
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the id of the requested page
@@ -407,6 +715,7 @@ public class BTreeFile implements DbFile {
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
+				latches.write(pid);
 				dirtypages.put(pid, p);
 			}
 			return p;
@@ -417,6 +726,11 @@ public class BTreeFile implements DbFile {
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
 	 * 
+	 * If the leaf found by an optimistic descent has room for the tuple, only that leaf
+	 * is locked and changed. If it is full, it is split from there, locking only the
+	 * pages the split changes. If the descent gave up, the insert takes the locking path
+	 * from the root.
+	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
 	 * @return a list of all pages that were dirtied by this operation. Could include
@@ -425,7 +739,38 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		BTreeLeafPage leaf = findLeafOptimistically(tid, Permissions.READ_WRITE, t.getField(keyField));
+		if(leaf != null && leaf.getNumEmptySlots() > 0) {
+			leaf.insertTuple(t);
+			return Collections.singletonList(leaf);
+		}
+
+		latches.beginWrites();
+		try {
+			return insertTupleLocking(tid, t, leaf);
+		} finally {
+			latches.endWrites();
+		}
+	}
+
+	/**
+	 * Inserts a tuple, splitting pages as needed.
+	 * @see #insertTuple(TransactionId, Tuple)
+	 * 
+	 * @param leaf - the full leaf page an optimistic descent locked for the tuple, or null
+	 * to find the leaf page on the locking path
+	 */
+	private List<Page> insertTupleLocking(TransactionId tid, Tuple t, BTreeLeafPage leaf)
+			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		if(leaf != null) {
+			// the leaf stays the right one while it is locked: changing its key range
+			// takes its lock, and so does changing its parent pointer
+			dirtypages.put(leaf.getId(), leaf);
+			BTreeLeafPage leafPage = splitLeafPage(tid, dirtypages, leaf, t.getField(keyField));
+			leafPage.insertTuple(t);
+			return new ArrayList<>(dirtypages.values());
+		}
 
 		// get a read lock on the root pointer page and use it to locate the root page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
@@ -569,6 +914,20 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
+		int toMove = sibling.getNumTuples() - (page.getNumTuples() + sibling.getNumTuples()) / 2;
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		List<Tuple> moving = new ArrayList<>(toMove);
+		while(moving.size() < toMove && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(Tuple t : moving) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		BTreeLeafPage right = isRightSibling ? sibling : page;
+		entry.setKey(right.iterator().next().getField(keyField));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -648,6 +1007,17 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int toMove = leftSibling.getNumEntries() - (page.getNumEntries() + leftSibling.getNumEntries()) / 2;
+		for(int i = 0; i < toMove; i++) {
+			// rotate the last key of the left sibling through the parent
+			BTreeEntry last = leftSibling.reverseIterator().next();
+			BTreeEntry first = page.iterator().next();
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+			leftSibling.deleteKeyAndRightChild(last);
+			parentEntry.setKey(last.getKey());
+			parent.updateEntry(parentEntry);
+		}
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -675,6 +1045,17 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int toMove = rightSibling.getNumEntries() - (page.getNumEntries() + rightSibling.getNumEntries()) / 2;
+		for(int i = 0; i < toMove; i++) {
+			// rotate the first key of the right sibling through the parent
+			BTreeEntry first = rightSibling.iterator().next();
+			BTreeEntry last = page.reverseIterator().next();
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+			rightSibling.deleteKeyAndLeftChild(first);
+			parentEntry.setKey(first.getKey());
+			parent.updateEntry(parentEntry);
+		}
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -705,6 +1086,25 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<Tuple> moving = new ArrayList<>(rightPage.getNumTuples());
+		Iterator<Tuple> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(Tuple t : moving) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId rightRightId = rightPage.getRightSiblingId();
+		leftPage.setRightSiblingId(rightRightId);
+		if(rightRightId != null) {
+			BTreeLeafPage rightRight = (BTreeLeafPage) getPage(tid, dirtypages, rightRightId, Permissions.READ_WRITE);
+			rightRight.setLeftSiblingId(leftPage.getId());
+		}
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -738,6 +1138,26 @@ public class BTreeFile implements DbFile {
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<BTreeEntry> moving = new ArrayList<>(rightPage.getNumEntries());
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(int i = moving.size() - 1; i >= 0; i--) {
+			rightPage.deleteKeyAndRightChild(moving.get(i));
+		}
+
+		// pull the parent key down between the two pages' children
+		BTreeEntry last = leftPage.reverseIterator().next();
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(),
+				moving.get(0).getLeftChild()));
+		for(BTreeEntry e : moving) {
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -811,7 +1231,12 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+			latches.beginWrites();
+			try {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			} finally {
+				latches.endWrites();
+			}
 		}
 
         return new ArrayList<>(dirtypages.values());
@@ -829,16 +1254,16 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
-				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+		if(!created) {
+			synchronized(this) {
+				if(channel.size() == 0) {
+					// create the root pointer page and the root page
+					byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+					byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+					channel.write(ByteBuffer.wrap(emptyRootPtrData), 0);
+					channel.write(ByteBuffer.wrap(emptyLeafData), emptyRootPtrData.length);
+				}
+				created = true;
 			}
 		}
 
@@ -894,11 +1319,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(ByteBuffer.wrap(emptyData), channel.size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -929,10 +1351,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(newPageId));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1062,6 +1481,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1080,10 +1500,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = f.findLeafPage(tid, null);
+		// a full scan reads every leaf, so read-ahead can follow the siblings to the end
+		readAhead = new ReadAhead(BTreeFile::rightSibling);
+		readAhead.access(curp.getId(), curp);
 		it = curp.iterator();
 	}
 
@@ -1106,6 +1526,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.access(nextp, curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1132,6 +1553,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		if (readAhead != null) {
+			readAhead.cancel();
+			readAhead = null;
+		}
 	}
 }
 
@@ -1147,6 +1572,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	ReadAhead readAhead = null;
 
 	/**
 	 * Constructor for this iterator
@@ -1165,19 +1591,42 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, null);
 		}
+		readAhead = new ReadAhead(this::nextLeaf);
+		readAhead.access(curp.getId(), curp);
 		it = curp.iterator();
 	}
 
+	/**
+	 * The leaf a search reads after the given leaf, for {@link ReadAhead}: its
+	 * right sibling, unless the predicate has an upper bound that the leaf's
+	 * last key has already reached, so the search ends on this leaf.
+	 *
+	 * @return the right sibling, or null if the search does not go past the page
+	 */
+	private PageId nextLeaf(PageId pid, Page page) {
+		if (!(page instanceof BTreeLeafPage)) {
+			return null;
+		}
+		BTreeLeafPage leaf = (BTreeLeafPage) page;
+		Op op = ipred.getOp();
+		if (op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ || op == Op.EQUALS) {
+			Iterator<Tuple> last = leaf.reverseIterator();
+			// with EQUALS or LESS_THAN_OR_EQ, keys equal to the bound may go on in the next leaf
+			Op within = op == Op.LESS_THAN ? Op.LESS_THAN : Op.LESS_THAN_OR_EQ;
+			if (last.hasNext() && !last.next().getField(f.keyField()).compare(within, ipred.getField())) {
+				return null;
+			}
+		}
+		return leaf.getRightSiblingId();
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
 	 * the predicate or from the next page by following the right sibling pointer.
@@ -1215,6 +1664,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.access(nextp, curp);
 				it = curp.iterator();
 			}
 		}
@@ -1236,5 +1686,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (readAhead != null) {
+			readAhead.cancel();
+			readAhead = null;
+		}
 	}
 }
@@ -258,7 +258,7 @@ public class BTreeHeaderPage implements Page {
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
 	 */
-	public void markDirty(boolean dirty, TransactionId tid) {
+	public synchronized void markDirty(boolean dirty, TransactionId tid) {
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
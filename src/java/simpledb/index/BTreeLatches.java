@@ -0,0 +1,95 @@
+package simpledb.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Short-term latches on the internal and root pointer pages of one
+ * {@link BTreeFile}, separate from transaction locks.
+ * <p>
+ * A descent read-latches each page on its way down and lets go of the
+ * parent once it holds the child (latch crabbing). It never waits long for a
+ * latch, and never waits for a transaction lock while holding one: if a
+ * latch stays busy, it gives up and the caller takes the locking path.
+ * <p>
+ * A structure change (a split, merge or redistribution) write-latches every
+ * internal page it changes for the rest of the insert or delete, after
+ * locking the page for its transaction. When it is done it bumps the
+ * structure version, so a descent that ran meanwhile knows that the leaf it
+ * found may no longer be the right one.
+ *
+ * @Threadsafe
+ */
+class BTreeLatches {
+
+    /** How long a descent waits for a latch before it gives up. */
+    static final long LATCH_WAIT_MICROS = 1000;
+
+    private final ConcurrentHashMap<BTreePageId, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+    /** Pages write-latched by the structure change running in this thread, or null outside of one. */
+    private final ThreadLocal<List<ReentrantReadWriteLock>> writing = new ThreadLocal<>();
+    private final AtomicLong version = new AtomicLong();
+
+    private ReentrantReadWriteLock latch(BTreePageId pid) {
+        return latches.computeIfAbsent(pid, k -> new ReentrantReadWriteLock());
+    }
+
+    /** @return the structure version; it changes whenever a structure change ends */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * Read-latches a page, waiting at most {@link #LATCH_WAIT_MICROS}.
+     *
+     * @return the latch to unlock, or null if it stayed busy
+     */
+    ReentrantReadWriteLock.ReadLock tryRead(BTreePageId pid) {
+        ReentrantReadWriteLock.ReadLock read = latch(pid).readLock();
+        try {
+            return read.tryLock(LATCH_WAIT_MICROS, TimeUnit.MICROSECONDS) ? read : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** Starts a structure change in this thread. */
+    void beginWrites() {
+        writing.set(new ArrayList<>());
+    }
+
+    /**
+     * Write-latches a page for the structure change running in this thread,
+     * if any. The caller holds the page's exclusive transaction lock, so only
+     * descents can be holding the latch, and not for long.
+     */
+    void write(BTreePageId pid) {
+        List<ReentrantReadWriteLock> held = writing.get();
+        if (held == null || pid.pgcateg() == BTreePageId.LEAF || pid.pgcateg() == BTreePageId.HEADER) {
+            return;
+        }
+        ReentrantReadWriteLock latch = latch(pid);
+        if (!latch.isWriteLockedByCurrentThread()) {
+            latch.writeLock().lock();
+            held.add(latch);
+        }
+    }
+
+    /** Ends the structure change running in this thread, releasing its latches. */
+    void endWrites() {
+        List<ReentrantReadWriteLock> held = writing.get();
+        writing.remove();
+        if (held == null || held.isEmpty()) {
+            return;
+        }
+        version.incrementAndGet();
+        for (ReentrantReadWriteLock latch : held) {
+            latch.writeLock().unlock();
+        }
+    }
+}
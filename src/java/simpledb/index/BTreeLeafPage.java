@@ -7,9 +7,11 @@ import simpledb.common.Debug;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -19,7 +21,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements FramedPage {
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
@@ -27,6 +29,10 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	// true while slots may still be undecoded in data; cleared once every tuple is materialized
+	private boolean lazy; // protected by this
+	private ByteBuffer data; // on-disk image of a lazy page: an arena frame, or a heap copy once detached
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -110,6 +116,37 @@ public class BTreeLeafPage extends BTreePage {
 		setBeforeImage();
 	}
 
+	/**
+	 * Create a BTreeLeafPage over a buffer holding the page as read from disk
+	 * (same format as {@link #BTreeLeafPage(BTreePageId, byte[], int)}): a
+	 * buffer pool frame, or a slice of a memory-mapped file. Pointers and
+	 * header are copied; tuples are decoded from the buffer when they are
+	 * read. The first modification of the page decodes all of its tuples,
+	 * since records then move between slots.
+	 * 
+	 * @param id - the id of this page
+	 * @param frame - the buffer holding the raw data of this page
+	 * @param key - the field which the index is keyed on
+	 * @see FrameArena
+	 * @see MappedFile
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer frame, int key) {
+		super(id, key);
+		this.numSlots = getMaxTuples();
+		this.parent = frame.getInt(0);
+		this.leftSibling = frame.getInt(INDEX_SIZE);
+		this.rightSibling = frame.getInt(2 * INDEX_SIZE);
+
+		header = new byte[getHeaderSize()];
+		ByteBuffer src = frame.duplicate();
+		src.position(3 * INDEX_SIZE);
+		src.get(header);
+
+		tuples = new Tuple[numSlots];
+		this.lazy = true;
+		this.data = frame;
+	}
+
 	/** 
 	 * Retrieve the maximum number of tuples this page can hold.
 	 */
@@ -140,6 +177,10 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
+			if (oldDataRef == null) {
+				// not set since the page was read: the frame is the before image
+				oldDataRef = copyOfData();
+			}
 			return new BTreeLeafPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -156,6 +197,85 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Saves the bytes a lazy page was read from as its before image, ahead of
+	 * the first change, since data may be a view of the file itself.
+	 */
+	private synchronized void keepBeforeImage() {
+		if (data != null && oldData == null) {
+			oldData = copyOfData();
+		}
+	}
+
+	@Override
+	public void markDirty(boolean dirty, TransactionId tid) {
+		if (dirty) {
+			keepBeforeImage();
+		}
+		super.markDirty(dirty, tid);
+	}
+
+	/** @return a heap copy of the bytes this page was read from */
+	private synchronized byte[] copyOfData() {
+		byte[] copy = new byte[BufferPool.getPageSize()];
+		ByteBuffer src = data.duplicate();
+		src.position(0);
+		src.get(copy);
+		return copy;
+	}
+
+	@Override
+	public synchronized ByteBuffer frame() {
+		return data != null && data.isDirect() ? data : null;
+	}
+
+	@Override
+	public synchronized void detachFrame() {
+		if (data != null && data.isDirect()) {
+			data = lazy ? ByteBuffer.wrap(copyOfData()) : null;
+		}
+	}
+
+	private int slotOffset(int slotId) {
+		return 3 * INDEX_SIZE + header.length + slotId * td.getSize();
+	}
+
+	/** Decodes a used slot straight out of data. */
+	private Tuple decodeTuple(int slotId) {
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		int offset = slotOffset(slotId);
+		for (int j=0; j<td.numFields(); j++) {
+			Type type = td.getFieldType(j);
+			t.setField(j, type.parse(data, offset));
+			offset += type.getLen();
+		}
+		return t;
+	}
+
+	/**
+	 * Decodes every remaining tuple so the page can be modified; after this
+	 * the page no longer reads from its frame.
+	 */
+	private void materialize() {
+		keepBeforeImage();
+		synchronized (this) {
+			decodeAll();
+		}
+	}
+
+	private void decodeAll() {
+		if (!lazy) {
+			return;
+		}
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i) && tuples[i] == null) {
+				tuples[i] = decodeTuple(i);
+			}
+		}
+		lazy = false;
+	}
+
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -253,8 +373,9 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			// non-empty slot
+			Tuple tuple = tupleAt(i);
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
+				Field f = tuple.getField(j);
 				try {
 					f.serialize(dos);
 
@@ -297,6 +418,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		keepBeforeImage();
 		markSlotUsed(rid.getTupleNumber(), false);
 		t.setRecordId(null);
 	}
@@ -312,6 +434,7 @@ public class BTreeLeafPage extends BTreePage {
 	public void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
+		materialize();
 
 		// find the first empty slot 
 		int emptySlot = -1;
@@ -366,6 +489,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * headers and RecordId
 	 */
 	private void moveRecord(int from, int to) {
+		materialize();
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
 			RecordId rid = new RecordId(pid, to);
@@ -494,6 +618,20 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * Returns the tuple in a used slot. While the page is lazy, slots are
+	 * decoded from its frame on every call rather than kept on the heap.
+	 */
+	private Tuple tupleAt(int i) {
+		Tuple t = tuples[i];
+		if (t != null) {
+			return t;
+		}
+		synchronized (this) {
+			return lazy ? decodeTuple(i) : tuples[i];
+		}
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -512,7 +650,7 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
-			return tuples[i];
+			return tupleAt(i);
 
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
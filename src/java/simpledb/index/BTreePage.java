@@ -28,7 +28,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
+	protected volatile byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
 
 	/**
@@ -119,7 +119,7 @@ public abstract class BTreePage implements Page {
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
 	 */
-	public void markDirty(boolean dirty, TransactionId tid) {
+	public synchronized void markDirty(boolean dirty, TransactionId tid) {
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
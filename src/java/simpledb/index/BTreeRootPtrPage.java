@@ -128,7 +128,7 @@ public class BTreeRootPtrPage implements Page {
         return new byte[PAGE_SIZE]; //all 0
 	}
 
-	public void markDirty(boolean dirty, TransactionId tid){
+	public synchronized void markDirty(boolean dirty, TransactionId tid){
 		this.dirty = dirty;
 		if (dirty) this.dirtier = tid;
 	}
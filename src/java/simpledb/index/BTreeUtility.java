@@ -151,6 +151,7 @@ public class BTreeUtility {
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
 		hFile.deleteOnExit();
+		FreeSpaceMap.sideFile(hFile).deleteOnExit();
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
@@ -403,6 +404,7 @@ public class BTreeUtility {
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
 		hFile.deleteOnExit();
+		FreeSpaceMap.sideFile(hFile).deleteOnExit();
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
@@ -4,12 +4,17 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -20,6 +25,15 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Dirty pages are written by a background {@link PageCleaner} as well as at
+ * commit. A page written before its transaction commits is stolen: the log is
+ * flushed up to its update's record first, and its before image is kept in
+ * memory so an abort can write it back. Page writes are serialized by writeLock; the lock order
+ * is this, then writeLock, then the {@link LogFile}.
+ * <p>
+ * In multi-version mode ({@link #setMultiVersion}), read-only transactions
+ * read committed page versions from a {@link VersionStore} without locking.
  * 
  * @Threadsafe, all fields are final
  */
@@ -33,10 +47,28 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    /**实现LRU算法**/
+    /**缓存页，命中无锁，分段淘汰，抗顺序扫描**/
     private int numPages;
-    private LRUCache<PageId,Page> buffer;
-//    private LockManager lockManager;
+    private SegmentedPageCache<PageId,Page> buffer;
+    /**堆外页帧，仅在 off-heap 模式下非空**/
+    private final FrameArena arena;
+    /**缓存中占用页帧的页**/
+    private final ConcurrentHashMap<PageId, FrameArena.Frame> frames = new ConcurrentHashMap<>();
+    /**正在从磁盘读入的页，同一页只读一次**/
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+    /**脏页的修改次数，页干净时没有条目；写盘期间页若又被修改，写完后仍保持脏**/
+    private final ConcurrentHashMap<PageId, Long> dirtyVersions = new ConcurrentHashMap<>();
+    /**每个未结束的事务弄脏过的页**/
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedBy = new ConcurrentHashMap<>();
+    /**未提交就被写盘的页的前像，abort 时写回磁盘**/
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Page>> undo = new ConcurrentHashMap<>();
+    /**页写盘互斥，保证旧的页映像不会覆盖新的**/
+    private final Object writeLock = new Object();
+    private final PageCleaner cleaner;
+    /**页级锁，事务结束时一并释放**/
+    private final LockManager lockManager = new LockManager();
+    /**多版本模式下的已提交页版本，否则为 null**/
+    private volatile VersionStore versions;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -44,10 +76,25 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally
+     * reading them into an off-heap {@link FrameArena} of numPages frames.
+     * In off-heap mode, pages that support it ({@link FramedPage}) keep their
+     * tuples in the frame and decode them on access, so scanning a table does
+     * not allocate a Java object per row.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap true to read pages into off-heap frames
+     */
+    public BufferPool(int numPages, boolean offHeap) {
         // some code goes here
         this.numPages = numPages;
-        this.buffer  = new LRUCache<>(numPages);
-
+        this.buffer  = new SegmentedPageCache<>(numPages);
+        this.arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+        this.cleaner = new PageCleaner(this, Math.max(8, numPages / 4), numPages / 4);
     }
     
     public static int getPageSize() {
@@ -78,22 +125,232 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if the transaction is chosen to
+     *   break a deadlock, or the lock is not granted within the lock
+     *   manager's timeout
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.buffer.get(pid)==null) {
-            // find the right page in DBFiles
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            if (buffer.getSize() >= numPages) {
-                throw new DbException("Error");
-            }
-            buffer.put(pid, page);
+        VersionStore versions = this.versions;
+        if (versions != null && tid != null && versions.isSnapshot(tid)) {
+            // 只读事务：不加锁，读快照时已提交的版本
+            if (perm == Permissions.READ_WRITE) {
+                throw new DbException("read-only transaction " + tid.getId() + " cannot write page " + pid);
+            }
+            Page live = this.buffer.get(pid);
+            if (live == null) {
+                live = loadPage(pid, false);
+            }
+            return live == null ? null : versions.read(tid, live);
+        }
+        if (tid != null) {
+            lockManager.acquire(tid, pid, LockMode.of(perm));   //先加锁，可能阻塞；不持有缓冲池的锁
+        }
+        Page page = this.buffer.get(pid);   //命中时不加锁
+        if (page == null) {
+            page = loadPage(pid, false);
+        }
+        if (versions != null && tid != null && perm == Permissions.READ_WRITE && page != null) {
+            versions.beforeWrite(tid, page);   //写者改页之前留下已提交的版本
+        }
+        return page;
+    }
+
+    /**
+     * Turns multi-version mode on or off. In multi-version mode, a read-only
+     * {@link simpledb.transaction.Transaction} reads every page as it was
+     * committed when the transaction started, without taking locks, so it
+     * neither waits for writers nor holds them up. Writers lock as before.
+     * Only call this while no transaction is running.
+     */
+    public void setMultiVersion(boolean on) {
+        if (on && versions == null) {
+            versions = new VersionStore(numPages);
+        } else if (!on && versions != null) {
+            versions.shutdown();
+            versions = null;
+        }
+    }
+
+    /** @return the committed page versions, or null if not in multi-version mode */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Starts a read-only transaction's snapshot. Outside of multi-version
+     * mode it does nothing, and the transaction locks what it reads.
+     *
+     * @return true if the transaction reads from a snapshot
+     */
+    public boolean beginSnapshot(TransactionId tid) {
+        VersionStore versions = this.versions;
+        if (versions == null) {
+            return false;
+        }
+        versions.beginSnapshot(tid);
+        return true;
+    }
+
+    /**
+     * Reads a page into the pool ahead of its use, on behalf of {@link ReadAhead}.
+     * Takes no lock on the page: the page is only cached, and a transaction
+     * still locks it when it asks for it with getPage. The first getPage of a
+     * prefetched page counts as its load, not as a repeated access.
+     *
+     * @param pid the ID of the page to prefetch
+     * @return the page, which may have been cached already
+     * @throws DbException if no page could be evicted to make room
+     */
+    public Page prefetchPage(PageId pid) throws DbException {
+        Page page = this.buffer.peek(pid);
+        if (page != null) {
+            return page;
+        }
+        return loadPage(pid, true);
+    }
+
+    /** @return the maximum number of pages this pool holds */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Reads a page that is not cached and installs it in the pool. Only one
+     * thread reads a given page at a time: a thread that misses while the
+     * page is being read (typically by {@link ReadAhead}) waits for that read
+     * instead of issuing its own.
+     */
+    private Page loadPage(PageId pid, boolean prefetched) throws DbException {
+        CompletableFuture<Page> mine = new CompletableFuture<>();
+        CompletableFuture<Page> inFlight = loading.putIfAbsent(pid, mine);
+        if (inFlight != null) {
+            try {
+                inFlight.join();
+            } catch (CompletionException | CancellationException e) {
+                // the other read failed: try again ourselves
+            }
+            Page page = prefetched ? this.buffer.peek(pid) : this.buffer.get(pid);
+            return page != null ? page : loadPage(pid, prefetched);
+        }
+        try {
+            // 可能在我们未命中之后、登记之前刚被别的线程读入
+            Page page = prefetched ? this.buffer.peek(pid) : this.buffer.get(pid);
+            if (page == null) {
+                page = readPage(pid, prefetched);
+            }
+            mine.complete(page);
             return page;
+        } catch (DbException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(pid, mine);
         }
-        return this.buffer.get(pid);
+    }
 
+    /**
+     * Reads a page from its file and installs it in the pool. The read
+     * happens outside of any lock.
+     */
+    private Page readPage(PageId pid, boolean prefetched) throws DbException {
+        // find the right page in DBFiles
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (arena == null) {
+            return cachePage(pid, dbFile.readPage(pid), null, prefetched);
+        }
+        FrameArena.Frame frame = acquireFrame();
+        if (frame == null) {
+            // every frame is pinned by a page that cannot be evicted: fall back to the heap
+            return cachePage(pid, dbFile.readPage(pid), null, prefetched);
+        }
+        Page read;
+        try {
+            read = dbFile.readPage(pid, frame.buffer());
+        } catch (RuntimeException e) {
+            arena.release(frame);
+            throw e;
+        }
+        if (!(read instanceof FramedPage) || ((FramedPage) read).frame() != frame.buffer()) {
+            // the page copied what it needed, the frame is free again
+            arena.release(frame);
+            frame = null;
+        }
+        return cachePage(pid, read, frame, prefetched);
+    }
+
+    /**
+     * Takes a free frame, evicting one page to make room if the arena is empty.
+     *
+     * @return a frame, or null if none could be freed
+     */
+    private FrameArena.Frame acquireFrame() {
+        FrameArena.Frame frame = arena.acquire();
+        if (frame != null) {
+            return frame;
+        }
+        synchronized (this) {
+            try {
+                evictPage();
+            } catch (DbException e) {
+                return null;
+            }
+        }
+        return arena.acquire();
+    }
+
+    /**
+     * Installs a page that was just read from disk, evicting another page if
+     * the pool is full. If a concurrent reader installed the same page first,
+     * that copy wins so every transaction sees a single instance.
+     *
+     * @param frame the arena frame the page reads from, or null
+     * @param prefetched true if the page is read ahead of its use
+     */
+    private synchronized Page cachePage(PageId pid, Page read, FrameArena.Frame frame, boolean prefetched)
+            throws DbException {
+        if (read == null) {
+            // past the end of the file: nothing to cache
+            if (frame != null) {
+                arena.release(frame);
+            }
+            return null;
+        }
+        Page cached = prefetched ? this.buffer.peek(pid) : this.buffer.get(pid);
+        if (cached != null) {
+            if (frame != null) {
+                arena.release(frame);
+            }
+            return cached;
+        }
+        try {
+            while (this.buffer.size() >= numPages) {
+                evictPage();
+            }
+        } catch (DbException e) {
+            if (frame != null) {
+                arena.release(frame);
+            }
+            throw e;
+        }
+        if (frame != null) {
+            frames.put(pid, frame);
+        }
+        this.buffer.putIfAbsent(pid, read, prefetched);
+        return read;
+    }
+
+    /**
+     * Gives the frame of a page leaving the pool back to the arena. The page
+     * first copies its frame onto the heap, since an iterator may still hold it.
+     */
+    private void releaseFrame(Page page) {
+        FrameArena.Frame frame = frames.remove(page.getId());
+        if (frame != null) {
+            ((FramedPage) page).detachFrame();
+            arena.release(frame);
+        }
     }
 
     /**
@@ -108,6 +365,9 @@ public class BufferPool {
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        if (tid != null) {
+            lockManager.release(tid, pid);
+        }
     }
 
     /**
@@ -118,13 +378,19 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return tid != null && lockManager.holdsLock(tid, p);
+    }
+
+    /** @return the lock manager holding this pool's page locks */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -137,6 +403,59 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        synchronized (this) {
+            Set<PageId> pids = dirtiedBy.remove(tid);
+            Map<PageId, Page> stolen = undo.remove(tid);
+            // 通过getPage直接修改的页不经过markDirty，从事务锁住的页里找出来；
+            // 中途中止的操作（如B+树分裂时死锁）可能已改了页却还没标脏，所以中止时丢弃所有写锁页
+            for (PageId pid : lockManager.getLockedPages(tid)) {
+                Page page = this.buffer.peek(pid);
+                if (page != null && (tid.equals(page.isDirty())
+                        || !commit && lockManager.getLockMode(tid, pid) == LockMode.EXCLUSIVE)) {
+                    if (pids == null) {
+                        pids = new HashSet<>();
+                    }
+                    pids.add(pid);
+                }
+            }
+            try {
+                if (commit) {
+                    // FORCE：写出剩下的脏页（后台线程已写过的不用再写），然后以当前内容作为新的前像
+                    if (pids != null) {
+                        writePages(cachedDirtyPages(pids, Integer.MAX_VALUE), false);
+                        for (PageId pid : pids) {
+                            Page page = this.buffer.peek(pid);
+                            if (page != null) {
+                                page.setBeforeImage();
+                            }
+                        }
+                    }
+                } else {
+                    // 丢弃内存中的修改（包括已写盘又变干净的页），再把提前写盘的页的前像写回
+                    if (pids != null) {
+                        for (PageId pid : pids) {
+                            discardPage(pid);
+                        }
+                    }
+                    if (stolen != null) {
+                        synchronized (writeLock) {
+                            writeSorted(new ArrayList<>(stolen.values()));
+                            Database.getLogFile().logPagesWritten(stolen.keySet());
+                        }
+                        for (PageId pid : stolen.keySet()) {
+                            pageRestored(pid);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            VersionStore versions = this.versions;
+            if (versions != null) {
+                versions.complete(tid, commit);   //在放锁之前发布新版本
+            }
+        }
+        lockManager.releaseAll(tid);
     }
 
     /**
@@ -158,6 +477,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        markDirty(dbFile.insertTuple(tid, t), tid);
     }
 
     /**
@@ -177,6 +498,40 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        markDirty(dbFile.deleteTuple(tid, t), tid);
+    }
+
+    /**
+     * Marks pages changed by tid as dirty, and makes them the cached version
+     * of their page. Wakes the cleaner once too many pages are dirty.
+     */
+    private void markDirty(List<Page> pages, TransactionId tid) throws DbException {
+        Set<PageId> dirtied = dirtiedBy.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
+        synchronized (this) {
+            for (Page page : pages) {
+                PageId pid = page.getId();
+                page.markDirty(true, tid);
+                dirtyVersions.merge(pid, 1L, Long::sum);
+                dirtied.add(pid);
+                Page cached = this.buffer.peek(pid);
+                if (cached != page) {
+                    if (cached != null) {
+                        this.buffer.remove(pid);
+                        releaseFrame(cached);
+                    }
+                    while (this.buffer.size() >= numPages) {
+                        evictPage();
+                    }
+                    this.buffer.put(pid, page);
+                }
+            }
+        }
+        if (dirtyVersions.size() >= numPages / 2) {
+            cleaner.wake();
+        } else {
+            cleaner.start();
+        }
     }
 
     /**
@@ -187,7 +542,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        writePages(cachedDirtyPages(this.buffer.keySet(), Integer.MAX_VALUE), true);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -201,6 +556,20 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Page page = this.buffer.remove(pid);
+        dirtyVersions.remove(pid);
+        if (page != null) {
+            releaseFrame(page);
+        }
+        pageRestored(pid);
+    }
+
+    /** 页回到了磁盘上的旧版本，让所属文件更新它根据页内容记下的提示（如空闲空间表） */
+    private void pageRestored(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file != null) {
+            file.pageRestored(pid);
+        }
     }
 
     /**
@@ -210,6 +579,7 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        writePages(cachedDirtyPages(Collections.singleton(pid), 1), true);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -217,6 +587,178 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<PageId> pids = dirtiedBy.get(tid);
+        if (pids != null) {
+            writePages(cachedDirtyPages(pids, Integer.MAX_VALUE), true);
+        }
+    }
+
+    /** Has the page cleaner write out all dirty pages in the background. Called after a checkpoint. */
+    void drainDirtyPages() {
+        cleaner.drain();
+    }
+
+    /** @return the number of dirty pages in the pool */
+    public int getNumDirtyPages() {
+        return dirtyVersions.size();
+    }
+
+    /**
+     * Writes up to max dirty pages, lowest file and page number first, on
+     * behalf of the {@link PageCleaner}. The pool is only locked to pick the
+     * pages and to mark them clean, not during the writes.
+     *
+     * @return the number of pages written
+     */
+    int cleanDirtyPages(int max) {
+        List<Page> pages;
+        synchronized (this) {
+            pages = cachedDirtyPages(dirtyVersions.keySet(), max);
+        }
+        try {
+            return writePages(pages, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * @return the cached dirty pages among pids, sorted by file and page
+     *   number, at most max of them
+     */
+    private List<Page> cachedDirtyPages(Collection<PageId> pids, int max) {
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : pids) {
+            Page page = this.buffer.peek(pid);
+            if (page != null && page.isDirty() != null) {
+                pages.add(page);
+            }
+        }
+        pages.sort(PAGE_ORDER);
+        return pages.size() > max ? new ArrayList<>(pages.subList(0, max)) : pages;
+    }
+
+    private static final Comparator<Page> PAGE_ORDER = Comparator
+            .comparingInt((Page p) -> p.getId().getTableId())
+            .thenComparingInt(p -> p.getId().getPageNumber());
+
+    /**
+     * Writes dirty pages, sorted by file and page number, and marks each one
+     * clean unless it was changed again while being written. Each page is
+     * serialized once, under its own monitor, and that one image is both
+     * logged and written, so a page that its transaction is still changing
+     * is never written half changed. Before a page is
+     * written its update is logged, and the log flushed up to the update's
+     * LSN, once per batch; after
+     * the writes a PAGES_WRITTEN record tells recovery the pages are current. If
+     * steal is true, the before image of each page is kept until its
+     * transaction completes, so an abort can restore it.
+     *
+     * @return the number of pages written
+     */
+    private int writePages(List<Page> pages, boolean steal) throws IOException {
+        if (pages.isEmpty()) {
+            return 0;
+        }
+        Map<PageId, Long> versions = new HashMap<>();
+        Map<PageId, TransactionId> dirtiers = new HashMap<>();
+        synchronized (this) {
+            for (Page page : pages) {
+                PageId pid = page.getId();
+                TransactionId dirtier = page.isDirty();
+                if (dirtier == null || this.buffer.peek(pid) != page) {
+                    continue;   // 已被别的线程写过或已丢弃
+                }
+                // 0: dirtied without going through insertTuple/deleteTuple
+                versions.put(pid, dirtyVersions.getOrDefault(pid, 0L));
+                dirtiers.put(pid, dirtier);
+                if (steal) {
+                    undo.computeIfAbsent(dirtier, k -> new ConcurrentHashMap<>())
+                            .putIfAbsent(pid, page.getBeforeImage());
+                }
+            }
+        }
+        List<Page> written = new ArrayList<>();
+        List<Page> images = new ArrayList<>();
+        synchronized (writeLock) {
+            for (Page page : pages) {
+                // 在写锁内再确认页还在缓存中：被 abort 丢弃的页不能再写
+                if (versions.containsKey(page.getId()) && this.buffer.peek(page.getId()) == page) {
+                    written.add(page);
+                    images.add(new PageImage(page));   //日志和磁盘用同一份映像
+                }
+            }
+            LogFile log = Database.getLogFile();
+            long pageLsn = 0;
+            for (Page image : images) {
+                pageLsn = log.logWrite(dirtiers.get(image.getId()), image.getBeforeImage(), image);
+            }
+            if (!written.isEmpty()) {
+                // 先写日志：只需刷到这批页最后一条更新记录，可与并发的提交共用一次 force
+                log.flushTo(pageLsn);
+            }
+            writeSorted(new ArrayList<>(images));
+            // 写完后记下这些页已在磁盘上，恢复时不必重做之前的更新
+            List<PageId> pids = new ArrayList<>(written.size());
+            for (Page page : written) {
+                pids.add(page.getId());
+            }
+            log.logPagesWritten(pids);
+        }
+        synchronized (this) {
+            for (int i = 0; i < written.size(); i++) {
+                Page page = written.get(i);
+                PageId pid = page.getId();
+                long version = versions.get(pid);
+                if (version > 0) {
+                    if (dirtyVersions.remove(pid, version)) {
+                        page.markDirty(false, null);
+                    }
+                } else if (!dirtyVersions.containsKey(pid)) {
+                    markCleanIfUnchanged(page, images.get(i).getPageData());
+                }
+            }
+        }
+        return written.size();
+    }
+
+    /**
+     * Marks a page clean if it still serializes to the image that was
+     * written. Used for pages changed through getPage rather than
+     * insertTuple/deleteTuple, which have no dirty version to compare: a
+     * change made after the image was taken keeps the page dirty. The page's
+     * monitor is held so a concurrent markDirty(true) lands after this.
+     */
+    private static void markCleanIfUnchanged(Page page, byte[] image) {
+        synchronized (page) {
+            if (Arrays.equals(page.getPageData(), image)) {
+                page.markDirty(false, null);
+            }
+        }
+    }
+
+    /** Writes pages sorted by file and page number, one writePages call per file. */
+    private static void writeSorted(List<Page> pages) throws IOException {
+        pages.sort(PAGE_ORDER);
+        int from = 0;
+        while (from < pages.size()) {
+            int tableId = pages.get(from).getId().getTableId();
+            int to = from;
+            while (to < pages.size() && pages.get(to).getId().getTableId() == tableId) {
+                to++;
+            }
+            Database.getCatalog().getDatabaseFile(tableId).writePages(pages.subList(from, to));
+            from = to;
+        }
+    }
+
+    /**
+     * Stops the background page cleaner and vacuum. Called when this pool is replaced.
+     */
+    public void close() {
+        cleaner.shutdown();
+        setMultiVersion(false);
     }
 
     /**
@@ -226,6 +768,22 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        // 只淘汰干净页；后台线程通常已把足够多的页写干净
+        Page victim = this.buffer.evict(p -> p.isDirty() == null);
+        if (victim == null) {
+            // 全是脏页：当场写出一批（steal），再淘汰
+            try {
+                writePages(cachedDirtyPages(dirtyVersions.keySet(), Math.max(1, numPages / 4)), true);
+            } catch (IOException e) {
+                throw new DbException("could not write dirty pages: " + e.getMessage());
+            }
+            victim = this.buffer.evict(p -> p.isDirty() == null);
+            cleaner.wake();   //后台线程没跟上，让它多写几批
+        }
+        if (victim == null) {
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+        releaseFrame(victim);
     }
 
 }
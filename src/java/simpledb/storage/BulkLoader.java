@@ -0,0 +1,387 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader streams a delimited text file (one tuple per line, in the format
+ * {@link HeapFileEncoder} reads) into table files without holding the table
+ * in memory.
+ * <p>
+ * The input is read in chunks of whole lines, and the chunks are parsed in
+ * parallel into encoded records: the fields of a tuple serialized back to
+ * back, as they appear in a page. The records reach the {@link RecordSink} in
+ * input order, so memory use is bounded by a few chunks per thread, whatever
+ * the size of the input. {@link #loadHeapFile} packs the records into heap
+ * pages in a reused buffer and writes them sequentially;
+ * {@link simpledb.index.BTreeBulkLoader} sorts them and builds a B+ tree.
+ * <p>
+ * Unlike HeapFileEncoder, a malformed line (a field that is not an integer,
+ * too few or too many fields) fails the load, and a last line without a
+ * trailing newline is loaded.
+ */
+public class BulkLoader {
+
+    /** Bytes of input per chunk handed to a parser thread. */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    /** Heap pages written per call to the file. */
+    private static final int PAGES_PER_WRITE = 64;
+
+    /**
+     * Receives encoded records, in input order. The buffer holds a whole
+     * number of records between its position and limit; it is reused once
+     * accept returns.
+     */
+    public interface RecordSink {
+        void accept(ByteBuffer records) throws IOException;
+    }
+
+    private final Type[] types;
+    private final int recordSize;
+    private char fieldSeparator = ',';
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkBytes = DEFAULT_CHUNK_BYTES;
+
+    /**
+     * @param types the types of the fields of each line
+     */
+    public BulkLoader(Type[] types) {
+        this.types = types.clone();
+        int size = 0;
+        for (Type t : types) {
+            size += t.getLen();
+        }
+        this.recordSize = size;
+    }
+
+    /** Sets the character between two fields of a line; ',' by default. */
+    public BulkLoader fieldSeparator(char fieldSeparator) {
+        this.fieldSeparator = fieldSeparator;
+        return this;
+    }
+
+    /** Sets the number of parser threads; one per processor by default. */
+    public BulkLoader threads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /** Sets the size of the chunks of input parsed at once; see {@link #DEFAULT_CHUNK_BYTES}. */
+    public BulkLoader chunkBytes(int chunkBytes) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("chunkBytes must be positive: " + chunkBytes);
+        }
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    /** @return the types of the fields of each record */
+    public Type[] getTypes() {
+        return types.clone();
+    }
+
+    /** @return the number of bytes of an encoded record */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /** A chunk of input and the records parsed from it; both buffers are reused. */
+    private static class Chunk {
+        byte[] in;
+        int length;
+        long offset;        // of the chunk in the input, for error messages
+        ByteBuffer out = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Parses a text file and hands its records to a sink, in input order.
+     *
+     * @param in the text file, one tuple per line
+     * @param sink receives the encoded records
+     * @return the number of records
+     * @throws IOException if the input cannot be read, a line is malformed or
+     *   the sink fails
+     */
+    public long parse(File in, RecordSink sink) throws IOException {
+        int inFlight = threads == 1 ? 1 : 2 * threads;
+        ExecutorService pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-load");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        ArrayDeque<Chunk> free = new ArrayDeque<>();
+        long records = 0;
+        try (InputStream is = new FileInputStream(in)) {
+            byte[] carry = new byte[0];
+            int carryLength = 0;
+            long offset = 0;
+            boolean eof = false;
+            while (!eof) {
+                if (pending.size() == inFlight) {
+                    records += drain(pending.removeFirst(), sink, free);
+                }
+                Chunk chunk = free.isEmpty() ? new Chunk() : free.removeFirst();
+                if (chunk.in == null || chunk.in.length < chunkBytes + carryLength) {
+                    chunk.in = new byte[chunkBytes + carryLength];
+                }
+                System.arraycopy(carry, 0, chunk.in, 0, carryLength);
+                int end = carryLength;
+                int n;
+                while (end < chunk.in.length && (n = is.read(chunk.in, end, chunk.in.length - end)) > 0) {
+                    end += n;
+                }
+                eof = end < chunk.in.length;
+                // the chunk ends after its last newline; the partial line goes to the next one
+                int cut = end;
+                if (!eof) {
+                    while (cut > 0 && chunk.in[cut - 1] != '\n') {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        // a line longer than the chunk: read on with a bigger carry
+                        carry = Arrays.copyOf(chunk.in, end);
+                        carryLength = end;
+                        free.addFirst(chunk);
+                        continue;
+                    }
+                }
+                carryLength = end - cut;
+                if (carry.length < carryLength) {
+                    carry = new byte[Math.max(carryLength, chunkBytes)];
+                }
+                System.arraycopy(chunk.in, cut, carry, 0, carryLength);
+                chunk.length = cut;
+                chunk.offset = offset;
+                offset += cut;
+                if (pool == null) {
+                    encode(chunk);
+                    records += drain(chunk, sink, free);
+                } else {
+                    pending.addLast(pool.submit(() -> encode(chunk)));
+                }
+            }
+            while (!pending.isEmpty()) {
+                records += drain(pending.removeFirst(), sink, free);
+            }
+        } finally {
+            if (pool != null) {
+                pending.forEach(f -> f.cancel(true));
+                pool.shutdownNow();
+            }
+        }
+        return records;
+    }
+
+    private long drain(Future<Chunk> parsed, RecordSink sink, ArrayDeque<Chunk> free) throws IOException {
+        try {
+            return drain(parsed.get(), sink, free);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private long drain(Chunk chunk, RecordSink sink, ArrayDeque<Chunk> free) throws IOException {
+        ByteBuffer out = chunk.out;
+        long n = out.remaining() / recordSize;
+        sink.accept(out);
+        free.addLast(chunk);
+        return n;
+    }
+
+    /** Parses the lines of a chunk into chunk.out. */
+    private Chunk encode(Chunk chunk) throws IOException {
+        byte[] in = chunk.in;
+        ByteBuffer out = chunk.out;
+        out.clear();
+        int pos = 0;
+        while (pos < chunk.length) {
+            int lineEnd = pos;
+            while (lineEnd < chunk.length && in[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > pos && in[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > pos) {
+                if (out.remaining() < recordSize) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), 64 * recordSize));
+                    out.flip();
+                    bigger.put(out);
+                    out = bigger;
+                }
+                encodeLine(in, pos, lineEnd, out, chunk.offset + pos);
+            }
+            pos = next;
+        }
+        out.flip();
+        chunk.out = out;
+        return chunk;
+    }
+
+    private void encodeLine(byte[] in, int from, int to, ByteBuffer out, long lineOffset) throws IOException {
+        int start = from;
+        for (int field = 0; field < types.length; field++) {
+            int end = start;
+            while (end < to && in[end] != fieldSeparator) {
+                end++;
+            }
+            if (end == to && field < types.length - 1) {
+                throw malformed(in, from, to, lineOffset, "expected " + types.length + " fields");
+            }
+            // trim as String.trim() does
+            int s = start, e = end;
+            while (s < e && (in[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (in[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (types[field] == Type.INT_TYPE) {
+                out.putInt(parseInt(in, s, e, from, to, lineOffset));
+            } else {
+                int len = Math.min(e - s, Type.STRING_LEN);
+                out.putInt(len);
+                out.put(in, s, len);
+                for (int i = len; i < Type.STRING_LEN; i++) {
+                    out.put((byte) 0);
+                }
+            }
+            start = end + 1;
+        }
+        if (start <= to) {
+            throw malformed(in, from, to, lineOffset, "expected " + types.length + " fields");
+        }
+    }
+
+    private static int parseInt(byte[] in, int s, int e, int from, int to, long lineOffset) throws IOException {
+        boolean negative = s < e && in[s] == '-';
+        int i = s < e && (in[s] == '-' || in[s] == '+') ? s + 1 : s;
+        if (i == e) {
+            throw malformed(in, from, to, lineOffset, "not an integer");
+        }
+        long v = 0;
+        for (; i < e; i++) {
+            int d = in[i] - '0';
+            if (d < 0 || d > 9) {
+                throw malformed(in, from, to, lineOffset, "not an integer");
+            }
+            v = v * 10 + d;
+            if (v > (long) Integer.MAX_VALUE + 1) {
+                throw malformed(in, from, to, lineOffset, "integer out of range");
+            }
+        }
+        v = negative ? -v : v;
+        if (v > Integer.MAX_VALUE) {
+            throw malformed(in, from, to, lineOffset, "integer out of range");
+        }
+        return (int) v;
+    }
+
+    private static IOException malformed(byte[] in, int from, int to, long lineOffset, String why) {
+        return new IOException("malformed line at byte " + lineOffset + " (" + why + "): "
+                + new String(in, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Loads a text file into a heap file, in the format of {@link HeapPage}.
+     * Every page but the last is full; an empty input gives one empty page.
+     * The output file is replaced.
+     *
+     * @param in the text file, one tuple per line
+     * @param out the heap file to write
+     * @return the number of tuples loaded
+     * @throws IOException if a file cannot be read or written, or a line is malformed
+     */
+    public long loadHeapFile(File in, File out) throws IOException {
+        FreeSpaceMap.sideFile(out).delete(); // the free-space map of a former table
+        try (FileOutputStream os = new FileOutputStream(out)) {
+            HeapPageWriter writer = new HeapPageWriter(os.getChannel());
+            long n = parse(in, writer);
+            writer.finish();
+            return n;
+        }
+    }
+
+    /** Packs records into heap pages and writes them, in order, to a channel. */
+    private class HeapPageWriter implements RecordSink {
+        private final FileChannel channel;
+        private final int pageSize = BufferPool.getPageSize();
+        private final int slots = (pageSize * 8) / (recordSize * 8 + 1);
+        private final int headerSize = (slots + 7) / 8;
+        private final ByteBuffer pages = ByteBuffer.allocateDirect(PAGES_PER_WRITE * pageSize);
+        private final byte[] page = new byte[pageSize];
+        private int count;          // records on the current page
+        private long written;       // pages written
+
+        HeapPageWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void accept(ByteBuffer records) throws IOException {
+            while (records.hasRemaining()) {
+                int n = Math.min(slots - count, records.remaining() / recordSize);
+                records.get(page, headerSize + count * recordSize, n * recordSize);
+                count += n;
+                if (count == slots) {
+                    endPage();
+                }
+            }
+        }
+
+        private void endPage() throws IOException {
+            Arrays.fill(page, 0, headerSize, (byte) 0);
+            for (int i = 0; i < count; i++) {
+                page[i / 8] |= (byte) (1 << (i % 8));
+            }
+            Arrays.fill(page, headerSize + count * recordSize, pageSize, (byte) 0);
+            pages.put(page);
+            count = 0;
+            written++;
+            if (!pages.hasRemaining()) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            pages.flip();
+            while (pages.hasRemaining()) {
+                channel.write(pages);
+            }
+            pages.clear();
+        }
+
+        void finish() throws IOException {
+            if (count > 0 || written == 0) {
+                endPage();
+            }
+            flush();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ColumnBatch holds a run of rows column by column, for operators that work
+ * on many rows per call (see simpledb.execution.BatchIterator).
+ * <p>
+ * An INT_TYPE column is an int[] of its values. A STRING_TYPE column is a
+ * byte[] holding its strings back to back, with an int[] of offsets: row r
+ * is the bytes from offsets[r] to offsets[r + 1], encoded as on a page. Rows
+ * are added in order, at {@link #size()}.
+ * <p>
+ * A selection vector lists, in increasing order, the rows that are still in
+ * the batch; a filter drops rows by shrinking it, without moving any data.
+ * Without one, every row is selected.
+ */
+public class ColumnBatch {
+
+    /** Rows a batch holds unless it is made larger. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final boolean[] isString;
+    private int capacity;
+    private final int[][] ints;
+    private final byte[][] bytes;
+    private final int[][] offsets;
+    private int size;
+    private int[] selection;    // null when every row is selected
+    private int selected;
+    private int[] allRows;      // 0, 1, 2, ...: the selected rows when there is no selection vector
+
+    public ColumnBatch(TupleDesc td) {
+        this(td, CAPACITY);
+    }
+
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = Math.max(1, capacity);
+        int n = td.numFields();
+        isString = new boolean[n];
+        ints = new int[n][];
+        bytes = new byte[n][];
+        offsets = new int[n][];
+        for (int c = 0; c < n; c++) {
+            isString[c] = td.getFieldType(c) == Type.STRING_TYPE;
+            if (isString[c]) {
+                bytes[c] = new byte[16 * this.capacity];
+                offsets[c] = new int[this.capacity + 1];
+            } else {
+                ints[c] = new int[this.capacity];
+            }
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows added, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /** Empties the batch and drops its selection vector. */
+    public void clear() {
+        size = 0;
+        selection = null;
+    }
+
+    /**
+     * Sets the number of rows, after a caller wrote the values of rows up to
+     * n straight into the column arrays. Drops the selection vector.
+     */
+    public void setSize(int n) {
+        size = n;
+        selection = null;
+    }
+
+    /** @return the values of an INT_TYPE column, by row */
+    public int[] ints(int col) {
+        return ints[col];
+    }
+
+    /** @return the bytes of a STRING_TYPE column; see {@link #offsets} */
+    public byte[] bytes(int col) {
+        return bytes[col];
+    }
+
+    /** @return where each row of a STRING_TYPE column starts in {@link #bytes}, with one more entry for the end */
+    public int[] offsets(int col) {
+        return offsets[col];
+    }
+
+    /** @return the number of selected rows */
+    public int selected() {
+        return selection == null ? size : selected;
+    }
+
+    /** @return the selection vector, or null when every row is selected */
+    public int[] selection() {
+        return selection;
+    }
+
+    /** @return the row number of the i-th selected row */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the selected rows, in order: the selection vector, or the
+     *         numbers of all rows when there is none
+     */
+    public int[] selectedRows() {
+        if (selection != null) {
+            return selection;
+        }
+        if (allRows == null || allRows.length < size) {
+            allRows = new int[Math.max(size, capacity)];
+            for (int i = 0; i < allRows.length; i++) {
+                allRows[i] = i;
+            }
+        }
+        return allRows;
+    }
+
+    /**
+     * Keeps only the first n rows listed in rows, which must be in increasing
+     * order. The batch uses the array as given, until the next call.
+     */
+    public void select(int[] rows, int n) {
+        selection = rows;
+        selected = n;
+    }
+
+    /** Makes room for at least n rows, keeping the rows already added. */
+    public void ensureCapacity(int n) {
+        if (n <= capacity) {
+            return;
+        }
+        capacity = Math.max(n, 2 * capacity);
+        for (int c = 0; c < ints.length; c++) {
+            if (isString[c]) {
+                offsets[c] = Arrays.copyOf(offsets[c], capacity + 1);
+            } else {
+                ints[c] = Arrays.copyOf(ints[c], capacity);
+            }
+        }
+    }
+
+    /** Grows the bytes of a column so that len more bytes fit after its strings up to row. */
+    private void reserve(int col, int row, int len) {
+        int end = offsets[col][row] + len;
+        if (end > bytes[col].length) {
+            bytes[col] = Arrays.copyOf(bytes[col], Math.max(end, 2 * bytes[col].length));
+        }
+    }
+
+    /**
+     * Sets a STRING_TYPE value of a row to len bytes of src from index from.
+     * Rows of a column must be set in order, starting at {@link #size()}.
+     */
+    public void putString(int col, int row, ByteBuffer src, int from, int len) {
+        reserve(col, row, len);
+        int at = offsets[col][row];
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + from, bytes[col], at, len);
+        } else {
+            for (int i = 0; i < len; i++) {
+                bytes[col][at + i] = src.get(from + i);
+            }
+        }
+        offsets[col][row + 1] = at + len;
+    }
+
+    /** Sets a STRING_TYPE value of a row, encoded as StringField writes it to a page. */
+    private void putString(int col, int row, String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        reserve(col, row, len);
+        int at = offsets[col][row];
+        for (int i = 0; i < len; i++) {
+            bytes[col][at + i] = (byte) s.charAt(i);
+        }
+        offsets[col][row + 1] = at + len;
+    }
+
+    /** @return the value of a column in a row, as a Field */
+    public Field getField(int col, int row) {
+        if (!isString[col]) {
+            return new IntField(ints[col][row]);
+        }
+        int from = offsets[col][row];
+        return new StringField(new String(bytes[col], from, offsets[col][row + 1] - from), Type.STRING_LEN);
+    }
+
+    /** @return a row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < ints.length; c++) {
+            t.setField(c, getField(c, row));
+        }
+        return t;
+    }
+
+    /** Adds a tuple as the next row; the batch must not be full. */
+    public void addTuple(Tuple t) {
+        int row = size;
+        for (int c = 0; c < ints.length; c++) {
+            Field f = t.getField(c);
+            if (isString[c]) {
+                putString(c, row, ((StringField) f).getValue());
+            } else {
+                ints[c][row] = ((IntField) f).getValue();
+            }
+        }
+        size = row + 1;
+    }
+
+    /**
+     * Copies column srcCol of the given rows of src into column dstCol,
+     * starting at row {@link #size()}. Does not change the size: a caller
+     * gathers every column, then calls setSize.
+     */
+    public void gather(int dstCol, ColumnBatch src, int srcCol, int[] rows, int n) {
+        int at = size;
+        if (!isString[dstCol]) {
+            int[] from = src.ints[srcCol], to = ints[dstCol];
+            for (int i = 0; i < n; i++) {
+                to[at + i] = from[rows[i]];
+            }
+            return;
+        }
+        byte[] from = src.bytes[srcCol];
+        int[] fromOffsets = src.offsets[srcCol];
+        for (int i = 0; i < n; i++) {
+            int start = fromOffsets[rows[i]], len = fromOffsets[rows[i] + 1] - start;
+            reserve(dstCol, at + i, len);
+            int to = offsets[dstCol][at + i];
+            System.arraycopy(from, start, bytes[dstCol], to, len);
+            offsets[dstCol][at + i + 1] = to + len;
+        }
+    }
+
+    /**
+     * Makes this batch a view of some columns of src, which it shares rather
+     * than copies, along with src's size and selection vector. The view is
+     * valid until src changes.
+     */
+    public void viewOf(ColumnBatch src, int[] columns) {
+        for (int c = 0; c < columns.length; c++) {
+            ints[c] = src.ints[columns[c]];
+            bytes[c] = src.bytes[columns[c]];
+            offsets[c] = src.offsets[columns[c]];
+        }
+        capacity = src.capacity;
+        size = src.size;
+        selection = src.selection;
+        selected = src.selected;
+    }
+}
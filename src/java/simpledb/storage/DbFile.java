@@ -3,11 +3,13 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -24,6 +26,29 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into a buffer pool frame. Files whose
+     * pages implement {@link FramedPage} may return a page that keeps reading
+     * its tuples from the frame; other files simply ignore the frame.
+     *
+     * @param id the page to read
+     * @param frame an empty page-sized buffer the page may adopt
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     * @see FrameArena
+     */
+    default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
+    /**
+     * Release the file handles held by this file. The file remains usable;
+     * handles are reopened on the next access.
+     *
+     * @see simpledb.common.Catalog#clear()
+     */
+    default void close() throws IOException {
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +58,30 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. The buffer pool passes them
+     * sorted by page number, so files may write adjacent pages together.
+     *
+     * @param pages the pages to write
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Called by the buffer pool when a page of this file goes back to the
+     * version on disk: its cached copy was dropped unwritten, or an abort or
+     * recovery wrote an older image over it. Files that keep hints derived
+     * from their pages' contents refresh them here.
+     *
+     * @param pid the page
+     */
+    default void pageRestored(PageId pid) {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +122,44 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * p. Files may evaluate p on the stored bytes and only build the tuples
+     * that qualify; by default the tuples of {@link #iterator} are filtered.
+     *
+     * @param p the predicate the returned tuples satisfy
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, Predicate p) {
+        DbFileIterator it = iterator(tid);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();   // drop the buffered tuple
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (p.filter(t)) {
+                        return t;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
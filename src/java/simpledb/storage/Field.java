@@ -4,6 +4,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -17,6 +18,12 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes of {@link #serialize(DataOutputStream)} into dst at its
+     * position, advancing the position.
+     */
+    void serialize(ByteBuffer dst);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
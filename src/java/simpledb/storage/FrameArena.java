@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is one preallocated block of off-heap memory carved into
+ * page-sized frames. When BufferPool runs in off-heap mode, every page read
+ * from disk is read straight into a frame, and pages that support it
+ * ({@link FramedPage}) decode their tuples from the frame on demand instead of
+ * building a Java object for every row when they are loaded.
+ * <p>
+ * Frames are handed out from a free list; the arena itself never allocates
+ * after construction.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** One page-sized slice of the arena. */
+    public static final class Frame {
+        private final int index;
+        private final ByteBuffer buffer;
+
+        Frame(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        /** @return the frame's memory; position 0, limit and capacity one page */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        public int index() {
+            return index;
+        }
+    }
+
+    private final int frameSize;
+    private final Frame[] frames;
+    private final int[] free;   // stack of free frame indexes, protected by this
+    private int numFree;        // protected by this
+
+    /**
+     * Allocates numFrames frames of frameSize bytes each in a single direct buffer.
+     *
+     * @param numFrames number of frames (usually the number of buffer pool pages)
+     * @param frameSize bytes per frame (usually {@link BufferPool#getPageSize()})
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if (numFrames <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("arena must hold at least one frame");
+        }
+        if ((long) numFrames * frameSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("arena larger than 2GB");
+        }
+        this.frameSize = frameSize;
+        this.frames = new Frame[numFrames];
+        this.free = new int[numFrames];
+        ByteBuffer memory = ByteBuffer.allocateDirect(numFrames * frameSize);
+        for (int i = 0; i < numFrames; i++) {
+            memory.limit((i + 1) * frameSize);
+            memory.position(i * frameSize);
+            frames[i] = new Frame(i, memory.slice());
+            free[numFree++] = numFrames - 1 - i;
+        }
+    }
+
+    /**
+     * Takes a frame off the free list.
+     *
+     * @return a free frame, or null if every frame is in use
+     */
+    public synchronized Frame acquire() {
+        if (numFree == 0) {
+            return null;
+        }
+        Frame f = frames[free[--numFree]];
+        f.buffer.clear();
+        return f;
+    }
+
+    /** Returns a frame to the free list. */
+    public synchronized void release(Frame f) {
+        if (frames[f.index] != f) {
+            throw new IllegalArgumentException("frame does not belong to this arena");
+        }
+        free[numFree++] = f.index;
+    }
+
+    /** @return the size in bytes of each frame */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the total number of frames */
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    /** @return the number of frames currently on the free list */
+    public synchronized int getNumFree() {
+        return numFree;
+    }
+}
@@ -0,0 +1,27 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page that can keep its on-disk image in a {@link FrameArena} frame and
+ * decode tuples from it lazily, instead of materializing every tuple when it
+ * is read.
+ *
+ * @see FrameArena
+ * @see DbFile#readPage(PageId, ByteBuffer)
+ */
+public interface FramedPage extends Page {
+
+    /**
+     * @return the frame this page still reads tuple data from, or null if the
+     *   page holds all of its data on the heap
+     */
+    ByteBuffer frame();
+
+    /**
+     * Stop referencing the frame, copying whatever is still needed onto the
+     * heap. BufferPool calls this before putting the frame back on the free
+     * list, so page objects still held by iterators remain valid.
+     */
+    void detachFrame();
+}
@@ -0,0 +1,195 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records, for each page of a {@link HeapFile}, roughly how full
+ * the page is, so an insert goes straight to a page with a free slot instead
+ * of reading every page from the start of the file.
+ * <p>
+ * Each page has one byte: 0 if the page is full, otherwise the fraction of
+ * free slots scaled to 1..254, rounded up. Pages the map has never seen are
+ * {@link #UNKNOWN} and count as having room. The map is kept in memory and
+ * persisted to a side file next to the table (<code>table.dat.fsm</code>),
+ * written alongside the table's pages.
+ * <p>
+ * The map is a hint: it is not logged, and a page may have less room than its
+ * entry says (after an abort, a crash, or a side file from an older table).
+ * Callers check the page itself and correct the entry with {@link #update}.
+ * A page with more room than its entry says would never be offered again, so
+ * the map guards against that: the side file starts with the length and
+ * modification time of the table at its last flush, and a side file that
+ * does not match its table is ignored; and a page whose contents go back to
+ * an older version, on abort or recovery, is {@link #forget forgotten}.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Level of a page the map has no entry for. */
+    static final int UNKNOWN = 255;
+    private static final int MAX_LEVEL = 254;
+
+    /** Bytes before the first entry of the side file: the table's length and modification time. */
+    private static final int HEADER = 16;
+
+    private final File table;
+    private final File sideFile;
+    private final PageFileChannel side;
+    private long tableLength = -1, tableModified = -1;  // table as of the side file's header, protected by this
+    private byte[] levels;          // protected by this; null until loaded
+    private int size;               // pages with an entry, protected by this
+    private int firstCandidate;     // no page before this one has room, protected by this
+    private int dirtyFrom = Integer.MAX_VALUE, dirtyTo = -1;  // entries not yet persisted
+
+    /**
+     * @param table the heap file's data file; the map lives in table + ".fsm"
+     */
+    public FreeSpaceMap(File table) {
+        this.table = table;
+        this.sideFile = sideFile(table);
+        this.side = new PageFileChannel(sideFile);
+    }
+
+    /**
+     * @param table a heap file's data file
+     * @return the file its free-space map is kept in; whoever removes the
+     *   table, or rewrites it outside of HeapFile, should remove this too
+     */
+    public static File sideFile(File table) {
+        return new File(table.getPath() + ".fsm");
+    }
+
+    private void load() throws IOException {
+        if (levels != null) {
+            return;
+        }
+        size = 0;
+        if (sideFile.exists() && side.size() > HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            side.read(header, 0);
+            header.flip();
+            long length = header.getLong();
+            long modified = header.getLong();
+            if (length == table.length() && modified == table.lastModified()) {
+                size = (int) (side.size() - HEADER);
+                tableLength = length;
+                tableModified = modified;
+            } else {
+                side.truncate(HEADER);   // the table changed behind the map's back
+            }
+        }
+        levels = new byte[Math.max(64, size)];
+        Arrays.fill(levels, (byte) UNKNOWN);
+        side.read(ByteBuffer.wrap(levels, 0, size), HEADER);
+    }
+
+    /**
+     * @param numPages the number of pages in the file
+     * @return the first page, starting from the lowest that may have room,
+     *   whose entry says it has a free slot, or -1 if no page below numPages has one
+     */
+    public synchronized int findPageWithSpace(int numPages) throws IOException {
+        load();
+        for (int pageNo = firstCandidate; pageNo < numPages; pageNo++) {
+            if (level(pageNo) != 0) {
+                firstCandidate = pageNo;
+                return pageNo;
+            }
+        }
+        firstCandidate = numPages;
+        return -1;
+    }
+
+    /**
+     * Records the number of free slots of a page after it changed.
+     *
+     * @param pageNo the page
+     * @param free its empty slots
+     * @param slots its total number of slots
+     */
+    public synchronized void update(int pageNo, int free, int slots) throws IOException {
+        load();
+        int level = free == 0 ? 0 : (int) Math.min(MAX_LEVEL, Math.max(1, ((long) free * MAX_LEVEL + slots - 1) / slots));
+        if (pageNo >= levels.length) {
+            int oldLength = levels.length;
+            levels = Arrays.copyOf(levels, Math.max(pageNo + 1, oldLength * 2));
+            Arrays.fill(levels, oldLength, levels.length, (byte) UNKNOWN);
+        }
+        if (level(pageNo) == level && pageNo < size) {
+            return;
+        }
+        set(pageNo, level);
+    }
+
+    /**
+     * Drops the entry of a page whose contents went back to an older version,
+     * so that the next insert looks at the page again.
+     *
+     * @param pageNo the page
+     */
+    public synchronized void forget(int pageNo) throws IOException {
+        load();
+        if (pageNo < size && level(pageNo) != UNKNOWN) {
+            set(pageNo, UNKNOWN);
+        }
+    }
+
+    private void set(int pageNo, int level) {
+        levels[pageNo] = (byte) level;
+        size = Math.max(size, pageNo + 1);
+        dirtyFrom = Math.min(dirtyFrom, pageNo);
+        dirtyTo = Math.max(dirtyTo, pageNo);
+        if (level != 0 && pageNo < firstCandidate) {
+            firstCandidate = pageNo;
+        }
+    }
+
+    /** @return the level of a page, UNKNOWN if the map has no entry for it */
+    synchronized int level(int pageNo) {
+        return pageNo < size ? levels[pageNo] & 0xff : UNKNOWN;
+    }
+
+    /**
+     * Writes the entries changed since the last flush to the side file, then
+     * the table's current length and modification time, so that the entries
+     * are trusted only for the table as they describe it.
+     */
+    public synchronized void flush() throws IOException {
+        if (levels == null) {
+            return;   // never loaded: the side file, if any, is left as it is
+        }
+        if (dirtyTo >= 0) {
+            side.write(ByteBuffer.wrap(levels, dirtyFrom, dirtyTo - dirtyFrom + 1), HEADER + (long) dirtyFrom);
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+        }
+        long length = table.length();
+        long modified = table.lastModified();
+        if (length != tableLength || modified != tableModified) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putLong(length).putLong(modified).flip();
+            side.write(header, 0);
+            tableLength = length;
+            tableModified = modified;
+        }
+    }
+
+    /**
+     * Persists pending entries and releases the side file's handle. If the
+     * table itself is gone, the side file is removed instead.
+     */
+    public synchronized void close() throws IOException {
+        if (table.exists()) {
+            flush();
+            side.close();
+        } else {
+            side.close();
+            sideFile.delete();
+            levels = null;
+        }
+    }
+}
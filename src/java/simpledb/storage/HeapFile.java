@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -17,10 +19,14 @@ import java.util.*;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * Inserts find a page with a free slot through the file's {@link FreeSpaceMap}
+ * rather than by reading the pages in order.
+ * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, MemoryMappable {
 
     /**
      * 记住table(file)>page; bufferpool>page; page>tuple; tuple > field.
@@ -34,11 +40,16 @@ public class HeapFile implements DbFile {
      */
     private File file;
     private TupleDesc tupleDesc;
+    private volatile MappedFile mapped; //内存映射模式下非空，见Catalog.setMemoryMapped
+    private final PageFileChannel channel; //长期持有的文件句柄，按位置读写
+    private final FreeSpaceMap freeSpace;  //每页的空闲程度，插入时直接找有空位的页
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
+        this.channel = new PageFileChannel(f);
+        this.freeSpace = new FreeSpaceMap(f);
     }
 
     /**
@@ -75,35 +86,117 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    // see MemoryMappable.java for javadocs
+    public synchronized void setMemoryMapped(boolean on) throws IOException {
+        if (on && mapped == null) {
+            mapped = new MappedFile(file);
+        } else if (!on && mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Reads a page as a slice of the memory mapping, if the table is mapped.
+     * @return the page, or null if the table is not mapped or the page is not
+     *   (entirely) in the file
+     */
+    private HeapPage readMappedPage(PageId pid) {
+        MappedFile m = mapped;
+        if (m == null) {
+            return null;
+        }
+        int pageSize = BufferPool.getPageSize();
+        try {
+            ByteBuffer slice = m.slice((long)pid.getPageNumber()*pageSize, pageSize);
+            return slice == null ? null : new HeapPage((HeapPageId) pid, slice); //零拷贝：页直接从映射中解码
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        HeapPage heapPage = null;
+        HeapPage heapPage = readMappedPage(pid);
+        if (heapPage != null) {
+            return heapPage;
+        }
         int pageSize = BufferPool.getPageSize();
+        //HeapPage按需从这块数组解码元组，会一直引用它，所以每页一块新数组，直接交给HeapPage而不再复制
         byte[] buf = new byte[pageSize];
-
         try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r");//选择文件
-            randomAccessFile.seek((long)pid.getPageNumber()*pageSize);                 //选择读取的开始位置（页码*页的大小）
-            if(randomAccessFile.read(buf)==-1){    //从指定位置读取数据到buf中，不论够不够会返回buf数组，
-                                                    // 然后交给HeapPage封装成page对象；并把字节数据封装成Field对象
-                                                    //这里是只读，没有改变磁盘数据。可以理解为把数据复制到page对象中。
-                return null;                                         //如果没有页了才返回-1
+            //按位置读取（页码*页的大小），不移动共享的文件指针，多个线程可以并发读同一个表
+            int n = channel.read(ByteBuffer.wrap(buf), (long)pid.getPageNumber()*pageSize);
+            if(n==0){
+                return null;                                         //如果没有页了才返回null
             }
-            heapPage= new HeapPage((HeapPageId) pid, buf);
-            randomAccessFile.close();
-        } catch (FileNotFoundException e ) {
-            e.printStackTrace();
+            heapPage= new HeapPage((HeapPageId) pid, ByteBuffer.wrap(buf));   //不满一页的部分本来就是0
         } catch (IOException e){
             e.printStackTrace();
         }
         return heapPage;
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid, ByteBuffer frame) {
+        HeapPage heapPage = readMappedPage(pid);
+        if (heapPage != null) {
+            return heapPage;   //映射模式下不需要页帧
+        }
+        int pageSize = BufferPool.getPageSize();
+        try {
+            ByteBuffer dst = frame.duplicate();
+            dst.clear();
+            int n = channel.read(dst, (long)pid.getPageNumber()*pageSize);   //直接读入页帧，不经过堆上的byte[]
+            if (n == 0) {
+                return null;
+            }
+            while (dst.hasRemaining()) {
+                dst.put((byte) 0);   //与readPage(pid)一致：不满一页的部分视为0
+            }
+            return new HeapPage((HeapPageId) pid, frame);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        byte[] buf = PageBuffers.take();   //直接序列化到复用的缓冲区，不产生新数组
+        try {
+            ByteBuffer src = ByteBuffer.wrap(buf);
+            page.getPageData(src);
+            src.flip();
+            channel.write(src, (long)page.getId().getPageNumber()*BufferPool.getPageSize());
+        } finally {
+            PageBuffers.give(buf);
+        }
+        freeSpace.flush();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        //相邻的页合并成一次分散写
+        channel.writePages(pages, pid -> (long)pid.getPageNumber()*BufferPool.getPageSize());
+        freeSpace.flush();   //空闲空间表随页一起写出
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        setMemoryMapped(false);   //映射也一并释放，之后按普通方式读取
+        channel.close();
+        freeSpace.close();
     }
 
     /**
@@ -118,16 +211,88 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        BufferPool bufferPool = Database.getBufferPool();
+        int pageNo;
+        //按空闲空间表找有空位的页，不必从第0页开始逐页读取
+        while ((pageNo = freeSpace.findPageWithSpace(numPages())) >= 0) {
+            HeapPageId heapPageId = new HeapPageId(getId(), pageNo);
+            boolean locked = bufferPool.holdsLock(tid, heapPageId);
+            //先加读锁查看，有空位才升级为写锁，满页不挡住其他读者
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0) {
+                page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+                page.insertTuple(t);
+                noteFreeSpace(page);
+                return Collections.singletonList(page);
+            }
+            noteFreeSpace(page);   //表里的记录过时了（页其实已满），更正后继续找
+            if (!locked) {
+                bufferPool.unsafeReleasePage(tid, heapPageId);   //没读也没改这页的元组，可以提前放锁
+            }
+        }
+        //所有页都满了：在文件末尾追加一个空页，再通过bufferpool读入
+        HeapPageId heapPageId = appendEmptyPage();
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        noteFreeSpace(page);
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void pageRestored(PageId pid) {
+        try {
+            freeSpace.forget(pid.getPageNumber());   //页回到了旧版本，空闲程度要等下次插入时重新看
+        } catch (IOException e) {
+            e.printStackTrace();   //空闲空间表只是提示
+        }
+    }
+
+    /** Records the page's current number of empty slots in the free-space map. */
+    private void noteFreeSpace(HeapPage page) throws IOException {
+        freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots(), page.numSlots);
+    }
+
+    /**
+     * Writes an empty page after the last page of the file.
+     * @return the id of the new page
+     */
+    private synchronized HeapPageId appendEmptyPage() throws IOException {
+        int pageNo = numPages();
+        channel.write(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                (long)pageNo*BufferPool.getPageSize());
+        return new HeapPageId(getId(), pageNo);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        try {
+            noteFreeSpace(page);
+        } catch (IOException e) {
+            e.printStackTrace();   //空闲空间表只是提示，读不出来不影响删除
+        }
+        ArrayList<Page> pages = new ArrayList<>();
+        pages.add(page);
+        return pages;
+    }
+
+    /**
+     * The page a sequential scan reads after pid, for {@link ReadAhead}.
+     * @return the next page of this file, or null after the last page
+     */
+    private PageId nextPageId(PageId pid, Page page) {
+        int next = pid.getPageNumber() + 1;
+        return next < numPages() ? new HeapPageId(getId(), next) : null;
     }
 
     // see DbFile.java for javadocs
@@ -136,16 +301,33 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid,Permissions.READ_ONLY);
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, p);
+    }
+
     public class HeapFileIterator implements DbFileIterator{
         TransactionId tid;
         Permissions permissions;
         BufferPool bufferPool =Database.getBufferPool();
         Iterator<Tuple> iterator;  //这个iterator是每一页的迭代器
         int num = 0;
+        ReadAhead readAhead;       //顺序扫描时在后台预读后面的页
+        final Predicate predicate; //下推的过滤条件，可为null
 
         public HeapFileIterator(TransactionId tid,Permissions permissions){
+            this(tid, permissions, null);
+        }
+
+        public HeapFileIterator(TransactionId tid, Permissions permissions, Predicate predicate){
             this.tid = tid;
             this.permissions = permissions;
+            this.predicate = predicate;
+        }
+
+        private Iterator<Tuple> tuples(HeapPage page) {
+            return predicate == null ? page.iterator() : page.iterator(predicate);
         }
 
         /**
@@ -156,12 +338,17 @@ public class HeapFile implements DbFile {
         @Override
         public void open() throws DbException, TransactionAbortedException {
             num = 0;
+            if (readAhead != null) {
+                readAhead.cancel();
+            }
+            readAhead = new ReadAhead(HeapFile.this::nextPageId);
             HeapPageId heapPageId = new HeapPageId(getId(), num);                       //先确定第一页的页id
             HeapPage page = (HeapPage)this.bufferPool.getPage(tid, heapPageId, permissions);
             if(page==null){
                 throw  new DbException("page null");
             }else{
-                iterator = page.iterator();
+                readAhead.access(heapPageId, page);
+                iterator = tuples(page);
             }
         }
 
@@ -182,7 +369,8 @@ public class HeapFile implements DbFile {
                 if(page==null){
                     continue;
                 }
-                iterator = page.iterator();
+                readAhead.access(heapPageId, page);
+                iterator = tuples(page);
                 if(iterator.hasNext()){
                     return true;
                 }
@@ -217,7 +405,89 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             iterator = null;
+            if (readAhead != null) {
+                readAhead.cancel();   //停止预读
+                readAhead = null;
+            }
         }
     }
-}
 
+    /**
+     * @return a reader that fills column batches with the tuples of this
+     *         file, page by page, without building a Tuple per row
+     */
+    public HeapFileBatchReader batchReader(TransactionId tid) {
+        return new HeapFileBatchReader(tid, null);
+    }
+
+    /**
+     * @return a reader like {@link #batchReader(TransactionId)} that only
+     *         reads the morsels it claims, for one of several scans that
+     *         share the file
+     */
+    public HeapFileBatchReader batchReader(TransactionId tid, PageMorsels morsels) {
+        return new HeapFileBatchReader(tid, morsels);
+    }
+
+    public class HeapFileBatchReader {
+        final TransactionId tid;
+        final PageMorsels morsels;  //为null时读整个文件
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPage page;      //正在读的页，null表示要取下一页
+        int num;            //下一页的页号
+        int end;            //当前页段之后的页号
+        int slot;           //page里下一个要读的槽
+        ReadAhead readAhead;
+
+        HeapFileBatchReader(TransactionId tid, PageMorsels morsels) {
+            this.tid = tid;
+            this.morsels = morsels;
+        }
+
+        public void open() {
+            close();
+            num = 0;
+            end = morsels == null ? numPages() : 0;
+            readAhead = new ReadAhead(HeapFile.this::nextPageId);
+        }
+
+        /**
+         * Clears batch and fills it with the next tuples of the file.
+         *
+         * @return false if the file had no more tuples
+         */
+        public boolean fill(ColumnBatch batch) throws DbException, TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull()) {
+                if (page == null) {
+                    if (num >= end) {
+                        //页段读完了，再领一段
+                        num = morsels == null ? -1 : morsels.claim();
+                        if (num < 0) {
+                            num = end;
+                            break;
+                        }
+                        end = morsels.end(num);
+                    }
+                    HeapPageId heapPageId = new HeapPageId(getId(), num++);
+                    page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_ONLY);
+                    readAhead.access(heapPageId, page);
+                    slot = 0;
+                }
+                slot = page.fillBatch(batch, slot);
+                if (slot < 0) {
+                    page = null;
+                }
+            }
+            return batch.size() > 0;
+        }
+
+        public void close() {
+            page = null;
+            if (readAhead != null) {
+                readAhead.cancel();   //停止预读
+                readAhead = null;
+            }
+        }
+    }
+}
@@ -4,10 +4,13 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,7 +20,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements FramedPage {
 
     final HeapPageId pid; //页号
     final TupleDesc td; //计算每个元组的字节数
@@ -25,8 +28,13 @@ public class HeapPage implements Page {
     final Tuple[] tuples;//元组数据？
     final int numSlots; //槽数，用页大小和元组大小，元组数量计算得到
 
-    byte[] oldData;
+    volatile byte[] oldData;   //keepBeforeImage在this上设置，getBeforeImage不持有this也要看得到
     private final Byte oldDataLock= (byte) 0;
+    /** 最后修改本页且尚未提交的事务，页干净时为 null */
+    private volatile TransactionId dirtier;
+
+    /** on-disk image the page decodes its tuples from (an arena frame, a mapped slice, or a heap copy); protected by this */
+    private ByteBuffer data;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -44,31 +52,41 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
-     * byte[] data是输入数据？
+     * <p>
+     * The page keeps its own copy of data and decodes a tuple only when it
+     * is requested, see {@link #HeapPage(HeapPageId, ByteBuffer)}.
      */
-    //初始化的时候，将数据和槽都初始化
+    //只解析header；元组留在data的副本里，按需解码
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the page as read from disk
+     * (same format as {@link #HeapPage(HeapPageId, byte[])}): a buffer pool
+     * frame, a slice of a memory-mapped file, an array HeapFile.readPage
+     * read the page into, or a heap copy of the bytes passed to the byte[]
+     * constructor. The page keeps using the buffer, so the caller must not
+     * reuse it. Only the header is copied;
+     * tuples are decoded from the buffer when they are requested, and the
+     * buffer doubles as the before image until the page is first changed,
+     * so no oldData copy is made.
+     *
+     * @see FrameArena
+     * @see MappedFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data)); //？？
 
-        // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();     //有点data数据会不满（见HeapFile的readPage()），所以不是所有header[i]都是1
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        ByteBuffer src = frame.duplicate();
+        src.position(0);
+        src.get(header);
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
+        this.data = frame;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -100,6 +118,10 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // never committed since it was read: the frame is the before image
+                oldDataRef = copyOfData();
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -109,10 +131,25 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Captures the current contents as the before image, copy-on-write: the
+     * page is serialized once into the buffer it decodes from (or into a new
+     * heap buffer, if that one is a read-only mapping), which then serves as
+     * the before image until the next change, exactly like a freshly read page.
+     */
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+        synchronized (this) {
+            if (data.isReadOnly()) {
+                ByteBuffer image = ByteBuffer.allocate(BufferPool.getPageSize());
+                writePageData(image, false);
+                data = image;
+            } else {
+                ByteBuffer image = data.duplicate();
+                image.position(0);
+                writePageData(image, true);
+            }
+            Arrays.fill(tuples, null); //所有元组都已写入data，按需重新解码
+            oldData = null;   //与keepBeforeImage同在this上，不会丢掉它刚保存的前像
         }
     }
 
@@ -125,41 +162,97 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Saves the bytes the page was read from as its before image, ahead
+     * of the first change: data may be a view of the file, which no longer
+     * holds the old page once the changed page is written.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        //如果槽位未使用，则通过循环读取整个元组大小的字节来跳过该槽位的内容。如果槽位已经被使用说明有数据，读取数据
-        //这是因为元组在页面中是按固定大小排列的，所以即使某个槽位是空的，也需要跳过它所占用的空间以继续读取下一个槽位
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte(); //读取整个元组大小的字节来跳过该槽位的内容
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null; //此时已经定位的下一个槽位了。
+    private synchronized void keepBeforeImage() {
+        if (oldData == null) {
+            oldData = copyOfData();
+        }
+    }
+
+    /** @return a heap copy of the bytes the page was read from */
+    private synchronized byte[] copyOfData() {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(copy);
+        return copy;
+    }
+
+    @Override
+    public synchronized ByteBuffer frame() {
+        return data != null && data.isDirect() ? data : null;
+    }
+
+    @Override
+    public synchronized void detachFrame() {
+        if (data.isDirect()) {
+            data = ByteBuffer.wrap(copyOfData());
+        }
+    }
+
+    /**
+     * Returns the tuple in slot i. Slots that were not written since the page
+     * was read are decoded from data on every call and not kept, so a scanned
+     * page holds no tuple objects.
+     */
+    private synchronized Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            t = decodeTuple(i);
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        //如果槽位已经被使用说明有数据，读取数据：STRING_TYPE/INT_TYPE的parse方法
+    /** Decodes slot i straight out of the frame, at its fixed offset. */
+    private Tuple decodeTuple(int slotId) {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId); //slotId = tupleno
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);//将dis数据读取并转化为Field字段类型
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = header.length + slotId * td.getSize();
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(data, offset));
+            offset += type.getLen();
         }
         return t;
     }
 
+    /**
+     * Appends the tuples in used slots from slot on to a batch, read straight
+     * out of the frame into its columns, until the batch is full or the page
+     * runs out. Slots written since the page was read come from their Tuple.
+     *
+     * @return the slot to continue from, or -1 if the page has no more slots
+     */
+    public synchronized int fillBatch(ColumnBatch batch, int slot) {
+        int row = batch.size();
+        int tupleSize = td.getSize();
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            if (tuples[slot] != null) {
+                batch.addTuple(tuples[slot]);
+                row++;
+                continue;
+            }
+            int offset = header.length + slot * tupleSize;
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    batch.ints(j)[row] = data.getInt(offset);
+                } else {
+                    batch.putString(j, row, data, offset + 4, data.getInt(offset));
+                }
+                offset += type.getLen();
+            }
+            batch.setSize(++row);
+        }
+        return slot < numSlots ? slot : -1;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -173,64 +266,67 @@ public class HeapPage implements Page {
      * 这个方法将页的头部、元组以及填充数据(zero零数据)组合成一个字节数组，将字节数组写入磁盘的页面。
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        byte[] page = new byte[BufferPool.getPageSize()];
+        getPageData(ByteBuffer.wrap(page));
+        return page;
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    /**
+     * Writes the bytes of {@link #getPageData()} into dst at its position,
+     * without intermediate streams or arrays: slots not written since the
+     * page was read are copied in bulk from data, changed slots are
+     * serialized field by field, and empty slots and padding are zeroed.
+     * dst's position is advanced by the page size.
+     *
+     * @param dst a buffer with at least BufferPool.getPageSize() bytes remaining
+     */
+    @Override
+    public synchronized void getPageData(ByteBuffer dst) {
+        writePageData(dst, false);
+    }
 
-            // empty slot
+    /**
+     * @param inPlace true if dst is a view of data itself, so the unchanged
+     *   slots are already in place
+     */
+    private void writePageData(ByteBuffer dst, boolean inPlace) {
+        int start = dst.position();
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        if (!inPlace) {
+            ByteBuffer src = data.duplicate();
+            src.position(0);
+            src.limit(pageSize);
+            dst.put(src);
+        }
+        dst.position(start);
+        dst.put(header);
+        for (int i=0; i<numSlots; i++) {
+            int offset = start + header.length + i * tupleSize;
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos); //序列化输入到磁盘
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                zero(dst, offset, tupleSize); //空槽写0
+            } else if (tuples[i] != null) {
+                dst.position(offset);
+                for (int j=0; j<td.numFields(); j++) {
+                    tuples[i].getField(j).serialize(dst);
                 }
             }
         }
-
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int end = start + header.length + tupleSize * numSlots;
+        zero(dst, end, start + pageSize - end);
+        dst.position(start + pageSize);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROS = new byte[256];
 
-        return baos.toByteArray();
+    private static void zero(ByteBuffer dst, int offset, int len) {
+        dst.position(offset);
+        while (len > 0) {
+            int n = Math.min(len, ZEROS.length);
+            dst.put(ZEROS, 0, n);
+            len -= n;
+        }
     }
 
     /**
@@ -258,10 +354,13 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         int tupleNumber = t.getRecordId().getTupleNumber();
-        if(isSlotUsed(tupleNumber) && tuples[tupleNumber].equals(t) ){
-            tuples[tupleNumber] = null; //删除数据
-            markSlotUsed(tupleNumber,false); //槽置零
-            return;
+        keepBeforeImage();
+        synchronized (this) {   //头部位和槽要一起改，后台写盘序列化时持有同一把锁
+            if(isSlotUsed(tupleNumber) && tupleAt(tupleNumber).equals(t) ){
+                tuples[tupleNumber] = null; //删除数据
+                markSlotUsed(tupleNumber,false); //槽置零
+                return;
+            }
         }
         throw new DbException("tuple is not in tuples");
     }
@@ -276,6 +375,21 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        keepBeforeImage();
+        synchronized (this) {   //头部位和槽要一起改，后台写盘序列化时持有同一把锁
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i)) {
+                    t.setRecordId(new RecordId(pid, i)); //元组记录它所在的页和槽
+                    tuples[i] = t;
+                    markSlotUsed(i, true);
+                    return;
+                }
+            }
+        }
+        throw new DbException("page is full");
     }
 
     /**
@@ -285,6 +399,12 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        if (dirty) {
+            keepBeforeImage();
+        }
+        synchronized (this) {
+            this.dirtier = dirty ? tid : null;
+        }
     }
 
     /**
@@ -293,7 +413,7 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -321,11 +441,17 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page. Callers hold the
+     * page's monitor, together with the change to the slot itself.
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        if (value) {
+            header[i/8] |= (byte) (1 << (i%8));
+        } else {
+            header[i/8] &= (byte) ~(1 << (i%8));
+        }
     }
 
     /**
@@ -334,13 +460,103 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<>();
-        for(int i=0;i<numSlots;i++){
-            if(isSlotUsed(i)){
-                tuples.add(this.tuples[i]);
+        return new LazyTupleIterator();
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. The
+     *   predicate is evaluated on the serialized field, at its fixed offset in
+     *   the slot, so a Tuple is only built for the rows that qualify.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new FilteredTupleIterator(p);
+    }
+
+    /** 延迟迭代器：next() 时才解码对应槽位的元组 */
+    private class LazyTupleIterator implements Iterator<Tuple> {
+        private int slot = nextUsed(0);
+
+        private int nextUsed(int from) {
+            while (from < numSlots && !isSlotUsed(from)) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = tupleAt(slot);
+            slot = nextUsed(slot + 1);
+            return t;
+        }
+    }
+
+    /** 谓词下推：直接在页内字节上比较，只为满足条件的行构造 Tuple */
+    private class FilteredTupleIterator implements Iterator<Tuple> {
+        private final Predicate predicate;
+        private final Type type;
+        private final int fieldOffset; //字段在元组内的偏移
+        private int slot = -1;
+        private Tuple next;
+
+        FilteredTupleIterator(Predicate predicate) {
+            this.predicate = predicate;
+            this.type = td.getFieldType(predicate.getField());
+            int offset = 0;
+            for (int j = 0; j < predicate.getField(); j++) {
+                offset += td.getFieldType(j).getLen();
+            }
+            this.fieldOffset = offset;
+            advance();
+        }
+
+        private void advance() {
+            synchronized (HeapPage.this) {
+                for (slot++; slot < numSlots; slot++) {
+                    if (!isSlotUsed(slot)) {
+                        continue;
+                    }
+                    Tuple t = tuples[slot];
+                    if (t != null) {
+                        // written since the page was read: data is stale for this slot
+                        if (predicate.filter(t)) {
+                            next = t;
+                            return;
+                        }
+                        continue;
+                    }
+                    int offset = header.length + slot * td.getSize() + fieldOffset;
+                    if (type.compare(data, offset, predicate.getOp(), predicate.getOperand())) {
+                        next = decodeTuple(slot);
+                        return;
+                    }
+                }
+                next = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (next == null) {
+                throw new NoSuchElementException();
             }
+            Tuple t = next;
+            advance();
+            return t;
         }
-        return tuples.iterator();
     }
 
 }
@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -45,6 +46,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer dst) {
+        dst.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -64,21 +69,28 @@ public class IntField implements Field {
 //            throw new IllegalCastException("Not IntField");
 //        }
         IntField iVal = (IntField) val;
+        return compare(value, op, iVal.value);
+    }
 
+    /**
+     * Compares two int values with the semantics of {@link #compare(Predicate.Op, Field)},
+     * for callers that read the value straight from a page.
+     */
+    public static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
         }
 
         return false;
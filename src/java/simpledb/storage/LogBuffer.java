@@ -0,0 +1,220 @@
+package simpledb.storage;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The in-memory tail of a {@link LogFile}: records are appended here, field
+ * by field, and reach the file in large sequential writes.
+ * <p>
+ * The buffer is a ring of direct chunks. Appends fill the chunks in turn;
+ * when the last one is full, or when the log must be made durable, all
+ * filled chunks go out in one gathering write at the end of the log, and
+ * appending starts over at the first chunk.
+ * <p>
+ * The file is preallocated in segments of zeros ahead of the end of the log,
+ * and the segment's size is forced once when it is added. Forcing the log
+ * after an append then only forces data, not the file's length. Readers
+ * recognize the end of the log by the zeros that follow it: no record has
+ * type 0.
+ * <p>
+ * Not thread-safe: the LogFile appends and writes under its own lock.
+ */
+class LogBuffer implements DataOutput {
+
+    /** Size of one chunk of the ring. */
+    static final int CHUNK_SIZE = 64 * 1024;
+    /** Number of chunks in the ring. */
+    static final int CHUNKS = 16;
+    /** The file grows by this much at a time. */
+    static final long SEGMENT_SIZE = 1 << 20;
+
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    private final ByteBuffer[] ring = new ByteBuffer[CHUNKS];
+    private int current;
+    private FileChannel channel;
+    /** File offset of the first byte in the ring. */
+    private long written;
+    /** Length of the file, zeros after the end of the log included. */
+    private long allocated;
+
+    LogBuffer() {
+        for (int i = 0; i < CHUNKS; i++) {
+            ring[i] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Starts appending at offset end of the file on channel, dropping
+     * anything buffered.
+     */
+    void reset(FileChannel channel, long end) throws IOException {
+        this.channel = channel;
+        this.written = end;
+        this.allocated = channel.size();
+        for (ByteBuffer chunk : ring) {
+            chunk.clear();
+        }
+        current = 0;
+    }
+
+    /** @return the file offset the next byte appended will have */
+    long end() {
+        long n = written;
+        for (int i = 0; i <= current; i++) {
+            n += ring[i].position();
+        }
+        return n;
+    }
+
+    /** @return the file the log is written to */
+    FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Writes everything appended so far to the file, without forcing it.
+     */
+    void writeOut() throws IOException {
+        long end = end();
+        if (end == written) {
+            return;
+        }
+        if (end > allocated) {
+            preallocate(end);
+        }
+        ByteBuffer[] filled = new ByteBuffer[current + 1];
+        for (int i = 0; i <= current; i++) {
+            ring[i].flip();
+            filled[i] = ring[i];
+        }
+        channel.position(written);
+        while (filled[current].hasRemaining()) {
+            channel.write(filled);
+        }
+        for (ByteBuffer chunk : ring) {
+            chunk.clear();
+        }
+        current = 0;
+        written = end;
+    }
+
+    /** Adds zeroed segments to the file until it holds end bytes, and forces its new size. */
+    private void preallocate(long end) throws IOException {
+        long to = allocated;
+        while (to < end) {
+            to += SEGMENT_SIZE;
+        }
+        for (long at = allocated; at < to; ) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit((int) Math.min(zeros.capacity(), to - at));
+            at += channel.write(zeros, at);
+        }
+        channel.force(true);
+        allocated = to;
+    }
+
+    /** @return a chunk with room for n more bytes, writing out the ring if it is full */
+    private ByteBuffer room(int n) throws IOException {
+        ByteBuffer chunk = ring[current];
+        if (chunk.remaining() >= n) {
+            return chunk;
+        }
+        if (current + 1 < CHUNKS) {
+            return ring[++current];
+        }
+        writeOut();
+        return ring[0];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        room(1).put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer chunk = room(1);
+            int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        room(2).putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        room(2).putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        room(4).putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        room(8).putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        // same encoding as DataOutputStream, which only writes it to a stream
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(bytes).writeUTF(s);
+        if (bytes.size() > 65537) {
+            throw new UTFDataFormatException("string too long for the log");
+        }
+        write(bytes.toByteArray());
+    }
+}
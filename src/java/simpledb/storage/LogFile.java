@@ -6,6 +6,8 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -55,28 +57,55 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, PAGE_DELTA,
+PAGES_WRITTEN, BEGIN, and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  They are no longer
+written, but are still read when recovering from an older log.
+
+<li>PAGE_DELTA records are written by logWrite instead of UPDATE records.
+They hold the id of the page and the byte ranges the transaction changed,
+each with its old and new contents; the first one for a page after a
+checkpoint also holds the full after image.  See {@link PageDelta}.
+
+<li>PAGES_WRITTEN records are written by the BufferPool after it writes
+pages, and list their ids.  Every update of those pages logged before the
+record is on disk, so recovery does not redo it.  They are not forced.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  It is followed by the dirty page table: an
+integer count of pages, and for each page whose logged updates may not
+be on disk yet, its id and the offset of the first such update.
 
 </ul>
+
+<p> Records are appended to a {@link LogBuffer} in memory, which writes
+them to the file in large chunks, into space preallocated after the end of
+the log; the end of the log is where the records stop, not where the file
+does.  Each record has an LSN: the offset of its end, plus the bytes
+truncated from the front of the log so far, so LSNs keep growing when the
+log is truncated.  {@link #flushTo} makes the log durable up to an LSN:
+before the BufferPool writes a page, the log is flushed up to the LSN of
+the page's update, and no further.
+
+<p> Commits are forced in groups: logCommit appends the COMMIT record and
+then waits, outside of this object's lock, for a {@link LogFlusher} that
+forces the log once for every transaction committing, or page being
+written, at the same time.
 */
 public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    private final LogBuffer out = new LogBuffer(); //protected by this
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +113,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int PAGE_DELTA_RECORD = 6;
+    static final int PAGES_WRITTEN_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -95,6 +126,24 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // pages logged with a full image since the last checkpoint //protected by this
+    final Set<PageId> imaged = new HashSet<>();
+
+    // dirty page table: offset of the first update of each page logged
+    // since the page was last written //protected by this
+    final Map<PageId, Long> recoveryLsn = new HashMap<>();
+
+    /** Default time a group of commits is held open for more committers to join. */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+    /** Default number of waiting committers that closes a group early. */
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 64;
+
+    long truncated = 0; // bytes truncated from the front of the log so far //protected by this
+    private int groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE; //protected by this
+    private final LogFlusher flusher = new LogFlusher(this, DEFAULT_GROUP_COMMIT_DELAY_MICROS, DEFAULT_GROUP_COMMIT_SIZE);
+
+    private int recoveryThreads = Math.max(2, Runtime.getRuntime().availableProcessors()); //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -109,6 +158,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        out.reset(raf.getChannel(), raf.length());
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -132,11 +182,16 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
+            out.reset(raf.getChannel(), currentOffset);
         }
     }
 
+    /** @return the LSN of the end of the log */
+    private long lsn() {
+        return truncated + out.end();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -160,10 +215,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = out.end();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,56 +226,126 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. Returns once the record is durable;
+        transactions committing at the same time share one force.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = out.end();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = lsn();
+        }
+        flushTo(lsn);
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Makes the log durable up to the specified LSN, forcing it if
+        some of it is not yet.  Callers flushing at the same time share
+        one force, unless group commit is turned off.
+        @param lsn An LSN returned by logWrite, or the end of the log
+    */
+    public void flushTo(long lsn) throws IOException {
+        synchronized (this) {
+            if (groupCommitSize == 1) {
+                force();    // no grouping: one force per call, as before
+                return;
+            }
+        }
+        flusher.awaitDurable(lsn);
+    }
+
+    /**
+     * Configures group commit.
+     *
+     * @param maxDelayMicros how long a group is held open after its first
+     *   committer arrives, waiting for others; 0 forces as soon as the
+     *   previous force is done
+     * @param maxBatch number of waiting committers that closes a group
+     *   before maxDelayMicros; 1 turns grouping off, so each commit forces
+     *   the log itself
+     */
+    public synchronized void setGroupCommit(long maxDelayMicros, int maxBatch) {
+        this.groupCommitSize = Math.max(1, maxBatch);
+        flusher.configure(maxDelayMicros, maxBatch);
+    }
+
+    /** @return the number of forces done by group commit */
+    public long getGroupCommitForces() {
+        return flusher.getForces();
+    }
+
+    /** Write a PAGE_DELTA record to disk for the specified tid and page,
+        holding the bytes that differ between the before and after images,
+        and the full after image if this is the first time the page is
+        logged since the last checkpoint.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return The LSN of the record: the page may be written once the
+        log is flushed up to it
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
+        /* page delta record consists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           page delta (see PageDelta.write)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        PageId pid = after.getId();
+        PageDelta delta = PageDelta.diff(pid, before.getPageData(), after.getPageData(), !imaged.contains(pid));
+        if (delta.image != null) {
+            imaged.add(pid);
+        }
+        recoveryLsn.putIfAbsent(pid, currentOffset);
+        out.writeInt(PAGE_DELTA_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        delta.write(out);
+        out.writeLong(currentOffset);
+        currentOffset = out.end();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn();
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write a PAGES_WRITTEN record, noting that the specified pages,
+        with every update of them logged so far, are on disk.  The
+        record is not forced: if it is lost, recovery redoes more.
+        @param pids The pages just written
+    */
+    synchronized void logPagesWritten(Collection<PageId> pids) throws IOException {
+        if (pids.isEmpty()) {
+            return;
+        }
+        preAppend();
+        out.writeInt(PAGES_WRITTEN_RECORD);
+        out.writeLong(-1); //no tid
+        out.writeInt(pids.size());
+        for (PageId pid : pids) {
+            PageDelta.writePageId(out, pid);
+            recoveryLsn.remove(pid);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = out.end();
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -248,7 +373,7 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(DataInput raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -267,17 +392,28 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have more than one constructor; the log stores (PageId, byte[])
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] types = c.getParameterTypes();
+                if (types.length == 2 && types[1] == byte[].class) {
+                    pageConst = c;
+                    break;
+                }
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            if (pageConst == null) {
+                throw new InstantiationException("no (PageId, byte[]) constructor in " + pageClassName);
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
@@ -300,149 +436,181 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.end();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint
+        is fuzzy: it records the transactions that are running and the
+        pages whose logged updates may not be on disk yet, but neither
+        stops the writers nor flushes the buffer pool.  The pool's cleaner
+        writes out the dirty pages afterwards, in the background. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + currentOffset);
+            preAppend();
+            long startCpOffset;
+            startCpOffset = out.end();
+            imaged.clear();   // the next write of each page logs its full image again
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write list of pages that may not be on disk yet
+            out.writeInt(recoveryLsn.size());
+            for (Map.Entry<PageId, Long> e : recoveryLsn.entrySet()) {
+                PageDelta.writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
             }
+            out.writeLong(currentOffset);
+            currentOffset = out.end();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            out.writeOut();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            force();   // truncation relies on the checkpoint
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
+        Database.getBufferPool().drainDirtyPages();
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Recovery needs the log from the minimum recovery
+        LSN of the last checkpoint on: the first record of every
+        transaction that was running, and the first update of every page
+        that was not on disk yet. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        out.writeOut();
+        long end = out.end();
         raf.seek(0);
         long cpLoc = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
         long minLogRecord = cpLoc;
+        raf.seek(cpLoc);
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        int numOutstanding = raf.readInt();
+        for (int i = 0; i < numOutstanding; i++) {
+            @SuppressWarnings("unused")
+            long tid = raf.readLong();
+            minLogRecord = Math.min(minLogRecord, raf.readLong());
+        }
+        int numDirty = raf.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            PageDelta.readPageId(raf);
+            minLogRecord = Math.min(minLogRecord, raf.readLong());
+        }
+        if (minLogRecord <= LONG_SIZE) {
+            return;   // nothing to drop
         }
 
         // we can truncate everything before minLogRecord
+        long shift = minLogRecord - LONG_SIZE;
         File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
+        FileOutputStream newOut = new FileOutputStream(newFile);
+        DataOutputStream logNew = new DataOutputStream(new BufferedOutputStream(newOut, 1 << 16));
+        logNew.writeLong(cpLoc - shift);
 
         //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+        try (LogReader in = LogReader.open(logFile, minLogRecord)) {
+            while (in.position() < end) {
+                try {
+                    int type = in.readInt();
+                    long record_tid = in.readLong();
+                    long newStart = logNew.size();
+
+                    logNew.writeInt(type);
+                    logNew.writeLong(record_tid);
+
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(in);
+                        Page after = readPageData(in);
+
+                        writePageData(logNew, before);
+                        writePageData(logNew, after);
+                        break;
+                    case PAGE_DELTA_RECORD:
+                        PageDelta.read(in).write(logNew);
+                        break;
+                    case PAGES_WRITTEN_RECORD:
+                        int numPages = in.readInt();
+                        logNew.writeInt(numPages);
+                        while (numPages-- > 0) {
+                            PageDelta.writePageId(logNew, PageDelta.readPageId(in));
+                        }
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = in.readInt();
+                        logNew.writeInt(numXactions);
+                        while (numXactions-- > 0) {
+                            logNew.writeLong(in.readLong());
+                            logNew.writeLong(in.readLong() - shift);
+                        }
+                        int numPageIds = in.readInt();
+                        logNew.writeInt(numPageIds);
+                        while (numPageIds-- > 0) {
+                            PageDelta.writePageId(logNew, PageDelta.readPageId(in));
+                            logNew.writeLong(in.readLong() - shift);
+                        }
+                        break;
+                    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+                    //all xactions finish with a pointer
+                    logNew.writeLong(newStart);
+                    in.readLong();
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                } catch (EOFException e) {
                     break;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
         }
+        logNew.flush();
+        newOut.getFD().sync();
+        logNew.close();
+
+        // the offsets kept in memory move with their records
+        tidToFirstLogRecord.replaceAll((tid, offset) -> offset - shift);
+        recoveryLsn.replaceAll((pid, offset) -> offset - shift);
+
+        truncated += shift;
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        Debug.log("TRUNCATING LOG;  WAS " + end + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (end - minLogRecord));
 
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        currentOffset = raf.length();
+        out.reset(raf.getChannel(), currentOffset);
         //print();
     }
 
@@ -459,7 +627,20 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("no BEGIN record for " + tid.getId());
+                }
+                // the transaction's updates are all after its BEGIN record;
+                // unfinished, it is a loser, so its pages end up undone
+                out.writeOut();
+                LogRecovery recovery = new LogRecovery(this);
+                recovery.analyze(first, tid.getId());
+                List<PageId> written = recovery.apply(1);
+                for (PageId pid : written) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+                logPagesWritten(written);
             }
         }
     }
@@ -486,13 +667,48 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                imaged.clear();
+                recoveryLsn.clear();
+                if (raf.length() < LONG_SIZE) {
+                    return;   // nothing was ever logged
+                }
+                out.writeOut();
+                LogRecovery recovery = new LogRecovery(this);
+                long end = recovery.analyze(LONG_SIZE, -1);
+                for (PageId pid : recovery.apply(recoveryThreads)) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+                // append after the last complete record, over whatever follows it
+                currentOffset = end;
+                out.reset(raf.getChannel(), end);
+
+                // every transaction in the log is finished now; a
+                // checkpoint lets the log be truncated
+                tidToFirstLogRecord.clear();
+                logCheckpoint();
             }
          }
     }
 
+    /**
+     * Sets the number of threads recover() splits the pages to redo and
+     * undo among.
+     */
+    public synchronized void setRecoveryThreads(int threads) {
+        this.recoveryThreads = Math.max(1, threads);
+    }
+
+    /** @return The length of the log in bytes, not counting the space
+        preallocated after it */
+    public synchronized long getLength() {
+        return out.end();
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        synchronized (this) {
+            out.writeOut();
+        }
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -502,6 +718,9 @@ public class LogFile {
         while (true) {
             try {
                 int cpType = raf.readInt();
+                if (cpType == 0) {
+                    break;   // the space preallocated after the log
+                }
                 long cpTid = raf.readLong();
 
                 System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
@@ -532,6 +751,13 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    int numDirty = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        PageId pid = PageDelta.readPageId(raf);
+                        System.out.println("  table id " + pid.getTableId() + ", page number " + pid.getPageNumber()
+                                + ": RECOVERY LSN: " + raf.readLong());
+                    }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
@@ -554,6 +780,27 @@ public class LogFile {
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case PAGE_DELTA_RECORD:
+                    long deltaStart = raf.getFilePointer();
+                    PageDelta delta = PageDelta.read(raf);
+                    System.out.println(delta.image != null ? " (PAGE DELTA + IMAGE)" : " (PAGE DELTA)");
+                    System.out.println(deltaStart + ": table id " + delta.pid.getTableId() + ", page number " + delta.pid.getPageNumber());
+                    for (int r = 0; r < delta.offsets.length; r++) {
+                        System.out.println("  bytes " + delta.offsets[r] + " TO " + (delta.offsets[r] + delta.before[r].length));
+                    }
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
+                    break;
+                case PAGES_WRITTEN_RECORD:
+                    System.out.println(" (PAGES WRITTEN)");
+                    int numPages = raf.readInt();
+                    while (numPages-- > 0) {
+                        PageId pid = PageDelta.readPageId(raf);
+                        System.out.println("  table id " + pid.getTableId() + ", page number " + pid.getPageNumber());
+                    }
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
                     break;
                 }
 
@@ -568,7 +815,34 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        out.writeOut();
+        // the file's length was forced when its space was preallocated
+        out.channel().force(false);
+        flusher.forced(lsn());
+    }
+
+    /**
+     * Forces the log on behalf of the {@link LogFlusher}, without holding
+     * this object's lock during the force, so records keep being appended.
+     *
+     * @return the LSN up to which the log was forced
+     */
+    long forceForGroup() throws IOException {
+        while (true) {
+            long lsn;
+            FileChannel channel;
+            synchronized (this) {
+                out.writeOut();
+                lsn = lsn();
+                channel = out.channel();
+            }
+            try {
+                channel.force(false);
+                return lsn;
+            } catch (ClosedChannelException e) {
+                // the log was truncated and reopened: force the new file
+            }
+        }
     }
 
 }
@@ -0,0 +1,153 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * LogFlusher is the group-commit thread of a {@link LogFile}.
+ * <p>
+ * A committing transaction appends its COMMIT record, asks for the log to be
+ * durable up to that record's LSN, and waits. The flusher forces
+ * the log once for everybody who is waiting, then wakes them all. While one
+ * force is running, the next batch of committers gathers behind it, so under
+ * load the number of forces per second stays about constant while the
+ * number of commits per force grows. The BufferPool waits the same way
+ * before writing pages, for the log to be durable up to their updates.
+ * <p>
+ * A batch can also be held open for up to maxDelay after its first committer
+ * arrives, or until maxBatch committers are waiting, to gather more commits
+ * per force when forces are cheap compared to the commit rate.
+ * <p>
+ * The thread is started by the first commit and ends after it has been idle
+ * for {@link #IDLE_MILLIS}, so a LogFile that is dropped leaves no thread.
+ *
+ * @Threadsafe, all fields are protected by this
+ */
+class LogFlusher implements Runnable {
+
+    /** How long the thread waits for work before it ends. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+    private long maxDelayNanos;
+    private int maxBatch;
+    /** Highest LSN some committer is waiting for. */
+    private long requested;
+    /** The log is on disk up to this LSN. */
+    private long durable;
+    private int waiting;
+    private Thread thread;
+    /** Number of failed forces, and the last failure. */
+    private int failures;
+    private IOException failure;
+    private long forces;
+
+    LogFlusher(LogFile log, long maxDelayMicros, int maxBatch) {
+        this.log = log;
+        configure(maxDelayMicros, maxBatch);
+    }
+
+    synchronized void configure(long maxDelayMicros, int maxBatch) {
+        this.maxDelayNanos = maxDelayMicros * 1000;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * Waits until the log is on disk up to lsn.
+     *
+     * @throws IOException if the force that would have covered lsn failed
+     */
+    synchronized void awaitDurable(long lsn) throws IOException {
+        if (lsn <= durable) {
+            return;
+        }
+        requested = Math.max(requested, lsn);
+        waiting++;
+        if (thread == null) {
+            thread = new Thread(this, "log-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        int failed = failures;
+        boolean interrupted = false;
+        try {
+            while (durable < lsn && failures == failed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;   // the commit record is written: it must become durable before returning
+                }
+            }
+        } finally {
+            waiting--;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (durable < lsn) {
+            throw failure;
+        }
+    }
+
+    /** Notes that the log was forced up to lsn by someone else, releasing the committers it covers. */
+    synchronized void forced(long lsn) {
+        if (lsn > durable) {
+            durable = lsn;
+            notifyAll();
+        }
+    }
+
+    /** @return the number of forces the flusher did */
+    synchronized long getForces() {
+        return forces;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                long idleSince = System.nanoTime();
+                while (requested <= durable) {
+                    long left = IDLE_MILLIS * 1_000_000 - (System.nanoTime() - idleSince);
+                    if (left <= 0) {
+                        thread = null;
+                        return;
+                    }
+                    waitNanos(left);
+                }
+                if (maxDelayNanos > 0) {
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    long left;
+                    while (waiting < maxBatch && (left = deadline - System.nanoTime()) > 0) {
+                        waitNanos(left);
+                    }
+                }
+            }
+            long lsn;
+            try {
+                lsn = log.forceForGroup();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // fail the waiting committers; the next commit tries again
+                    failures++;
+                    failure = e;
+                    requested = durable;
+                    notifyAll();
+                }
+                continue;
+            }
+            synchronized (this) {
+                forces++;
+                forced(lsn);
+            }
+        }
+    }
+
+    private void waitNanos(long nanos) {
+        try {
+            wait(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        } catch (InterruptedException e) {
+            // keep going: committers are waiting on this thread
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a {@link LogFile} front to back through a large buffer, keeping
+ * track of the file offset it is at, so that readers can check each
+ * record's trailing start offset and find the end of the log in the
+ * preallocated space after it.
+ */
+class LogReader extends DataInputStream {
+
+    private final Counter counter;
+
+    private static class Counter extends FilterInputStream {
+        long position;
+
+        Counter(InputStream in, long position) {
+            super(in);
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    private LogReader(Counter counter) {
+        super(counter);
+        this.counter = counter;
+    }
+
+    /** Opens file for reading from offset from. */
+    static LogReader open(File file, long from) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(from);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new LogReader(new Counter(new BufferedInputStream(in, 1 << 16), from));
+    }
+
+    /** @return the file offset of the next byte to be read */
+    long position() {
+        return counter.position;
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Debug;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The recovery engine of a {@link LogFile}, in the style of ARIES.
+ * <ul>
+ * <li>Analysis reads the log once, front to back, through a large buffer.
+ * It sorts every update by the page it changes, and finds for each page the
+ * point up to which the page on disk is current: the last PAGES_WRITTEN
+ * record naming it, which the buffer pool logs after writing pages. That
+ * log position is the page's LSN on disk.</li>
+ * <li>Redo then repeats history page by page, skipping the updates older
+ * than the page's LSN, and pages with nothing left to redo are not even
+ * read. Pages are independent, so they are split across worker threads by
+ * page id, and each page is read and written once.</li>
+ * <li>Undo happens in the same workers, per page: the updates of
+ * transactions that aborted are undone at their ABORT record, and those of
+ * transactions that never finished (the losers) at the end of the log.</li>
+ * </ul>
+ * Updates are {@link PageDelta}s relative to the page as last committed, so
+ * undoing a transaction's page means undoing its last update of the page,
+ * and redoing an update first undoes the transaction's previous one.
+ * <p>
+ * Not thread-safe: the LogFile runs it while holding its lock.
+ */
+class LogRecovery {
+
+    /** One change to a page: undo a delta, then redo another; either may be null. */
+    private static class Step {
+        final long lsn;
+        final PageDelta undo;
+        final PageDelta redo;
+
+        Step(long lsn, PageDelta undo, PageDelta redo) {
+            this.lsn = lsn;
+            this.undo = undo;
+            this.redo = redo;
+        }
+    }
+
+    /** What the log says about one page. */
+    private static class PageLog {
+        /** Updates up to here are on disk. */
+        long diskLsn = -1;
+        /** The transaction that updated the page last. */
+        long lastWriter = -1;
+        final List<Step> steps = new ArrayList<>();
+    }
+
+    private final LogFile log;
+    private final Map<PageId, PageLog> pages = new HashMap<>();
+    /** Last update of each page by each transaction that has not finished. */
+    private final Map<Long, Map<PageId, PageDelta>> running = new HashMap<>();
+    private int records;
+    private int losers;
+
+    LogRecovery(LogFile log) {
+        this.log = log;
+    }
+
+    /**
+     * Analysis: reads the log from offset from to its end, which is the first
+     * record that is not complete: one of the zeros preallocated after the
+     * log, or a record torn by a crash, whose trailing start offset is wrong.
+     *
+     * @param only if not -1, only this transaction's updates are kept
+     * @return the offset of the end of the log
+     */
+    long analyze(long from, long only) throws IOException {
+        long end = from;
+        try (LogReader in = LogReader.open(log.logFile, from)) {
+            while (true) {
+                try {
+                    int type = in.readInt();
+                    if (type == 0) {
+                        break;
+                    }
+                    long tid = in.readLong();
+                    PageDelta delta = null;
+                    List<PageId> written = null;
+                    switch (type) {
+                    case LogFile.UPDATE_RECORD:
+                        Page before = log.readPageData(in);
+                        Page after = log.readPageData(in);
+                        delta = PageDelta.diff(after.getId(), before.getPageData(), after.getPageData(), true);
+                        break;
+                    case LogFile.PAGE_DELTA_RECORD:
+                        delta = PageDelta.read(in);
+                        break;
+                    case LogFile.PAGES_WRITTEN_RECORD:
+                        int n = in.readInt();
+                        written = new ArrayList<>(n);
+                        while (n-- > 0) {
+                            written.add(PageDelta.readPageId(in));
+                        }
+                        break;
+                    case LogFile.CHECKPOINT_RECORD:
+                        int numXactions = in.readInt();
+                        in.skipBytes(numXactions * 2 * LogFile.LONG_SIZE);
+                        int numDirty = in.readInt();
+                        while (numDirty-- > 0) {
+                            PageDelta.readPageId(in);
+                            in.readLong();
+                        }
+                        break;
+                    }
+                    // a record counts once it is complete: its last field is its start offset
+                    long lsn = in.readLong();
+                    if (lsn != end) {
+                        break;
+                    }
+                    end = in.position();
+                    records++;
+                    if (only != -1 && tid != only) {
+                        continue;
+                    }
+                    if (delta != null) {
+                        PageDelta previous = running.computeIfAbsent(tid, k -> new HashMap<>()).put(delta.pid, delta);
+                        PageLog page = page(delta.pid);
+                        page.steps.add(new Step(lsn, previous, delta));
+                        page.lastWriter = tid;
+                    } else if (written != null) {
+                        for (PageId pid : written) {
+                            page(pid).diskLsn = lsn;
+                        }
+                    } else if (type == LogFile.COMMIT_RECORD) {
+                        running.remove(tid);
+                    } else if (type == LogFile.ABORT_RECORD) {
+                        undoAt(lsn, running.remove(tid), -1);
+                    }
+                } catch (EOFException e) {
+                    break;
+                } catch (IOException | RuntimeException e) {
+                    break;   // the zeros after a torn record do not even parse
+                }
+            }
+        }
+        // the losers; a page another transaction updated later was already
+        // restored when the loser ended without a trace in the log
+        losers = running.size();
+        for (Map.Entry<Long, Map<PageId, PageDelta>> e : running.entrySet()) {
+            undoAt(Long.MAX_VALUE, e.getValue(), e.getKey());
+        }
+        running.clear();
+        return end;
+    }
+
+    private PageLog page(PageId pid) {
+        return pages.computeIfAbsent(pid, k -> new PageLog());
+    }
+
+    private void undoAt(long lsn, Map<PageId, PageDelta> updates, long loser) {
+        if (updates == null) {
+            return;
+        }
+        for (PageDelta delta : updates.values()) {
+            PageLog page = pages.get(delta.pid);
+            if (loser == -1 || page.lastWriter == loser) {
+                page.steps.add(new Step(lsn, delta, null));
+            }
+        }
+    }
+
+    /**
+     * Redo and undo: brings every page the log says is not current up to
+     * date, on the given number of threads.
+     *
+     * @return the pages written
+     */
+    List<PageId> apply(int threads) throws IOException {
+        List<List<PageId>> parts = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Map.Entry<PageId, PageLog> e : pages.entrySet()) {
+            PageLog page = e.getValue();
+            if (!page.steps.isEmpty() && page.steps.get(page.steps.size() - 1).lsn > page.diskLsn) {
+                parts.get(Math.floorMod(e.getKey().hashCode(), threads)).add(e.getKey());
+            }
+        }
+        List<PageId> written = Collections.synchronizedList(new ArrayList<>());
+        IOException[] failure = new IOException[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 1; i < threads; i++) {
+            List<PageId> part = parts.get(i);
+            if (part.isEmpty()) {
+                continue;
+            }
+            Thread worker = new Thread(() -> {
+                try {
+                    apply(part, written);
+                } catch (IOException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }, "recovery-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        apply(parts.get(0), written);
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        Debug.log("RECOVERY: %d records, %d pages in log, %d written, %d losers",
+                records, pages.size(), written.size(), losers);
+        return written;
+    }
+
+    private void apply(List<PageId> part, List<PageId> written) throws IOException {
+        for (PageId pid : part) {
+            PageLog page = pages.get(pid);
+            byte[] data = readPageBytes(pid);
+            for (Step step : page.steps) {
+                if (step.lsn <= page.diskLsn) {
+                    continue;
+                }
+                if (step.undo != null) {
+                    step.undo.undo(data);
+                }
+                if (step.redo != null) {
+                    step.redo.redo(data);
+                }
+            }
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(new PageDelta.RawPage(pid, data));
+            written.add(pid);
+        }
+    }
+
+    /** @return the bytes of a page on disk, or an empty page if it is past the end of its file */
+    private static byte[] readPageBytes(PageId pid) {
+        try {
+            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (p != null) {
+                return p.getPageData();
+            }
+        } catch (RuntimeException e) {
+            // read past the end of the file
+        }
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of transactions that had not finished */
+    int getLosers() {
+        return losers;
+    }
+}
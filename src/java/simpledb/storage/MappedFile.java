@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedFile is a read-only memory mapping of a table file, used by
+ * {@link HeapFile} and {@link simpledb.index.BTreeFile} when the table is
+ * memory-mapped in the catalog. A page read becomes a slice of the mapping:
+ * no system call, no copy, and no heap allocation for the page bytes.
+ * <p>
+ * The file is mapped in fixed-size chunks so tables larger than 2GB can be
+ * mapped. Consecutive chunks overlap by {@link #MAX_SLICE} bytes, so any
+ * slice of at most that length lies entirely within one chunk, whatever the
+ * alignment of the pages in the file. When a read goes past the end of the
+ * mapping (the file has grown), the tail of the file is remapped.
+ * <p>
+ * Writes still go through the file itself; the mapping shares the operating
+ * system's page cache with them and sees them without being remapped.
+ *
+ * @Threadsafe
+ */
+public class MappedFile {
+
+    /** Default bytes per mapped chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 26;
+    /** Longest slice that can be returned; also the overlap between chunks. */
+    public static final int MAX_SLICE = 1 << 16;
+
+    /** An immutable snapshot of the mapped chunks. */
+    private static final class Mapping {
+        final MappedByteBuffer[] chunks;
+        final long length;
+
+        Mapping(MappedByteBuffer[] chunks, long length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private volatile Mapping mapping;
+
+    /**
+     * Maps the given file.
+     *
+     * @param f the file to map; must exist
+     */
+    public MappedFile(File f) throws IOException {
+        this(f, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Maps the given file in chunks of the given size.
+     *
+     * @param f the file to map; must exist
+     * @param chunkSize bytes per chunk, not counting the overlap
+     */
+    public MappedFile(File f, int chunkSize) throws IOException {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE - MAX_SLICE) {
+            throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        this.mapping = new Mapping(new MappedByteBuffer[0], 0);
+        remap();
+    }
+
+    /**
+     * Returns a read-only view of length bytes of the file starting at offset.
+     *
+     * @return the slice, positioned at 0, or null if the bytes are not in the
+     *   file or length is larger than {@link #MAX_SLICE}
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        if (offset < 0 || length > MAX_SLICE) {
+            return null;
+        }
+        Mapping m = mapping;
+        if (offset + length > m.length) {
+            m = remap();
+            if (offset + length > m.length) {
+                return null;
+            }
+        }
+        int c = (int) (offset / chunkSize);
+        int pos = (int) (offset - (long) c * chunkSize);
+        ByteBuffer b = m.chunks[c].duplicate();
+        b.limit(pos + length);
+        b.position(pos);
+        return b.slice();
+    }
+
+    /** @return the number of bytes of the file currently mapped */
+    public long length() {
+        return mapping.length;
+    }
+
+    /**
+     * Extends the mapping to the current size of the file. Chunks that were
+     * already mapped in full are kept.
+     */
+    private synchronized Mapping remap() throws IOException {
+        Mapping old = mapping;
+        long size = channel.size();
+        if (size <= old.length) {
+            return old;
+        }
+        int n = (int) ((size + chunkSize - 1) / chunkSize);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+        for (int c = 0; c < n; c++) {
+            long start = (long) c * chunkSize;
+            long end = Math.min(size, start + chunkSize + MAX_SLICE);
+            if (c < old.chunks.length && old.chunks[c].capacity() == end - start) {
+                chunks[c] = old.chunks[c];
+            } else {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+        }
+        Mapping m = new Mapping(chunks, size);
+        mapping = m;
+        return m;
+    }
+
+    /**
+     * Closes the file. Slices already handed out stay readable until they are
+     * garbage collected.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,22 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * A {@link DbFile} that can serve page reads from a {@link MappedFile}
+ * instead of reading the file for every page. The mode is chosen per table
+ * through {@link simpledb.common.Catalog#setMemoryMapped(int, boolean)}.
+ */
+public interface MemoryMappable {
+
+    /**
+     * Switches page reads of this file to (or back from) a memory mapping.
+     *
+     * @param mapped true to read pages from a mapping of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    void setMemoryMapped(boolean mapped) throws IOException;
+
+    /** @return true if page reads come from a memory mapping */
+    boolean isMemoryMapped();
+}
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,18 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Writes the bytes of {@link #getPageData()} into dst at its position and
+   * advances the position past them. Pages that can serialize themselves
+   * without building a byte array override this; flushes use it to write
+   * through a reused buffer.
+   *
+   * @param dst a buffer with room for the page
+   */
+  default void getPageData(ByteBuffer dst) {
+    dst.put(getPageData());
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small free list of page-sized byte arrays, so reading a page does not
+ * allocate a fresh <code>new byte[pageSize]</code> that is garbage as soon as
+ * the page has been decoded.
+ * <p>
+ * A buffer must only be given back once nothing refers to it any more; the
+ * page constructors taking a byte[] copy what they need out of it.
+ *
+ * @Threadsafe
+ */
+public final class PageBuffers {
+
+    /** Most buffers kept on the free list. */
+    static final int MAX_POOLED = 64;
+
+    /** Used as a stack, so the most recently used (cache-warm) buffer is reused first. */
+    private static final ConcurrentLinkedDeque<byte[]> free = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger numFree = new AtomicInteger();
+
+    private PageBuffers() {
+    }
+
+    /**
+     * @return a buffer of {@link BufferPool#getPageSize()} bytes; its contents
+     *   are undefined
+     */
+    public static byte[] take() {
+        int size = BufferPool.getPageSize();
+        byte[] b;
+        while ((b = free.poll()) != null) {
+            numFree.decrementAndGet();
+            if (b.length == size) {
+                return b;
+            }
+            // left over from before a page size change: drop it
+        }
+        return new byte[size];
+    }
+
+    /** Returns a buffer obtained from {@link #take()} to the free list. */
+    public static void give(byte[] b) {
+        if (numFree.incrementAndGet() <= MAX_POOLED) {
+            free.push(b);
+        } else {
+            numFree.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.storage;
+
+/**
+ * PageCleaner is the background thread of a {@link BufferPool} that writes
+ * dirty pages to disk ahead of eviction and commit.
+ * <p>
+ * Every {@link #INTERVAL_MILLIS} it trickles out a batch of dirty pages, in
+ * file and page-number order so adjacent pages go out in one write. When the
+ * pool wakes it because too many pages are dirty, it keeps writing batches
+ * until the dirty pages are back under the low watermark. Eviction then
+ * nearly always finds a clean victim, and a committing transaction has few
+ * pages left to force. After a checkpoint it is asked to drain the pool of
+ * dirty pages completely, instead of the checkpoint flushing them itself.
+ * <p>
+ * The thread is started by the first page that gets dirty, and stopped by
+ * {@link #shutdown()} when the pool is replaced.
+ *
+ * @Threadsafe
+ */
+class PageCleaner implements Runnable {
+
+    /** Time between two trickle batches when the pool is not under pressure. */
+    static final long INTERVAL_MILLIS = 100;
+
+    private final BufferPool pool;
+    private final int batchSize;
+    private final int lowWater;
+    private Thread thread;          // protected by this
+    private boolean wakeup;         // protected by this
+    private boolean drain;          // protected by this
+    private volatile boolean stopped;
+
+    /**
+     * @param pool the pool whose dirty pages to write
+     * @param batchSize most pages written per batch
+     * @param lowWater number of dirty pages a woken cleaner brings the pool down to
+     */
+    PageCleaner(BufferPool pool, int batchSize, int lowWater) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.lowWater = lowWater;
+    }
+
+    /** Starts the thread if it is not running yet. */
+    synchronized void start() {
+        if (thread == null && !stopped) {
+            thread = new Thread(this, "page-cleaner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Asks the cleaner to write batches now, until the pool is under the low watermark. */
+    synchronized void wake() {
+        start();
+        wakeup = true;
+        notifyAll();
+    }
+
+    /** Asks the cleaner to write out every dirty page now, as after a checkpoint. */
+    synchronized void drain() {
+        drain = true;
+        wake();
+    }
+
+    /** Stops the thread; dirty pages still in the pool are left to their transactions. */
+    synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            boolean urgent;
+            int target;
+            synchronized (this) {
+                if (!wakeup && !stopped) {
+                    try {
+                        wait(INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                urgent = wakeup;
+                target = drain ? 0 : lowWater;
+                wakeup = false;
+                drain = false;
+            }
+            try {
+                int written = pool.cleanDirtyPages(batchSize);
+                while (urgent && written > 0 && !stopped && pool.getNumDirtyPages() > target) {
+                    written = pool.cleanDirtyPages(batchSize);
+                }
+            } catch (RuntimeException e) {
+                // a failed batch stays dirty and is retried next round
+                e.printStackTrace();
+            }
+        }
+    }
+}
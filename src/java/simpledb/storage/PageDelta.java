@@ -0,0 +1,230 @@
+package simpledb.storage;
+
+import simpledb.index.BTreePageId;
+import simpledb.transaction.TransactionId;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body of a PAGE_DELTA log record: the byte ranges of a page that a
+ * transaction changed, each with its old and new contents, instead of two
+ * full page images.
+ * <p>
+ * Ranges are found by comparing the page with its before image, so they are
+ * the tuple slots and header bytes an insert, delete or update touched,
+ * whatever the page type. Runs of changed bytes separated by fewer than
+ * {@link #MERGE_GAP} equal bytes are written as one range, since a range costs
+ * two ints. Because the ranges are relative to the before image (the page as
+ * last committed), a page that is written several times by one transaction
+ * gets several deltas that each hold all of the transaction's changes so far;
+ * recovery undoes the previous one before it redoes the next.
+ * <p>
+ * The first delta of a page after a checkpoint also carries the full after
+ * image, so that redo does not depend on what is on disk, and so does a delta
+ * that would be larger than the page.
+ * <p>
+ * Page ids are written as their serialized ints: two for a {@link HeapPageId},
+ * three for a {@link BTreePageId}.
+ */
+class PageDelta {
+
+    /** Changed runs at most this far apart are written as one range. */
+    static final int MERGE_GAP = 8;
+
+    final PageId pid;
+    /** The full page after the change, or null. */
+    final byte[] image;
+    final int[] offsets;
+    final byte[][] before;
+    /** New contents of each range; null when the image is written. */
+    final byte[][] after;
+
+    private PageDelta(PageId pid, byte[] image, int[] offsets, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.image = image;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compares two images of a page.
+     *
+     * @param withImage whether to keep the full after image
+     */
+    static PageDelta diff(PageId pid, byte[] old, byte[] now, boolean withImage) {
+        List<int[]> ranges = new ArrayList<>();
+        int changed = 0;
+        int i = 0;
+        while (i < now.length) {
+            if (old[i] == now[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;   // exclusive end of the last changed byte
+            for (i = end; i < now.length && i - end < MERGE_GAP; i++) {
+                if (old[i] != now[i]) {
+                    end = i + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            changed += end - start;
+            i = end;
+        }
+        // a range is stored twice plus two ints; past that size the image is smaller
+        if (2 * changed + ranges.size() * 2 * LogFile.INT_SIZE >= now.length) {
+            withImage = true;
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = withImage ? null : new byte[ranges.size()][];
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0], end = ranges.get(r)[1];
+            offsets[r] = start;
+            before[r] = copy(old, start, end);
+            if (after != null) {
+                after[r] = copy(now, start, end);
+            }
+        }
+        return new PageDelta(pid, withImage ? now.clone() : null, offsets, before, after);
+    }
+
+    private static byte[] copy(byte[] data, int start, int end) {
+        byte[] out = new byte[end - start];
+        System.arraycopy(data, start, out, 0, out.length);
+        return out;
+    }
+
+    /** Sets the changed bytes of data to their new contents. */
+    void redo(byte[] data) {
+        if (image != null) {
+            System.arraycopy(image, 0, data, 0, image.length);
+            return;
+        }
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(after[r], 0, data, offsets[r], after[r].length);
+        }
+    }
+
+    /** Sets the changed bytes of data back to their old contents. */
+    void undo(byte[] data) {
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(before[r], 0, data, offsets[r], before[r].length);
+        }
+    }
+
+    /** @return the number of bytes of page data this delta holds */
+    int size() {
+        int n = image == null ? 0 : image.length;
+        for (int r = 0; r < offsets.length; r++) {
+            n += before[r].length * (after == null ? 1 : 2);
+        }
+        return n;
+    }
+
+    void write(DataOutput out) throws IOException {
+        writePageId(out, pid);
+        out.writeBoolean(image != null);
+        if (image != null) {
+            out.writeInt(image.length);
+            out.write(image);
+        }
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(before[r].length);
+            out.write(before[r]);
+            if (after != null) {
+                out.write(after[r]);
+            }
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        PageId pid = readPageId(in);
+        byte[] image = null;
+        if (in.readBoolean()) {
+            image = new byte[in.readInt()];
+            in.readFully(image);
+        }
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = image != null ? null : new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            before[r] = new byte[in.readInt()];
+            in.readFully(before[r]);
+            if (after != null) {
+                after[r] = new byte[before[r].length];
+                in.readFully(after[r]);
+            }
+        }
+        return new PageDelta(pid, image, offsets, before, after);
+    }
+
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int[] data = pid.serialize();
+        out.writeByte(data.length);
+        for (int d : data) {
+            out.writeInt(d);
+        }
+    }
+
+    static PageId readPageId(DataInput in) throws IOException {
+        int n = in.readByte();
+        int[] data = new int[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = in.readInt();
+        }
+        switch (n) {
+        case 2:
+            return new HeapPageId(data[0], data[1]);
+        case 3:
+            return new BTreePageId(data[0], data[1], data[2]);
+        default:
+            throw new IOException("unknown page id with " + n + " fields in log");
+        }
+    }
+
+    /**
+     * A page that is just bytes, for writing pages recovery rebuilt without
+     * parsing them.
+     */
+    static class RawPage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        RawPage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+}
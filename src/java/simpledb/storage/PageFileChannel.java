@@ -0,0 +1,197 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * PageFileChannel is the long-lived handle a {@link DbFile} reads and writes
+ * its pages through. All I/O is positional ({@link FileChannel#read(ByteBuffer, long)}
+ * and {@link FileChannel#write(ByteBuffer, long)}), so there is no shared file
+ * pointer and any number of threads can read the same table concurrently on
+ * one file descriptor.
+ * <p>
+ * The channel is opened on first use and reopened after {@link #close()}
+ * (or after it was closed by an interrupted thread), so a DbFile stays usable
+ * after {@link simpledb.common.Catalog#clear()} has released its handle.
+ * <p>
+ * {@link #writePages(List, ToLongFunction)} writes pages that are adjacent in
+ * the file with one gathering write ({@link FileChannel#write(ByteBuffer[])}).
+ *
+ * @Threadsafe
+ */
+public class PageFileChannel {
+
+    private final File file;
+    private FileChannel channel; // protected by this
+    /** Gathering writes go through the channel's position; serialized by this lock. */
+    private final Object positionLock = new Object();
+
+    /** Most pages joined into a single gathering write. */
+    static final int MAX_GATHER = 64;
+
+    public PageFileChannel(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            } catch (AccessDeniedException e) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Reads from the file at the given position until dst is full or the end
+     * of the file is reached.
+     *
+     * @return the number of bytes read, 0 if position is at or past the end of the file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int n = 0;
+        boolean retried = false;
+        while (dst.hasRemaining()) {
+            int r;
+            try {
+                r = channel().read(dst, position + n);
+            } catch (ClosedChannelException e) {
+                // closed under us by close() or an interrupted reader: reopen once
+                if (retried) {
+                    throw e;
+                }
+                retried = true;
+                continue;
+            }
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Writes all of src to the file at the given position.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        boolean retried = false;
+        while (src.hasRemaining()) {
+            try {
+                position += channel().write(src, position);
+            } catch (ClosedChannelException e) {
+                if (retried) {
+                    throw e;
+                }
+                retried = true;
+            }
+        }
+    }
+
+    /**
+     * Writes all of srcs, one after the other, to the file at the given
+     * position with as few system calls as possible.
+     */
+    public void write(ByteBuffer[] srcs, long position) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer src : srcs) {
+            remaining += src.remaining();
+        }
+        boolean retried = false;
+        synchronized (positionLock) {
+            while (remaining > 0) {
+                try {
+                    FileChannel ch = channel();
+                    ch.position(position);
+                    long n = ch.write(srcs);
+                    position += n;
+                    remaining -= n;
+                } catch (ClosedChannelException e) {
+                    if (retried) {
+                        throw e;
+                    }
+                    retried = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes pages, each at the offset offsetOf gives for its id. Runs of
+     * pages that follow each other in the file are written together, so a
+     * list sorted by offset costs one write per run rather than one per page.
+     */
+    public void writePages(List<? extends Page> pages, ToLongFunction<PageId> offsetOf) throws IOException {
+        List<ByteBuffer> run = new ArrayList<>();
+        long runStart = 0;
+        long runEnd = 0;
+        try {
+            for (Page page : pages) {
+                long offset = offsetOf.applyAsLong(page.getId());
+                if (!run.isEmpty() && (offset != runEnd || run.size() == MAX_GATHER)) {
+                    flushRun(run, runStart);
+                }
+                // pages serialize straight into pooled buffers
+                ByteBuffer data = ByteBuffer.wrap(PageBuffers.take());
+                page.getPageData(data);
+                data.flip();
+                if (run.isEmpty()) {
+                    runStart = offset;
+                    runEnd = offset;
+                }
+                run.add(data);
+                runEnd += data.remaining();
+            }
+            if (!run.isEmpty()) {
+                flushRun(run, runStart);
+            }
+        } finally {
+            for (ByteBuffer b : run) {
+                PageBuffers.give(b.array());
+            }
+        }
+    }
+
+    /** Writes a run of page images and hands their buffers back to PageBuffers. */
+    private void flushRun(List<ByteBuffer> run, long position) throws IOException {
+        write(run.toArray(new ByteBuffer[0]), position);
+        for (ByteBuffer b : run) {
+            PageBuffers.give(b.array());
+        }
+        run.clear();
+    }
+
+    /** @return the current size of the file */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /** Cuts the file down to the given size, if it is longer. */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /** Forces written pages to disk. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /** Closes the handle; the next read or write opens it again. */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
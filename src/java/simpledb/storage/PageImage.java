@@ -0,0 +1,61 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The bytes of a page as they were serialized at one instant, for writing
+ * the same image to the log and to the file while the page itself may keep
+ * changing. It is only written, never cached or changed.
+ */
+class PageImage implements Page {
+
+    private final PageId pid;
+    private final byte[] data;
+    private final Page before;
+
+    /**
+     * @param page the page to take the image of
+     */
+    PageImage(Page page) {
+        this.pid = page.getId();
+        this.data = page.getPageData();
+        this.before = page.getBeforeImage();
+    }
+
+    @Override
+    public PageId getId() {
+        return pid;
+    }
+
+    @Override
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    @Override
+    public void markDirty(boolean dirty, TransactionId tid) {
+        throw new UnsupportedOperationException("a page image cannot change");
+    }
+
+    @Override
+    public byte[] getPageData() {
+        return data;
+    }
+
+    @Override
+    public void getPageData(ByteBuffer dst) {
+        dst.put(data);
+    }
+
+    @Override
+    public Page getBeforeImage() {
+        return before;
+    }
+
+    @Override
+    public void setBeforeImage() {
+        throw new UnsupportedOperationException("a page image cannot change");
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageMorsels deals out the pages of a file as morsels: runs of consecutive
+ * pages that scans on several threads claim one at a time, so the file is
+ * read once between them and a worker that finishes early takes more.
+ */
+public class PageMorsels {
+
+    /** Pages in a morsel unless a scan asks for another size. */
+    public static final int DEFAULT_PAGES = 16;
+
+    private final int pages;
+    private final int morselPages;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param pages the number of pages to deal out, from page 0
+     * @param morselPages the number of pages in a morsel
+     */
+    public PageMorsels(int pages, int morselPages) {
+        this.pages = pages;
+        this.morselPages = Math.max(1, morselPages);
+    }
+
+    /** @return the first page of the next morsel, or -1 when every page was claimed */
+    public int claim() {
+        int first = next.getAndAdd(morselPages);
+        return first < pages ? first : -1;
+    }
+
+    /** @return the page after the last one of the morsel starting at first */
+    public int end(int first) {
+        return Math.min(pages, first + morselPages);
+    }
+}
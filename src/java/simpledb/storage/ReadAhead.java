@@ -0,0 +1,196 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReadAhead prefetches the pages a sequential scan is about to read into the
+ * buffer pool, on a small shared pool of background threads, so the scan
+ * finds them cached instead of waiting for one synchronous read per page.
+ * <p>
+ * A file iterator creates one ReadAhead per scan and calls
+ * {@link #access(PageId, Page)} each time it moves to a page. Once two
+ * consecutive accesses follow the file's {@link PageSequence}, a background
+ * task reads ahead of the scan, keeping up to a window of pages in the pool
+ * beyond the page being read. The window adapts to the measured time to read
+ * a page relative to the time the scan spends on a page: the slower the
+ * reads, the further ahead the task runs. It is capped by a fraction of the
+ * buffer pool, so prefetched pages are not evicted before they are used.
+ * <p>
+ * {@link #cancel()} stops the background task; iterators call it from close().
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /**
+     * The order in which a scan visits the pages of a file.
+     */
+    public interface PageSequence {
+        /**
+         * @param pid a page of the scan
+         * @param page the page itself, for files whose next page is stored in it
+         * @return the page the scan reads after pid, or null at the end of the scan
+         */
+        PageId next(PageId pid, Page page);
+    }
+
+    /** Smallest and largest number of pages read ahead of the scan. */
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 64;
+    /** Consecutive sequential accesses before read-ahead starts. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** Threads that read pages ahead of scans; RecordSorter reads its runs ahead here too. */
+    static final ExecutorService IO = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private static volatile boolean enabled = true;
+
+    private final PageSequence sequence;
+    private final BufferPool pool;
+
+    // consumer state, only touched by the scanning thread
+    private PageId lastAccess;
+    private Page lastPage;
+    private int sequentialRun;
+    private long lastAccessNanos;
+
+    /** Pages read ahead of the scan and not yet reached by it. */
+    private final AtomicInteger lead = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile boolean exhausted;
+    private volatile Future<?> task;
+
+    // last page read ahead; owned by whichever thread holds running (or the scan, between tasks)
+    private PageId tail;
+    private Page tailPage;
+
+    // moving averages, in nanoseconds
+    private volatile double readNanos;
+    private volatile double consumeNanos;
+
+    /**
+     * @param sequence the order in which the scan visits pages
+     */
+    public ReadAhead(PageSequence sequence) {
+        this.sequence = sequence;
+        this.pool = Database.getBufferPool();
+    }
+
+    /** Turns read-ahead on or off for scans opened from now on (for benchmarks). */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that the scan moved to the given page, and schedules read-ahead
+     * when the scan is sequential and the pages read ahead are running low.
+     */
+    public void access(PageId pid, Page page) {
+        if (!enabled || cancelled) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean sequential = lastAccess != null && pid.equals(sequence.next(lastAccess, lastPage));
+        if (lastAccess != null) {
+            consumeNanos = average(consumeNanos, now - lastAccessNanos);
+        }
+        lastAccessNanos = now;
+        lastAccess = pid;
+        lastPage = page;
+        sequentialRun = sequential ? sequentialRun + 1 : 0;
+        if (!sequential) {
+            // random jump: whatever was read ahead is not on the scan's path
+            lead.set(0);
+        } else if (lead.get() > 0) {
+            lead.decrementAndGet();
+        }
+        if (sequentialRun + 1 < SEQUENTIAL_THRESHOLD || exhausted) {
+            return;
+        }
+        if (lead.get() <= window() / 2 && running.compareAndSet(false, true)) {
+            if (lead.get() <= 0) {
+                // the scan caught up with (or never had) read-ahead: continue from here
+                lead.set(0);
+                tail = pid;
+                tailPage = page;
+            }
+            task = IO.submit(this::pump);
+        }
+    }
+
+    /**
+     * @return the number of pages to keep read ahead of the scan
+     */
+    int window() {
+        double consume = Math.max(consumeNanos, 1);
+        int w = (int) Math.ceil(2 * readNanos / consume);
+        int cap = Math.max(MIN_WINDOW, pool.getNumPages() / 4);
+        return Math.max(MIN_WINDOW, Math.min(Math.min(MAX_WINDOW, cap), w));
+    }
+
+    /** Background task: reads pages after tail until the window is full. */
+    private void pump() {
+        try {
+            while (!cancelled && lead.get() < window()) {
+                PageId next = sequence.next(tail, tailPage);
+                if (next == null) {
+                    exhausted = true;
+                    return;
+                }
+                long start = System.nanoTime();
+                Page page = pool.prefetchPage(next);
+                readNanos = average(readNanos, System.nanoTime() - start);
+                if (page == null) {
+                    exhausted = true;
+                    return;
+                }
+                tail = next;
+                tailPage = page;
+                lead.incrementAndGet();
+            }
+        } catch (DbException | RuntimeException e) {
+            // read-ahead is only a hint; the scan reads the page itself
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private static double average(double avg, long sample) {
+        return avg == 0 ? sample : 0.8 * avg + 0.2 * sample;
+    }
+
+    /**
+     * Stops reading ahead. A page being read when this is called is still
+     * installed in the pool. The reading thread is not interrupted, since an
+     * interrupt would close the file's channel for every other reader.
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> f = task;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    /** @return the number of pages currently read ahead of the scan (for tests) */
+    int lead() {
+        return lead.get();
+    }
+}
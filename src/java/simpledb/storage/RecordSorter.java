@@ -0,0 +1,691 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * RecordSorter sorts fixed-size encoded records in bounded memory.
+ * <p>
+ * The key of a record is either one field of it, as encoded by
+ * {@link BulkLoader}, or its first keySize bytes, which compare byte by byte,
+ * unsigned; a caller that encodes several fields that way sorts on all of
+ * them at once. Records with equal keys keep their input order.
+ * <p>
+ * Records are collected in a buffer of at most the given memory size. The
+ * first 4 key bytes of each record and its index are packed into a long and
+ * sorted as primitives; only records that tie on those bytes compare the rest
+ * of their keys. When the buffer is full it is sorted and written to a
+ * temporary run file. Runs are merged with a loser tree, at most
+ * {@link #MAX_FAN_IN} at a time, each read through two buffers so the next
+ * block of a run is read on the {@link ReadAhead} pool while the current one
+ * is merged.
+ * <p>
+ * With a {@link #limit} of n, only the first n records of the order are
+ * returned. When n is at most half the buffer, a full buffer is sorted and
+ * cut to its first n records instead of written out, so a top-n sort never
+ * spills.
+ */
+public class RecordSorter implements BulkLoader.RecordSink, Closeable {
+
+    /** Bytes of a run read or written at a time. */
+    static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+    /** Runs merged at once; more take several passes. */
+    static final int MAX_FAN_IN = 64;
+
+    /** Most bytes handed to the sink of {@link #finish} at once. */
+    private static final int OUT_BUFFER_BYTES = 256 * 1024;
+
+    private final int recordSize;
+    private final Type keyType;         // null when the key is the first keySize bytes
+    private final int keyOffset;
+    private final int keySize;
+    private final int maxRecords;       // records kept in memory before spilling a run
+    private long limit = Long.MAX_VALUE;
+
+    private byte[] buffer = new byte[0];
+    private byte[] spare = new byte[0];     // the buffer of the next top-n cut
+    private int count;                  // records in buffer
+    private long total;
+    private long[] keys = new long[0];
+    private int[] sorted = new int[0];      // record numbers in order, after sortBuffer
+    private int[] scratch = new int[0];
+    private List<File> runs = new ArrayList<>();
+    private int spilled;
+    private boolean finished;
+
+    /**
+     * @param recordSize the size of a record in bytes
+     * @param keyType the type of the field to sort on
+     * @param keyOffset the offset of that field in a record
+     * @param memoryBytes most bytes of records to hold in memory
+     */
+    public RecordSorter(int recordSize, Type keyType, int keyOffset, long memoryBytes) {
+        this(recordSize, keyType, keyOffset, keyType.getLen(), memoryBytes);
+    }
+
+    /**
+     * @param recordSize the size of a record in bytes
+     * @param keySize the number of bytes at the start of a record that make
+     *   its key; keys compare byte by byte, unsigned
+     * @param memoryBytes most bytes of records to hold in memory
+     */
+    public RecordSorter(int recordSize, int keySize, long memoryBytes) {
+        this(recordSize, null, 0, keySize, memoryBytes);
+    }
+
+    private RecordSorter(int recordSize, Type keyType, int keyOffset, int keySize, long memoryBytes) {
+        this.recordSize = recordSize;
+        this.keyType = keyType;
+        this.keyOffset = keyOffset;
+        this.keySize = keySize;
+        this.maxRecords = (int) Math.max(1, Math.min(memoryBytes, Integer.MAX_VALUE - 8) / recordSize);
+    }
+
+    /**
+     * Keeps only the first n records of the order.
+     *
+     * @param n the number of records wanted, or Long.MAX_VALUE for all
+     * @return this sorter
+     */
+    public RecordSorter limit(long n) {
+        this.limit = Math.max(0, n);
+        return this;
+    }
+
+    /** @return the number of records added so far */
+    public long size() {
+        return total;
+    }
+
+    /** @return the number of runs spilled to disk so far */
+    public int numRuns() {
+        return spilled;
+    }
+
+    @Override
+    public void accept(ByteBuffer records) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("records added to a sorter that has been read");
+        }
+        while (records.hasRemaining()) {
+            if (count == maxRecords) {
+                if (limit <= maxRecords / 2) {
+                    cut();
+                } else {
+                    spill();
+                }
+            }
+            if (buffer.length - count * recordSize < recordSize) {
+                // grow towards the limit so small inputs do not allocate all of it
+                long want = Math.max(64 * 1024, 2L * buffer.length) / recordSize;
+                buffer = Arrays.copyOf(buffer, (int) Math.max(count + 1, Math.min(want, maxRecords)) * recordSize);
+            }
+            int n = Math.min(records.remaining(), buffer.length - count * recordSize) / recordSize;
+            records.get(buffer, count * recordSize, n * recordSize);
+            count += n;
+            total += n;
+        }
+    }
+
+    /**
+     * @return the first 4 key bytes of the record at a position, as an int
+     *   whose unsigned order agrees with the order of the keys
+     */
+    private int prefix(byte[] b, int at) {
+        if (keyType == Type.INT_TYPE) {
+            return intAt(b, at + keyOffset) ^ Integer.MIN_VALUE;
+        }
+        int from = at + keyOffset, len = keySize;
+        if (keyType == Type.STRING_TYPE) {
+            len = intAt(b, from);
+            from += 4;
+        }
+        int p = 0;
+        for (int i = 0; i < 4; i++) {
+            p = p << 8 | (i < len ? b[from + i] & 0xff : 0);
+        }
+        return p;
+    }
+
+    /** Sorts the records in the buffer into {@link #sorted}. */
+    private void sortBuffer() {
+        if (keys.length < count) {
+            keys = new long[buffer.length / recordSize];
+            sorted = new int[keys.length];
+            scratch = new int[keys.length];
+        }
+        for (int i = 0; i < count; i++) {
+            // flipping the sign bit makes signed order of the long the unsigned order of the prefix
+            keys[i] = (long) (prefix(buffer, i * recordSize) ^ Integer.MIN_VALUE) << 32 | i;
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        if (keyType == Type.INT_TYPE || keyType == null && keySize <= 4) {
+            return;   // the prefix is the whole key
+        }
+        for (int from = 0; from < count; ) {
+            int to = from + 1;
+            while (to < count && keys[to] >>> 32 == keys[from] >>> 32) {
+                to++;
+            }
+            if (to - from > 1) {
+                mergeSort(from, to);
+            }
+            from = to;
+        }
+    }
+
+    /** Sorts sorted[from, to) by whole key, then record number. */
+    private void mergeSort(int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int e = sorted[i], j = i;
+                while (j > from && compareRecords(sorted[j - 1], e) > 0) {
+                    sorted[j] = sorted[j - 1];
+                    j--;
+                }
+                sorted[j] = e;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        System.arraycopy(sorted, from, scratch, from, to - from);
+        for (int i = from, a = from, b = mid; i < to; i++) {
+            if (b == to || a < mid && compareRecords(scratch[a], scratch[b]) <= 0) {
+                sorted[i] = scratch[a++];
+            } else {
+                sorted[i] = scratch[b++];
+            }
+        }
+    }
+
+    private int compareRecords(int a, int b) {
+        int c = keyType == null   // tied on the prefix: only the bytes after it can differ
+                ? compareBytes(buffer, a * recordSize + 4, buffer, b * recordSize + 4, keySize - 4)
+                : compareKeys(buffer, a * recordSize, buffer, b * recordSize);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    /** Compares the keys of the records at two positions; strings compare as their bytes, like ASCII Strings. */
+    private int compareKeys(byte[] x, int i, byte[] y, int j) {
+        i += keyOffset;
+        j += keyOffset;
+        if (keyType == Type.INT_TYPE) {
+            return Integer.compare(intAt(x, i), intAt(y, j));
+        }
+        if (keyType == null) {
+            return compareBytes(x, i, y, j, keySize);
+        }
+        int xLen = intAt(x, i), yLen = intAt(y, j);
+        int c = compareBytes(x, i + 4, y, j + 4, Math.min(xLen, yLen));
+        return c != 0 ? c : Integer.compare(xLen, yLen);
+    }
+
+    private static int compareBytes(byte[] x, int i, byte[] y, int j, int len) {
+        for (int end = i + len; i < end; i++, j++) {
+            if (x[i] != y[j]) {
+                return (x[i] & 0xff) - (y[j] & 0xff);
+            }
+        }
+        return 0;
+    }
+
+    private static int intAt(byte[] b, int at) {
+        return b[at] << 24 | (b[at + 1] & 0xff) << 16 | (b[at + 2] & 0xff) << 8 | (b[at + 3] & 0xff);
+    }
+
+    /** Keeps only the first limit records of the buffer, in order. */
+    private void cut() {
+        sortBuffer();
+        int n = (int) Math.min(count, limit);
+        if (spare.length < buffer.length) {
+            spare = new byte[buffer.length];
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(buffer, sorted[i] * recordSize, spare, i * recordSize, recordSize);
+        }
+        byte[] b = buffer;
+        buffer = spare;
+        spare = b;
+        count = n;
+    }
+
+    /** Writes the buffer, sorted, as a new run and empties it. */
+    private void spill() throws IOException {
+        sortBuffer();
+        RunWriter out = new RunWriter();
+        try {
+            int n = (int) Math.min(count, limit);
+            for (int i = 0; i < n; i++) {
+                out.put(buffer, sorted[i] * recordSize);
+            }
+            runs.add(out.finish());
+        } finally {
+            out.close();
+        }
+        spilled++;
+        count = 0;
+    }
+
+    /**
+     * Ends the input: sorts what is in memory, or, once anything has been
+     * spilled, writes it as the last run and merges runs until at most
+     * {@link #MAX_FAN_IN} are left.
+     */
+    private void endInput() throws IOException {
+        finished = true;
+        if (runs.isEmpty()) {
+            sortBuffer();
+            return;
+        }
+        if (count > 0) {
+            spill();
+        }
+        buffer = spare = new byte[0];
+        keys = new long[0];
+        sorted = scratch = new int[0];
+        while (runs.size() > MAX_FAN_IN) {
+            List<File> merged = new ArrayList<>();
+            try {
+                for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                    List<File> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    RunWriter out = new RunWriter();
+                    try (Merge merge = new Merge(group)) {
+                        for (long n = 0; n < limit; n++) {
+                            RunReader r = merge.top();
+                            if (r == null) {
+                                break;
+                            }
+                            out.put(r.current.array(), r.pos);
+                            merge.pop();
+                        }
+                        merged.add(out.finish());
+                    } finally {
+                        out.close();
+                    }
+                    for (File f : group) {
+                        f.delete();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                for (File f : merged) {
+                    f.delete();   // the runs of the pass are deleted by close()
+                }
+                throw e;
+            }
+            runs = merged;
+        }
+    }
+
+    /**
+     * Reads sorted records. The current record is recordSize bytes of
+     * {@link #array()} from {@link #offset()}, valid until the next call.
+     */
+    public interface Cursor extends Closeable {
+        /** @return false after the last record; otherwise moves to the next one */
+        boolean next() throws IOException;
+
+        byte[] array();
+
+        int offset();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * @return a cursor over the records added, in key order; a sorter can be
+     *   read any number of times, and nothing may be added once it has been
+     */
+    public Cursor cursor() throws IOException {
+        if (!finished) {
+            endInput();
+        }
+        if (runs.isEmpty()) {
+            return new Cursor() {
+                private long returned;
+                private int at;
+
+                @Override
+                public boolean next() {
+                    if (returned >= Math.min(count, limit)) {
+                        return false;
+                    }
+                    at = sorted[(int) returned++] * recordSize;
+                    return true;
+                }
+
+                @Override
+                public byte[] array() {
+                    return buffer;
+                }
+
+                @Override
+                public int offset() {
+                    return at;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+        Merge merge = new Merge(runs);
+        return new Cursor() {
+            private long returned;
+            private RunReader r;
+
+            @Override
+            public boolean next() throws IOException {
+                if (r != null) {
+                    merge.pop();   // only now: the caller may still be reading r's buffer
+                }
+                r = returned < limit ? merge.top() : null;
+                if (r == null) {
+                    return false;
+                }
+                returned++;
+                return true;
+            }
+
+            @Override
+            public byte[] array() {
+                return r.current.array();
+            }
+
+            @Override
+            public int offset() {
+                return r.pos;
+            }
+
+            @Override
+            public void close() {
+                merge.close();
+            }
+        };
+    }
+
+    /**
+     * Hands all records added so far to a sink, in key order. The sorter
+     * must not be added to afterwards.
+     *
+     * @param sink receives the sorted records in batches
+     */
+    public void finish(BulkLoader.RecordSink sink) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(Math.max(recordSize, OUT_BUFFER_BYTES / recordSize * recordSize));
+        try (Cursor c = cursor()) {
+            while (c.next()) {
+                if (out.remaining() < recordSize) {
+                    out.flip();
+                    sink.accept(out);
+                    out.clear();
+                }
+                out.put(c.array(), c.offset(), recordSize);
+            }
+        }
+        out.flip();
+        if (out.hasRemaining()) {
+            sink.accept(out);
+        }
+    }
+
+    /** Deletes the run files. */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer = spare = new byte[0];
+        keys = new long[0];
+        sorted = scratch = new int[0];
+        count = 0;
+    }
+
+    /** Writes records to a new temp file. */
+    private class RunWriter implements Closeable {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocate(Math.max(recordSize, RUN_BUFFER_BYTES / recordSize * recordSize));
+        private boolean done;
+
+        RunWriter() throws IOException {
+            // removed by close() or the sorter's close(), not deleteOnExit: that
+            // would keep one entry per run until the JVM exits
+            file = File.createTempFile("sort", ".run");
+            try {
+                raf = new RandomAccessFile(file, "rw");
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            channel = raf.getChannel();
+        }
+
+        void put(byte[] records, int at) throws IOException {
+            if (out.remaining() < recordSize) {
+                flush();
+            }
+            out.put(records, at, recordSize);
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        /** @return the file, with every record written */
+        File finish() throws IOException {
+            flush();
+            done = true;
+            return file;
+        }
+
+        /** Closes the file; deletes it unless it was finished. */
+        @Override
+        public void close() {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            if (!done) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a run in order. While the records of one block are
+     * used, the next block is read into a second buffer on a pool thread.
+     */
+    private class RunReader implements Closeable {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final long size;
+        private long next;                  // file offset of the next block to read
+        private ByteBuffer current;
+        private ByteBuffer spare;
+        private Future<ByteBuffer> pending;
+        int pos;                            // offset of the current record in current
+        boolean exhausted;
+
+        RunReader(File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            size = channel.size();
+            int capacity = Math.max(recordSize, RUN_BUFFER_BYTES / recordSize * recordSize);
+            current = ByteBuffer.allocate(capacity);
+            current.limit(0);
+            spare = ByteBuffer.allocate(capacity);
+            prefetch();
+            nextBlock();
+        }
+
+        /** Starts reading the block after the last one asked for into the spare buffer. */
+        private void prefetch() {
+            if (next >= size) {
+                pending = null;
+                return;
+            }
+            ByteBuffer b = spare;
+            long from = next;
+            int len = (int) Math.min(b.capacity(), size - from);
+            next += len;
+            pending = ReadAhead.IO.submit(() -> {
+                b.clear();
+                b.limit(len);
+                while (b.hasRemaining()) {
+                    if (channel.read(b, from + b.position()) < 0) {
+                        throw new IOException("sort run is shorter than written");
+                    }
+                }
+                b.flip();
+                return b;
+            });
+        }
+
+        private void nextBlock() throws IOException {
+            if (pending == null) {
+                exhausted = true;
+                return;
+            }
+            ByteBuffer b;
+            try {
+                b = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted reading a sort run");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            spare = current;
+            current = b;
+            pos = 0;
+            prefetch();
+        }
+
+        void advance() throws IOException {
+            pos += recordSize;
+            if (pos >= current.limit()) {
+                nextBlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (pending != null) {
+                try {
+                    pending.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                }
+                pending = null;
+            }
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A loser tree over runs. Leaf i is run i, at node k + i; internal node t
+     * holds the run that lost the match played there, and node 0 the run
+     * with the smallest record. After that run advances, only the matches on
+     * its path to the root are replayed: log k comparisons per record.
+     */
+    private class Merge implements Closeable {
+        private final RunReader[] in;
+        private final int[] tree;
+
+        Merge(List<File> files) throws IOException {
+            int k = files.size();
+            in = new RunReader[k];
+            try {
+                for (int i = 0; i < k; i++) {
+                    in[i] = new RunReader(files.get(i));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            tree = new int[k];
+            int[] winner = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winner[k + i] = i;
+            }
+            for (int t = k - 1; t >= 1; t--) {
+                int a = winner[2 * t], b = winner[2 * t + 1];
+                winner[t] = beats(a, b) ? a : b;
+                tree[t] = beats(a, b) ? b : a;
+            }
+            tree[0] = winner[1];
+        }
+
+        /** @return whether run a's record comes before run b's; an exhausted run loses */
+        private boolean beats(int a, int b) {
+            RunReader x = in[a], y = in[b];
+            if (x.exhausted || y.exhausted) {
+                return !x.exhausted;
+            }
+            int c = compareKeys(x.current.array(), x.pos, y.current.array(), y.pos);
+            return c < 0 || c == 0 && a < b;
+        }
+
+        /** @return the run holding the smallest record, or null when all are exhausted */
+        RunReader top() {
+            RunReader r = in[tree[0]];
+            return r.exhausted ? null : r;
+        }
+
+        /** Moves past the smallest record. */
+        void pop() throws IOException {
+            int s = tree[0];
+            in[s].advance();
+            for (int t = (s + in.length) >>> 1; t >= 1; t >>>= 1) {
+                if (beats(tree[t], s)) {
+                    int loser = s;
+                    s = tree[t];
+                    tree[t] = loser;
+                }
+            }
+            tree[0] = s;
+        }
+
+        @Override
+        public void close() {
+            for (RunReader r : in) {
+                if (r != null) {
+                    r.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A concurrent page cache used by BufferPool in place of {@link LRUCache}.
+ * <p>
+ * Lookups go through a {@link ConcurrentHashMap} and only set a volatile
+ * reference bit on the entry, so cache hits never take a lock and never
+ * reorder a list.  Entries are striped over a small number of segments by
+ * key hash; each segment keeps a segmented LRU (2Q style) made of a
+ * <i>probation</i> queue and a <i>protected</i> queue, guarded by its own lock.
+ * <ul>
+ * <li>New entries enter the tail of the probation queue.</li>
+ * <li>During eviction, a probation entry whose reference bit is set has been
+ * hit again since it was loaded and is promoted to the protected queue; the
+ * protected queue is capped at {@link #PROTECTED_RATIO} of the segment and
+ * its coldest entries are demoted back to probation.</li>
+ * <li>Victims are taken from probation first (across all segments), and only
+ * then from the protected queue with a CLOCK style second chance.</li>
+ * </ul>
+ * A large sequential scan touches each of its pages once, so its pages stay
+ * in probation and are recycled among themselves instead of flushing the hot
+ * pages (e.g. B+ tree internal pages) out of the pool.
+ * <p>
+ * The cache does not enforce its capacity on insert: the owner decides when
+ * to call {@link #evict(Predicate)}, since only it knows which entries may be
+ * dropped (BufferPool must never evict a dirty page).
+ *
+ * @Threadsafe
+ */
+public class SegmentedPageCache<K, V> {
+
+    /** Maximum number of lock stripes. */
+    static final int MAX_SEGMENTS = 16;
+    /** Fraction of a segment that may be held by the protected queue. */
+    static final double PROTECTED_RATIO = 0.8;
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        /** Set on every hit, cleared by the eviction sweep. */
+        volatile boolean referenced;
+        /** True when linked into the protected queue; guarded by the segment lock. */
+        boolean isProtected;
+        /**
+         * Set while a prefetched entry has not been asked for yet. The first
+         * hit only clears it, so a read-ahead page used once by a scan stays
+         * on probation like any other page loaded on demand.
+         */
+        volatile boolean prefetched;
+        Node<K, V> prev, next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** Doubly linked queue with a sentinel head; not thread safe. */
+    private static final class Queue<K, V> {
+        final Node<K, V> head = new Node<>(null, null);
+        int size;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addLast(Node<K, V> n) {
+            n.prev = head.prev;
+            n.next = head;
+            head.prev.next = n;
+            head.prev = n;
+            size++;
+        }
+
+        void unlink(Node<K, V> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+            size--;
+        }
+
+        Node<K, V> first() {
+            return head.next == head ? null : head.next;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final Queue<K, V> probation = new Queue<>();
+        final Queue<K, V> protect = new Queue<>();
+
+        int size() {
+            return probation.size + protect.size;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+    /** Segment at which the next eviction sweep starts. */
+    private final AtomicInteger hand = new AtomicInteger();
+
+    /**
+     * Creates a cache sized for the given number of entries. The number of
+     * segments grows with the capacity (one segment per eight entries, up to
+     * {@link #MAX_SEGMENTS}) so small pools keep a precise replacement order.
+     *
+     * @param capacity the number of entries the owner intends to keep
+     */
+    public SegmentedPageCache(int capacity) {
+        this(capacity, segmentsFor(capacity));
+    }
+
+    /**
+     * Creates a cache with an explicit number of segments.
+     *
+     * @param capacity the number of entries the owner intends to keep
+     * @param numSegments number of lock stripes; rounded down to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedPageCache(int capacity, int numSegments) {
+        if (capacity <= 0 || numSegments <= 0) {
+            throw new IllegalArgumentException("capacity and segments must be positive");
+        }
+        int n = Integer.highestOneBit(numSegments);
+        this.capacity = capacity;
+        this.segmentMask = n - 1;
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.map = new ConcurrentHashMap<>(Math.max(16, capacity * 4 / 3 + 1), 0.75f, n);
+    }
+
+    private static int segmentsFor(int capacity) {
+        return Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, capacity / 8)));
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h * 0x9E3779B9 >>> 16) & segmentMask];
+    }
+
+    /**
+     * Looks up a key without taking any lock.
+     *
+     * @return the cached value, or null if absent
+     */
+    public V get(K key) {
+        Node<K, V> n = map.get(key);
+        if (n == null) {
+            return null;
+        }
+        if (n.prefetched) {
+            n.prefetched = false;
+        } else if (!n.referenced) {
+            n.referenced = true;
+        }
+        return n.value;
+    }
+
+    /**
+     * Looks up a key without counting as a hit.
+     *
+     * @return the cached value, or null if absent
+     */
+    public V peek(K key) {
+        Node<K, V> n = map.get(key);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * Returns true if the key is cached, without counting as a hit.
+     */
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Inserts the value unless the key is already cached.
+     *
+     * @return the value already cached under the key, or null if the new value was inserted
+     */
+    public V putIfAbsent(K key, V value) {
+        return putIfAbsent(key, value, false);
+    }
+
+    /**
+     * Inserts the value unless the key is already cached.
+     *
+     * @param prefetched true if the value is loaded ahead of use; its first
+     *   {@link #get} is then treated as the load rather than as a re-reference
+     * @return the value already cached under the key, or null if the new value was inserted
+     */
+    public V putIfAbsent(K key, V value, boolean prefetched) {
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            Node<K, V> existing = map.get(key);
+            if (existing != null) {
+                if (!prefetched) {
+                    existing.referenced = true;
+                }
+                return existing.value;
+            }
+            link(seg, key, value, prefetched);
+            return null;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts or replaces the value cached under the key.
+     *
+     * @return the previously cached value, or null
+     */
+    public V put(K key, V value) {
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            Node<K, V> existing = map.get(key);
+            if (existing != null) {
+                V old = existing.value;
+                existing.value = value;
+                existing.referenced = true;
+                return old;
+            }
+            link(seg, key, value, false);
+            return null;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    private void link(Segment<K, V> seg, K key, V value, boolean prefetched) {
+        Node<K, V> n = new Node<>(key, value);
+        n.prefetched = prefetched;
+        seg.probation.addLast(n);
+        map.put(key, n);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Removes the key from the cache.
+     *
+     * @return the value that was cached, or null
+     */
+    public V remove(K key) {
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            Node<K, V> n = map.get(key);
+            if (n == null) {
+                return null;
+            }
+            unlink(seg, n);
+            return n.value;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    private void unlink(Segment<K, V> seg, Node<K, V> n) {
+        (n.isProtected ? seg.protect : seg.probation).unlink(n);
+        map.remove(n.key, n);
+        size.decrementAndGet();
+    }
+
+    /**
+     * Evicts one entry accepted by the given predicate. Probation entries of
+     * every segment are considered before any protected entry. Only one
+     * segment lock is held at a time.
+     *
+     * @param evictable decides whether a value may be dropped from the cache
+     * @return the evicted value, or null if no entry could be evicted
+     */
+    public V evict(Predicate<? super V> evictable) {
+        int start = hand.getAndIncrement() & segmentMask;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i <= segmentMask; i++) {
+                Segment<K, V> seg = segments[(start + i) & segmentMask];
+                if (seg.size() == 0) {
+                    continue;
+                }
+                seg.lock.lock();
+                try {
+                    Node<K, V> victim = pass == 0 ? sweepProbation(seg, evictable)
+                            : sweepProtected(seg, evictable);
+                    if (victim != null) {
+                        unlink(seg, victim);
+                        return victim.value;
+                    }
+                } finally {
+                    seg.lock.unlock();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks the probation queue once, promoting re-referenced entries, and
+     * returns the first cold entry accepted by the predicate.
+     */
+    private Node<K, V> sweepProbation(Segment<K, V> seg, Predicate<? super V> evictable) {
+        int steps = seg.probation.size;
+        while (steps-- > 0) {
+            Node<K, V> n = seg.probation.first();
+            if (n == null) {
+                break;
+            }
+            seg.probation.unlink(n);
+            if (n.referenced) {
+                // hit again while on probation: promote
+                n.referenced = false;
+                n.isProtected = true;
+                seg.protect.addLast(n);
+                demoteOverflow(seg);
+                continue;
+            }
+            seg.probation.addLast(n);
+            if (evictable.test(n.value)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /** Keeps the protected queue within its share of the segment. */
+    private void demoteOverflow(Segment<K, V> seg) {
+        int limit = Math.max(1, (int) (seg.size() * PROTECTED_RATIO));
+        while (seg.protect.size > limit) {
+            Node<K, V> cold = seg.protect.first();
+            seg.protect.unlink(cold);
+            cold.isProtected = false;
+            cold.referenced = false;
+            seg.probation.addLast(cold);
+        }
+    }
+
+    /**
+     * CLOCK sweep over the protected queue: referenced entries get a second
+     * chance, the first unreferenced entry accepted by the predicate is returned.
+     */
+    private Node<K, V> sweepProtected(Segment<K, V> seg, Predicate<? super V> evictable) {
+        int steps = 2 * seg.protect.size;
+        while (steps-- > 0) {
+            Node<K, V> n = seg.protect.first();
+            if (n == null) {
+                break;
+            }
+            seg.protect.unlink(n);
+            seg.protect.addLast(n);
+            if (n.referenced) {
+                n.referenced = false;
+                continue;
+            }
+            if (evictable.test(n.value)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /** @return the number of cached entries */
+    public int size() {
+        return size.get();
+    }
+
+    /** @return the capacity this cache was sized for */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return a weakly consistent view of the cached keys */
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    /** @return a weakly consistent snapshot of the cached values */
+    public Collection<V> values() {
+        List<V> vals = new ArrayList<>(map.size());
+        for (Node<K, V> n : map.values()) {
+            vals.add(n.value);
+        }
+        return vals;
+    }
+
+    /** Removes every entry. */
+    public void clear() {
+        for (Segment<K, V> seg : segments) {
+            seg.lock.lock();
+            try {
+                Node<K, V> n;
+                while ((n = seg.probation.first()) != null) {
+                    unlink(seg, n);
+                }
+                while ((n = seg.protect.first()) != null) {
+                    unlink(seg, n);
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+    }
+}
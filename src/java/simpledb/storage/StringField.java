@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -69,6 +70,17 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(ByteBuffer dst) {
+		int len = Math.min(value.length(), maxSize);
+		dst.putInt(len);
+		for (int i = 0; i < len; i++) {
+			dst.put((byte) value.charAt(i)); // same bytes as DataOutputStream.writeBytes
+		}
+		for (int i = len; i < maxSize; i++) {
+			dst.put((byte) 0);
+		}
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
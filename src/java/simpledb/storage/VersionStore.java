@@ -0,0 +1,278 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Committed page versions for multi-version reads, kept by a {@link BufferPool}
+ * in multi-version mode.
+ * <p>
+ * A read-only transaction takes a snapshot: the commit timestamp of the last
+ * transaction committed when it started. It reads pages without locks, each as
+ * it was committed at its snapshot, and so never blocks a writer or waits for
+ * one. Versions are kept per page, not per tuple, so the page format on disk
+ * does not change:
+ * <ul>
+ * <li>When a writer is granted a page for writing, the page's committed image
+ * is copied before the writer changes it (the pending image). Until the
+ * writer completes, snapshot readers get this copy.</li>
+ * <li>When the writer commits, it takes the next commit timestamp. If any
+ * snapshot is open, the pending image is pushed onto the page's chain of old
+ * versions, marked as valid until that timestamp; otherwise nobody can need
+ * it and it is dropped.</li>
+ * <li>A snapshot reader takes the oldest version on the chain that was
+ * still valid at its snapshot. If there is none, the committed page is
+ * current for it, and it gets an immutable copy of it, shared by all
+ * readers until the page is committed again. At most as many copies as the
+ * pool has pages are kept; the least recently read is dropped, and made
+ * again from the committed page if it is read later.</li>
+ * </ul>
+ * A background vacuum thread drops versions no open snapshot can see, and
+ * every copy once no snapshot is open.
+ *
+ * @Threadsafe, all state is protected by this, except that the open
+ * snapshots can be looked up without it, so that {@link BufferPool#getPage}
+ * only takes the monitor for snapshot reads and writes
+ */
+public class VersionStore implements Runnable {
+
+    /** Time between two vacuum passes when no snapshot ends. */
+    static final long INTERVAL_MILLIS = 1000;
+
+    /** A committed image of a page, valid for snapshots taken before until. */
+    private static class Version {
+        final long until;
+        final Page image;
+        Version older;
+
+        Version(long until, Page image, Version older) {
+            this.until = until;
+            this.image = image;
+            this.older = older;
+        }
+    }
+
+    private long clock;
+    /** Snapshot timestamp of each open read-only transaction; changed only with this held. */
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    /** Number of open snapshots at each timestamp, to find the oldest one. */
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    /** Old versions of each page, newest first. */
+    private final Map<PageId, Version> chains = new HashMap<>();
+    private int numVersions;
+    /** Committed images of pages an uncommitted transaction may be changing. */
+    private final Map<PageId, Page> pending = new HashMap<>();
+    private final Map<TransactionId, List<PageId>> pendingBy = new HashMap<>();
+    /** Copies of current committed pages handed to snapshot readers, least recently read first. */
+    private final LinkedHashMap<PageId, Page> current;
+
+    private Thread thread;
+    private boolean wakeup;
+    private boolean stopped;
+
+    /**
+     * @param maxCopies the most copies of current pages to keep for snapshot
+     *   readers, normally the pool's number of pages
+     */
+    public VersionStore(int maxCopies) {
+        this.current = new LinkedHashMap<PageId, Page>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Page> eldest) {
+                return size() > maxCopies;
+            }
+        };
+    }
+
+    /**
+     * Opens a snapshot for a read-only transaction.
+     *
+     * @return the snapshot timestamp
+     */
+    public synchronized long beginSnapshot(TransactionId tid) {
+        long ts = clock;
+        if (snapshots.putIfAbsent(tid, ts) == null) {
+            open.merge(ts, 1, Integer::sum);
+        }
+        start();
+        return snapshots.get(tid);
+    }
+
+    /** @return true if tid is a read-only transaction with an open snapshot */
+    public boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Saves the committed image of a page a transaction was just granted
+     * for writing, before it changes the page.
+     */
+    synchronized void beforeWrite(TransactionId tid, Page page) {
+        PageId pid = page.getId();
+        if (!pending.containsKey(pid)) {
+            Page image = current.get(pid);
+            pending.put(pid, image != null ? image : page.getBeforeImage());
+            pendingBy.computeIfAbsent(tid, k -> new ArrayList<>()).add(pid);
+        }
+    }
+
+    /**
+     * @param live the page as cached by the pool, or read from disk
+     * @return the version of the page the snapshot sees; never changed by a writer
+     */
+    synchronized Page read(TransactionId tid, Page live) {
+        PageId pid = live.getId();
+        long ts = snapshots.get(tid);
+        Page found = null;
+        for (Version v = chains.get(pid); v != null && v.until > ts; v = v.older) {
+            found = v.image;
+        }
+        if (found != null) {
+            return found;
+        }
+        found = pending.get(pid);
+        if (found != null) {
+            return found;
+        }
+        found = current.get(pid);
+        if (found == null) {
+            // no writer has it: the page is its committed image
+            found = live.getBeforeImage();
+            current.put(pid, found);
+        }
+        return found;
+    }
+
+    /**
+     * Closes a read-only transaction's snapshot, or publishes a writer's
+     * pages: on commit its pending images become old versions, on abort
+     * they are current again.
+     */
+    synchronized void complete(TransactionId tid, boolean commit) {
+        Long ts = snapshots.remove(tid);
+        if (ts != null) {
+            if (open.merge(ts, -1, Integer::sum) == 0) {
+                open.remove(ts);
+            }
+            wakeup = true;
+            notifyAll();
+            return;
+        }
+        List<PageId> pids = pendingBy.remove(tid);
+        if (pids == null) {
+            return;
+        }
+        long commitTs = commit ? ++clock : 0;
+        for (PageId pid : pids) {
+            Page image = pending.remove(pid);
+            if (!commit) {
+                current.put(pid, image);
+            } else {
+                current.remove(pid);
+                if (!open.isEmpty()) {
+                    chains.put(pid, new Version(commitTs, image, chains.get(pid)));
+                    numVersions++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the versions no open snapshot can see: a version is only read by
+     * snapshots taken before it was replaced. With no snapshot open, also
+     * drops the copies of current pages.
+     *
+     * @return the number of versions dropped
+     */
+    public synchronized int vacuum() {
+        int before = numVersions;
+        if (open.isEmpty()) {
+            chains.clear();
+            current.clear();
+            numVersions = 0;
+            return before;
+        }
+        long oldest = open.firstKey();
+        for (Iterator<Map.Entry<PageId, Version>> it = chains.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<PageId, Version> e = it.next();
+            Version newest = e.getValue();
+            if (newest.until <= oldest) {
+                numVersions -= length(newest);
+                it.remove();
+                continue;
+            }
+            // keep the versions down to the first one the oldest snapshot reads
+            Version v = newest;
+            while (v.older != null && v.older.until > oldest) {
+                v = v.older;
+            }
+            numVersions -= length(v.older);
+            v.older = null;
+        }
+        return before - numVersions;
+    }
+
+    private static int length(Version v) {
+        int n = 0;
+        for (; v != null; v = v.older) {
+            n++;
+        }
+        return n;
+    }
+
+    /** @return the number of old page versions kept */
+    public synchronized int getNumVersions() {
+        return numVersions;
+    }
+
+    /** @return the number of open snapshots */
+    public int getNumSnapshots() {
+        return snapshots.size();
+    }
+
+    /** @return the number of copies of current pages kept for snapshot readers */
+    public synchronized int getNumCopies() {
+        return current.size();
+    }
+
+    /** Starts the vacuum thread if it is not running yet. */
+    private void start() {
+        if (thread == null && !stopped) {
+            thread = new Thread(this, "vacuum");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the vacuum thread. Called when the pool is replaced. */
+    synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            while (!stopped) {
+                if (!wakeup) {
+                    try {
+                        wait(INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                wakeup = false;
+                vacuum();
+            }
+        }
+    }
+}
@@ -1,7 +1,769 @@
 package simpledb.transaction;
 
+import simpledb.storage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * 锁管理器
+ * <p>
+ * Page-level locks in {@link LockMode#SHARED} and {@link LockMode#EXCLUSIVE}
+ * mode, held until the transaction completes (strict two-phase locking).
+ * <p>
+ * Locks are hierarchical: before a page, its table is locked in the matching
+ * intention mode, which later requests for the same table find in the
+ * transaction's own bookkeeping without touching the lock table. A table
+ * can also be locked shared or exclusive as a whole, which stands for that
+ * lock on each of its pages. Once a transaction holds
+ * {@link #setEscalationThreshold a number} of page locks on one table, it
+ * tries to lock the table instead (shared, or exclusive if it wrote any of
+ * the pages), without waiting; if that succeeds, the page locks the table
+ * lock covers are released. A large scan or bulk update then holds one lock
+ * rather than one per page.
+ * <p>
+ * Each locked page has a lock head with its holders and a FIFO queue of
+ * waiting requests. The heads live in a hash table split into
+ * {@link #STRIPES} stripes, each with its own monitor, so transactions
+ * locking different pages rarely contend. A request is granted at once if
+ * it is compatible with the holders and nobody is queued ahead of it;
+ * otherwise its thread parks until a release grants it. A shared holder that
+ * asks for an exclusive lock (an upgrade) goes to the front of the queue and
+ * is granted once it is the only holder.
+ * <p>
+ * The pages each transaction holds are tracked, so that
+ * {@link #releaseAll} frees them all at commit or abort without scanning the
+ * table.
+ * <p>
+ * Deadlocks are found with a waits-for graph. Its nodes are the waiting
+ * requests, kept in a map by transaction as they block and leave (a
+ * transaction whose work is split among threads may wait on several at
+ * once); a request's edges lead to
+ * the holders it conflicts with and the conflicting requests queued ahead of
+ * it, and are read from its lock head when needed. A new edge only appears
+ * when a request blocks, so every request that blocks searches for a cycle
+ * through itself before it parks. For each one it finds, the cheapest
+ * transaction on the cycle (fewest exclusive locks, which bounds the pages it
+ * can have dirtied, then the youngest) is aborted: its request is withdrawn
+ * and its thread woken to throw {@link TransactionAbortedException}. A lock timeout
+ * remains as a backstop for waits the graph cannot see.
+ *
+ * @Threadsafe
  */
 public class LockManager {
+
+    /** Number of independently locked parts of the lock table. */
+    static final int STRIPES = 64;
+
+    /** Default time a request waits for a lock before its transaction aborts. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /** Default number of page locks on one table after which a transaction tries to lock the table. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** The key of a whole table's lock in the lock table, next to its pages' keys. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tableId + 17;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** A request waiting in the queue of a lock head. */
+    private static class Request {
+        final TransactionId tid;
+        final LockMode mode;
+        final boolean upgrade;
+        final LockHead head;
+        final Thread thread = Thread.currentThread();
+        volatile boolean granted;
+        /** Set, with the stripe's monitor held, when chosen as a deadlock victim. */
+        volatile boolean aborted;
+
+        Request(TransactionId tid, LockMode mode, boolean upgrade, LockHead head) {
+            this.tid = tid;
+            this.mode = mode;
+            this.upgrade = upgrade;
+            this.head = head;
+        }
+    }
+
+    /** The locks a transaction holds. Guarded by its own monitor. */
+    private static class Held {
+        final Map<Integer, TableHeld> tables = new HashMap<>(4);
+        /** Exclusive page locks, counting those a table lock stands for. */
+        int exclusive;
+
+        TableHeld table(int tableId) {
+            return tables.computeIfAbsent(tableId, k -> new TableHeld());
+        }
+    }
+
+    /** A transaction's locks on one table and its pages. */
+    private static class TableHeld {
+        /** The mode the table is locked in, or null. */
+        LockMode mode;
+        /** Pages locked one by one. */
+        final List<PageId> pages = new ArrayList<>();
+        /** How many of pages are locked exclusive. */
+        int exclusive;
+        /** Pages the table lock stands for that were asked for exclusive; created when the first one is. */
+        Set<PageId> covered;
+        /** Number of page locks at which to try escalating again. */
+        int escalateAt;
+    }
+
+    /**
+     * The holders and waiters of one page's or table's lock. A page seldom
+     * has more than a few holders, so they are kept in small arrays rather
+     * than a map. Protected by its stripe.
+     */
+    private static class LockHead {
+        final Object key; // a PageId or a TableKey
+        TransactionId[] tids = new TransactionId[2];
+        LockMode[] modes = new LockMode[2];
+        int holders;
+        ArrayDeque<Request> queue; // created when the first request has to wait
+
+        LockHead(Object key) {
+            this.key = key;
+        }
+
+        LockMode modeOf(TransactionId tid) {
+            for (int i = 0; i < holders; i++) {
+                if (tids[i].equals(tid)) {
+                    return modes[i];
+                }
+            }
+            return null;
+        }
+
+        /** @return true if no other holder conflicts with tid holding mode */
+        boolean grantable(TransactionId tid, LockMode mode) {
+            for (int i = 0; i < holders; i++) {
+                if (!modes[i].compatible(mode) && !tids[i].equals(tid)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void hold(TransactionId tid, LockMode mode) {
+            for (int i = 0; i < holders; i++) {
+                if (tids[i].equals(tid)) {
+                    modes[i] = mode;
+                    return;
+                }
+            }
+            if (holders == tids.length) {
+                tids = Arrays.copyOf(tids, 2 * holders);
+                modes = Arrays.copyOf(modes, 2 * holders);
+            }
+            tids[holders] = tid;
+            modes[holders++] = mode;
+        }
+
+        void unhold(TransactionId tid) {
+            for (int i = 0; i < holders; i++) {
+                if (tids[i].equals(tid)) {
+                    holders--;
+                    tids[i] = tids[holders];
+                    modes[i] = modes[holders];
+                    tids[holders] = null;
+                    modes[holders] = null;
+                    return;
+                }
+            }
+        }
+
+        boolean hasWaiters() {
+            return queue != null && !queue.isEmpty();
+        }
+    }
+
+    private static class Stripe {
+        final Map<Object, LockHead> heads = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    /** Pages locked by each active transaction. */
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<>();
+    /** The nodes of the waits-for graph: the requests each blocked transaction waits on, one per thread. */
+    private final ConcurrentHashMap<TransactionId, Set<Request>> waiting = new ConcurrentHashMap<>();
+    /** Serializes cycle searches; taken before, never inside, a stripe's monitor. */
+    private final Object detector = new Object();
+    private volatile boolean detectDeadlocks = true;
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    public LockManager() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripe(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /** Sets how long a request waits for a lock before its transaction aborts. */
+    public void setTimeout(long millis) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Turns deadlock detection on (the default) or off. With it off,
+     * deadlocked requests wait for the lock timeout.
+     */
+    public void setDeadlockDetection(boolean on) {
+        this.detectDeadlocks = on;
+    }
+
+    /**
+     * Sets how many page locks a transaction takes on one table before it
+     * tries to lock the whole table instead; 0 turns escalation off.
+     */
+    public void setEscalationThreshold(int pages) {
+        this.escalationThreshold = pages;
+    }
+
+    /**
+     * Locks a page for a transaction, waiting while other transactions hold
+     * conflicting locks. Returns at once if the transaction already holds the
+     * page, or its table, in a mode that covers the one asked for. Otherwise
+     * first locks the table in the intention mode, and afterwards may
+     * escalate to a table lock.
+     *
+     * @param tid the transaction
+     * @param pid the page to lock
+     * @param mode the mode to lock it in
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock, the lock could not be granted within the timeout,
+     *   or the thread was interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException {
+        int tableId = pid.getTableId();
+        LockMode tableMode = getTableLockMode(tid, tableId);
+        if (tableMode != null && tableMode.coversPages(mode)) {
+            if (mode == LockMode.EXCLUSIVE) {
+                cover(tid, tableId, pid);
+            }
+            return;
+        }
+        LockMode intention = mode.intention();
+        if (tableMode == null || !tableMode.covers(intention)) {
+            lock(tid, new TableKey(tableId), tableMode == null ? intention : tableMode.join(intention), true);
+        }
+        lock(tid, pid, mode, true);
+        int threshold = escalationThreshold;
+        if (threshold > 0) {
+            escalate(tid, tableId, threshold);
+        }
+    }
+
+    /**
+     * Locks a whole table for a transaction, waiting while other transactions
+     * hold conflicting locks. In {@link LockMode#SHARED} or
+     * {@link LockMode#EXCLUSIVE} mode the lock stands for that lock on each
+     * page of the table, and the transaction's page locks it covers are
+     * released.
+     *
+     * @param tid the transaction
+     * @param tableId the table to lock
+     * @param mode the mode to lock it in; combined with any mode already held
+     * @throws TransactionAbortedException as for {@link #acquire}
+     */
+    public void acquireTable(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+        LockMode current = getTableLockMode(tid, tableId);
+        if (current != null && current.covers(mode)) {
+            return;
+        }
+        lock(tid, new TableKey(tableId), current == null ? mode : current.join(mode), true);
+        releaseCoveredPages(tid, tableId);
+    }
+
+    /**
+     * Locks the table for a transaction with many page locks on it, if that
+     * can be done without waiting, and drops the page locks it covers.
+     */
+    private void escalate(TransactionId tid, int tableId, int threshold) {
+        Held h = held.get(tid);
+        LockMode target;
+        synchronized (h) {
+            TableHeld t = h.tables.get(tableId);
+            if (t.pages.size() < Math.max(threshold, t.escalateAt)) {
+                return;
+            }
+            t.escalateAt = t.pages.size() + threshold; // if it fails, try again after as many more
+            target = t.mode.join(t.exclusive > 0 ? LockMode.EXCLUSIVE : LockMode.SHARED);
+        }
+        try {
+            if (lock(tid, new TableKey(tableId), target, false)) {
+                releaseCoveredPages(tid, tableId);
+            }
+        } catch (TransactionAbortedException e) {
+            throw new AssertionError(e); // only a request that waits can be aborted
+        }
+    }
+
+    /** Releases the page locks the transaction's lock on their table stands for. */
+    private void releaseCoveredPages(TransactionId tid, int tableId) {
+        Held h = held.get(tid);
+        LockMode tableMode;
+        List<PageId> pages;
+        synchronized (h) {
+            TableHeld t = h.tables.get(tableId);
+            tableMode = t.mode;
+            pages = new ArrayList<>(t.pages);
+        }
+        if (!tableMode.coversPages(LockMode.SHARED)) {
+            return;
+        }
+        Set<PageId> released = new HashSet<>();
+        List<PageId> written = new ArrayList<>();
+        for (PageId pid : pages) {
+            LockMode mode = pageLockMode(tid, pid);
+            if (mode != null && tableMode.coversPages(mode)) {
+                releaseLock(tid, pid);
+                released.add(pid);
+                if (mode == LockMode.EXCLUSIVE) {
+                    written.add(pid);
+                }
+            }
+        }
+        synchronized (h) {
+            TableHeld t = h.tables.get(tableId);
+            t.pages.removeAll(released);
+            t.exclusive -= written.size();
+            if (!written.isEmpty()) {
+                if (t.covered == null) {
+                    t.covered = new HashSet<>();
+                }
+                t.covered.addAll(written);
+            }
+        }
+    }
+
+    /** Records a page asked for exclusive under a table lock, for {@link #getLockedPages}. */
+    private void cover(TransactionId tid, int tableId, PageId pid) {
+        Held h = held.get(tid);
+        synchronized (h) {
+            TableHeld t = h.tables.get(tableId);
+            if (t.covered == null) {
+                t.covered = new HashSet<>();
+            }
+            if (t.covered.add(pid)) {
+                h.exclusive++;
+            }
+        }
+    }
+
+    /**
+     * Locks a page or table, waiting if wait is set.
+     *
+     * @return true if the lock is held; false only if wait is not set and
+     *   the lock could not be granted at once
+     */
+    private boolean lock(TransactionId tid, Object key, LockMode mode, boolean wait) throws TransactionAbortedException {
+        Stripe stripe = stripe(key);
+        Request request;
+        LockHead head;
+        synchronized (stripe) {
+            head = stripe.heads.get(key);
+            if (head == null) {
+                head = new LockHead(key);
+                stripe.heads.put(key, head);
+            }
+            LockMode current = head.modeOf(tid);
+            if (current != null && current.covers(mode)) {
+                return true;
+            }
+            boolean upgrade = current != null;
+            // an upgrade goes ahead of the queue anyway, so only the holders matter
+            if ((upgrade || !head.hasWaiters()) && head.grantable(tid, mode)) {
+                head.hold(tid, mode);
+                addHeld(tid, key, mode, upgrade);
+                return true;
+            }
+            if (!wait) {
+                dropIfUnused(stripe, head);
+                return false;
+            }
+            if (head.queue == null) {
+                head.queue = new ArrayDeque<>(2);
+            }
+            request = new Request(tid, mode, upgrade, head);
+            if (upgrade) {
+                head.queue.addFirst(request);
+            } else {
+                head.queue.addLast(request);
+            }
+            waiting.compute(tid, (k, requests) -> {
+                if (requests == null) {
+                    requests = ConcurrentHashMap.newKeySet();
+                }
+                requests.add(request);
+                return requests;
+            });
+        }
+        await(stripe, head, request);
+        return true;
+    }
+
+    private void addHeld(TransactionId tid, Object key, LockMode mode, boolean upgrade) {
+        Held h = held.computeIfAbsent(tid, k -> new Held());
+        synchronized (h) {
+            if (key instanceof TableKey) {
+                h.table(((TableKey) key).tableId).mode = mode;
+                return;
+            }
+            PageId pid = (PageId) key;
+            TableHeld t = h.table(pid.getTableId());
+            if (!upgrade) {
+                t.pages.add(pid);
+            }
+            if (mode == LockMode.EXCLUSIVE) {
+                t.exclusive++;
+                h.exclusive++;
+            }
+        }
+    }
+
+    /** Parks until the request is granted; on timeout or any failure, withdraws it. */
+    private void await(Stripe stripe, LockHead head, Request request) throws TransactionAbortedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        boolean ok = false;
+        try {
+            if (detectDeadlocks) {
+                detectDeadlock(request);
+            }
+            while (!request.granted && !request.aborted) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || Thread.interrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+            ok = request.granted;
+        } finally {
+            if (!ok) {
+                // also runs when the thread dies while parked, so its request cannot block the queue
+                synchronized (stripe) {
+                    if (request.granted) {
+                        ok = true;
+                    } else if (!request.aborted) {
+                        withdraw(stripe, request);
+                    }
+                }
+            }
+            waiting.computeIfPresent(request.tid, (k, requests) -> {
+                requests.remove(request);
+                return requests.isEmpty() ? null : requests;
+            });
+        }
+        if (!ok) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /** Removes a request that will not be granted. Called with the stripe's monitor held. */
+    private void withdraw(Stripe stripe, Request request) {
+        request.head.queue.remove(request);
+        grantWaiters(request.head);
+        dropIfUnused(stripe, request.head);
+    }
+
+    /**
+     * Searches the waits-for graph for cycles through a request that is about
+     * to park, and aborts the cheapest transaction on each until none is left
+     * (the new edges may close several cycles at once).
+     */
+    private void detectDeadlock(Request request) {
+        synchronized (detector) {
+            while (!request.aborted) {
+                List<Request> cycle = new ArrayList<>();
+                cycle.add(request);
+                if (!findCycle(request, request.tid, cycle, new HashSet<>())) {
+                    return;
+                }
+                Request victim = request;
+                long victimCost = cost(victim.tid);
+                for (Request r : cycle) {
+                    long c = cost(r.tid);
+                    if (c < victimCost || (c == victimCost && r.tid.getId() > victim.tid.getId())) {
+                        victim = r;
+                        victimCost = c;
+                    }
+                }
+                Stripe stripe = stripe(victim.head.key);
+                synchronized (stripe) {
+                    if (!victim.granted && !victim.aborted) {
+                        victim.aborted = true;
+                        withdraw(stripe, victim);
+                        LockSupport.unpark(victim.thread);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Depth-first search along waits-for edges from r. On success, path holds
+     * the waiting requests of the cycle's transactions.
+     */
+    private boolean findCycle(Request r, TransactionId origin, List<Request> path, Set<TransactionId> visited) {
+        for (TransactionId t : blockers(r)) {
+            if (t.equals(origin)) {
+                return true;
+            }
+            Set<Request> next;
+            if (!visited.add(t) || (next = waiting.get(t)) == null) {
+                continue;
+            }
+            for (Request n : next) {
+                path.add(n);
+                if (findCycle(n, origin, path, visited)) {
+                    return true;
+                }
+                path.remove(path.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    /** @return the transactions a waiting request waits for: conflicting holders and requests ahead of it */
+    private List<TransactionId> blockers(Request r) {
+        List<TransactionId> out = new ArrayList<>();
+        synchronized (stripe(r.head.key)) {
+            if (r.granted || r.aborted) {
+                return out;
+            }
+            LockHead head = r.head;
+            for (int i = 0; i < head.holders; i++) {
+                if (!head.tids[i].equals(r.tid) && !head.modes[i].compatible(r.mode)) {
+                    out.add(head.tids[i]);
+                }
+            }
+            for (Request ahead : head.queue) {
+                if (ahead == r) {
+                    break;
+                }
+                // another thread of the same transaction ahead is not a wait on another transaction
+                if (!ahead.mode.compatible(r.mode) && !ahead.tid.equals(r.tid)) {
+                    out.add(ahead.tid);
+                }
+            }
+        }
+        return out;
+    }
+
+    /** @return how much work aborting the transaction throws away, as its number of exclusive locks */
+    private long cost(TransactionId tid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return 0;
+        }
+        synchronized (h) {
+            return h.exclusive;
+        }
+    }
+
+    /**
+     * Grants queued requests in order, until one conflicts with the holders.
+     * Called with the stripe's monitor held.
+     */
+    private void grantWaiters(LockHead head) {
+        if (head.queue == null) {
+            return;
+        }
+        Request next;
+        while ((next = head.queue.peekFirst()) != null && head.grantable(next.tid, next.mode)) {
+            head.queue.removeFirst();
+            head.hold(next.tid, next.mode);
+            addHeld(next.tid, head.key, next.mode, next.upgrade);
+            next.granted = true;
+            LockSupport.unpark(next.thread);
+        }
+    }
+
+    private static void dropIfUnused(Stripe stripe, LockHead head) {
+        if (head.holders == 0 && !head.hasWaiters()) {
+            stripe.heads.remove(head.key, head);
+        }
+    }
+
+    /**
+     * Releases a transaction's lock on a page, granting it to the waiters
+     * it was keeping out. A lock on the page's table is kept.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        LockMode mode = releaseLock(tid, pid);
+        Held h = held.get(tid);
+        if (h != null && mode != null) {
+            synchronized (h) {
+                TableHeld t = h.table(pid.getTableId());
+                t.pages.remove(pid);
+                if (mode == LockMode.EXCLUSIVE) {
+                    t.exclusive--;
+                    h.exclusive--;
+                }
+            }
+        }
+    }
+
+    /** @return the mode the lock was held in, or null if it was not held */
+    private LockMode releaseLock(TransactionId tid, Object key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            LockHead head = stripe.heads.get(key);
+            LockMode mode = head == null ? null : head.modeOf(tid);
+            if (mode == null) {
+                return null;
+            }
+            head.unhold(tid);
+            grantWaiters(head);
+            dropIfUnused(stripe, head);
+            return mode;
+        }
+    }
+
+    /**
+     * Releases every lock a transaction holds.
+     *
+     * @param tid the completed transaction
+     */
+    public void releaseAll(TransactionId tid) {
+        Held h = held.remove(tid);
+        if (h == null) {
+            return;
+        }
+        synchronized (h) {
+            // pages before their tables
+            for (TableHeld t : h.tables.values()) {
+                for (PageId pid : t.pages) {
+                    releaseLock(tid, pid);
+                }
+            }
+            for (Map.Entry<Integer, TableHeld> e : h.tables.entrySet()) {
+                if (e.getValue().mode != null) {
+                    releaseLock(tid, new TableKey(e.getKey()));
+                }
+            }
+        }
+    }
+
+    /** @return true if the transaction holds a lock on the page, in any mode */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return getLockMode(tid, pid) != null;
+    }
+
+    /**
+     * @return the mode the transaction holds the page in, through a lock on
+     *   the page or on its table, or null if it holds no lock on it
+     */
+    public LockMode getLockMode(TransactionId tid, PageId pid) {
+        LockMode tableMode = getTableLockMode(tid, pid.getTableId());
+        if (tableMode != null && tableMode.coversPages(LockMode.EXCLUSIVE)) {
+            return LockMode.EXCLUSIVE;
+        }
+        LockMode mode = pageLockMode(tid, pid);
+        if (mode == null && tableMode != null && tableMode.coversPages(LockMode.SHARED)) {
+            return LockMode.SHARED;
+        }
+        return mode;
+    }
+
+    /** @return the mode the transaction holds the table itself in, or null */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return null;
+        }
+        synchronized (h) {
+            TableHeld t = h.tables.get(tableId);
+            return t == null ? null : t.mode;
+        }
+    }
+
+    private LockMode pageLockMode(TransactionId tid, PageId pid) {
+        Stripe stripe = stripe(pid);
+        synchronized (stripe) {
+            LockHead head = stripe.heads.get(pid);
+            return head == null ? null : head.modeOf(tid);
+        }
+    }
+
+    /**
+     * @return true if a transaction other than tid holds an exclusive lock on
+     *   the page or on its table
+     */
+    public boolean isLockedExclusivelyByOther(TransactionId tid, PageId pid) {
+        return heldExclusivelyByOther(tid, pid) || heldExclusivelyByOther(tid, new TableKey(pid.getTableId()));
+    }
+
+    private boolean heldExclusivelyByOther(TransactionId tid, Object key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            LockHead head = stripe.heads.get(key);
+            if (head == null) {
+                return false;
+            }
+            for (int i = 0; i < head.holders; i++) {
+                if (head.modes[i] == LockMode.EXCLUSIVE && !head.tids[i].equals(tid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return a copy of the list of pages the transaction holds locks on,
+     *   including those it asked for exclusive while a lock on their table
+     *   stood for them
+     */
+    public Collection<PageId> getLockedPages(TransactionId tid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return Collections.emptyList();
+        }
+        synchronized (h) {
+            List<PageId> out = new ArrayList<>();
+            for (TableHeld t : h.tables.values()) {
+                out.addAll(t.pages);
+                if (t.covered != null) {
+                    out.addAll(t.covered);
+                }
+            }
+            return out;
+        }
+    }
 }
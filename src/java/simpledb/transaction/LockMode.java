@@ -0,0 +1,76 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+
+/**
+ * The modes a transaction can hold a lock in.
+ * <p>
+ * Pages are locked {@link #SHARED} or {@link #EXCLUSIVE}. Tables are locked
+ * in any mode: the intention modes announce page locks taken below the
+ * table, and a table lock in {@link #SHARED} or {@link #EXCLUSIVE} mode
+ * stands for that lock on each of its pages.
+ */
+public enum LockMode {
+    /** Read access; any number of transactions may hold it together. */
+    SHARED,
+    /** Write access; held by one transaction, with no other lock on the page. */
+    EXCLUSIVE,
+    /** On a table: some of its pages are locked shared. */
+    INTENTION_SHARED,
+    /** On a table: some of its pages are locked exclusive. */
+    INTENTION_EXCLUSIVE,
+    /** On a table: all of its pages are read, and some of them locked exclusive. */
+    SHARED_INTENTION_EXCLUSIVE;
+
+    // indexed by ordinal: SHARED, EXCLUSIVE, IS, IX, SIX
+    private static final boolean[][] COMPATIBLE = {
+            {true, false, true, false, false},
+            {false, false, false, false, false},
+            {true, false, true, true, true},
+            {false, false, true, true, false},
+            {false, false, true, false, false},
+    };
+    private static final boolean[][] COVERS = {
+            {true, false, true, false, false},
+            {true, true, true, true, true},
+            {false, false, true, false, false},
+            {false, false, true, true, false},
+            {true, false, true, true, true},
+    };
+
+    /** @return the mode a page is locked in for the given permissions */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? EXCLUSIVE : SHARED;
+    }
+
+    /** @return true if holding this mode grants everything other grants */
+    public boolean covers(LockMode other) {
+        return COVERS[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if two transactions may hold this mode and other at once */
+    public boolean compatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return the weakest mode that covers both this mode and other */
+    public LockMode join(LockMode other) {
+        for (LockMode m : new LockMode[]{this, other, SHARED_INTENTION_EXCLUSIVE, EXCLUSIVE}) {
+            if (m.covers(this) && m.covers(other)) {
+                return m;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /** @return the mode to lock a table in before locking one of its pages in this mode */
+    public LockMode intention() {
+        return this == EXCLUSIVE ? INTENTION_EXCLUSIVE : INTENTION_SHARED;
+    }
+
+    /** @return true if holding this mode on a table grants pageMode on each of its pages */
+    public boolean coversPages(LockMode pageMode) {
+        return this == EXCLUSIVE
+                || pageMode == SHARED && (this == SHARED || this == SHARED_INTENTION_EXCLUSIVE);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 40;
+    private static final int INSERTS_PER_TRANSACTION = 3;
+
+    private BTreeFile bf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages, so that the inserts split leaves and internal pages
+        BufferPool.setPageSize(1024);
+        bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        Database.resetBufferPool(500);
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private int count(TransactionId tid, int key) throws Exception {
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** A lookup that meets no split or merge locks the leaves it reads and no other page. */
+    @Test public void lookupLocksOnlyLeaves() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[]{7, 7}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(count(tid, 7) > 0);
+        List<PageId> locked = new ArrayList<>(Database.getBufferPool().getLockManager().getLockedPages(tid));
+        assertFalse(locked.isEmpty());
+        for (PageId pid : locked) {
+            assertEquals(BTreePageId.LEAF, ((BTreePageId) pid).pgcateg());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Concurrent transactions that split pages lose no tuple and leave a well-formed tree. */
+    @Test public void concurrentInserts() throws Exception {
+        ConcurrentLinkedQueue<Integer> inserted = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            final Random r = new Random(t);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < TRANSACTIONS; i++) {
+                        int base = BTreeUtility.MAX_RAND_VALUE + (thread * TRANSACTIONS + i) * INSERTS_PER_TRANSACTION;
+                        while (true) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                // one key past all others, which every thread inserts next to,
+                                // and the rest anywhere in the tree
+                                Database.getBufferPool().insertTuple(tid, bf.getId(),
+                                        BTreeUtility.getBTreeTuple(new int[]{base, base}));
+                                for (int k = 1; k < INSERTS_PER_TRANSACTION; k++) {
+                                    Database.getBufferPool().insertTuple(tid, bf.getId(),
+                                            BTreeUtility.getBTreeTuple(new int[]{r.nextInt(BTreeUtility.MAX_RAND_VALUE), base}));
+                                }
+                                Database.getBufferPool().transactionComplete(tid);
+                                inserted.add(base);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread th : threads) {
+            th.start();
+        }
+        for (Thread th : threads) {
+            th.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(THREADS * TRANSACTIONS, inserted.size());
+
+        TransactionId tid = new TransactionId();
+        for (int base : inserted) {
+            assertEquals(1, count(tid, base));
+        }
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeLatchTest.class);
+    }
+}
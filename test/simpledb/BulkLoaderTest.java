@@ -0,0 +1,181 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File textFile(String text) throws IOException {
+        File f = tempFile(".txt");
+        try (Writer w = new FileWriter(f)) {
+            w.write(text);
+        }
+        return f;
+    }
+
+    private static Type[] ints(int n) {
+        Type[] types = new Type[n];
+        java.util.Arrays.fill(types, Type.INT_TYPE);
+        return types;
+    }
+
+    /**
+     * Small chunks parsed by several threads give the same heap file as
+     * HeapFileEncoder, blank lines and CRLF line endings included.
+     */
+    @Test public void heapFileMatchesEncoder() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Random r = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            text.append(r.nextInt()).append(',').append(r.nextInt(100)).append(", ").append(-i);
+            text.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 500 == 0) {
+                text.append('\n');
+            }
+        }
+        File in = textFile(text.toString());
+        File expected = tempFile(".dat");
+        File actual = tempFile(".dat");
+        HeapFileEncoder.convert(in, expected, BufferPool.getPageSize(), 3);
+        long n = new BulkLoader(ints(3)).threads(3).chunkBytes(100).loadHeapFile(in, actual);
+        assertEquals(3000, n);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    /**
+     * String fields are trimmed and truncated like HeapFileEncoder does, and
+     * an empty input still gives one empty page.
+     */
+    @Test public void stringsAndEmptyInput() throws Exception {
+        StringBuilder text = new StringBuilder();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longString.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 100; i++) {
+            text.append(i).append("| name").append(i).append(" |").append(i % 10 == 0 ? longString : "").append('\n');
+        }
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+        File in = textFile(text.toString());
+        File expected = tempFile(".dat");
+        File actual = tempFile(".dat");
+        HeapFileEncoder.convert(in, expected, BufferPool.getPageSize(), 3, types, '|');
+        new BulkLoader(types).fieldSeparator('|').chunkBytes(64).loadHeapFile(in, actual);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+
+        File empty = textFile("");
+        HeapFileEncoder.convert(empty, expected, BufferPool.getPageSize(), 2);
+        assertEquals(0, new BulkLoader(ints(2)).loadHeapFile(empty, actual));
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    /**
+     * A malformed line fails the load instead of being written out.
+     */
+    @Test public void malformedLineFails() throws Exception {
+        for (String bad : new String[]{"1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "1,99999999999\n"}) {
+            try {
+                new BulkLoader(ints(2)).threads(2).chunkBytes(4).loadHeapFile(textFile(bad), tempFile(".dat"));
+                fail("loaded " + bad);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("malformed line"));
+            }
+        }
+    }
+
+    private static List<Integer> leafKeys(BTreeFile bf) throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF); // the leftmost leaf
+        while (pid != null) {
+            BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+            page.iterator().forEachRemaining(t -> keys.add(((IntField) t.getField(0)).getValue()));
+            pid = page.getRightSiblingId();
+        }
+        return keys;
+    }
+
+    /**
+     * A B+ tree loaded through external sort, with many runs and duplicate
+     * keys, is a valid tree whose leaves hold every tuple in key order, at
+     * the requested fill factor.
+     */
+    @Test public void btreeFromManyRuns() throws Exception {
+        int rows = 20000;
+        StringBuilder text = new StringBuilder();
+        List<Integer> expected = new ArrayList<>();
+        Random r = new Random(2);
+        for (int i = 0; i < rows; i++) {
+            int key = r.nextInt(2000);
+            expected.add(key);
+            text.append(key).append(',').append(i).append('\n');
+        }
+        Collections.sort(expected);
+        File in = textFile(text.toString());
+
+        // small pages for a tree three levels deep
+        BufferPool.setPageSize(512);
+        try {
+            for (double fill : new double[]{1.0, 0.6}) {
+                loadTree(in, rows, expected, fill);
+            }
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    private static void loadTree(File in, int rows, List<Integer> expected, double fill) throws Exception {
+        File out = tempFile(".dat");
+        BTreeBulkLoader loader = new BTreeBulkLoader(new BulkLoader(ints(2)).threads(2).chunkBytes(4096), 0)
+                .fillFactor(fill).sortMemory(16 * 1024);
+        assertEquals(rows, loader.load(in, out));
+        BTreeFile bf = BTreeUtility.openBTreeFile(2, out, 0);
+        BTreeChecker.checkRep(bf, new TransactionId(), new HashMap<>(), true);
+        assertEquals(expected, leafKeys(bf));
+
+        BTreePageId rootId = ((BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()))).getRootId();
+        BTreeInternalPage root = (BTreeInternalPage) bf.readPage(rootId);
+        assertEquals(BTreePageId.INTERNAL, root.iterator().next().getLeftChild().pgcateg());
+
+        int maxTuples = ((BTreeLeafPage) bf.readPage(new BTreePageId(bf.getId(), 1, BTreePageId.LEAF)))
+                .getMaxTuples();
+        int target = (int) (maxTuples * fill);
+        int leaves = (rows + target - 1) / target;
+        BTreeLeafPage last = (BTreeLeafPage) bf.readPage(new BTreePageId(bf.getId(), leaves, BTreePageId.LEAF));
+        assertNull(last.getRightSiblingId());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
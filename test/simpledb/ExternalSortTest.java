@@ -0,0 +1,206 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+    private static String row(Tuple t) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            sb.append(t.getField(i)).append('|');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> drain(OpIterator op) throws Exception {
+        List<String> rows = new ArrayList<>();
+        while (op.hasNext()) {
+            rows.add(row(op.next()));
+        }
+        return rows;
+    }
+
+    /** @return the rows of the tuples, stably sorted in memory */
+    private static List<String> expected(OpIterator child, Comparator<Tuple> order, long limit) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        child.open();
+        while (child.hasNext()) {
+            tuples.add(child.next());
+        }
+        child.close();
+        tuples.sort(order);
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, tuples.size()); i++) {
+            rows.add(row(tuples.get(i)));
+        }
+        return rows;
+    }
+
+    /** @return the run files in the temporary directory */
+    private static List<String> runFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir"))
+                .list((dir, name) -> name.startsWith("sort") && name.endsWith(".run"));
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static int intAt(Tuple t, int f) {
+        return ((IntField) t.getField(f)).getValue();
+    }
+
+    /** Rows with fields 0 and 1 drawn from small ranges, so that many keys tie; field 2 numbers the rows. */
+    private static int[] data(int rows, long seed) {
+        Random r = new Random(seed);
+        int[] data = new int[3 * rows];
+        for (int i = 0; i < rows; i++) {
+            data[3 * i] = r.nextInt(50) - 25;
+            data[3 * i + 1] = r.nextInt(2000) - 1000;
+            data[3 * i + 2] = i;
+        }
+        return data;
+    }
+
+    /** Inputs many times the budget spill runs, and equal keys keep their input order. */
+    @Test public void spillsRuns() throws Exception {
+        int[] data = data(20000, 1);
+        for (boolean asc : new boolean[]{true, false}) {
+            OrderBy sort = new OrderBy(0, asc, TestUtil.createTupleList(3, data));
+            sort.setMemoryBudget(300);
+            sort.open();
+            Comparator<Tuple> order = Comparator.comparingInt(t -> intAt(t, 0));
+            assertEquals(expected(TestUtil.createTupleList(3, data), asc ? order : order.reversed(),
+                    Long.MAX_VALUE), drain(sort));
+            assertEquals(67, sort.numRuns());
+            sort.close();
+        }
+    }
+
+    /** More runs than are merged at once take an extra merge pass; closing the sort removes every run. */
+    @Test public void severalMergePasses() throws Exception {
+        int[] data = data(10000, 2);
+        List<String> before = runFiles();
+        OrderBy sort = new OrderBy(1, true, TestUtil.createTupleList(3, data));
+        sort.setMemoryBudget(50);
+        sort.open();
+        assertEquals(200, sort.numRuns());
+        assertEquals(expected(TestUtil.createTupleList(3, data), Comparator.comparingInt(t -> intAt(t, 1)),
+                Long.MAX_VALUE), drain(sort));
+        sort.close();
+        assertEquals(before, runFiles());
+    }
+
+    @Test public void multipleKeys() throws Exception {
+        int[] data = data(5000, 3);
+        Comparator<Tuple> order = Comparator.<Tuple>comparingInt(t -> intAt(t, 0))
+                .thenComparing(Comparator.<Tuple>comparingInt(t -> intAt(t, 1)).reversed());
+        for (int budget : new int[]{OrderBy.DEFAULT_BUDGET, 128}) {
+            OrderBy sort = new OrderBy(new int[]{0, 1}, new boolean[]{true, false}, TestUtil.createTupleList(3, data));
+            sort.setMemoryBudget(budget);
+            sort.open();
+            assertEquals(expected(TestUtil.createTupleList(3, data), order, Long.MAX_VALUE), drain(sort));
+            sort.close();
+        }
+    }
+
+    @Test public void strings() throws Exception {
+        Random r = new Random(4);
+        Object[] data = new Object[2 * 3000];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = "key" + r.nextInt(700);
+            data[2 * i + 1] = i;
+        }
+        Comparator<Tuple> order = Comparator.comparing(t -> ((StringField) t.getField(0)).getValue());
+        for (boolean asc : new boolean[]{true, false}) {
+            OrderBy sort = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+            sort.setMemoryBudget(100);
+            sort.open();
+            assertEquals(expected(TestUtil.createTupleList(2, data), asc ? order : order.reversed(),
+                    Long.MAX_VALUE), drain(sort));
+            sort.close();
+        }
+    }
+
+    /** Chars above U+00FF keep their value and sort as String.compareTo orders them, in memory and spilled. */
+    @Test public void nonLatin1Strings() throws Exception {
+        char[] alphabet = {'a', '\u0101', 'b', '\u00e9', 'Z', '\u65e5', '\u0100', '\uffee'};
+        Random r = new Random(7);
+        Object[] data = new Object[2 * 2000];
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1 + r.nextInt(4); n > 0; n--) {
+                sb.append(alphabet[r.nextInt(alphabet.length)]);
+            }
+            data[2 * i] = sb.toString();
+            data[2 * i + 1] = i;
+        }
+        Comparator<Tuple> order = Comparator.comparing(t -> ((StringField) t.getField(0)).getValue());
+        for (int budget : new int[]{OrderBy.DEFAULT_BUDGET, 100}) {
+            for (boolean asc : new boolean[]{true, false}) {
+                OrderBy sort = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+                sort.setMemoryBudget(budget);
+                sort.open();
+                assertEquals(expected(TestUtil.createTupleList(2, data), asc ? order : order.reversed(),
+                        Long.MAX_VALUE), drain(sort));
+                sort.close();
+            }
+        }
+    }
+
+    /** A limit within half the budget keeps only the best rows in memory; a larger one stops the merge early. */
+    @Test public void topN() throws Exception {
+        int[] data = data(20000, 5);
+        Comparator<Tuple> order = Comparator.<Tuple>comparingInt(t -> intAt(t, 1)).reversed();
+        for (long limit : new long[]{0, 10, 400, 5000}) {
+            OrderBy sort = new OrderBy(1, false, TestUtil.createTupleList(3, data));
+            sort.setMemoryBudget(1000);
+            sort.setLimit(limit);
+            sort.open();
+            assertEquals(limit <= 500 ? 0 : 20, sort.numRuns());
+            assertEquals(expected(TestUtil.createTupleList(3, data), order, limit), drain(sort));
+            sort.close();
+        }
+    }
+
+    @Test public void rewind() throws Exception {
+        int[] data = data(3000, 6);
+        for (int budget : new int[]{OrderBy.DEFAULT_BUDGET, 200}) {
+            OrderBy sort = new OrderBy(0, true, TestUtil.createTupleList(3, data));
+            sort.setMemoryBudget(budget);
+            sort.open();
+            List<String> first = drain(sort);
+            assertEquals(3000, first.size());
+            sort.rewind();
+            assertEquals(first, drain(sort));
+            sort.close();
+            sort.open();
+            assertEquals(first, drain(sort));
+            sort.close();
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
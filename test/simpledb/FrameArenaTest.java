@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    @Before public void addTable() {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    @After public void restorePool() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static ByteBuffer frameOf(FrameArena arena, byte[] data) {
+        ByteBuffer frame = arena.acquire().buffer();
+        frame.duplicate().put(data);
+        return frame;
+    }
+
+    private static List<Tuple> drain(Iterator<Tuple> it) {
+        List<Tuple> out = new ArrayList<>();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for FrameArena.acquire() and release()
+     */
+    @Test public void acquireAndRelease() {
+        FrameArena arena = new FrameArena(2, 64);
+        FrameArena.Frame a = arena.acquire();
+        FrameArena.Frame b = arena.acquire();
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(arena.acquire());
+        assertEquals(64, a.buffer().capacity());
+        assertTrue(a.buffer().isDirect());
+
+        a.buffer().putInt(0, 42);
+        assertEquals(0, b.buffer().getInt(0));
+        arena.release(a);
+        assertEquals(1, arena.getNumFree());
+        assertSame(a, arena.acquire());
+    }
+
+    /**
+     * A HeapPage decoding from a frame must match one built from a byte array,
+     * and must keep working after it lets go of the frame.
+     */
+    @Test public void heapPageFromFrame() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        HeapPage eager = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+        HeapPage lazy = new HeapPage(pid, frameOf(arena, HeapPageReadTest.EXAMPLE_DATA));
+
+        assertNotNull(lazy.frame());
+        assertEquals(eager.getNumEmptySlots(), lazy.getNumEmptySlots());
+        assertArrayEquals(eager.getPageData(), lazy.getPageData());
+        assertArrayEquals(eager.getBeforeImage().getPageData(), lazy.getBeforeImage().getPageData());
+
+        Iterator<Tuple> it = lazy.iterator();
+        lazy.detachFrame();
+        assertNull(lazy.frame());
+        List<Tuple> expected = drain(eager.iterator());
+        List<Tuple> actual = drain(it);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+            assertEquals(expected.get(i).getRecordId(), actual.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * A BTreeLeafPage decoding from a frame must match one built from a byte
+     * array, including after it is modified.
+     */
+    @Test public void leafPageFromFrame() throws Exception {
+        BTreePageId pid = new BTreePageId(-1, -1, BTreePageId.LEAF);
+        BTreeLeafPage eager = new BTreeLeafPage(pid, BTreeLeafPageTest.EXAMPLE_DATA, 0);
+        FrameArena arena = new FrameArena(1, BufferPool.getPageSize());
+        BTreeLeafPage lazy = new BTreeLeafPage(pid, frameOf(arena, BTreeLeafPageTest.EXAMPLE_DATA), 0);
+
+        assertArrayEquals(eager.getPageData(), lazy.getPageData());
+
+        Tuple t = BTreeUtility.getBTreeTuple(20000, 2);
+        eager.insertTuple(t);
+        lazy.insertTuple(BTreeUtility.getBTreeTuple(20000, 2));
+        lazy.detachFrame();
+        assertNull(lazy.frame());
+        assertArrayEquals(eager.getPageData(), lazy.getPageData());
+    }
+
+    /**
+     * Scanning through an off-heap pool that is smaller than the table returns
+     * every tuple, also on a second pass through recycled frames.
+     */
+    @Test public void offHeapScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        assertTrue(f.numPages() > 3);
+        Database.resetBufferPool(3, true);
+        SystemTestUtil.matchTuples(f, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
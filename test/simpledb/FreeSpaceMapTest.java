@@ -0,0 +1,211 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /** A HeapFile that counts its page reads. */
+    private static class CountingHeapFile extends HeapFile {
+        int reads;
+
+        CountingHeapFile(File f) {
+            super(f, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    private static CountingHeapFile fullTable(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, TUPLES_PER_PAGE * pages, 1000, null, null);
+        CountingHeapFile hf = new CountingHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Once the map knows the pages are full, inserts go to the page with room
+     * without reading the full ones again.
+     */
+    @Test public void insertsSkipFullPages() throws Exception {
+        CountingHeapFile hf = fullTable(10);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(11, hf.numPages());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.reads = 0;
+        tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        }
+        assertEquals(1, hf.reads);
+        assertEquals(11, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A slot freed by a delete is reused by the next insert.
+     */
+    @Test public void deleteMakesRoom() throws Exception {
+        CountingHeapFile hf = fullTable(5);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+
+        HeapPageId third = new HeapPageId(hf.getId(), 3);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, third, Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Tuple t = Utility.getHeapTuple(new int[]{3, 4});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(third, t.getRecordId().getPageId());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The map survives closing the file: a reopened table inserts into its
+     * page with room without reading the full pages.
+     */
+    @Test public void persisted() throws Exception {
+        CountingHeapFile hf = fullTable(8);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        Database.getBufferPool().transactionComplete(tid);
+        File f = hf.getFile();
+        Database.getCatalog().clear();
+
+        CountingHeapFile reopened = new CountingHeapFile(f);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{5, 6});
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(1, reopened.reads);
+        assertEquals(8, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Fills the last page of a table whose other pages are full, then aborts. */
+    private static void fillLastPageAndAbort(CountingHeapFile hf, boolean steal) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i < TUPLES_PER_PAGE; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        }
+        if (steal) {
+            Database.getBufferPool().flushAllPages();   // the page and the map's 0 entry reach the disk
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * An aborted insert that filled a page does not leave the page marked
+     * full: the next insert goes to it rather than to a new page.
+     */
+    @Test public void abortedFillIsForgotten() throws Exception {
+        CountingHeapFile hf = fullTable(4);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        fillLastPageAndAbort(hf, false);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{3, 4});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(4, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(5, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Likewise when the filled page and the map were written before the
+     * abort, and the map is read back from its side file.
+     */
+    @Test public void abortAfterStealIsForgotten() throws Exception {
+        CountingHeapFile hf = fullTable(4);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        fillLastPageAndAbort(hf, true);
+        File f = hf.getFile();
+        Database.getCatalog().clear();
+        CountingHeapFile reopened = new CountingHeapFile(f);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{3, 4});
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(4, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(5, reopened.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A side file left from before the table was changed outside of HeapFile
+     * is not trusted: the page emptied behind its back is found.
+     */
+    @Test public void staleMapIsIgnored() throws Exception {
+        CountingHeapFile hf = fullTable(8);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        Database.getBufferPool().transactionComplete(tid);
+        File f = hf.getFile();
+        Database.getCatalog().clear();
+
+        long modified = f.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(2L * BufferPool.getPageSize());
+            raf.write(HeapPage.createEmptyPageData());
+        }
+        f.setLastModified(modified + 2000);
+        CountingHeapFile reopened = new CountingHeapFile(f);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{5, 6});
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a table whose data file was removed removes its side file too. */
+    @Test public void sideFileGoesWithTable() throws Exception {
+        CountingHeapFile hf = fullTable(2);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        Database.getBufferPool().transactionComplete(tid);
+        File side = FreeSpaceMap.sideFile(hf.getFile());
+        assertTrue(side.exists());
+
+        assertTrue(hf.getFile().delete());
+        Database.getCatalog().clear();
+        assertFalse(side.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 16;
+    private static final int COMMITS = 50;
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    private int commitConcurrently() throws Exception {
+        AtomicInteger done = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < COMMITS; i++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                        done.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread th : threads) {
+            th.start();
+        }
+        for (Thread th : threads) {
+            th.join(10000);
+            assertFalse(th.isAlive());
+        }
+        return done.get();
+    }
+
+    /** Every commit returns, and concurrent commits share forces. */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        assertEquals(THREADS * COMMITS, commitConcurrently());
+        long forces = log.getGroupCommitForces();
+        assertTrue(forces > 0);
+        assertTrue(forces <= THREADS * COMMITS);
+    }
+
+    /** Holding batches open gathers several commits per force. */
+    @Test public void delayedBatches() throws Exception {
+        log.setGroupCommit(2000, THREADS);
+        assertEquals(THREADS * COMMITS, commitConcurrently());
+        assertTrue(log.getGroupCommitForces() < THREADS * COMMITS);
+    }
+
+    /** A batch size of one forces in the committing thread. */
+    @Test public void forceEachCommit() throws Exception {
+        log.setGroupCommit(0, 1);
+        assertEquals(THREADS * COMMITS, commitConcurrently());
+        assertEquals(0, log.getGroupCommitForces());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
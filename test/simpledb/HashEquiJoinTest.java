@@ -0,0 +1,171 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /** @return rows of two columns: a key below keys, then the row number */
+    private static int[] rows(int n, int keys, long seed) {
+        Random r = new Random(seed);
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = r.nextInt(keys);
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        Comparator<List<Integer>> byColumns = (a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+        rows.sort(byColumns);
+        return rows;
+    }
+
+    /** @return the joined rows, found by grouping the left rows by key */
+    private static List<List<Integer>> expected(int[] left, int[] right) {
+        Map<Integer, List<Integer>> byKey = new HashMap<>();
+        for (int i = 0; i < left.length; i += 2) {
+            byKey.computeIfAbsent(left[i], k -> new ArrayList<>()).add(left[i + 1]);
+        }
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int j = 0; j < right.length; j += 2) {
+            for (int row : byKey.getOrDefault(right[j], Collections.emptyList())) {
+                rows.add(Arrays.asList(right[j], row, right[j], right[j + 1]));
+            }
+        }
+        return sorted(rows);
+    }
+
+    private static List<List<Integer>> drain(OpIterator op) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (op.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        return sorted(rows);
+    }
+
+    /** @return the spill files in the temporary directory */
+    private static List<String> spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir"))
+                .list((dir, name) -> name.startsWith("spill") && name.endsWith(".dat"));
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static HashEquiJoin join(int[] left, int[] right, int budget, int maxDepth) {
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+        join.setMemoryBudget(budget);
+        join.setMaxDepth(maxDepth);
+        return join;
+    }
+
+    @Test public void fitsInMemory() throws Exception {
+        int[] left = rows(200, 50, 1), right = rows(300, 100, 2);
+        HashEquiJoin op = join(left, right, HashEquiJoin.MAP_SIZE, HashEquiJoin.DEFAULT_MAX_DEPTH);
+        op.open();
+        assertEquals(expected(left, right), drain(op));
+        op.close();
+    }
+
+    /**
+     * A build side many times the budget spills to files, and its partitions
+     * spill again. Closing the join removes the files.
+     */
+    @Test public void spillsRecursively() throws Exception {
+        int[] left = rows(100000, 50000, 3), right = rows(50000, 100000, 4);
+        List<List<Integer>> expected = expected(left, right);
+        List<String> before = spillFiles();
+        HashEquiJoin op = join(left, right, 400, HashEquiJoin.DEFAULT_MAX_DEPTH);
+        op.open();
+        assertEquals(expected, drain(op));
+        op.rewind();
+        assertEquals(expected, drain(op));
+        op.close();
+        assertEquals(before, spillFiles());
+    }
+
+    /** Tuples that share one key cannot be split by hashing, and are joined in chunks instead. */
+    @Test public void skewedKey() throws Exception {
+        int[] left = rows(500, 1, 5), right = rows(40, 3, 6);
+        HashEquiJoin op = join(left, right, 30, HashEquiJoin.DEFAULT_MAX_DEPTH);
+        op.open();
+        List<List<Integer>> actual = drain(op);
+        assertFalse(actual.isEmpty());
+        assertEquals(expected(left, right), actual);
+        op.close();
+    }
+
+    /** With no partitioning, the left side is loaded in chunks and the right side rescanned. */
+    @Test public void blockNestedLoop() throws Exception {
+        int[] left = rows(1000, 300, 7), right = rows(800, 300, 8);
+        HashEquiJoin op = join(left, right, 64, 0);
+        op.open();
+        assertEquals(expected(left, right), drain(op));
+        op.close();
+    }
+
+    /** Keys that are not ints go through the HashMap path, and spill the same way. */
+    @Test public void stringKeys() throws Exception {
+        int[] left = rows(3000, 500, 9), right = rows(2000, 700, 10);
+        HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, named(left)), TestUtil.createTupleList(2, named(right)));
+        op.setMemoryBudget(100);
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(t.getField(0), t.getField(2));
+            n++;
+        }
+        assertEquals(expected(left, right).size(), n);
+        op.close();
+    }
+
+    /** @return the rows with each key replaced by a string */
+    private static Object[] named(int[] rows) {
+        Object[] data = new Object[rows.length];
+        for (int i = 0; i < rows.length; i += 2) {
+            data[i] = "key" + rows[i];
+            data[i + 1] = rows[i + 1];
+        }
+        return data;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class HeapPageSerializationTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+    }
+
+    /** A page with a tuple deleted and two inserted since it was read. */
+    private HeapPage changedPage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+        return page;
+    }
+
+    /**
+     * Writing into a buffer, heap or direct and at any position, gives the
+     * bytes of getPageData().
+     */
+    @Test public void writesIntoBuffer() throws Exception {
+        HeapPage page = changedPage();
+        byte[] expected = page.getPageData();
+        int pageSize = BufferPool.getPageSize();
+
+        for (ByteBuffer dst : new ByteBuffer[]{ByteBuffer.allocate(pageSize + 10),
+                ByteBuffer.allocateDirect(pageSize + 10)}) {
+            dst.position(10);
+            page.getPageData(dst);
+            assertEquals(pageSize + 10, dst.position());
+            byte[] actual = new byte[pageSize];
+            dst.position(10);
+            dst.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+        assertArrayEquals(expected, new HeapPage(pid, expected).getPageData());
+    }
+
+    /**
+     * setBeforeImage captures the committed contents; later changes leave the
+     * before image alone, and the page reads back the same after the capture.
+     */
+    @Test public void beforeImageAfterCommit() throws Exception {
+        HeapPage page = changedPage();
+        byte[] committed = page.getPageData();
+        page.setBeforeImage();
+        assertArrayEquals(committed, page.getPageData());
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{11, 12}));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length + 2, count);
+    }
+
+    /**
+     * Fields write the same bytes to a ByteBuffer as to a DataOutputStream.
+     */
+    @Test public void fieldsSerializeAlike() throws Exception {
+        Field[] fields = {new IntField(-42), new StringField("hello", Type.STRING_LEN),
+                new StringField("", Type.STRING_LEN)};
+        for (Field f : fields) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(baos));
+            ByteBuffer dst = ByteBuffer.allocate(baos.size());
+            f.serialize(dst);
+            assertFalse(dst.hasRemaining());
+            assertArrayEquals(baos.toByteArray(), dst.array());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageSerializationTest.class);
+    }
+}
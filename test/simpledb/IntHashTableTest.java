@@ -0,0 +1,71 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.IntHashTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    @Test public void numbersKeysInOrder() {
+        IntHashTable table = new IntHashTable();
+        assertEquals(0, table.add(42));
+        assertEquals(1, table.add(-7));
+        assertEquals(0, table.add(42));
+        assertEquals(2, table.size());
+        assertEquals(-7, table.key(1));
+        assertEquals(1, table.find(-7));
+        assertEquals(-1, table.find(0));
+    }
+
+    /** Random keys, strided keys and keys that differ only in their high bits all keep their ids as the table grows. */
+    @Test public void growsAndAgreesWithHashMap() {
+        IntHashTable table = new IntHashTable();
+        Map<Integer, Integer> ids = new HashMap<>();
+        Random r = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int key;
+            switch (i % 3) {
+                case 0: key = r.nextInt(); break;
+                case 1: key = i * 1024; break;
+                default: key = i << 20; break;
+            }
+            Integer expected = ids.get(key);
+            int id = table.add(key);
+            if (expected == null) {
+                assertEquals(ids.size(), id);
+                ids.put(key, id);
+            } else {
+                assertEquals((int) expected, id);
+            }
+        }
+        assertEquals(ids.size(), table.size());
+        for (Map.Entry<Integer, Integer> e : ids.entrySet()) {
+            assertEquals((int) e.getValue(), table.find(e.getKey()));
+            assertEquals((int) e.getKey(), table.key(e.getValue()));
+        }
+    }
+
+    @Test public void clear() {
+        IntHashTable table = new IntHashTable();
+        for (int i = 0; i < 1000; i++) {
+            table.add(i);
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(5));
+        assertEquals(0, table.add(5));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
@@ -0,0 +1,307 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private final PageId p0 = new HeapPageId(1, 0);
+    private final PageId p1 = new HeapPageId(1, 1);
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        lm.setTimeout(5000);
+    }
+
+    /** Starts a thread that acquires a lock, then records its name. */
+    private Thread acquireLater(TransactionId tid, PageId pid, LockMode mode, List<String> order, String name) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, mode);
+                order.add(name);
+            } catch (TransactionAbortedException e) {
+                order.add(name + " aborted");
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void waitUntilParked(Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.TIMED_WAITING && t.isAlive()) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test public void sharedAndExclusive() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.acquire(t1, p0, LockMode.SHARED);
+        lm.acquire(t2, p0, LockMode.SHARED);
+        assertEquals(LockMode.SHARED, lm.getLockMode(t1, p0));
+        assertEquals(LockMode.SHARED, lm.getLockMode(t2, p0));
+
+        lm.acquire(t1, p1, LockMode.EXCLUSIVE);
+        lm.acquire(t1, p1, LockMode.SHARED); // already covered
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t1, p1));
+        assertFalse(lm.holdsLock(t2, p1));
+        assertEquals(2, lm.getLockedPages(t1).size());
+    }
+
+    /** Waiters are granted in arrival order; a later reader does not overtake a queued writer. */
+    @Test public void fifoGrants() throws Exception {
+        TransactionId holder = new TransactionId();
+        lm.acquire(holder, p0, LockMode.SHARED);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        Thread writer = acquireLater(new TransactionId(), p0, LockMode.EXCLUSIVE, order, "writer");
+        waitUntilParked(writer);
+        TransactionId readerTid = new TransactionId();
+        Thread reader = acquireLater(readerTid, p0, LockMode.SHARED, order, "reader");
+        waitUntilParked(reader);
+        assertTrue(order.isEmpty());
+
+        lm.releaseAll(holder);
+        writer.join();
+        assertEquals(Collections.singletonList("writer"), order);
+        assertTrue(reader.isAlive());
+    }
+
+    /** An upgrade waits only for the other readers, ahead of queued requests. */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+        lm.acquire(t1, p0, LockMode.SHARED);
+        lm.acquire(t2, p0, LockMode.SHARED);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        Thread writer = acquireLater(t3, p0, LockMode.EXCLUSIVE, order, "writer");
+        waitUntilParked(writer);
+        Thread upgrade = acquireLater(t1, p0, LockMode.EXCLUSIVE, order, "upgrade");
+        waitUntilParked(upgrade);
+
+        lm.release(t2, p0);
+        upgrade.join();
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t1, p0));
+        lm.releaseAll(t1);
+        writer.join();
+        assertEquals(2, order.size());
+        assertEquals("upgrade", order.get(0));
+        assertEquals("writer", order.get(1));
+    }
+
+    /** Two readers upgrading the same page wait for each other; the younger one aborts. */
+    @Test public void secondUpgradeAborts() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.acquire(t1, p0, LockMode.SHARED);
+        lm.acquire(t2, p0, LockMode.SHARED);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread upgrade = acquireLater(t1, p0, LockMode.EXCLUSIVE, order, "t1");
+        waitUntilParked(upgrade);
+
+        try {
+            lm.acquire(t2, p0, LockMode.EXCLUSIVE);
+            fail("expected the second upgrade to abort");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAll(t2);
+        upgrade.join();
+        assertEquals(Collections.singletonList("t1"), order);
+    }
+
+    /** The request that closes a cycle finds it at once, well before the timeout. */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        TransactionId older = new TransactionId(), younger = new TransactionId();
+        lm.acquire(older, p0, LockMode.EXCLUSIVE);
+        lm.acquire(younger, p1, LockMode.EXCLUSIVE);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread t = acquireLater(older, p1, LockMode.EXCLUSIVE, order, "older");
+        waitUntilParked(t);
+
+        long start = System.nanoTime();
+        try {
+            lm.acquire(younger, p0, LockMode.EXCLUSIVE);
+            fail("expected the younger transaction to be aborted");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        lm.releaseAll(younger);
+        t.join();
+        assertEquals(Collections.singletonList("older"), order);
+    }
+
+    /** The victim is the transaction with the fewest exclusive locks, even if it is the older one. */
+    @Test public void deadlockAbortsCheapest() throws Exception {
+        TransactionId cheap = new TransactionId(), costly = new TransactionId();
+        lm.acquire(cheap, p0, LockMode.SHARED);
+        lm.acquire(costly, p1, LockMode.EXCLUSIVE);
+        lm.acquire(costly, new HeapPageId(1, 2), LockMode.EXCLUSIVE);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread t = acquireLater(cheap, p1, LockMode.SHARED, order, "cheap");
+        waitUntilParked(t);
+
+        Thread c = acquireLater(costly, p0, LockMode.EXCLUSIVE, order, "costly");
+        t.join();
+        assertEquals(Collections.singletonList("cheap aborted"), order);
+        lm.releaseAll(cheap);
+        c.join();
+        assertEquals("costly", order.get(1));
+    }
+
+    /**
+     * A transaction whose threads wait on several locks at once stays in the
+     * waits-for graph while any of them waits: here one thread's wait ends,
+     * and the cycle through the other is still found.
+     */
+    @Test public void deadlockThroughOneOfSeveralThreads() throws Exception {
+        TransactionId shared = new TransactionId(), other = new TransactionId(), writer = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(writer, p0, LockMode.EXCLUSIVE);
+        lm.acquire(other, p1, LockMode.EXCLUSIVE);
+        lm.acquire(shared, p2, LockMode.EXCLUSIVE);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread a = acquireLater(shared, p0, LockMode.SHARED, order, "a");
+        waitUntilParked(a);
+        Thread b = acquireLater(shared, p1, LockMode.SHARED, order, "b");
+        waitUntilParked(b);
+        lm.releaseAll(other);
+        b.join();
+
+        long start = System.nanoTime();
+        try {
+            lm.acquire(writer, p2, LockMode.EXCLUSIVE);
+            fail("expected the writer to be aborted");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        lm.releaseAll(writer);
+        a.join();
+        assertEquals(Arrays.asList("b", "a"), order);
+    }
+
+    /** A request that times out leaves the queue, so it does not hold up later ones. */
+    @Test public void timeoutWithdrawsRequest() throws Exception {
+        TransactionId holder = new TransactionId();
+        lm.acquire(holder, p0, LockMode.SHARED);
+        lm.setTimeout(50);
+        try {
+            lm.acquire(new TransactionId(), p0, LockMode.EXCLUSIVE);
+            fail("expected a timeout");
+        } catch (TransactionAbortedException expected) {
+        }
+        TransactionId reader = new TransactionId();
+        lm.acquire(reader, p0, LockMode.SHARED);
+        assertTrue(lm.holdsLock(reader, p0));
+    }
+
+    @Test public void releaseAllWakesWaiters() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+        lm.acquire(t1, p1, LockMode.EXCLUSIVE);
+        CountDownLatch done = new CountDownLatch(2);
+        for (PageId pid : new PageId[]{p0, p1}) {
+            new Thread(() -> {
+                try {
+                    lm.acquire(new TransactionId(), pid, LockMode.SHARED);
+                    done.countDown();
+                } catch (TransactionAbortedException ignored) {
+                }
+            }).start();
+        }
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        lm.releaseAll(t1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertFalse(lm.holdsLock(t1, p0));
+    }
+
+    /** A table locked shared lets others read its pages, and keeps out writers until it is released. */
+    @Test public void tableLockAndIntentions() throws Exception {
+        TransactionId scanner = new TransactionId(), reader = new TransactionId();
+        lm.acquireTable(scanner, 1, LockMode.SHARED);
+        assertEquals(LockMode.SHARED, lm.getLockMode(scanner, p1));
+        lm.acquire(reader, p0, LockMode.SHARED);
+        assertEquals(LockMode.INTENTION_SHARED, lm.getTableLockMode(reader, 1));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = acquireLater(new TransactionId(), p1, LockMode.EXCLUSIVE, order, "writer");
+        waitUntilParked(writer);
+        assertTrue(order.isEmpty());
+        lm.releaseAll(scanner);
+        writer.join();
+        assertEquals(Collections.singletonList("writer"), order);
+    }
+
+    /** Past the threshold, a reader's page locks become one shared table lock. */
+    @Test public void escalateToShared() throws Exception {
+        lm.setEscalationThreshold(4);
+        TransactionId t1 = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.acquire(t1, new HeapPageId(1, i), LockMode.SHARED);
+        }
+        assertEquals(LockMode.SHARED, lm.getTableLockMode(t1, 1));
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertEquals(LockMode.SHARED, lm.getLockMode(t1, new HeapPageId(1, 9)));
+        assertNull(lm.getLockMode(t1, new HeapPageId(2, 0)));
+
+        TransactionId t2 = new TransactionId();
+        lm.setTimeout(50);
+        try {
+            lm.acquire(t2, new HeapPageId(1, 9), LockMode.EXCLUSIVE);
+            fail("expected the writer to wait for the table lock");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAll(t1);
+        lm.acquire(t2, new HeapPageId(1, 9), LockMode.EXCLUSIVE);
+    }
+
+    /** Escalation does not wait: while another transaction writes the table, the page locks stay. */
+    @Test public void escalationSkippedWhenBusy() throws Exception {
+        lm.setEscalationThreshold(4);
+        TransactionId writer = new TransactionId(), t1 = new TransactionId();
+        lm.acquire(writer, new HeapPageId(1, 9), LockMode.EXCLUSIVE);
+        for (int i = 0; i < 4; i++) {
+            lm.acquire(t1, new HeapPageId(1, i), LockMode.SHARED);
+        }
+        assertEquals(LockMode.INTENTION_SHARED, lm.getTableLockMode(t1, 1));
+        assertEquals(4, lm.getLockedPages(t1).size());
+    }
+
+    /** A writer escalates to an exclusive table lock, and its written pages are still reported. */
+    @Test public void escalateToExclusive() throws Exception {
+        lm.setEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+        lm.acquire(t1, p1, LockMode.SHARED);
+        assertEquals(LockMode.EXCLUSIVE, lm.getTableLockMode(t1, 1));
+        PageId p7 = new HeapPageId(1, 7);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t1, p7));
+        lm.acquire(t1, p7, LockMode.EXCLUSIVE);
+        assertTrue(lm.getLockedPages(t1).containsAll(Arrays.asList(p0, p7)));
+        assertTrue(lm.isLockedExclusivelyByOther(new TransactionId(), p1));
+        lm.releaseAll(t1);
+        assertFalse(lm.isLockedExclusivelyByOther(new TransactionId(), p1));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    /** Enough full page images to wrap the log buffer and outgrow one preallocated segment. */
+    private static final int PAGES = 300;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        table = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage, 1000, null, null);
+    }
+
+    /** Replaces a tuple of the page on disk with (v, v) and logs it, without writing the page. */
+    private long logChange(Transaction t, int pageNo, int v) throws Exception {
+        return logChange(t, (HeapPage) table.readPage(new HeapPageId(table.getId(), pageNo)), v);
+    }
+
+    private long logChange(Transaction t, HeapPage page, int v) throws Exception {
+        page.setBeforeImage();
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(new int[]{v, v}));
+        return Database.getLogFile().logWrite(t.getId(), page.getBeforeImage(), page);
+    }
+
+    private List<Integer> firstColumn(HeapFile file, int pageNo) {
+        List<Integer> out = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) file.readPage(new HeapPageId(file.getId(), pageNo))).iterator();
+        while (it.hasNext()) {
+            out.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return out;
+    }
+
+    /** The log ends before the space preallocated for it, and LSNs grow with each record. */
+    @Test public void preallocatedSpaceIsNotLog() throws Exception {
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        long first = logChange(t, 0, -1);
+        long second = logChange(t, 1, -2);
+        assertTrue(second > first);
+        log.flushTo(second);
+        assertTrue(log.getLength() < new File("log").length());
+        t.commit();
+    }
+
+    /**
+     * A fresh LogFile recovers from a log written through a wrapped buffer:
+     * it redoes the committed changes, undoes a loser whose page was written,
+     * and stops at the end of the log, not of the file.
+     */
+    @Test public void recoverAfterBufferWrapped() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < PAGES - 1; i++) {
+            logChange(t, i, -1 - i);
+        }
+        t.commit();   // forces the log; none of the pages is written
+        Transaction loser = new Transaction();
+        loser.start();
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), PAGES - 1));
+        List<Integer> original = firstColumn(table, PAGES - 1);
+        Database.getLogFile().flushTo(logChange(loser, page, -100000));
+        table.writePage(page);
+
+        // crash: whatever is still in the log buffer is lost
+        File file = table.getFile();
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+
+        for (int i = 0; i < PAGES - 1; i++) {
+            assertTrue("page " + i, firstColumn(reopened, i).contains(-1 - i));
+        }
+        assertEquals(original, firstColumn(reopened, PAGES - 1));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LogRecoveryTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 20;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        table = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage, 1000, null, null);
+    }
+
+    private List<List<Integer>> contents() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<List<Integer>> out = new ArrayList<>();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return out;
+    }
+
+    /** Replaces a tuple on the page; the pages are full, so the new one goes to the same page. */
+    private void change(Transaction t, int pageNo, int v) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(table.getId(), pageNo), Permissions.READ_WRITE);
+        Iterator<Tuple> it = page.iterator();
+        bp.deleteTuple(t.getId(), it.next());
+        bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{v, v}));
+    }
+
+    private byte[] onDisk(int pageNo) {
+        return table.readPage(new HeapPageId(table.getId(), pageNo)).getPageData();
+    }
+
+    /** rollback() restores the pages a transaction wrote early. */
+    @Test public void rollbackRestoresStolenPages() throws Exception {
+        byte[] original = onDisk(0);
+        Transaction t = new Transaction();
+        t.start();
+        change(t, 0, -1);
+        Database.getBufferPool().flushPages(t.getId());
+        assertFalse(Arrays.equals(original, onDisk(0)));
+
+        Database.getLogFile().rollback(t.getId());
+        assertArrayEquals(original, onDisk(0));
+        t.abort();
+        assertArrayEquals(original, onDisk(0));
+    }
+
+    /** Recovery on several threads keeps committed changes and undoes the unfinished ones, and can be repeated. */
+    @Test public void parallelRecovery() throws Exception {
+        Random r = new Random(1);
+        for (int i = 0; i < 30; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            change(t, r.nextInt(PAGES), i);
+            change(t, r.nextInt(PAGES), i);
+            t.commit();
+        }
+        List<List<Integer>> committed = contents();
+        for (int i = 0; i < 3; i++) {
+            Transaction loser = new Transaction();
+            loser.start();
+            change(loser, 2 * i, -1);
+            change(loser, 2 * i + 1, -1);
+            Database.getBufferPool().flushPages(loser.getId());
+        }
+
+        for (int round = 0; round < 2; round++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            Database.getLogFile().setRecoveryThreads(4);
+            Database.getLogFile().recover();
+            List<List<Integer>> actual = contents();
+            assertEquals(committed.size(), actual.size());
+            assertTrue(actual.containsAll(committed));
+        }
+    }
+
+    /** A checkpoint drops the log before the oldest record recovery needs, and recovery still undoes a loser that began before it. */
+    @Test public void checkpointTruncatesToRecoveryLsn() throws Exception {
+        LogFile log = Database.getLogFile();
+        byte[] original = onDisk(0);
+        Transaction loser = new Transaction();
+        loser.start();
+        change(loser, 0, -1);
+        Database.getBufferPool().flushPages(loser.getId());
+        for (int i = 0; i < 20; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            change(t, 1 + i % (PAGES - 1), i);
+            t.commit();
+        }
+        List<List<Integer>> committed = onDiskWith(original);
+        long before = log.getLength();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(log.getLength() > before - 1000);   // the loser's records are kept
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();   // ends with a checkpoint; nothing is running after it
+        assertTrue(log.getLength() < 1000);
+        List<List<Integer>> actual = contents();
+        assertEquals(committed.size(), actual.size());
+        assertTrue(actual.containsAll(committed));
+    }
+
+    /** @return the tuples on disk, with page 0 as given, without locking anything */
+    private List<List<Integer>> onDiskWith(byte[] page0) throws Exception {
+        List<List<Integer>> out = new ArrayList<>();
+        for (int pageNo = 0; pageNo < PAGES; pageNo++) {
+            HeapPageId pid = new HeapPageId(table.getId(), pageNo);
+            HeapPage page = pageNo == 0 ? new HeapPage(pid, page0) : (HeapPage) table.readPage(pid);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                out.add(SystemTestUtil.tupleToList(it.next()));
+            }
+        }
+        return out;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogRecoveryTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.storage.MappedFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    private static File fileOfLength(int length) throws IOException {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        appendBytes(f, 0, length);
+        return f;
+    }
+
+    /** Appends bytes whose value is their offset in the file, mod 251. */
+    private static void appendBytes(File f, int from, int to) throws IOException {
+        byte[] b = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            b[i - from] = (byte) (i % 251);
+        }
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(b);
+        }
+    }
+
+    private static void assertSliceMatches(MappedFile m, long offset, int length) throws IOException {
+        ByteBuffer b = m.slice(offset, length);
+        assertNotNull(b);
+        assertEquals(length, b.remaining());
+        for (int i = 0; i < length; i++) {
+            assertEquals((byte) ((offset + i) % 251), b.get(i));
+        }
+    }
+
+    /**
+     * Slices straddling a chunk boundary come back whole.
+     */
+    @Test public void sliceAcrossChunks() throws Exception {
+        MappedFile m = new MappedFile(fileOfLength(10000), 1024);
+        assertSliceMatches(m, 0, 100);
+        assertSliceMatches(m, 1000, 100);
+        assertSliceMatches(m, 9000, 1000);
+        assertNull(m.slice(9990, 100));
+        assertTrue(m.slice(0, 1).isReadOnly());
+        m.close();
+    }
+
+    /**
+     * A read past the end of the mapping picks up data appended since.
+     */
+    @Test public void remapOnGrowth() throws Exception {
+        File f = fileOfLength(1500);
+        MappedFile m = new MappedFile(f, 1024);
+        assertNull(m.slice(1400, 200));
+        appendBytes(f, 1500, 5000);
+        assertSliceMatches(m, 1400, 200);
+        assertSliceMatches(m, 4000, 1000);
+        assertEquals(5000, m.length());
+        m.close();
+    }
+
+    /**
+     * Scanning a memory-mapped table through a small buffer pool returns the
+     * same tuples as the regular read path.
+     */
+    @Test public void mappedHeapFileScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        Database.resetBufferPool(4);
+        assertFalse(Database.getCatalog().isMemoryMapped(f.getId()));
+        Database.getCatalog().setMemoryMapped(f.getId(), true);
+        assertTrue(f.isMemoryMapped());
+        SystemTestUtil.matchTuples(f, tuples);
+        Database.getCatalog().setMemoryMapped(f.getId(), false);
+        assertFalse(f.isMemoryMapped());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
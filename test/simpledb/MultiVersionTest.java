@@ -0,0 +1,177 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MultiVersionTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, null);
+        bp = Database.getBufferPool();
+        bp.setMultiVersion(true);
+    }
+
+    @After public void tearDown() {
+        bp.setMultiVersion(false);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        return count(table, tid);
+    }
+
+    private static int count(HeapFile table, TransactionId tid) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private List<Tuple> firstTuples(TransactionId tid, int n) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Tuple> out = new ArrayList<>();
+        while (it.hasNext() && out.size() < n) {
+            out.add(it.next());
+        }
+        it.close();
+        return out;
+    }
+
+    /** A snapshot reader does not wait for a writer's locks, and sees neither its uncommitted nor its later committed changes. */
+    @Test public void snapshotIgnoresWriters() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+
+        TransactionId writer = new TransactionId();
+        for (Tuple t : firstTuples(writer, 10)) {
+            bp.deleteTuple(writer, t);
+        }
+        bp.insertTuple(writer, table.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(1000, count(reader.getId()));
+        assertFalse(bp.holdsLock(reader.getId(), new HeapPageId(table.getId(), 0)));
+
+        bp.transactionComplete(writer);
+        assertEquals(1000, count(reader.getId()));
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertEquals(991, count(later.getId()));
+        reader.commit();
+        later.commit();
+    }
+
+    /** A writer is granted pages a snapshot reader has read. */
+    @Test public void readerDoesNotBlockWriter() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertEquals(1000, count(reader.getId()));
+
+        TransactionId writer = new TransactionId();
+        bp.getLockManager().setTimeout(100);
+        bp.getPage(writer, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        bp.transactionComplete(writer);
+        reader.commit();
+    }
+
+    /** An aborted write leaves the snapshot readers' view unchanged. */
+    @Test public void abortedWriteIsInvisible() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, table.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        bp.transactionComplete(writer, false);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertEquals(1000, count(reader.getId()));
+        reader.commit();
+    }
+
+    @Test(expected = DbException.class) public void readOnlyCannotWrite() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            bp.getPage(reader.getId(), new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        } finally {
+            reader.commit();
+        }
+    }
+
+    /** Old versions are kept while a snapshot may read them, and vacuumed afterwards. */
+    @Test public void vacuumReclaimsVersions() throws Exception {
+        VersionStore versions = bp.getVersionStore();
+        Transaction reader = new Transaction(true);
+        reader.start();
+        for (int i = 0; i < 3; i++) {
+            TransactionId writer = new TransactionId();
+            bp.insertTuple(writer, table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            bp.transactionComplete(writer);
+        }
+        assertEquals(3, versions.getNumVersions());
+        assertEquals(0, versions.vacuum());
+        assertEquals(1000, count(reader.getId()));
+
+        Transaction second = new Transaction(true);
+        second.start();
+        reader.commit();   // also wakes the vacuum thread, which may get there first
+        versions.vacuum();
+        assertEquals(0, versions.getNumVersions());
+        assertEquals(1003, count(second.getId()));
+        second.commit();
+        assertEquals(0, versions.getNumSnapshots());
+    }
+
+    /**
+     * With snapshots always open, overlapping one another, the copies of
+     * current pages kept for them stay within the pool's size.
+     */
+    @Test public void copiesStayBounded() throws Exception {
+        bp.setMultiVersion(false);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 30, 1000, null, null);
+        Database.resetBufferPool(10);
+        bp = Database.getBufferPool();
+        bp.setMultiVersion(true);
+        VersionStore versions = bp.getVersionStore();
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        for (int i = 0; i < 4; i++) {
+            Transaction next = new Transaction(true);
+            next.start();
+            assertEquals(504 * 30, count(big, reader.getId()));
+            assertTrue(versions.getNumCopies() <= 10);
+            reader.commit();
+            reader = next;
+        }
+        reader.commit();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiVersionTest.class);
+    }
+}
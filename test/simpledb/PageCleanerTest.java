@@ -0,0 +1,166 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /** Reads a page straight from the file, bypassing the buffer pool. */
+    private static HeapPage onDisk(HeapFile hf, int pageNo) {
+        return (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo));
+    }
+
+    /** Deletes the first n tuples of each of the first pages pages of hf. */
+    private static void deleteFromPages(TransactionId tid, HeapFile hf, int pages, int n) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int p = 0; p < pages; p++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+            List<Tuple> victims = new ArrayList<>();
+            page.iterator().forEachRemaining(victims::add);
+            for (Tuple t : victims.subList(0, n)) {
+                bp.deleteTuple(tid, t);
+            }
+        }
+    }
+
+    /**
+     * Dirty pages reach the disk in the background, without a flush or a
+     * commit, and the pool then holds no dirty page.
+     */
+    @Test public void cleanerWritesDirtyPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 3, null, null);
+        TransactionId tid = new TransactionId();
+        deleteFromPages(tid, hf, 3, 1);
+        assertEquals(3, Database.getBufferPool().getNumDirtyPages());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.getBufferPool().getNumDirtyPages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, Database.getBufferPool().getNumDirtyPages());
+        for (int p = 0; p < 3; p++) {
+            assertEquals(1, onDisk(hf, p).getNumEmptySlots());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages written before their transaction aborts are restored on disk,
+     * and the aborted changes are dropped from the pool.
+     */
+    @Test public void abortRestoresStolenPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 3, null, tuples);
+        TransactionId tid = new TransactionId();
+        deleteFromPages(tid, hf, 3, 10);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(10, onDisk(hf, 1).getNumEmptySlots());
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        for (int p = 0; p < 3; p++) {
+            assertEquals(0, onDisk(hf, p).getNumEmptySlots());
+        }
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A pool whose pages are all dirty writes some of them out to make room,
+     * instead of failing; the transaction can still commit or abort.
+     */
+    @Test public void evictsWhenEveryPageIsDirty() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 10, null, tuples);
+        Database.resetBufferPool(4);
+
+        TransactionId aborted = new TransactionId();
+        deleteFromPages(aborted, hf, 10, 1);
+        Database.getBufferPool().transactionComplete(aborted, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId committed = new TransactionId();
+        deleteFromPages(committed, hf, 10, 1);
+        Database.getBufferPool().transactionComplete(committed, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int p = 0; p < 10; p++) {
+            assertEquals(1, onDisk(hf, p).getNumEmptySlots());
+        }
+    }
+
+    /**
+     * An image of a page taken while another thread inserts and deletes
+     * tuples has, for every slot, its header bit set exactly when the slot
+     * holds a tuple: the cleaner never writes a page half changed.
+     */
+    @Test public void imagesAreNeverTorn() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        int headerSize = (TUPLES_PER_PAGE + 7) / 8;
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    Tuple t = new Tuple(hf.getTupleDesc());
+                    t.setField(0, new IntField(7));
+                    t.setField(1, new IntField(7));
+                    page.insertTuple(t);
+                    page.deleteTuple(t);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        try {
+            long deadline = System.currentTimeMillis() + 300;
+            while (System.currentTimeMillis() < deadline) {
+                ByteBuffer image = ByteBuffer.wrap(page.getPageData());
+                boolean used = (image.get(0) & 1) == 1;
+                assertEquals("header and slot disagree", used, image.getInt(headerSize) == 7);
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    /**
+     * A page changed through getPage, without a dirty version in the pool,
+     * is written and marked clean when it did not change again.
+     */
+    @Test public void pageChangedThroughGetPageIsCleaned() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0),
+                Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        Database.getBufferPool().flushAllPages();
+        assertNull(page.isDirty());
+        assertEquals(1, onDisk(hf, 0).getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 10, 1000, null, null);
+        pid = new HeapPageId(table.getId(), 0);
+    }
+
+    private List<List<Integer>> contents() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<List<Integer>> out = new ArrayList<>();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return out;
+    }
+
+    private void insert(Transaction t, int v) throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{v, v}));
+    }
+
+    /** After the first full image, an update of one tuple logs a few dozen bytes, not two pages. */
+    @Test public void smallUpdateSmallRecord() throws Exception {
+        File f = File.createTempFile("delta", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        HeapPage page = (HeapPage) table.readPage(pid);
+        TransactionId tid = new TransactionId();
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 1}));
+        log.logWrite(tid, page.getBeforeImage(), page);
+        long first = log.getLength();
+        assertTrue(first > BufferPool.getPageSize());
+
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(new int[]{2, 2}));
+        log.logWrite(tid, page.getBeforeImage(), page);
+        assertTrue(log.getLength() - first < 100);
+        f.delete();
+    }
+
+    private void logInsert(Transaction t, HeapPage page, int v) throws Exception {
+        page.insertTuple(Utility.getHeapTuple(new int[]{v, v}));
+        Database.getLogFile().logWrite(t.getId(), page.getBeforeImage(), page);
+    }
+
+    /** Recovery rebuilds committed pages from an image and the deltas after it, and undoes unfinished ones. */
+    @Test public void recoverReplaysDeltas() throws Exception {
+        List<List<Integer>> expected = contents();
+        // crash after the log is forced but before the page is written
+        HeapPage page = (HeapPage) table.readPage(pid);
+        Transaction a = new Transaction();
+        a.start();
+        logInsert(a, page, 1);
+        page.setBeforeImage();
+        a.commit();
+        Transaction b = new Transaction();
+        b.start();
+        logInsert(b, page, 2);
+        page.setBeforeImage();
+        b.commit();
+        Transaction c = new Transaction();
+        c.start();
+        logInsert(c, page, 3);
+        table.writePage(page);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+
+        expected.add(Arrays.asList(1, 1));
+        expected.add(Arrays.asList(2, 2));
+        List<List<Integer>> actual = contents();
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
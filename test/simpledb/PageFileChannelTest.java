@@ -0,0 +1,140 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PageFileChannelTest extends SimpleDbTestBase {
+
+    /**
+     * Positional reads and writes, and reopening after close().
+     */
+    @Test public void readWriteReopen() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        PageFileChannel c = new PageFileChannel(f);
+        c.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 4);
+        assertEquals(8, c.size());
+
+        ByteBuffer dst = ByteBuffer.allocate(6);
+        assertEquals(6, c.read(dst, 2));
+        assertArrayEquals(new byte[]{0, 0, 1, 2, 3, 4}, dst.array());
+
+        c.close();
+        dst.clear();
+        assertEquals(2, c.read(dst, 6));
+        assertEquals(0, c.read(ByteBuffer.allocate(1), 8));
+        c.close();
+    }
+
+    /**
+     * writePages puts each page at its offset, whether or not it is adjacent
+     * to the page before it.
+     */
+    @Test public void gatheredWrites() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        List<Page> pages = new ArrayList<>();
+        for (int p : new int[]{0, 1, 2, 4}) {
+            pages.add(hf.readPage(new HeapPageId(hf.getId(), p)));
+        }
+        File f = File.createTempFile("gather", ".dat");
+        f.deleteOnExit();
+        PageFileChannel c = new PageFileChannel(f);
+        int pageSize = BufferPool.getPageSize();
+        c.writePages(pages, pid -> (long) pid.getPageNumber() * pageSize);
+        assertEquals(5L * pageSize, c.size());
+
+        for (Page page : pages) {
+            ByteBuffer dst = ByteBuffer.allocate(pageSize);
+            c.read(dst, (long) page.getId().getPageNumber() * pageSize);
+            assertArrayEquals(page.getPageData(), dst.array());
+        }
+        ByteBuffer gap = ByteBuffer.allocate(pageSize);
+        c.read(gap, 3L * pageSize);
+        assertArrayEquals(new byte[pageSize], gap.array());
+        c.close();
+    }
+
+    /**
+     * Several threads scanning one table share its handle; every thread sees
+     * every tuple.
+     */
+    @Test public void concurrentScans() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        Database.resetBufferPool(4);
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Integer> counts = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    DbFileIterator it = hf.iterator(new TransactionId());
+                    it.open();
+                    int n = 0;
+                    while (it.hasNext()) {
+                        it.next();
+                        n++;
+                    }
+                    it.close();
+                    counts.add(n);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failures.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(Collections.nCopies(threads.length, tuples.size()), counts);
+    }
+
+    /**
+     * Catalog.clear() releases the handles; a file read afterwards reopens its own.
+     */
+    @Test public void clearClosesFiles() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 500, null, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        Database.getCatalog().clear();
+
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Buffers handed back to PageBuffers are reused.
+     */
+    @Test public void pageBuffersReused() {
+        byte[] b = PageBuffers.take();
+        assertEquals(BufferPool.getPageSize(), b.length);
+        PageBuffers.give(b);
+        assertSame(b, PageBuffers.take());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileChannelTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchScan;
+import simpledb.execution.BatchToRows;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.ParallelPlanner;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.ColumnBatch;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PageMorsels;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class ParallelExecutionTest extends SimpleDbTestBase {
+
+    private static final int WORKERS = 4;
+
+    private HeapFile left, right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(3, 20000, 2000, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, 10000, 2000, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private static List<String> drain(OpIterator op, boolean sort) throws Exception {
+        List<String> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                sb.append(t.getField(i)).append('|');
+            }
+            rows.add(sb.toString());
+        }
+        op.close();
+        if (sort) {
+            Collections.sort(rows);
+        }
+        return rows;
+    }
+
+    /** Runs the plan once on the calling thread and once on workers with one-page morsels. */
+    private static void assertSameRows(Supplier<OpIterator> plan, boolean ordered) throws Exception {
+        List<String> expected = drain(plan.get(), !ordered);
+        OpIterator parallel = ParallelPlanner.parallelize(plan.get(), WORKERS, 1);
+        assertEquals(expected, drain(parallel, !ordered));
+    }
+
+    /** Scans that share morsels read every page once between them. */
+    @Test public void morselsCoverTheFile() throws Exception {
+        PageMorsels morsels = new PageMorsels(left.numPages(), 3);
+        List<BatchScan> scans = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            BatchScan scan = new BatchScan(tid, left.getId(), "t", morsels);
+            scan.open();
+            scans.add(scan);
+        }
+        int rows = 0;
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (BatchScan scan : scans) {
+                ColumnBatch batch = scan.nextBatch();
+                if (batch != null) {
+                    rows += batch.selected();
+                    more = true;
+                }
+            }
+        }
+        for (BatchScan scan : scans) {
+            scan.close();
+        }
+        assertEquals(20000, rows);
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        assertSameRows(() -> new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(700)),
+                        new SeqScan(tid, left.getId()))), false);
+        OpIterator parallel = ParallelPlanner.parallelize(new SeqScan(tid, left.getId()), WORKERS);
+        assertTrue(parallel instanceof BatchToRows);
+    }
+
+    /** Partial hash tables built by each worker are merged before the probe. */
+    @Test public void hashJoin() throws Exception {
+        assertSameRows(() -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(1000)),
+                        new SeqScan(tid, left.getId())),
+                new SeqScan(tid, right.getId())), false);
+    }
+
+    /** Partial aggregates of each worker are merged, and the groups dealt out again. */
+    @Test public void aggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX}) {
+            assertSameRows(() -> new Aggregate(new SeqScan(tid, left.getId()), 1, 0, op), false);
+            assertSameRows(() -> new Aggregate(new SeqScan(tid, left.getId()), 2, Aggregator.NO_GROUPING, op), false);
+        }
+        assertSameRows(() -> new Aggregate(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, right.getId()), new SeqScan(tid, left.getId())),
+                1, 3, Aggregator.Op.SUM), false);
+    }
+
+    /** A row operator stays on the calling thread, above its parallel input. */
+    @Test public void rowOperatorOnTop() throws Exception {
+        Supplier<OpIterator> plan = () -> new OrderBy(0, true, new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(300)), new SeqScan(tid, left.getId())));
+        assertSameRows(plan, false);
+        // rows with equal keys may come in another order, but the keys are sorted
+        OpIterator parallel = ParallelPlanner.parallelize(plan.get(), WORKERS, 1);
+        parallel.open();
+        int last = Integer.MIN_VALUE;
+        while (parallel.hasNext()) {
+            int key = ((IntField) parallel.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+        }
+        parallel.close();
+    }
+
+    /** A join with an input that is not a heap file scan stays a row join; its scan still runs on workers. */
+    @Test public void notParallel() throws Exception {
+        int[] data = new int[2 * 500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 37;
+        }
+        assertSameRows(() -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, data), new SeqScan(tid, right.getId())), false);
+    }
+
+    /**
+     * A parallel scan and a writer that each wait for a lock the other holds
+     * are a deadlock the waits-for graph finds: the younger writer aborts,
+     * well before the lock timeout, and the scan reads every row.
+     */
+    @Test public void scanAgainstWriter() throws Exception {
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().getPage(writer, new HeapPageId(left.getId(), 3), Permissions.READ_WRITE);
+        Database.getBufferPool().getPage(tid, new HeapPageId(right.getId(), 0), Permissions.READ_WRITE);
+        AtomicBoolean aborted = new AtomicBoolean();
+        Thread w = new Thread(() -> {
+            try {
+                Database.getBufferPool().getPage(writer, new HeapPageId(right.getId(), 0), Permissions.READ_ONLY);
+            } catch (TransactionAbortedException e) {
+                aborted.set(true);
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+            Database.getBufferPool().transactionComplete(writer, false);
+        });
+        long start = System.nanoTime();
+        w.start();
+        OpIterator scan = ParallelPlanner.parallelize(new SeqScan(tid, left.getId()), WORKERS, 1);
+        assertEquals(20000, drain(scan, false).size());
+        w.join();
+        assertTrue(aborted.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(LockManager.DEFAULT_TIMEOUT_MILLIS / 2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelExecutionTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PredicatePushDownTest extends SimpleDbTestBase {
+
+    private static List<Tuple> drain(Iterator<Tuple> it) {
+        List<Tuple> out = new ArrayList<>();
+        it.forEachRemaining(out::add);
+        return out;
+    }
+
+    private static List<Tuple> filter(Iterator<Tuple> it, Predicate p) {
+        List<Tuple> out = new ArrayList<>();
+        it.forEachRemaining(t -> {
+            if (p.filter(t)) {
+                out.add(t);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * For every operator, the filtered page iterator returns exactly the
+     * tuples that pass the predicate, on any field.
+     */
+    @Test public void pageIteratorMatchesPredicate() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int field = 0; field < 2; field++) {
+                Predicate p = new Predicate(field, op, new IntField(28617));
+                assertEquals(op + " on field " + field,
+                        filter(page.iterator(), p), drain(page.iterator(p)));
+            }
+        }
+    }
+
+    /**
+     * Tuples inserted or deleted since the page was read are seen by the
+     * filtered iterator.
+     */
+    @Test public void seesChangesToThePage() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50000));
+
+        List<Tuple> before = drain(page.iterator(big));
+        page.deleteTuple(before.get(0));
+        Tuple added = Utility.getHeapTuple(new int[]{60000, 1});
+        page.insertTuple(added);
+
+        List<Tuple> after = drain(page.iterator(big));
+        assertEquals(before.size(), after.size());
+        assertFalse(after.contains(before.get(0)));
+        assertTrue(after.contains(added));
+    }
+
+    /**
+     * A Filter over a SeqScan pushes its predicate into the scan and still
+     * returns the same tuples.
+     */
+    @Test public void filterOverSeqScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 10) {
+                expected.add(t);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        Filter f = new Filter(p, new SeqScan(tid, hf.getId(), "t"));
+        SystemTestUtil.matchTuples(f, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicatePushDownTest.class);
+    }
+}
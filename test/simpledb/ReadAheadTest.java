@@ -0,0 +1,170 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** A HeapFile that counts which threads read its pages. */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger readAheadReads = new AtomicInteger();
+
+        CountingHeapFile(File f) {
+            super(f, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            if (Thread.currentThread().getName().startsWith("read-ahead")) {
+                readAheadReads.incrementAndGet();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** A BTreeFile that counts its page reads. */
+    private static class CountingBTreeFile extends BTreeFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingBTreeFile(File f, int keyField) {
+            super(f, keyField, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile createTable(int rows, List<List<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1 << 16, null, tuples);
+        CountingHeapFile hf = new CountingHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    @After public void restore() {
+        ReadAhead.setEnabled(true);
+    }
+
+    /**
+     * A sequential scan is served partly by pages read ahead in the background,
+     * and still returns every tuple exactly once.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile hf = createTable(10000, tuples);
+        Database.resetBufferPool(16);
+        // consume slowly, so the read-ahead thread gets to run even on a single cpu
+        List<List<Integer>> scanned = new ArrayList<>();
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            scanned.add(SystemTestUtil.tupleToList(it.next()));
+            if (scanned.size() % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        it.close();
+        assertEquals(tuples.size(), scanned.size());
+        assertTrue(scanned.containsAll(tuples));
+        assertTrue("no page was read ahead", hf.readAheadReads.get() > 0);
+        assertEquals("a page was read twice", hf.numPages(), hf.reads.get());
+    }
+
+    /**
+     * With read-ahead disabled every page is read by the scanning thread.
+     */
+    @Test public void disabled() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile hf = createTable(5000, tuples);
+        Database.resetBufferPool(16);
+        ReadAhead.setEnabled(false);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(0, hf.readAheadReads.get());
+        assertEquals(hf.numPages(), hf.reads.get());
+    }
+
+    /**
+     * Closing the iterator stops read-ahead well before the end of the table.
+     */
+    @Test public void cancelledOnClose() throws Exception {
+        CountingHeapFile hf = createTable(20000, null);
+        Database.resetBufferPool(16);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < 1000 && it.hasNext(); i++) {
+            it.next();
+        }
+        it.close();
+        Thread.sleep(200);
+        int reads = hf.reads.get();
+        Thread.sleep(200);
+        assertEquals(reads, hf.reads.get());
+        assertTrue(reads < hf.numPages());
+    }
+
+    /**
+     * A B+ tree search with an upper bound does not read ahead past the leaf
+     * where it ends: it reads the same pages as without read-ahead.
+     */
+    @Test public void searchStopsAtBound() throws Exception {
+        BTreeFile f = BTreeUtility.createBTreeFile(2, 30 * 502, null, null, 0);
+        CountingBTreeFile bf = new CountingBTreeFile(f.getFile(), 0);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        IndexPredicate below = new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(10 * 502 + 7));
+        int[] reads = new int[2], rows = new int[2];
+        for (int pass = 0; pass < 2; pass++) {
+            ReadAhead.setEnabled(pass == 1);
+            Database.resetBufferPool(64);
+            bf.reads.set(0);
+            DbFileIterator it = bf.indexIterator(new TransactionId(), below);
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                it.next();
+                // consume slowly, so the read-ahead thread gets to run even on a single cpu
+                if (++n % 50 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            Thread.sleep(100);
+            it.close();
+            rows[pass] = n;
+            reads[pass] = bf.reads.get();
+        }
+        assertTrue(rows[0] > 10 * 502);
+        assertEquals(rows[0], rows[1]);
+        assertEquals("pages read past the bound", reads[0], reads[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.SegmentedPageCache;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SegmentedPageCacheTest extends SimpleDbTestBase {
+
+    private SegmentedPageCache<Integer, String> cache;
+
+    @Before public void createCache() {
+        cache = new SegmentedPageCache<>(10);
+    }
+
+    /** Evicts until the cache is back within capacity, like BufferPool does. */
+    private void admit(int key) {
+        while (cache.size() >= cache.capacity()) {
+            assertNotNull(cache.evict(v -> true));
+        }
+        cache.putIfAbsent(key, "v" + key);
+    }
+
+    /**
+     * Unit test for SegmentedPageCache.get() and putIfAbsent()
+     */
+    @Test public void getAndPut() {
+        assertNull(cache.get(1));
+        assertNull(cache.putIfAbsent(1, "a"));
+        assertEquals("a", cache.putIfAbsent(1, "b"));
+        assertEquals("a", cache.get(1));
+        assertEquals("a", cache.put(1, "c"));
+        assertEquals("c", cache.get(1));
+        assertEquals(1, cache.size());
+        assertEquals("c", cache.remove(1));
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Unit test for SegmentedPageCache.evict() honouring the predicate
+     */
+    @Test public void evictRespectsPredicate() {
+        for (int i = 0; i < 5; i++) {
+            cache.putIfAbsent(i, "v" + i);
+        }
+        assertNull(cache.evict(v -> false));
+        assertEquals(5, cache.size());
+        assertEquals("v3", cache.evict(v -> v.equals("v3")));
+        assertFalse(cache.containsKey(3));
+        assertEquals(4, cache.size());
+    }
+
+    /**
+     * Pages touched once (a sequential scan) must not push out pages that
+     * were re-referenced.
+     */
+    @Test public void scanResistant() {
+        for (int i = 0; i < 4; i++) {
+            admit(i);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertNotNull(cache.get(i));
+            }
+        }
+        for (int i = 100; i < 1000; i++) {
+            admit(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue("hot key " + i + " was evicted by the scan", cache.containsKey(i));
+        }
+        assertEquals(10, cache.size());
+    }
+
+    /**
+     * Concurrent readers and writers must keep the size accounting exact.
+     */
+    @Test public void concurrentAccess() throws Exception {
+        final SegmentedPageCache<Integer, Integer> c = new SegmentedPageCache<>(256);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                java.util.Random r = new java.util.Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    int k = r.nextInt(512);
+                    Integer v = c.get(k);
+                    if (v == null) {
+                        c.putIfAbsent(k, k);
+                        if (c.size() > 256) {
+                            c.evict(x -> true);
+                        }
+                    } else if (v != k) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(c.keySet().size(), c.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedPageCacheTest.class);
+    }
+}
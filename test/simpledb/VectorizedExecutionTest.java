@@ -0,0 +1,139 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchPlanner;
+import simpledb.execution.BatchToRows;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class VectorizedExecutionTest extends SimpleDbTestBase {
+
+    private HeapFile left, right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(3, 5000, 500, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private static String row(Tuple t) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            sb.append(t.getField(i)).append('|');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> drain(OpIterator op, boolean sort) throws Exception {
+        List<String> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            rows.add(row(op.next()));
+        }
+        op.close();
+        if (sort) {
+            Collections.sort(rows);
+        }
+        return rows;
+    }
+
+    /** Runs the plan once with row operators and once vectorized, and expects the same rows. */
+    private static void assertSameRows(Supplier<OpIterator> plan, boolean ordered) throws Exception {
+        List<String> expected = drain(plan.get(), !ordered);
+        OpIterator vectorized = BatchPlanner.vectorize(plan.get());
+        assertEquals(expected, drain(vectorized, !ordered));
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            assertSameRows(() -> new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                    new Filter(new Predicate(1, op, new IntField(250)),
+                            new SeqScan(tid, left.getId()))), false);
+        }
+        OpIterator vectorized = BatchPlanner.vectorize(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(100)), new SeqScan(tid, left.getId())));
+        assertTrue(vectorized instanceof BatchToRows);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        assertSameRows(() -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)),
+                        new SeqScan(tid, left.getId())),
+                new SeqScan(tid, right.getId())), false);
+    }
+
+    @Test public void aggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX}) {
+            assertSameRows(() -> new Aggregate(new SeqScan(tid, left.getId()), 1, 0, op), false);
+            assertSameRows(() -> new Aggregate(new SeqScan(tid, left.getId()), 2, Aggregator.NO_GROUPING, op), false);
+        }
+    }
+
+    /** A row operator with no batch version stays on top, and keeps its order. */
+    @Test public void rowOperatorOnTop() throws Exception {
+        assertSameRows(() -> new OrderBy(0, true, new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, right.getId()), new SeqScan(tid, left.getId()))), true);
+    }
+
+    /** String columns are filtered, joined and grouped on as well, through the row-to-batch adapter. */
+    @Test public void stringColumns() throws Exception {
+        Object[] names = new Object[2 * 2000];
+        for (int i = 0; i < 2000; i++) {
+            names[2 * i] = "name" + (i % 300);
+            names[2 * i + 1] = i;
+        }
+        assertSameRows(() -> new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("name2", 128)),
+                TestUtil.createTupleList(2, names)), false);
+        assertSameRows(() -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, names), TestUtil.createTupleList(2, names)), false);
+        assertSameRows(() -> new Aggregate(TestUtil.createTupleList(2, names), 1, 0, Aggregator.Op.SUM), false);
+        assertSameRows(() -> new Aggregate(TestUtil.createTupleList(2, names), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT), false);
+    }
+
+    /** Rows written since a page was read come from the page's tuples, not its bytes. */
+    @Test public void dirtyPage() throws Exception {
+        Tuple t = new Tuple(right.getTupleDesc());
+        t.setField(0, new IntField(-7));
+        t.setField(1, new IntField(-8));
+        Database.getBufferPool().insertTuple(tid, right.getId(), t);
+        List<String> rows = drain(BatchPlanner.vectorize(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(0)), new SeqScan(tid, right.getId()))), false);
+        assertEquals(Collections.singletonList(row(t)), rows);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VectorizedExecutionTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads insert into and look up keys in one B+ tree at the same time:
+ * inserters run transactions of a few inserts of random keys, readers
+ * transactions of a few equality lookups. Runs once with every operation
+ * locking the internal pages on its path, and once with optimistic descents
+ * that latch them instead. Reports inserts and lookups per second, and aborts.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.BTreeConcurrencyBenchmark [inserters] [readers] [seconds]
+ */
+public class BTreeConcurrencyBenchmark {
+
+    static final int ROWS = 100000;
+    static final int OPS_PER_TRANSACTION = 4;
+
+    static void run(String label, boolean optimistic, int inserters, int readers, double seconds) throws Exception {
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 10);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ROWS, null, null, 0);
+        bf.setOptimisticDescent(optimistic);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong inserts = new AtomicLong();
+        AtomicLong lookups = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < inserters + readers; t++) {
+            final boolean inserter = t < inserters;
+            final Random r = new Random(t);
+            workers.add(new Thread(() -> {
+                BufferPool pool = Database.getBufferPool();
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < OPS_PER_TRANSACTION; i++) {
+                            int key = r.nextInt(BTreeUtility.MAX_RAND_VALUE);
+                            if (inserter) {
+                                pool.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[]{key, key}));
+                            } else {
+                                DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+                                it.open();
+                                while (it.hasNext()) {
+                                    it.next();
+                                }
+                                it.close();
+                            }
+                        }
+                        pool.transactionComplete(tid);
+                        (inserter ? inserts : lookups).addAndGet(OPS_PER_TRANSACTION);
+                    } catch (TransactionAbortedException e) {
+                        pool.transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread th : workers) {
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : workers) {
+            th.join();
+        }
+        double s = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-12s %10.0f %10.0f %10.1f%n", label, inserts.get() / s, lookups.get() / s, aborts.get() / s);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int inserters = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        System.out.printf("%d rows, %d inserters, %d readers, %d operations per transaction, %.0f s, %d CPUs%n",
+                ROWS, inserters, readers, OPS_PER_TRANSACTION, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %10s %10s %10s%n", "descent", "inserts/s", "lookups/s", "aborts/s");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            run("locking", false, inserters, readers, seconds);
+            run("optimistic", true, inserters, readers, seconds);
+        }
+    }
+}
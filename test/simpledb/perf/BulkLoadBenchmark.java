@@ -0,0 +1,78 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.HeapFileEncoder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Loads the same comma-separated file of random integers into a heap file
+ * and into a B+ tree, once with the encoders (HeapFileEncoder.convert, and
+ * the sort-in-memory BTreeFileEncoder.convert) and once with BulkLoader and
+ * BTreeBulkLoader. Reports time, tuples per second and input MB per second.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.BulkLoadBenchmark [rows] [columns] [threads]
+ */
+public class BulkLoadBenchmark {
+
+    interface Load {
+        void run(File in, File out) throws Exception;
+    }
+
+    static void measure(String label, File in, int rows, Load load) throws Exception {
+        File out = File.createTempFile("bulkout", ".dat");
+        out.deleteOnExit();
+        File heap = new File(out.getPath() + ".heap");
+        heap.deleteOnExit();
+        load.run(in, out); // warm up
+        System.gc();
+        long start = System.nanoTime();
+        load.run(in, out);
+        double s = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-22s %9.2f %12.0f %10.1f%n", label, s, rows / s, in.length() / 1e6 / s);
+        Database.reset();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        File in = File.createTempFile("bulkin", ".txt");
+        in.deleteOnExit();
+        Random r = new Random(1);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in))) {
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    if (j > 0) {
+                        w.write(',');
+                    }
+                    w.write(Integer.toString(r.nextInt()));
+                }
+                w.write('\n');
+            }
+        }
+        Type[] types = new Type[columns];
+        Arrays.fill(types, Type.INT_TYPE);
+        int pageSize = BufferPool.getPageSize();
+
+        System.out.printf("%d rows x %d int columns, %.1f MB of text, %d parser threads%n",
+                rows, columns, in.length() / 1e6, threads);
+        System.out.printf("%-22s %9s %12s %10s%n", "loader", "seconds", "tuples/s", "MB/s");
+        measure("HeapFileEncoder", in, rows, (i, o) -> HeapFileEncoder.convert(i, o, pageSize, columns));
+        measure("BulkLoader heap", in, rows,
+                (i, o) -> new BulkLoader(types).threads(threads).loadHeapFile(i, o));
+        measure("BTreeFileEncoder", in, rows, (i, o) -> BTreeFileEncoder.convert(i,
+                new File(o.getPath() + ".heap"), o, pageSize, columns, types, ',', 0));
+        measure("BTreeBulkLoader", in, rows,
+                (i, o) -> new BTreeBulkLoader(new BulkLoader(types).threads(threads), 0).load(i, o));
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reader threads each run a short query (a few pages of one table,
+ * read-locked) every millisecond, while writer threads run transactions that
+ * each change a tuple on many pages of another table and commit. Once with
+ * no checkpoints, and once with a checkpoint every so often. Reports query
+ * latency percentiles, writer commits per second, and how long the
+ * checkpoints took.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.CheckpointBenchmark [seconds] [checkpoint every ms]
+ */
+public class CheckpointBenchmark {
+
+    static final int READERS = 2;
+    static final int WRITERS = 2;
+    static final int PAGES = 400;
+    static final int PAGES_PER_QUERY = 4;
+    static final int PAGES_PER_WRITE = 40;
+    static final long QUERY_INTERVAL_NANOS = 1_000_000;
+
+    static void run(String label, HeapFile queried, HeapFile written, long checkpointMillis, double seconds)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(4 * PAGES);
+        LogFile log = Database.getLogFile();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong();
+        List<long[]> latencies = new ArrayList<>();
+        int[] counts = new int[READERS];
+        List<Long> checkpoints = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < READERS; t++) {
+            final int me = t;
+            final long[] lat = new long[1 << 22];
+            latencies.add(lat);
+            final Random r = new Random(t);
+            threads.add(new Thread(() -> {
+                // queries are due at a fixed rate, and latency counts from when a query was
+                // due, so a stall delays every query due during it, not just one
+                long due = System.nanoTime();
+                while (!stop.get() && counts[me] < lat.length) {
+                    due += QUERY_INTERVAL_NANOS;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int p = 0; p < PAGES_PER_QUERY; p++) {
+                            bp.getPage(tid, new HeapPageId(queried.getId(), r.nextInt(PAGES)), Permissions.READ_ONLY);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    bp.transactionComplete(tid);
+                    lat[counts[me]++] = System.nanoTime() - due;
+                }
+            }));
+        }
+        for (int t = 0; t < WRITERS; t++) {
+            final int first = t * (PAGES / WRITERS);   // own pages: writers do not deadlock
+            final Random r = new Random(100 + t);
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    Transaction tx = new Transaction();
+                    try {
+                        tx.start();
+                        for (int p = 0; p < PAGES_PER_WRITE; p++) {
+                            HeapPageId pid = new HeapPageId(written.getId(), first + r.nextInt(PAGES / WRITERS));
+                            HeapPage page = (HeapPage) bp.getPage(tx.getId(), pid, Permissions.READ_WRITE);
+                            Iterator<Tuple> it = page.iterator();
+                            page.deleteTuple(it.next());
+                            page.insertTuple(Utility.getHeapTuple(new int[]{r.nextInt(), r.nextInt()}));
+                            page.markDirty(true, tx.getId());
+                        }
+                        tx.commit();
+                        commits.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        try {
+                            tx.abort();
+                        } catch (Exception e2) {
+                            throw new RuntimeException(e2);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        if (checkpointMillis > 0) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try {
+                        Thread.sleep(checkpointMillis);
+                        long start = System.nanoTime();
+                        log.logCheckpoint();
+                        checkpoints.add(System.nanoTime() - start);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread th : threads) {
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : threads) {
+            th.join();
+        }
+
+        int n = 0;
+        for (int c : counts) {
+            n += c;
+        }
+        long[] all = new long[n];
+        int at = 0;
+        for (int t = 0; t < READERS; t++) {
+            System.arraycopy(latencies.get(t), 0, all, at, counts[t]);
+            at += counts[t];
+        }
+        Arrays.sort(all);
+        double cp = 0;
+        for (long c : checkpoints) {
+            cp += c;
+        }
+        System.out.printf("%-16s %9.0f %8.3f %8.3f %8.1f %10.0f %5d %8.1f%n", label, n / seconds,
+                all[n / 2] / 1e6, all[(int) (n * 0.99)] / 1e6, all[n - 1] / 1e6, commits.get() / seconds,
+                checkpoints.size(), checkpoints.isEmpty() ? 0 : cp / checkpoints.size() / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+        long every = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        HeapFile queried = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage, 1 << 20, null, null);
+        HeapFile written = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage, 1 << 20, null, null);
+        System.out.printf("%d readers of %d pages, %d writers of %d pages per transaction, %.0f s, %d CPUs%n",
+                READERS, PAGES_PER_QUERY, WRITERS, PAGES_PER_WRITE, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %9s %8s %8s %8s %10s %5s %8s%n", "checkpoints", "queries/s", "p50 ms", "p99 ms",
+                "max ms", "commits/s", "cps", "cp ms");
+        run("warm-up", queried, written, 0, seconds / 2);
+        run("none", queried, written, 0, seconds);
+        run("every " + every + " ms", queried, written, every, seconds);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.perf;
+
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transactions lock a few random pages of a small table in random order, half
+ * of them exclusively, so they deadlock often. Runs once with LockManager's
+ * deadlock detector and once with only the lock timeout breaking deadlocks.
+ * Reports commits and aborts per second, how long an aborted transaction
+ * waited in its last lock request, and the wasted work: the share of all
+ * work units that were done by transactions that then aborted.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.DeadlockBenchmark [threads] [pages] [seconds] [timeout ms]
+ */
+public class DeadlockBenchmark {
+
+    static final int LOCKS_PER_TRANSACTION = 4;
+    static final int WORK_PER_LOCK = 2000;
+
+    static long work(int iterations) {
+        long x = 0;
+        for (int i = 0; i < iterations; i++) {
+            x += i * 31L;
+        }
+        return x;
+    }
+
+    static void run(String label, LockManager locks, int threads, int pages, double seconds) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong(), aborts = new AtomicLong();
+        AtomicLong usefulWork = new AtomicLong(), wastedWork = new AtomicLong(), abortWaitNanos = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random r = new Random(t);
+            Thread th = new Thread(() -> {
+                long sink = 0;
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    long done = 0;
+                    long blockedAt = 0;
+                    try {
+                        for (int i = 0; i < LOCKS_PER_TRANSACTION; i++) {
+                            HeapPageId pid = new HeapPageId(1, r.nextInt(pages));
+                            LockMode mode = r.nextBoolean() ? LockMode.EXCLUSIVE : LockMode.SHARED;
+                            blockedAt = System.nanoTime();
+                            locks.acquire(tid, pid, mode);
+                            sink += work(WORK_PER_LOCK);
+                            done++;
+                        }
+                        commits.incrementAndGet();
+                        usefulWork.addAndGet(done);
+                    } catch (TransactionAbortedException e) {
+                        abortWaitNanos.addAndGet(System.nanoTime() - blockedAt);
+                        aborts.incrementAndGet();
+                        wastedWork.addAndGet(done);
+                    } finally {
+                        locks.releaseAll(tid);
+                    }
+                }
+                if (sink == 42) {
+                    System.out.print("");
+                }
+            });
+            workers.add(th);
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : workers) {
+            th.join();
+        }
+        long a = aborts.get();
+        long total = usefulWork.get() + wastedWork.get();
+        System.out.printf("%-10s %10.0f %10.1f %14.3f %9.1f%%%n", label, commits.get() / seconds, a / seconds,
+                a == 0 ? 0 : abortWaitNanos.get() / 1e6 / a, total == 0 ? 0 : 100.0 * wastedWork.get() / total);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        long timeout = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+        System.out.printf("%d threads, %d pages, %d locks per transaction, %.0f s, %d ms timeout, %d CPUs%n",
+                threads, pages, LOCKS_PER_TRANSACTION, seconds, timeout, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %10s %10s %14s %10s%n", "aborts by", "commits/s", "aborts/s", "abort wait ms", "wasted");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            LockManager timeoutOnly = new LockManager();
+            timeoutOnly.setDeadlockDetection(false);
+            timeoutOnly.setTimeout(timeout);
+            run("timeout", timeoutOnly, threads, pages, seconds);
+            LockManager detector = new LockManager();
+            detector.setTimeout(timeout);
+            run("detector", detector, threads, pages, seconds);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.perf;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sorts generated rows of four int columns on two of them, with inputs 1, 10
+ * and 100 times OrderBy's memory budget. Each input is sorted the way OrderBy
+ * used to, by loading every Tuple into a list and sorting it with a Field
+ * comparator, then by the external sort, then with a limit of 100 rows.
+ * Reports the time to drain each, and the runs the external sort wrote; the
+ * list sort reports OOM where the rows do not fit in the heap.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.ExternalSortBenchmark [budget]
+ */
+public class ExternalSortBenchmark {
+
+    static final int COLUMNS = 4;
+
+    /** Random rows, made as they are read, so that the input takes no memory. */
+    static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE,
+                Type.INT_TYPE, Type.INT_TYPE});
+        private final long rows;
+        private Random random;
+        private long made;
+
+        Rows(long rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+            super.open();
+        }
+
+        @Override
+        public void rewind() {
+            random = new Random(42);
+            made = 0;
+        }
+
+        @Override
+        protected Tuple fetchNext() {
+            if (made++ == rows) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(random.nextInt(1000)));
+            for (int c = 1; c < COLUMNS; c++) {
+                t.setField(c, new IntField(random.nextInt()));
+            }
+            return t;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    static int value(Tuple t, int f) {
+        return ((IntField) t.getField(f)).getValue();
+    }
+
+    /** @return the milliseconds to load the rows into a list, sort them and read them back */
+    static double listSort(long rows) throws Exception {
+        long start = System.nanoTime();
+        OpIterator in = new Rows(rows);
+        List<Tuple> tuples = new ArrayList<>();
+        in.open();
+        while (in.hasNext()) {
+            tuples.add(in.next());
+        }
+        in.close();
+        tuples.sort(Comparator.<Tuple>comparingInt(t -> value(t, 0))
+                .thenComparing(Comparator.<Tuple>comparingInt(t -> value(t, 1)).reversed()));
+        long n = 0;
+        for (Tuple ignored : tuples) {
+            n++;
+        }
+        if (n != rows) {
+            throw new IllegalStateException(n + " rows sorted, expected " + rows);
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** @return the milliseconds to sort and drain the rows; runs[0] gets the runs written */
+    static double externalSort(long rows, int budget, long limit, int[] runs) throws Exception {
+        long start = System.nanoTime();
+        OrderBy sort = new OrderBy(new int[]{0, 1}, new boolean[]{true, false}, new Rows(rows));
+        sort.setMemoryBudget(budget);
+        sort.setLimit(limit);
+        sort.open();
+        long n = 0;
+        Tuple last = null;
+        while (sort.hasNext()) {
+            Tuple t = sort.next();
+            if (last != null && (value(t, 0) < value(last, 0)
+                    || value(t, 0) == value(last, 0) && value(t, 1) > value(last, 1))) {
+                throw new IllegalStateException("rows out of order at row " + n);
+            }
+            last = t;
+            n++;
+        }
+        runs[0] = sort.numRuns();
+        sort.close();
+        if (n != Math.min(rows, limit)) {
+            throw new IllegalStateException(n + " rows sorted, expected " + Math.min(rows, limit));
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int budget = args.length > 0 ? Integer.parseInt(args[0]) : OrderBy.DEFAULT_BUDGET;
+        int[] runs = new int[1];
+        externalSort(budget, budget, Long.MAX_VALUE, runs); // warm up
+        listSort(budget);
+        System.out.printf("%-6s %10s %10s %12s %6s %12s%n", "input", "rows", "list ms", "external ms", "runs",
+                "top-100 ms");
+        for (int times : new int[]{1, 10, 100}) {
+            long rows = (long) times * budget;
+            String list;
+            try {
+                list = String.format("%.0f", listSort(rows));
+            } catch (OutOfMemoryError e) {
+                list = "OOM";
+            }
+            double external = externalSort(rows, budget, Long.MAX_VALUE, runs);
+            int spilled = runs[0];
+            double top = externalSort(rows, budget, 100, runs);
+            System.out.printf("%-6s %10d %10s %12.0f %6d %12.0f%n", times + "x", rows, list, external, spilled, top);
+        }
+    }
+}
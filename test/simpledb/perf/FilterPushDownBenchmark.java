@@ -0,0 +1,102 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs a selective filter (1% of rows) over a wide table whose pages are all
+ * cached, once by decoding every row and testing the predicate on the Tuple,
+ * and once with the predicate pushed into the page, where it is tested on the
+ * serialized field. Reports scan time and bytes allocated per scan.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.FilterPushDownBenchmark [rows] [columns] [passes]
+ */
+public class FilterPushDownBenchmark {
+
+    static File buildTable(int rows, int columns) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(columns);
+            t.add(r.nextInt(100));
+            for (int j = 1; j < columns; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("pushdown", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        return f;
+    }
+
+    /** Bytes allocated by this thread, or -1 if the JVM does not report it. */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static long scan(HeapFile hf, Predicate p, boolean pushDown) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pushDown ? hf.iterator(tid, p) : hf.iterator(tid);
+        it.open();
+        long matches = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (p.filter(t)) {
+                matches++;
+            }
+        }
+        it.close();
+        return matches;
+    }
+
+    static void run(String label, HeapFile hf, Predicate p, boolean pushDown, int passes) throws Exception {
+        long matches = scan(hf, p, pushDown); // warm up
+        for (int i = 0; i < 3; i++) {
+            scan(hf, p, pushDown);
+        }
+        long alloc = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            scan(hf, p, pushDown);
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / passes;
+        long allocPerPass = (allocatedBytes() - alloc) / passes;
+        System.out.printf("%-10s %10.2f %16d %10d%n", label, ms, allocPerPass, matches);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        File data = buildTable(rows, columns);
+        int pages = (int) (data.length() / BufferPool.getPageSize());
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(columns, data);
+        Database.resetBufferPool(pages + 1);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1));
+        System.out.printf("%d rows x %d int columns, %d pages (all cached), %d passes%n",
+                rows, columns, pages, passes);
+        System.out.printf("%-10s %10s %16s %10s%n", "mode", "ms/scan", "bytes alloc/scan", "matches");
+        run("decode", hf, p, false, passes);
+        run("pushdown", hf, p, true, passes);
+    }
+}
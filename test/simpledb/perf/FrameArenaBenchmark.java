@@ -0,0 +1,114 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Tuple;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scans a table much larger than the buffer pool, once with pages decoded
+ * onto the heap and once with pages read into a {@link FrameArena}, and
+ * reports scan time, bytes allocated, and GC activity for each mode.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.FrameArenaBenchmark [rows] [poolPages] [passes]
+ */
+public class FrameArenaBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    static File buildTable(int rows) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("arena", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        return f;
+    }
+
+    static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    /** Bytes allocated by this thread, or -1 if the JVM does not report it. */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static long scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += t.getField(0).hashCode();
+        }
+        it.close();
+        return sum;
+    }
+
+    static void run(String label, File data, int poolPages, boolean offHeap, int passes) throws Exception {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(COLUMNS, data);
+        Database.resetBufferPool(poolPages, offHeap);
+        scan(hf); // warm up
+
+        System.gc();
+        long gcs = gcCount(), gcTime = gcMillis(), alloc = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            scan(hf);
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / passes;
+        long allocPerPass = (allocatedBytes() - alloc) / passes;
+        System.out.printf("%-10s %10.1f %16d %8d %10d%n", label, ms, allocPerPass,
+                gcCount() - gcs, gcMillis() - gcTime);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : BufferPool.DEFAULT_PAGES;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        File data = buildTable(rows);
+        System.out.printf("%d rows, %d pages, pool of %d pages, %d passes%n",
+                rows, data.length() / BufferPool.getPageSize(), poolPages, passes);
+        System.out.printf("%-10s %10s %16s %8s %10s%n", "mode", "ms/scan", "bytes alloc/scan", "GCs", "GC ms");
+        run("heap", data, poolPages, false, passes);
+        run("off-heap", data, poolPages, true, passes);
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.perf;
+
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads write BEGIN and COMMIT records to a log as fast as they can, with
+ * a force per commit (the old logCommit) and with group commit, with and
+ * without holding groups open. Reports commits per second and commits per
+ * force for 1, 8, 64 and 256 concurrent committers.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.GroupCommitBenchmark [seconds] [delay us]
+ */
+public class GroupCommitBenchmark {
+
+    static void run(String label, long delayMicros, int batch, int committers, double seconds) throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        log.setGroupCommit(delayMicros, batch);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < committers; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                        commits.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread th : threads) {
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : threads) {
+            th.join();
+        }
+        long forces = batch == 1 ? commits.get() : log.getGroupCommitForces();
+        System.out.printf("%-16s %10d %12.0f %16.1f%n", label, committers, commits.get() / seconds,
+                forces == 0 ? 0 : (double) commits.get() / forces);
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        System.out.printf("%.0f s per run, %d CPUs%n", seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %10s %12s %16s%n", "commit", "committers", "commits/s", "commits/force");
+        run("warm-up", 0, LogFile.DEFAULT_GROUP_COMMIT_SIZE, 8, seconds);
+        for (int committers : new int[]{1, 8, 64, 256}) {
+            run("force each", 0, 1, committers, seconds);
+            run("group", 0, LogFile.DEFAULT_GROUP_COMMIT_SIZE, committers, seconds);
+            run("group +" + delay + "us", delay, LogFile.DEFAULT_GROUP_COMMIT_SIZE, committers, seconds);
+        }
+    }
+}
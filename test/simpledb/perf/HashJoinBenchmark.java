@@ -0,0 +1,85 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Joins two heap tables on an int key with a build (left) side that is a
+ * multiple of the join's memory budget, once as a block nested-loop join
+ * that loads the build side a budget at a time and rescans the probe side
+ * for each chunk, and once as a hybrid hash join that spills partitions
+ * instead. Reports join time and the number of result rows.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.HashJoinBenchmark [budget] [build/budget] [probe rows]
+ */
+public class HashJoinBenchmark {
+
+    static final int COLUMNS = 4;
+
+    static File buildTable(int rows, int keys, long seed) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        Random r = new Random(seed);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(COLUMNS);
+            t.add(r.nextInt(keys));
+            for (int j = 1; j < COLUMNS; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("join", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        return f;
+    }
+
+    static void run(String label, HeapFile build, HeapFile probe, int budget, int maxDepth) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()));
+        join.setMemoryBudget(budget);
+        join.setMaxDepth(maxDepth);
+        long start = System.nanoTime();
+        join.open();
+        long rows = 0;
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        double ms = (System.nanoTime() - start) / 1e6;
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("%-12s %10.0f %10d%n", label, ms, rows);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int budget = args.length > 0 ? Integer.parseInt(args[0]) : HashEquiJoin.MAP_SIZE;
+        int factor = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int probeRows = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        int buildRows = budget * factor;
+        Database.reset();
+        HeapFile build = Utility.openHeapFile(COLUMNS, buildTable(buildRows, buildRows, 1));
+        HeapFile probe = Utility.openHeapFile(COLUMNS, buildTable(probeRows, buildRows, 2));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.out.printf("build %d rows (%d x budget of %d), probe %d rows, %d int columns%n",
+                buildRows, factor, budget, probeRows, COLUMNS);
+        System.out.printf("%-12s %10s %10s%n", "join", "ms", "rows");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            run("rescan", build, probe, budget, 0);
+            run("hybrid", build, probe, budget, HashEquiJoin.DEFAULT_MAX_DEPTH);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.perf;
+
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionId;
+
+/**
+ * One transaction locks every page of a large table, as a sequential scan or
+ * a bulk delete does, and then commits. Runs with escalation turned off and
+ * at the default threshold, and reports the time per page and the mode the
+ * table ends up locked in.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.LockEscalationBenchmark [pages] [rounds]
+ */
+public class LockEscalationBenchmark {
+
+    static void run(String label, int threshold, LockMode mode, int pages, int rounds) throws Exception {
+        LockManager lm = new LockManager();
+        lm.setEscalationThreshold(threshold);
+        LockMode table = null;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            TransactionId tid = new TransactionId();
+            for (int p = 0; p < pages; p++) {
+                lm.acquire(tid, new HeapPageId(1, p), mode);
+            }
+            table = lm.getTableLockMode(tid, 1);
+            lm.releaseAll(tid);
+        }
+        double ns = (double) (System.nanoTime() - start) / rounds / pages;
+        System.out.printf("%-12s %-10s %10.1f  %s%n", label, mode, ns, table);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.out.printf("%d pages, %d rounds%n", pages, rounds);
+        System.out.printf("%-12s %-10s %10s  %s%n", "escalation", "page mode", "ns/page", "table mode");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            for (LockMode mode : new LockMode[]{LockMode.SHARED, LockMode.EXCLUSIVE}) {
+                run("off", 0, mode, pages, rounds);
+                run("" + LockManager.DEFAULT_ESCALATION_THRESHOLD, LockManager.DEFAULT_ESCALATION_THRESHOLD, mode, pages, rounds);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.perf;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many reader transactions and some writer transactions lock random pages
+ * and commit, the access pattern of LockingTest and TransactionTest scaled up,
+ * once with LockManager and once with a single global monitor that every
+ * request and release goes through, waking all waiters on each release (the
+ * naive way to make getPage safe). Reports committed transactions per second.
+ * <p>
+ * Readers share-lock a few pages; writers share-lock a page, then upgrade it
+ * and exclusive-lock one more, like a read-modify-write. Pages are locked in
+ * page order, so the only deadlocks are two writers upgrading the same page;
+ * LockManager's deadlock detector aborts one at once, the global monitor lets
+ * it time out.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.LockManagerBenchmark [threads] [pages] [seconds]
+ */
+public class LockManagerBenchmark {
+
+    interface Locks {
+        void acquire(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException;
+
+        void releaseAll(TransactionId tid);
+    }
+
+    /** One monitor for the whole table; every release wakes every waiter. */
+    static class GlobalLocks implements Locks {
+        private static final long TIMEOUT_MILLIS = 1000;
+
+        private final Map<PageId, Map<TransactionId, LockMode>> holders = new HashMap<>();
+        private final Map<TransactionId, List<PageId>> held = new HashMap<>();
+
+        private boolean grantable(Map<TransactionId, LockMode> h, TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> e : h.entrySet()) {
+                if (!e.getKey().equals(tid) && !e.getValue().compatible(mode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public synchronized void acquire(TransactionId tid, PageId pid, LockMode mode)
+                throws TransactionAbortedException {
+            Map<TransactionId, LockMode> h = holders.computeIfAbsent(pid, k -> new HashMap<>());
+            LockMode current = h.get(tid);
+            if (current != null && current.covers(mode)) {
+                return;
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!grantable(h, tid, mode)) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    throw new TransactionAbortedException();
+                }
+            }
+            h.put(tid, mode);
+            held.computeIfAbsent(tid, k -> new ArrayList<>()).add(pid);
+        }
+
+        public synchronized void releaseAll(TransactionId tid) {
+            List<PageId> pids = held.remove(tid);
+            if (pids != null) {
+                for (PageId pid : pids) {
+                    holders.get(pid).remove(tid);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    static void work(int iterations) {
+        long x = 0;
+        for (int i = 0; i < iterations; i++) {
+            x += i * 31L;
+        }
+        if (x == 42) {
+            System.out.print("");
+        }
+    }
+
+    static void run(String label, Locks locks, int threads, int pages, double seconds) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong(), aborts = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final boolean writer = t % 4 == 0;
+            final Random r = new Random(t);
+            Thread th = new Thread(() -> {
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        if (writer) {
+                            int a = r.nextInt(pages), b = r.nextInt(pages);
+                            PageId first = new HeapPageId(1, Math.min(a, b)), second = new HeapPageId(1, Math.max(a, b));
+                            locks.acquire(tid, first, LockMode.SHARED);
+                            work(200);
+                            locks.acquire(tid, first, LockMode.EXCLUSIVE);
+                            locks.acquire(tid, second, LockMode.EXCLUSIVE);
+                            work(200);
+                        } else {
+                            int start = r.nextInt(pages - 8);
+                            for (int i = 0; i < 8; i++) {
+                                locks.acquire(tid, new HeapPageId(1, start + i), LockMode.SHARED);
+                                work(100);
+                            }
+                        }
+                        commits.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        aborts.incrementAndGet();
+                    } finally {
+                        locks.releaseAll(tid);
+                    }
+                }
+            });
+            workers.add(th);
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : workers) {
+            th.join();
+        }
+        System.out.printf("%-14s %12.0f %8d%n", label, commits.get() / seconds, aborts.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 3;
+        System.out.printf("%d threads (1 in 4 writers), %d pages, %.0f s, %d CPUs%n",
+                threads, pages, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-14s %12s %8s%n", "locks", "commits/s", "aborts");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            LockManager manager = new LockManager();
+            run("global", new GlobalLocks(), threads, pages, seconds);
+            run("LockManager", new Locks() {
+                public void acquire(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException {
+                    manager.acquire(tid, pid, mode);
+                }
+
+                public void releaseAll(TransactionId tid) {
+                    manager.releaseAll(tid);
+                }
+            }, threads, pages, seconds);
+        }
+    }
+}
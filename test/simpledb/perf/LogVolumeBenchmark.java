@@ -0,0 +1,75 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Transactions each delete a tuple from a random page and insert a new one,
+ * then commit, with a checkpoint every so many transactions. Reports the log
+ * bytes written per transaction and per update record, next to what the
+ * old UPDATE records (a before and an after image of the page, with class
+ * names) would have taken for the same updates.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.LogVolumeBenchmark [transactions] [pages] [checkpoint every]
+ */
+public class LogVolumeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int checkpointEvery = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage - pages, 1 << 20, null, null);
+        BufferPool bp = Database.resetBufferPool(2 * pages);
+        LogFile log = Database.getLogFile();
+        Random r = new Random(1);
+
+        long bytes = 0;
+        long before = 0;
+        int records = log.getTotalRecords();
+        long start = System.nanoTime();
+        for (int i = 0; i < transactions; i++) {
+            if (i % checkpointEvery == 0) {
+                log.logCheckpoint();
+                before = log.getLength();
+            }
+            Transaction t = new Transaction();
+            t.start();
+            HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(pages));
+            HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.iterator();
+            if (it.hasNext()) {
+                bp.deleteTuple(t.getId(), it.next());
+            }
+            bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{r.nextInt(), r.nextInt()}));
+            t.commit();
+            if ((i + 1) % checkpointEvery == 0 || i + 1 == transactions) {
+                bytes += log.getLength() - before;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // BEGIN, COMMIT and the checkpoints' records; the rest are updates
+        int updates = log.getTotalRecords() - records - 2 * transactions
+                - 2 * ((transactions + checkpointEvery - 1) / checkpointEvery);
+        long oldRecord = 2 * (BufferPool.getPageSize() + HeapPage.class.getName().length()
+                + HeapPageId.class.getName().length() + 7 * 4) + 3 * 8;
+        System.out.printf("%d transactions, %d pages, checkpoint every %d, %.1f s%n",
+                transactions, pages, checkpointEvery, seconds);
+        System.out.printf("log bytes per transaction:   %10.1f%n", (double) bytes / transactions);
+        System.out.printf("log bytes per update:        %10.1f%n", (double) bytes / Math.max(1, updates));
+        System.out.printf("full-image bytes per update: %10d%n", oldRecord);
+        System.out.printf("transactions/s:              %10.0f%n", transactions / seconds);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log records as fast as it can: first one thread appending
+ * transactions of small page updates without waiting for them to be
+ * durable, then threads running transactions of a few page updates that
+ * each commit. Reports records appended per second, and commits per second.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.LogWriterBenchmark [seconds] [committers]
+ */
+public class LogWriterBenchmark {
+
+    static final int PAGES = 64;
+    static final int UPDATES_PER_TRANSACTION = 4;
+
+    /** Logs an update of one tuple of the page, which changes a few dozen bytes. */
+    static void update(LogFile log, TransactionId tid, HeapPage page, Random r) throws Exception {
+        synchronized (page) {
+            page.setBeforeImage();
+            Iterator<Tuple> it = page.iterator();
+            page.deleteTuple(it.next());
+            page.insertTuple(Utility.getHeapTuple(new int[]{r.nextInt(), r.nextInt()}));
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+    }
+
+    static void run(String label, List<HeapPage> pages, int threads, boolean commit, double seconds) throws Exception {
+        File f = File.createTempFile("logwriter", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong transactions = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random r = new Random(t);
+            workers.add(new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        for (int u = 0; u < UPDATES_PER_TRANSACTION; u++) {
+                            update(log, tid, pages.get(r.nextInt(pages.size())), r);
+                        }
+                        if (commit) {
+                            log.logCommit(tid);
+                        }
+                        transactions.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread th : workers) {
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : workers) {
+            th.join();
+        }
+        double s = (System.nanoTime() - start) / 1e9;
+        log.force();
+        System.out.printf("%-12s %8d %14.0f %12.0f%n", label, threads, log.getTotalRecords() / s,
+                commit ? transactions.get() / s : 0);
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+        int committers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage, 1 << 20, null, null);
+        List<HeapPage> pages = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            pages.add((HeapPage) table.readPage(new HeapPageId(table.getId(), i)));
+        }
+        Database.getLogFile();
+        System.out.printf("%d updates per transaction, %.0f s per run, %d CPUs%n",
+                UPDATES_PER_TRANSACTION, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %8s %14s %12s%n", "run", "threads", "records/s", "commits/s");
+        run("warm-up", pages, 1, false, seconds / 2);
+        run("append", pages, 1, false, seconds);
+        run("commit", pages, 1, true, seconds);
+        run("commit", pages, committers, true, seconds);
+    }
+}
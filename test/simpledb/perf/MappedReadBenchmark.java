@@ -0,0 +1,81 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares cold-cache scans of a table much larger than the buffer pool with
+ * the per-page file read path and with the memory-mapped path.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.MappedReadBenchmark [rows] [passes]
+ */
+public class MappedReadBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    static File buildTable(int rows) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        return f;
+    }
+
+    static long scan(HeapFile hf) throws Exception {
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += t.getField(0).hashCode();
+        }
+        it.close();
+        return sum;
+    }
+
+    static void run(String label, File data, boolean mapped, int passes) throws Exception {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(COLUMNS, data);
+        Database.getCatalog().setMemoryMapped(hf.getId(), mapped);
+        scan(hf); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            scan(hf);
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / passes;
+        long pages = data.length() / BufferPool.getPageSize();
+        System.out.printf("%-8s %10.1f %12.2f%n", label, ms, ms * 1000 / pages);
+        Database.getCatalog().setMemoryMapped(hf.getId(), false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        File data = buildTable(rows);
+        System.out.printf("%d rows, %d pages, pool of %d pages, %d passes%n",
+                rows, data.length() / BufferPool.getPageSize(), BufferPool.DEFAULT_PAGES, passes);
+        System.out.printf("%-8s %10s %12s%n", "mode", "ms/scan", "us/page");
+        run("read", data, false, passes);
+        run("mmap", data, true, passes);
+    }
+}
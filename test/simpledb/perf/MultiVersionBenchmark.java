@@ -0,0 +1,114 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reporting threads scan a whole table while writer threads each delete a
+ * tuple from a random page and insert a new one, then commit. Runs once with
+ * page locking, where a scan share-locks every page until it commits, and
+ * once in multi-version mode, where scans read a snapshot without locks.
+ * Reports scans and writer commits per second, and writer aborts.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.MultiVersionBenchmark [readers] [writers] [pages] [seconds]
+ */
+public class MultiVersionBenchmark {
+
+    static void run(String label, HeapFile table, boolean multiVersion, int readers, int writers, int pages,
+                    double seconds) throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * pages + 50);
+        bp.setMultiVersion(multiVersion);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong scans = new AtomicLong(), commits = new AtomicLong(), aborts = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    bp.beginSnapshot(tid);
+                    try {
+                        DbFileIterator it = table.iterator(tid);
+                        it.open();
+                        while (it.hasNext()) {
+                            it.next();
+                        }
+                        it.close();
+                        scans.incrementAndGet();
+                        bp.transactionComplete(tid, true);
+                    } catch (TransactionAbortedException e) {
+                        bp.transactionComplete(tid, false);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (int t = 0; t < writers; t++) {
+            final Random r = new Random(t);
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(pages));
+                        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                        Iterator<Tuple> it = page.iterator();
+                        if (it.hasNext()) {
+                            bp.deleteTuple(tid, it.next());
+                        }
+                        bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{r.nextInt(), r.nextInt()}));
+                        bp.transactionComplete(tid, true);
+                        commits.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        bp.transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread th : threads) {
+            th.start();
+        }
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread th : threads) {
+            th.join();
+        }
+        bp.setMultiVersion(false);
+        System.out.printf("%-14s %8.1f %12.0f %8d%n", label, scans.get() / seconds, commits.get() / seconds, aborts.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int pages = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage, 1 << 20, null, null);
+        System.out.printf("%d readers scanning %d pages, %d writers, %.0f s, %d CPUs%n",
+                readers, pages, writers, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-14s %8s %12s %8s%n", "mode", "scans/s", "commits/s", "aborts");
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            run("locking", table, false, readers, writers, pages, seconds);
+            run("multi-version", table, true, readers, writers, pages, seconds);
+        }
+    }
+}
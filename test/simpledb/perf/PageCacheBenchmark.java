@@ -0,0 +1,133 @@
+package simpledb.perf;
+
+import simpledb.storage.LRUCache;
+import simpledb.storage.SegmentedPageCache;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-threaded throughput benchmark comparing the old single-monitor
+ * {@link LRUCache} with {@link SegmentedPageCache}, plus a hit-ratio check of
+ * hot pages under a concurrent sequential scan.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.PageCacheBenchmark [seconds]
+ */
+public class PageCacheBenchmark {
+
+    private static final int CAPACITY = 1024;
+    private static final int KEYS = 4096;
+
+    interface Cache {
+        Integer get(Integer k);
+
+        void admit(Integer k);
+    }
+
+    static Cache lru() {
+        final LRUCache<Integer, Integer> c = new LRUCache<>(CAPACITY);
+        return new Cache() {
+            public Integer get(Integer k) {
+                return c.get(k);
+            }
+
+            public void admit(Integer k) {
+                c.put(k, k);
+            }
+        };
+    }
+
+    static Cache segmented() {
+        final SegmentedPageCache<Integer, Integer> c = new SegmentedPageCache<>(CAPACITY);
+        return new Cache() {
+            public Integer get(Integer k) {
+                return c.get(k);
+            }
+
+            // same protocol as BufferPool: the miss path is serialized, hits are not
+            public synchronized void admit(Integer k) {
+                while (c.size() >= CAPACITY) {
+                    c.evict(v -> true);
+                }
+                c.putIfAbsent(k, k);
+            }
+        };
+    }
+
+    /** Skewed key: 90% of accesses go to 10% of the keys. */
+    static int nextKey(Random r) {
+        return r.nextInt(10) < 9 ? r.nextInt(KEYS / 10) : r.nextInt(KEYS);
+    }
+
+    static double throughput(final Cache cache, int threads, long millis) throws InterruptedException {
+        final LongAdder ops = new LongAdder();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            ts[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                ready.countDown();
+                long n = 0;
+                while (!stop.get()) {
+                    Integer k = nextKey(r);
+                    if (cache.get(k) == null) {
+                        cache.admit(k);
+                    }
+                    n++;
+                }
+                ops.add(n);
+            });
+            ts[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread t : ts) {
+            t.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return ops.sum() / secs;
+    }
+
+    /** Hit ratio of a small hot set while one big scan streams through the cache. */
+    static double hotHitRatio(Cache cache) {
+        int hot = CAPACITY / 4;
+        for (int i = 0; i < hot; i++) {
+            cache.admit(i);
+            cache.get(i);
+        }
+        long hits = 0, lookups = 0;
+        Random r = new Random(1);
+        for (int scan = 1_000_000; scan < 1_000_000 + 50 * CAPACITY; scan++) {
+            if (cache.get(scan) == null) {
+                cache.admit(scan);
+            }
+            Integer k = r.nextInt(hot);
+            lookups++;
+            if (cache.get(k) != null) {
+                hits++;
+            } else {
+                cache.admit(k);
+            }
+        }
+        return (double) hits / lookups;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 2) * 1000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %15s %15s%n", "threads", "LRUCache ops/s", "Segmented ops/s");
+        for (int threads = 1; threads <= Math.max(8, cores); threads *= 2) {
+            double a = throughput(lru(), threads, millis);
+            double b = throughput(segmented(), threads, millis);
+            System.out.printf("%-8d %15.0f %15.0f%n", threads, a, b);
+        }
+        System.out.printf("hot-set hit ratio under scan: LRUCache %.3f, Segmented %.3f%n",
+                hotHitRatio(lru()), hotHitRatio(segmented()));
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bytes allocated and time per page flush for the ways a dirty HeapPage can
+ * be serialized:
+ * <ul>
+ * <li>streams: a ByteArrayOutputStream/DataOutputStream per page, every
+ *   field serialized and a fresh zero array for the padding (what
+ *   getPageData() used to do)</li>
+ * <li>getPageData(): a new page-sized array per flush</li>
+ * <li>into buffer: getPageData(ByteBuffer) into one reused buffer</li>
+ * <li>setBeforeImage: the copy-on-write before image taken at commit</li>
+ * </ul>
+ * Each page has one changed tuple, as after an update.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.PageFlushAllocationBenchmark [pages] [rounds]
+ */
+public class PageFlushAllocationBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    /** Bytes allocated by this thread, or -1 if the JVM does not report it. */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** The serialization getPageData() did before it wrote into buffers. */
+    static byte[] viaStreams(HeapPage page, int numSlots) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        int headerSize = (numSlots + 7) / 8;
+        dos.write(new byte[headerSize]);
+        Iterator<Tuple> it = page.iterator();
+        int tupleSize = page.iterator().next().getTupleDesc().getSize();
+        int written = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int j = 0; j < COLUMNS; j++) {
+                Field f = t.getField(j);
+                f.serialize(dos);
+            }
+            written++;
+        }
+        int zerolen = pageSize - (headerSize + tupleSize * written);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    interface Flush {
+        void run(HeapPage page) throws Exception;
+    }
+
+    static void measure(String label, HeapPage[] pages, int rounds, Flush flush) throws Exception {
+        for (HeapPage p : pages) {
+            flush.run(p); // warm up
+        }
+        long alloc = allocatedBytes();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (HeapPage p : pages) {
+                flush.run(p);
+            }
+        }
+        long n = (long) rounds * pages.length;
+        System.out.printf("%-15s %12.0f %14d%n", label, (System.nanoTime() - start) / (double) n,
+                (allocatedBytes() - alloc) / n);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int perPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        List<List<Integer>> tuples = new ArrayList<>();
+        Random r = new Random(1);
+        for (int i = 0; i < numPages * perPage; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (int j = 0; j < COLUMNS; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("flush", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+
+        HeapPage[] pages = new HeapPage[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            Tuple victim = pages[i].iterator().next();
+            pages[i].deleteTuple(victim);
+            pages[i].insertTuple(Utility.getHeapTuple(new int[]{1, 2, 3, 4}));
+        }
+
+        ByteBuffer reused = ByteBuffer.allocate(BufferPool.getPageSize());
+        System.out.printf("%d pages x %d rounds, %d tuples per page%n", numPages, rounds, perPage);
+        System.out.printf("%-15s %12s %14s%n", "mode", "ns/flush", "bytes/flush");
+        measure("streams", pages, rounds, p -> viaStreams(p, perPage));
+        measure("getPageData()", pages, rounds, HeapPage::getPageData);
+        measure("into buffer", pages, rounds, p -> {
+            reused.clear();
+            p.getPageData(reused);
+        });
+        measure("setBeforeImage", pages, rounds, HeapPage::setBeforeImage);
+        Database.reset();
+    }
+}
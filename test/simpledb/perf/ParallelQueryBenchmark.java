@@ -0,0 +1,88 @@
+package simpledb.perf;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.BatchPlanner;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelPlanner;
+import simpledb.storage.BufferPool;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Runs the queries of VectorizedQueryBenchmark over the QueryTest tables
+ * vectorized on the calling thread, then morsel-driven on 1, 2, 4, ... up
+ * to the given number of workers. Reports the best time of each, and the
+ * speedup over the calling thread; one worker shows what the exchange and
+ * the merging of partial states cost.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.perf.ParallelQueryBenchmark [max workers] [rounds]
+ */
+public class ParallelQueryBenchmark {
+
+    /**
+     * @param workers 0 to vectorize the plan on the calling thread
+     * @return the best milliseconds to plan and drain the query over the rounds after a warm-up
+     */
+    static double best(String sql, int workers, int rounds) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round <= rounds; round++) {
+            TransactionId tid = new TransactionId();
+            ZQuery q = (ZQuery) new ZqlParser(new ByteArrayInputStream(sql.getBytes())).readStatement();
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream())); // the parser prints the plan
+            long start = System.nanoTime();
+            OpIterator plan;
+            try {
+                plan = new Parser().handleQueryStatement(q, tid).getPhysicalPlan();
+                plan = workers == 0 ? BatchPlanner.vectorize(plan) : ParallelPlanner.parallelize(plan, workers);
+            } finally {
+                System.setOut(out);
+            }
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+            }
+            plan.close();
+            double ms = (System.nanoTime() - start) / 1e6;
+            Database.getBufferPool().transactionComplete(tid);
+            if (round > 0) {
+                best = Math.min(best, ms);
+            }
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Database.reset();
+        VectorizedQueryBenchmark.addTable("emp", 6, 100000);
+        VectorizedQueryBenchmark.addTable("dept", 3, 1000);
+        VectorizedQueryBenchmark.addTable("hobby", 6, 1000);
+        VectorizedQueryBenchmark.addTable("hobbies", 2, 200000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.out.printf("%d processors; ms (speedup over the calling thread)%n",
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-6s %16s", "query", "caller");
+        for (int w = 1; w <= maxWorkers; w *= 2) {
+            System.out.printf(" %16s", w + " workers");
+        }
+        System.out.println();
+        for (int i = 0; i < VectorizedQueryBenchmark.QUERIES.length; i++) {
+            String sql = VectorizedQueryBenchmark.QUERIES[i];
+            double serial = best(sql, 0, rounds);
+            System.out.printf("Q%-5d %8.0f (1.00x)", i + 1, serial);
+            for (int w = 1; w <= maxWorkers; w *= 2) {
+                double ms = best(sql, w, rounds);
+                System.out.printf(" %8.0f (%.2fx)", ms, serial / ms);
+            }
+            System.out.println();
+        }
+    }
+}
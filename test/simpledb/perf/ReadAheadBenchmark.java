@@ -0,0 +1,109 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReadAhead;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Full-scan throughput of a table larger than the buffer pool, with and
+ * without {@link ReadAhead}. Since the table sits in the OS page cache, the
+ * scan is also run against a file that adds a fixed latency to every page
+ * read, to stand in for a device that actually has to seek.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.ReadAheadBenchmark [rows] [latencyMicros]
+ */
+public class ReadAheadBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    /** A HeapFile whose page reads take at least latencyNanos. */
+    static class SlowHeapFile extends HeapFile {
+        private final long latencyNanos;
+
+        SlowHeapFile(File f, long latencyNanos) {
+            super(f, Utility.getTupleDesc(COLUMNS));
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    static File buildTable(int rows) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++) {
+                t.add(r.nextInt());
+            }
+            tuples.add(t);
+        }
+        File f = File.createTempFile("readahead", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        return f;
+    }
+
+    static long scan(HeapFile hf) throws Exception {
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    static double pagesPerSecond(File data, long latencyNanos, boolean readAhead, int passes) throws Exception {
+        Database.reset();
+        HeapFile hf = new SlowHeapFile(data, latencyNanos);
+        Database.getCatalog().addTable(hf, "t");
+        ReadAhead.setEnabled(readAhead);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan(hf); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            scan(hf);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return hf.numPages() * (double) passes / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long latency = (args.length > 1 ? Long.parseLong(args[1]) : 100) * 1000;
+        File data = buildTable(rows);
+        System.out.printf("%d rows, %d pages, pool of %d pages, %d cpus%n", rows,
+                data.length() / BufferPool.getPageSize(), BufferPool.DEFAULT_PAGES,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-22s %15s %15s%n", "added read latency", "no prefetch", "read-ahead");
+        for (long l : new long[]{0, latency}) {
+            double off = pagesPerSecond(data, l, false, 5);
+            double on = pagesPerSecond(data, l, true, 5);
+            System.out.printf("%-22s %11.0f p/s %11.0f p/s%n", (l / 1000) + " us", off, on);
+        }
+        ReadAhead.setEnabled(true);
+    }
+}
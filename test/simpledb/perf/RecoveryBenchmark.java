@@ -0,0 +1,91 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Builds a large log without checkpoints: transactions that each change a
+ * few random pages and commit, then some that write their pages early and
+ * never finish. Then crashes, and times recover() on a fresh buffer pool,
+ * that is, the time to open the database.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.perf.RecoveryBenchmark [transactions] [pages] [losers] [pages per transaction]
+ */
+public class RecoveryBenchmark {
+
+    /** Changes a tuple on each of the given pages, or on random ones if first is negative. */
+    static void change(BufferPool bp, TransactionId tid, HeapFile table, int pages, int first, int perTransaction,
+                       Random r) throws Exception {
+        for (int p = 0; p < perTransaction; p++) {
+            HeapPageId pid = new HeapPageId(table.getId(), first < 0 ? r.nextInt(pages) : (first + p) % pages);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.iterator();
+            if (it.hasNext()) {
+                page.deleteTuple(it.next());
+            }
+            page.insertTuple(Utility.getHeapTuple(new int[]{r.nextInt(), r.nextInt()}));
+            page.markDirty(true, tid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int losers = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int perTransaction = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage, 1 << 20, null, null);
+        BufferPool bp = Database.resetBufferPool(losers * perTransaction + BufferPool.DEFAULT_PAGES);
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+        Random r = new Random(1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            change(bp, tid, table, pages, -1, perTransaction, r);
+            bp.transactionComplete(tid, true);
+            log.logCommit(tid);
+        }
+        for (int i = 0; i < losers; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            change(bp, tid, table, pages, i * perTransaction, perTransaction, r);   // losers keep their locks
+        }
+        bp.flushAllPages();
+        System.out.printf("%d transactions and %d losers changing %d of %d pages each: %.1f s, %.1f MB of log%n",
+                transactions, losers, perTransaction, pages, (System.nanoTime() - start) / 1e9,
+                new File("log").length() / 1e6);
+
+        // crash: the pool and its locks are lost, the files and the log stay
+        File saved = new File("log.saved");
+        Files.copy(new File("log").toPath(), saved.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        for (int threads : new int[]{1, 4, 1, 4}) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            // recovery ends with a checkpoint that truncates the log: start each run from the crashed one
+            Files.copy(saved.toPath(), new File("log").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log = new LogFile(new File("log"));
+            log.setRecoveryThreads(threads);
+            long t0 = System.nanoTime();
+            log.recover();
+            System.out.printf("recover on %d threads: %8.1f ms%n", threads, (System.nanoTime() - t0) / 1e6);
+        }
+        saved.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.perf;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Runs the tables and join of QueryTest, plus an aggregate over the join, a
+ * grouped aggregate over emp and an unfiltered join of emp and hobbies, once with row operators and once with the
+ * plan vectorized by BatchPlanner. Reports the time to drain each query and
+ * the number of result rows, which must match.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.perf.VectorizedQueryBenchmark [rounds]
+ */
+public class VectorizedQueryBenchmark {
+
+    static final String[] QUERIES = {
+            "SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2"
+                    + " AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;",
+            "SELECT COUNT(emp.c0) FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2"
+                    + " AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;",
+            "SELECT emp.c1, SUM(emp.c2) FROM emp WHERE emp.c4 > 100 GROUP BY emp.c1;",
+            "SELECT COUNT(hobbies.c1) FROM emp,hobbies WHERE hobbies.c0 = emp.c2;",
+    };
+
+    static void addTable(String name, int columns, int rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 101));
+    }
+
+    /** @return the milliseconds to plan and drain the query; rows[0] gets the row count */
+    static double run(String sql, boolean vectorized, long[] rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        ZQuery q = (ZQuery) new ZqlParser(new ByteArrayInputStream(sql.getBytes())).readStatement();
+        Parser.setVectorized(vectorized);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream())); // the parser prints the plan
+        long start = System.nanoTime();
+        OpIterator plan;
+        try {
+            plan = new Parser().handleQueryStatement(q, tid).getPhysicalPlan();
+        } finally {
+            System.setOut(out);
+        }
+        plan.open();
+        long n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        double ms = (System.nanoTime() - start) / 1e6;
+        Database.getBufferPool().transactionComplete(tid);
+        rows[0] = n;
+        return ms;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Database.reset();
+        addTable("emp", 6, 100000);
+        addTable("dept", 3, 1000);
+        addTable("hobby", 6, 1000);
+        addTable("hobbies", 2, 200000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.out.printf("%-6s %10s %10s %8s %10s%n", "query", "rows ms", "batch ms", "speedup", "rows");
+        for (int i = 0; i < QUERIES.length; i++) {
+            double rowMs = Double.MAX_VALUE, batchMs = Double.MAX_VALUE;
+            long[] rowCount = new long[1], batchCount = new long[1];
+            for (int round = 0; round <= rounds; round++) { // round 0 warms up
+                double r = run(QUERIES[i], false, rowCount);
+                double b = run(QUERIES[i], true, batchCount);
+                if (round > 0) {
+                    rowMs = Math.min(rowMs, r);
+                    batchMs = Math.min(batchMs, b);
+                }
+            }
+            if (rowCount[0] != batchCount[0]) {
+                throw new IllegalStateException("query " + i + ": " + rowCount[0] + " rows, vectorized " + batchCount[0]);
+            }
+            System.out.printf("Q%-5d %10.0f %10.0f %7.2fx %10d%n", i + 1, rowMs, batchMs, rowMs / batchMs, rowCount[0]);
+        }
+    }
+}